@@ -0,0 +1,162 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import dominio.PlanoContas;
+import dominio.Rubrica;
+import negocios.AgenteAnaliseComparativa;
+import negocios.AgentePrevisao;
+import negocios.GerenciadorArquivos;
+import util.CategoriaMes;
+
+/**
+ *  Benchmark JMH de contenção do modo concorrente do plano de contas: de 1 a 64 threads fazem previsões
+ *  de valor fixo em folhas aleatórias, com e sem um leitor gerando a análise comparativa ao mesmo tempo.
+ *  Cada operação é o total fixo de previsões, dividido entre as threads. O plano sintético tem 10
+ *  subárvores raiz, então no máximo 10 escritores trabalham sem disputar a mesma trava.
+ *
+ *  Uso: java -cp bin:poi-3.17/*:poi-3.17/lib/*:poi-3.17/ooxml-lib/*:jmh-1.37/*:jmh-1.37/lib/* benchmarks.BenchmarkConcorrencia
+ *  [-p threads=1,8] [-p comLeitor=true] [-p contas=100000] [-p previsoes=1000000] [-p faixas=64]
+ *  [-rf json -rff resultadosBenchmark.json] [demais opções do JMH, ver -h]
+ *
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BenchmarkConcorrencia {
+
+	@Param({"100000"})
+	private int contas;
+
+	@Param({"1000000"})
+	private int previsoes;
+
+	@Param({"" + PlanoContas.FAIXAS_TRAVAS_PADRAO})
+	private int faixas;
+
+	@Param({"1", "2", "4", "8", "16", "32", "64"})
+	private int threads;
+
+	@Param({"false", "true"})
+	private boolean comLeitor;
+
+	private PlanoContas plano;
+	private int[] folhas;
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().parent(new CommandLineOptions(args))
+				.include(BenchmarkConcorrencia.class.getName() + "\\.").build()).run();
+	}
+
+	/**
+	 * Lê o plano sintético e ativa o modo concorrente.
+	 * @throws IOException
+	 */
+	@Setup(Level.Trial)
+	public void geraPlano() throws IOException {
+		File orcamento = Files.createTempFile("orcamento", ".csv").toFile();
+		try {
+			new GeradorPlanoSintetico(contas).geraOrcamentoInicial(orcamento.getPath());
+			plano = new PlanoContas();
+			plano.setRubricas(new GerenciadorArquivos().lerOrcamentoInicial(orcamento.getPath()));
+		}finally {
+			orcamento.delete();
+		}
+		plano.ativaModoConcorrente(faixas);
+		folhas = folhas(plano);
+	}
+
+	@Benchmark
+	public int previsaoConcorrente() throws Exception {
+		return executaPrevisoes(plano, folhas, threads, previsoes, comLeitor);
+	}
+
+	/**
+	 * @return Número de análises comparativas feitas pelo leitor durante as previsões
+	 */
+	private static int executaPrevisoes(PlanoContas plano, int[] folhas, int threads, int total, boolean comLeitor) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+		try {
+			AtomicBoolean escrevendo = new AtomicBoolean(true);
+			Future<Integer> leitor = null;
+			if(comLeitor) {
+				leitor = executor.submit(() -> {
+					AgenteAnaliseComparativa agente = new AgenteAnaliseComparativa(plano);
+					int analises = 0;
+					while(escrevendo.get()) {
+						agente.calculaAnaliseComparativa(CategoriaMes.JANEIRO, CategoriaMes.DEZEMBRO);
+						analises++;
+					}
+					return analises;
+				});
+			}
+
+			CountDownLatch largada = new CountDownLatch(1);
+			List<Future<?>> escritores = new ArrayList<Future<?>>();
+			for(int t = 0; t < threads; t++) {
+				final int previsoes = total / threads + (t < total % threads ? 1 : 0);
+				escritores.add(executor.submit(() -> {
+					AgentePrevisao agente = new AgentePrevisao(plano);
+					ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+					largada.await();
+					for(int i = 0; i < previsoes; i++) {
+						agente.previsaoValorFixo(folhas[aleatorio.nextInt(folhas.length)], aleatorio.nextInt(1000), 1 + aleatorio.nextInt(12));
+					}
+					return null;
+				}));
+			}
+			largada.countDown();
+			for(Future<?> escritor : escritores) {
+				escritor.get();
+			}
+			escrevendo.set(false);
+			return leitor != null ? leitor.get() : 0;
+		}finally {
+			executor.shutdown();
+		}
+	}
+
+	private static int[] folhas(PlanoContas plano) {
+		List<Integer> folhas = new ArrayList<Integer>();
+		for(Rubrica rubrica : plano.getRubricas().values()) {
+			if(rubrica.getSubRubricas().isEmpty()) {
+				folhas.add(rubrica.getCodigo());
+			}
+		}
+		int[] codigos = new int[folhas.size()];
+		for(int i = 0; i < codigos.length; i++) {
+			codigos[i] = folhas.get(i);
+		}
+		return codigos;
+	}
+}
@@ -0,0 +1,181 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import util.KernelMeses;
+
+/**
+ *  Compara as operações do KernelMeses, sobre colunas de double como no CuboPlanoContas, com os
+ *  mesmos cálculos feitos conta a conta sobre Double, como na análise comparativa: soma de um
+ *  intervalo de meses, soma ignorando os meses sem valor (com a contagem dos meses com valor),
+ *  variação e porcentagem. Cerca de 5% dos meses não têm valor (null nos arrays de Double; zero
+ *  nas colunas da soma simples e NaN nas da soma que ignora nulos), e cerca de 5% dos previstos
+ *  são zero.
+ *
+ *  Uso: java -cp bin:jmh-1.37/*:jmh-1.37/lib/* benchmarks.BenchmarkKernelMeses [-p contas=1000,100000]
+ *  [-rf json -rff resultadosBenchmark.json] [demais opções do JMH, ver -h]
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class BenchmarkKernelMeses {
+
+	@Param({"1000", "100000", "1000000"})
+	private int contas;
+
+	private Double[][] valoresPorConta;
+	private double[][] meses;
+	private double[][] mesesMascarados;
+	private double[] soma;
+	private int[] presentes;
+	private Double[] previstosBoxed;
+	private Double[] realizadosBoxed;
+	private double[] previstos;
+	private double[] realizados;
+	private double[] variacoes;
+	private double[] porcentagens;
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().parent(new CommandLineOptions(args))
+				.include(BenchmarkKernelMeses.class.getName() + "\\.").build()).run();
+	}
+
+	/**
+	 * Gera os valores mensais das contas nos dois layouts.
+	 */
+	@Setup(Level.Trial)
+	public void geraValores() {
+		Random aleatorio = new Random(contas);
+		valoresPorConta = new Double[contas][12];
+		meses = new double[12][contas];
+		mesesMascarados = new double[12][contas];
+		soma = new double[contas];
+		presentes = new int[contas];
+		for(int conta = 0; conta < contas; conta++) {
+			for(int mes = 0; mes < 12; mes++) {
+				Double valor = aleatorio.nextInt(20) == 0 ? null : Math.round(aleatorio.nextDouble() * 100000) / 100.0;
+				valoresPorConta[conta][mes] = valor;
+				//Meses sem valor ficam zerados nas colunas, como no CuboPlanoContas
+				meses[mes][conta] = valor == null ? 0.0 : valor;
+				mesesMascarados[mes][conta] = valor == null ? Double.NaN : valor;
+			}
+		}
+
+		previstosBoxed = new Double[contas];
+		realizadosBoxed = new Double[contas];
+		previstos = new double[contas];
+		realizados = new double[contas];
+		variacoes = new double[contas];
+		porcentagens = new double[contas];
+		for(int conta = 0; conta < contas; conta++) {
+			previstos[conta] = aleatorio.nextInt(20) == 0 ? 0.0 : Math.round(aleatorio.nextDouble() * 100000) / 100.0;
+			realizados[conta] = Math.round(aleatorio.nextDouble() * 100000) / 100.0;
+			previstosBoxed[conta] = previstos[conta];
+			realizadosBoxed[conta] = realizados[conta];
+		}
+		KernelMeses.variacao(previstos, realizados, variacoes, contas);
+	}
+
+	@Benchmark
+	public Double[] somaIntervaloBoxed() {
+		Double[] somas = new Double[contas];
+		for(int conta = 0; conta < contas; conta++) {
+			Double soma = 0.0;
+			for(int mes = 1; mes <= 12; mes++) {
+				if(valoresPorConta[conta][mes - 1] != null) {
+					soma += valoresPorConta[conta][mes - 1];
+				}
+			}
+			somas[conta] = soma;
+		}
+		return somas;
+	}
+
+	@Benchmark
+	public double[] somaIntervaloKernel() {
+		KernelMeses.somaIntervalo(meses, 1, 12, soma, contas);
+		return soma;
+	}
+
+	@Benchmark
+	public int[] somaIgnorandoNulosBoxed(Blackhole blackhole) {
+		Double[] somas = new Double[contas];
+		int[] comValor = new int[contas];
+		for(int conta = 0; conta < contas; conta++) {
+			Double soma = 0.0;
+			for(int mes = 1; mes <= 12; mes++) {
+				Double valor = valoresPorConta[conta][mes - 1];
+				if(valor != null) {
+					soma += valor;
+					comValor[conta]++;
+				}
+			}
+			somas[conta] = soma;
+		}
+		blackhole.consume(somas);
+		return comValor;
+	}
+
+	@Benchmark
+	public int[] somaIgnorandoNulosKernel() {
+		KernelMeses.somaIntervaloIgnorandoNulos(mesesMascarados, 1, 12, soma, presentes, contas);
+		return presentes;
+	}
+
+	@Benchmark
+	public Double[] variacaoBoxed() {
+		Double[] variacao = new Double[contas];
+		for(int conta = 0; conta < contas; conta++) {
+			variacao[conta] = previstosBoxed[conta] - realizadosBoxed[conta];
+		}
+		return variacao;
+	}
+
+	@Benchmark
+	public double[] variacaoKernel() {
+		KernelMeses.variacao(previstos, realizados, variacoes, contas);
+		return variacoes;
+	}
+
+	/**
+	 * Como AgenteAnaliseComparativa.calculaPorcentagem, uma conta por vez.
+	 */
+	@Benchmark
+	public Double[] porcentagemBoxed() {
+		Double[] porcentagem = new Double[contas];
+		for(int conta = 0; conta < contas; conta++) {
+			Double previsto = previstosBoxed[conta];
+			Double variacao = previsto - realizadosBoxed[conta];
+			porcentagem[conta] = previsto != 0.0 ? variacao * 100 / previsto : 0.0;
+		}
+		return porcentagem;
+	}
+
+	@Benchmark
+	public double[] porcentagemKernel() {
+		KernelMeses.porcentagem(previstos, variacoes, porcentagens, contas);
+		return porcentagens;
+	}
+}
@@ -0,0 +1,356 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import dominio.CuboPlanoContas;
+import dominio.HistoricoPlanoContas;
+import dominio.JournalPlanoContas;
+import dominio.PlanoContas;
+import dominio.ResultadoConsulta;
+import dominio.Rubrica;
+import dominio.SnapshotPlanoContas;
+import drivers.DriverCSV;
+import negocios.AgenteAnaliseComparativa;
+import negocios.AgentePrevisao;
+import negocios.GerenciadorArquivos;
+import negocios.LinhaAnaliseComparativa;
+import negocios.PrevisaoEstatistica;
+import negocios.RelatorioPrevisaoEstatistica;
+import util.CategoriaAgregacao;
+import util.CategoriaFormatoArquivo;
+import util.CategoriaMedida;
+import util.CategoriaMes;
+import util.CategoriaModeloPrevisao;
+import util.CategoriaRubrica;
+import util.MapaIntDouble;
+
+/**
+ *  Benchmarks JMH dos caminhos mais pesados do sistema: leitura do CSV, leitura do orçamento inicial e do
+ *  realizado mensal, snapshot binário, histórico de vários anos, previsões em lote, somatório das subrúbricas,
+ *  análise comparativa e consultas ao cubo colunar, para planos de contas sintéticos de vários tamanhos.
+ *
+ *  Os benchmarks são gerados pelo processador de anotações do JMH (jmh-1.37/jmh-generator-annprocess) ao
+ *  compilar, então ele precisa estar no classpath do javac. Cada tamanho roda em uma JVM separada.
+ *
+ *  Uso: java -cp bin:poi-3.17/*:poi-3.17/lib/*:poi-3.17/ooxml-lib/*:jmh-1.37/*:jmh-1.37/lib/* benchmarks.BenchmarkPlanoContas
+ *  [-p contas=1000,10000] [-rf json -rff resultadosBenchmark.json] [-jvmArgsAppend -Xmx8g] [demais opções do JMH, ver -h]
+ *
+ *  O resultado em JSON leva a versão da JVM, para que execuções de versões diferentes possam ser comparadas.
+ *  A análise comparativa completa grava o arquivo analiseComparativa no diretório atual, como no sistema.
+ *  Planos de 1M de contas precisam de um heap de alguns GB (-jvmArgsAppend -Xmx).
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BenchmarkPlanoContas {
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	private int contas;
+
+	private Path diretorio;
+	private String orcamento;
+	private String realizado;
+	private GerenciadorArquivos gerenciador;
+	private PlanoContas plano;
+	private Map<Integer, Rubrica> rubricas;
+	private AgentePrevisao agentePrevisao;
+	private AgenteAnaliseComparativa agenteAnalise;
+	private CuboPlanoContas cubo;
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().parent(new CommandLineOptions(args))
+				.include(BenchmarkPlanoContas.class.getName() + "\\.").build()).run();
+	}
+
+	/**
+	 * Gera os arquivos do plano sintético e o plano lido deles, com os realizados a 90% do ano passado.
+	 * @throws IOException
+	 */
+	@Setup(Level.Trial)
+	public void geraPlano() throws IOException {
+		diretorio = Files.createTempDirectory("benchmarkPlano");
+		orcamento = diretorio.resolve("orcamento" + contas + ".csv").toString();
+		realizado = diretorio.resolve("realizado" + contas + ".xlsx").toString();
+		GeradorPlanoSintetico gerador = new GeradorPlanoSintetico(contas);
+		gerador.geraOrcamentoInicial(orcamento);
+		gerador.geraRealizadoMensal(realizado);
+
+		gerenciador = new GerenciadorArquivos();
+		plano = new PlanoContas();
+		plano.setRubricas(gerenciador.lerOrcamentoInicial(orcamento));
+		for(Rubrica rubrica : plano.getRubricas().values()) {
+			for(int mes = 1; mes <= 12; mes++) {
+				rubrica.setValorRealizado(mes, rubrica.getvalorAnoPassado(mes) * 0.9);
+			}
+		}
+		rubricas = plano.getRubricas();
+		agentePrevisao = new AgentePrevisao(plano);
+		agenteAnalise = new AgenteAnaliseComparativa(plano);
+		agenteAnalise.setFormatoArquivo(contas + 1 > CategoriaFormatoArquivo.XLS.getMaxLinhas() ? CategoriaFormatoArquivo.XLSX : CategoriaFormatoArquivo.XLS);
+		cubo = CuboPlanoContas.de(plano);
+	}
+
+	@TearDown(Level.Trial)
+	public void removeArquivos() throws IOException {
+		apaga(diretorio);
+	}
+
+	/**
+	 * Plano com cada alteração registrada em um journal, só para os benchmarks que o recebem.
+	 */
+	@State(Scope.Benchmark)
+	public static class ComJournal {
+
+		private Path diretorio;
+		private JournalPlanoContas journal;
+
+		@Setup(Level.Trial)
+		public void abre(BenchmarkPlanoContas benchmark) throws IOException {
+			diretorio = Files.createTempDirectory("benchmarkJournal");
+			journal = JournalPlanoContas.abre(benchmark.plano, diretorio);
+		}
+
+		@TearDown(Level.Trial)
+		public void fecha() throws IOException {
+			journal.close();
+			apaga(diretorio);
+		}
+	}
+
+	/**
+	 * Snapshot binário do plano, gravado uma vez para o benchmark de carga.
+	 */
+	@State(Scope.Benchmark)
+	public static class ComSnapshot {
+
+		private Path arquivo;
+
+		@Setup(Level.Trial)
+		public void salva(BenchmarkPlanoContas benchmark) throws IOException {
+			arquivo = benchmark.diretorio.resolve("plano" + benchmark.contas + ".snapshot");
+			SnapshotPlanoContas.salva(benchmark.plano, arquivo);
+		}
+	}
+
+	/**
+	 * Dez anos de histórico com os realizados atuais, ligado ao plano para as previsões estatísticas.
+	 */
+	@State(Scope.Benchmark)
+	public static class ComHistorico {
+
+		private PlanoContas plano;
+		private Path diretorio;
+		private HistoricoPlanoContas historico;
+		private PrevisaoEstatistica holtWinters = new PrevisaoEstatistica(CategoriaModeloPrevisao.HOLT_WINTERS).historico(2020, 4);
+
+		@Setup(Level.Trial)
+		public void arquiva(BenchmarkPlanoContas benchmark) throws IOException {
+			plano = benchmark.plano;
+			diretorio = Files.createTempDirectory("benchmarkHistorico");
+			historico = HistoricoPlanoContas.abre(diretorio.resolve("plano.historico"));
+			for(int ano = 2010; ano < 2020; ano++) {
+				historico.arquivaAno(ano, plano);
+			}
+			plano.setHistorico(historico);
+		}
+
+		@TearDown(Level.Trial)
+		public void fecha() throws IOException {
+			plano.setHistorico(null);
+			historico.close();
+			apaga(diretorio);
+		}
+	}
+
+	@Benchmark
+	public int leituraCSV() throws FileNotFoundException {
+		DriverCSV driver = new DriverCSV(orcamento);
+		int campos = 0;
+		try {
+			while(driver.hasNext()) {
+				driver.proceed();
+				campos += driver.getFields().length;
+			}
+		}finally {
+			driver.close();
+		}
+		return campos;
+	}
+
+	@Benchmark
+	public LinkedHashMap<Integer, Rubrica> lerOrcamentoInicial() throws FileNotFoundException {
+		return gerenciador.lerOrcamentoInicial(orcamento);
+	}
+
+	@Benchmark
+	public LinkedHashMap<Integer, Rubrica> lerOrcamentoInicialParalelo() throws FileNotFoundException {
+		return gerenciador.lerOrcamentoInicialParalelo(orcamento);
+	}
+
+	@Benchmark
+	public LinkedHashMap<Integer, Double> lerRealizadoMensal() {
+		return gerenciador.lerRealizadoMensal(realizado);
+	}
+
+	@Benchmark
+	public MapaIntDouble lerRealizadoMensalStreaming() {
+		return gerenciador.lerRealizadoMensalStreaming(realizado);
+	}
+
+	@Benchmark
+	public Map<Integer, Rubrica> previsaoPorcentagem() {
+		for(int codigo : rubricas.keySet()) {
+			for(int mes = 1; mes <= 12; mes++) {
+				agentePrevisao.previsaoPorcentagem(codigo, 1.1, mes);
+			}
+		}
+		return rubricas;
+	}
+
+	@Benchmark
+	public Map<Integer, Rubrica> previsaoPorcentagemJournal(ComJournal journal) {
+		return previsaoPorcentagem();
+	}
+
+	@Benchmark
+	public double somaValoresSubrubricas() {
+		double soma = 0;
+		for(Rubrica rubrica : rubricas.values()) {
+			for(int mes = 1; mes <= 12; mes++) {
+				soma += rubrica.somaValoresPrevistosSubrubricas(mes) + rubrica.somaValoresRealizadosSubrubricas(mes);
+			}
+		}
+		return soma;
+	}
+
+	//Cada subárvore raiz (3.1, 3.2...) por faixa no índice das classificações
+	@Benchmark
+	public int getRubricasPorClassificacao() {
+		int encontradas = 0;
+		for(Rubrica rubrica : rubricas.values()) {
+			if(rubrica.getPai() == null) {
+				encontradas += plano.getRubricasPorClassificacao(rubrica.getClassificacao()).size();
+			}
+		}
+		return encontradas;
+	}
+
+	@Benchmark
+	public Path salvaSnapshot() throws IOException {
+		Path arquivo = diretorio.resolve("salvo" + contas + ".snapshot");
+		SnapshotPlanoContas.salva(plano, arquivo);
+		return arquivo;
+	}
+
+	@Benchmark
+	public PlanoContas carregaSnapshot(ComSnapshot snapshot) throws IOException {
+		return SnapshotPlanoContas.carrega(snapshot.arquivo);
+	}
+
+	@Benchmark
+	public Path arquivaAnosHistorico() throws IOException {
+		Path arquivo = diretorio.resolve("arquivado" + contas + ".historico");
+		Files.deleteIfExists(arquivo);
+		try(HistoricoPlanoContas historico = HistoricoPlanoContas.abre(arquivo)) {
+			for(int ano = 2010; ano < 2020; ano++) {
+				historico.arquivaAno(ano, plano);
+			}
+		}
+		return arquivo;
+	}
+
+	//Março dos últimos 5 anos de cada conta
+	@Benchmark
+	public double historicoMesmoMes(ComHistorico historico) throws IOException {
+		double soma = 0;
+		for(int codigo : rubricas.keySet()) {
+			for(double valor : historico.historico.mesmoMes(codigo, 3, 2019, 5)) {
+				soma += valor;
+			}
+		}
+		return soma;
+	}
+
+	//Holt-Winters de todas as folhas com 4 anos do histórico mais o ano passado
+	@Benchmark
+	public RelatorioPrevisaoEstatistica previsaoEstatistica(ComHistorico historico) {
+		return agentePrevisao.previsaoEstatistica(historico.holtWinters);
+	}
+
+	@Benchmark
+	public List<LinhaAnaliseComparativa> calculaAnaliseComparativa() {
+		return agenteAnalise.calculaAnaliseComparativa(CategoriaMes.JANEIRO, CategoriaMes.DEZEMBRO);
+	}
+
+	@Benchmark
+	public List<LinhaAnaliseComparativa> calculaAnaliseComparativaParalela() {
+		return agenteAnalise.calculaAnaliseComparativaParalela(CategoriaMes.JANEIRO, CategoriaMes.DEZEMBRO, ForkJoinPool.commonPool());
+	}
+
+	@Benchmark
+	public CuboPlanoContas geraCubo() {
+		return CuboPlanoContas.de(plano);
+	}
+
+	//Total realizado do 3º trimestre por grupo de profundidade 2
+	@Benchmark
+	public ResultadoConsulta cuboAgrupaPorAncestral() {
+		return cubo.consulta().meses(7, 9).apenasFolhas()
+				.agrupaPorAncestral(2).agrega(CategoriaAgregacao.SOMA, CategoriaMedida.REALIZADO).executa();
+	}
+
+	//Despesas mais de 10% acima do previsto
+	@Benchmark
+	public ResultadoConsulta cuboFiltroMedidas() {
+		return cubo.consulta().categoria(CategoriaRubrica.DESPESA)
+				.acimaDe(CategoriaMedida.REALIZADO, 1.10, CategoriaMedida.PREVISTO)
+				.agrega(CategoriaAgregacao.SOMA, CategoriaMedida.REALIZADO).executa();
+	}
+
+	@Benchmark
+	public AgenteAnaliseComparativa geraAnaliseComparativa() {
+		agenteAnalise.geraAnaliseComparativa(CategoriaMes.JANEIRO, CategoriaMes.DEZEMBRO);
+		return agenteAnalise;
+	}
+
+	private static void apaga(Path diretorio) throws IOException {
+		for(File arquivo : diretorio.toFile().listFiles()) {
+			if(arquivo.isDirectory()) {
+				apaga(arquivo.toPath());
+			}else {
+				Files.delete(arquivo.toPath());
+			}
+		}
+		Files.delete(diretorio);
+	}
+}
@@ -0,0 +1,255 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import dominio.PlanoContas;
+import dominio.Rubrica;
+import facade.GerenciadorFacade;
+import ui.ServidorHTTP;
+
+/**
+ *  Teste de carga do ServidorHTTP: milhares de clientes simultâneos, cada um em seu thread e com a
+ *  sua conexão persistente, fazem uma mistura de leituras de rúbricas, previsões de valor fixo e
+ *  análises comparativas de um mês sobre um plano sintético. Para cada tipo de requisição são
+ *  exibidas a vazão e as latências nos percentis 50, 90, 99 e 99,9, além da máxima. Respostas com
+ *  status diferente de 200 são contadas como erros.
+ *
+ *  Uso: java benchmarks.BenchmarkServidorHTTP [--contas=10000] [--clientes=2000] [--requisicoes=200000]
+ *  [--threads=256] [--aquecimento=20000] [--analises=1]
+ *
+ *  --analises é a porcentagem das requisições que são análises comparativas; das restantes, uma em
+ *  cada quatro é uma previsão.
+ *
+ */
+public class BenchmarkServidorHTTP {
+
+	private static final int LEITURA = 0;
+	private static final int PREVISAO = 1;
+	private static final int ANALISE = 2;
+	private static final String[] NOMES = {"GET /rubricas", "POST /previsoes", "GET /analise"};
+
+	public static void main(String[] args) throws Exception {
+		int contas = 10000;
+		int clientes = 2000;
+		int requisicoes = 200000;
+		int threads = ServidorHTTP.THREADS_PADRAO;
+		int aquecimento = 20000;
+		int analises = 1;
+
+		for(String arg : args) {
+			String[] opcao = arg.split("=", 2);
+			if(opcao.length != 2) {
+				throw new IllegalArgumentException("Opção inválida: " + arg);
+			}
+			switch(opcao[0]) {
+			case "--contas":
+				contas = Integer.parseInt(opcao[1]);
+				break;
+			case "--clientes":
+				clientes = Integer.parseInt(opcao[1]);
+				break;
+			case "--requisicoes":
+				requisicoes = Integer.parseInt(opcao[1]);
+				break;
+			case "--threads":
+				threads = Integer.parseInt(opcao[1]);
+				break;
+			case "--aquecimento":
+				aquecimento = Integer.parseInt(opcao[1]);
+				break;
+			case "--analises":
+				analises = Integer.parseInt(opcao[1]);
+				break;
+			default:
+				throw new IllegalArgumentException("Opção inválida: " + arg);
+			}
+		}
+
+		//Sem isso o HttpURLConnection só guarda 5 conexões ociosas e os clientes reconectariam a cada requisição
+		System.setProperty("http.maxConnections", String.valueOf(clientes));
+		//Como no main do ServidorHTTP: respostas sem esperar o ACK atrasado do cliente
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+
+		File orcamento = Files.createTempFile("orcamento", ".csv").toFile();
+		new GeradorPlanoSintetico(contas).geraOrcamentoInicial(orcamento.getPath());
+		GerenciadorFacade facade = new GerenciadorFacade(new PlanoContas());
+		facade.lerOrcamentoInicial(orcamento.getPath());
+		orcamento.delete();
+		facade.getPlanoContas().setDataCongelamento(LocalDate.now().plusYears(1));
+
+		ServidorHTTP servidor = new ServidorHTTP(facade, 0, threads);
+		servidor.inicia();
+		try {
+			String base = "http://localhost:" + servidor.getPorta();
+			int[] folhas = folhas(facade.getPlanoContas());
+
+			System.out.println("Aquecimento: " + aquecimento + " requisições");
+			executa(base, folhas, Math.min(clientes, 256), aquecimento, analises);
+
+			System.out.println(clientes + " clientes, " + requisicoes + " requisições, " + threads + " threads no servidor, "
+					+ contas + " contas");
+			long inicio = System.nanoTime();
+			Medicao medicao = executa(base, folhas, clientes, requisicoes, analises);
+			double segundos = (System.nanoTime() - inicio) / 1e9;
+
+			System.out.println(String.format("Vazão total: %.0f requisições/s em %.2f s, %d erros", requisicoes / segundos, segundos, medicao.erros));
+			System.out.println(String.format("%-16s %10s %10s %10s %10s %10s %10s", "requisição", "total", "p50 ms", "p90 ms", "p99 ms", "p99,9 ms", "máx ms"));
+			for(int tipo = 0; tipo < NOMES.length; tipo++) {
+				long[] latencias = medicao.latencias(tipo);
+				if(latencias.length == 0) {
+					continue;
+				}
+				Arrays.sort(latencias);
+				System.out.println(String.format("%-16s %10d %10.3f %10.3f %10.3f %10.3f %10.3f", NOMES[tipo], latencias.length,
+						percentil(latencias, 50), percentil(latencias, 90), percentil(latencias, 99), percentil(latencias, 99.9),
+						latencias[latencias.length - 1] / 1e6));
+			}
+		}finally {
+			servidor.para();
+		}
+	}
+
+	private static Medicao executa(String base, int[] folhas, int clientes, int requisicoes, int analises) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(clientes);
+		try {
+			CountDownLatch largada = new CountDownLatch(1);
+			List<Future<Medicao>> resultados = new ArrayList<Future<Medicao>>();
+			for(int c = 0; c < clientes; c++) {
+				final int quantidade = requisicoes / clientes + (c < requisicoes % clientes ? 1 : 0);
+				resultados.add(executor.submit(() -> {
+					Medicao medicao = new Medicao(quantidade);
+					ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+					largada.await();
+					for(int i = 0; i < quantidade; i++) {
+						int tipo = aleatorio.nextInt(100) < analises ? ANALISE : (aleatorio.nextInt(4) == 0 ? PREVISAO : LEITURA);
+						int codigo = folhas[aleatorio.nextInt(folhas.length)];
+						int mes = 1 + aleatorio.nextInt(12);
+						long inicio = System.nanoTime();
+						int status;
+						switch(tipo) {
+						case PREVISAO:
+							status = requisita(base + "/previsoes", "tipo=fixo&codigo=" + codigo + "&mes=" + mes + "&valor=" + aleatorio.nextInt(1000));
+							break;
+						case ANALISE:
+							status = requisita(base + "/analise?inicio=" + mes + "&fim=" + mes, null);
+							break;
+						default:
+							status = requisita(base + "/rubricas/" + codigo, null);
+						}
+						medicao.registra(tipo, System.nanoTime() - inicio, status == 200);
+					}
+					return medicao;
+				}));
+			}
+			largada.countDown();
+
+			Medicao total = new Medicao(requisicoes);
+			for(Future<Medicao> resultado : resultados) {
+				total.acrescenta(resultado.get());
+			}
+			return total;
+		}finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * @return Status da resposta, que é lida inteira para a conexão poder ser reaproveitada
+	 */
+	private static int requisita(String url, String corpo) {
+		try {
+			HttpURLConnection conexao = (HttpURLConnection) new URL(url).openConnection();
+			if(corpo != null) {
+				conexao.setRequestMethod("POST");
+				conexao.setDoOutput(true);
+				conexao.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+				try(OutputStream saida = conexao.getOutputStream()) {
+					saida.write(corpo.getBytes(StandardCharsets.UTF_8));
+				}
+			}
+			int status = conexao.getResponseCode();
+			try(InputStream entrada = status < 400 ? conexao.getInputStream() : conexao.getErrorStream()) {
+				byte[] buffer = new byte[8192];
+				while(entrada != null && entrada.read(buffer) >= 0) {
+					//Descarta a resposta
+				}
+			}
+			return status;
+		}catch(IOException e) {
+			return -1;
+		}
+	}
+
+	private static double percentil(long[] ordenadas, double percentil) {
+		int indice = (int) Math.ceil(percentil / 100 * ordenadas.length) - 1;
+		return ordenadas[Math.max(0, indice)] / 1e6;
+	}
+
+	private static int[] folhas(PlanoContas plano) {
+		List<Integer> folhas = new ArrayList<Integer>();
+		for(Rubrica rubrica : plano.getRubricas().values()) {
+			if(rubrica.getSubRubricas().isEmpty()) {
+				folhas.add(rubrica.getCodigo());
+			}
+		}
+		int[] codigos = new int[folhas.size()];
+		for(int i = 0; i < codigos.length; i++) {
+			codigos[i] = folhas.get(i);
+		}
+		return codigos;
+	}
+
+	/**
+	 *  Latências em nanossegundos de cada tipo de requisição, sem boxing.
+	 */
+	private static class Medicao {
+		private final long[][] latencias = new long[NOMES.length][];
+		private final int[] tamanhos = new int[NOMES.length];
+		private int erros;
+
+		Medicao(int capacidade) {
+			for(int tipo = 0; tipo < NOMES.length; tipo++) {
+				latencias[tipo] = new long[Math.max(16, capacidade / (tipo == LEITURA ? 1 : 4))];
+			}
+		}
+
+		void registra(int tipo, long latencia, boolean sucesso) {
+			if(tamanhos[tipo] == latencias[tipo].length) {
+				latencias[tipo] = Arrays.copyOf(latencias[tipo], latencias[tipo].length * 2);
+			}
+			latencias[tipo][tamanhos[tipo]++] = latencia;
+			if(!sucesso) {
+				erros++;
+			}
+		}
+
+		void acrescenta(Medicao outra) {
+			for(int tipo = 0; tipo < NOMES.length; tipo++) {
+				for(int i = 0; i < outra.tamanhos[tipo]; i++) {
+					registra(tipo, outra.latencias[tipo][i], true);
+				}
+			}
+			erros += outra.erros;
+		}
+
+		long[] latencias(int tipo) {
+			return Arrays.copyOf(latencias[tipo], tamanhos[tipo]);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+/**
+ *  Gera planos de contas sintéticos, no mesmo formato dos arquivos da empresa, para os benchmarks.
+ *  As rúbricas formam uma árvore com até 10 filhas por rúbrica, escrita em profundidade como no
+ *  orçamento inicial. Os valores são pseudoaleatórios com semente fixa, então o mesmo número de
+ *  contas gera sempre os mesmos arquivos.
+ *
+ */
+public class GeradorPlanoSintetico {
+
+	//Códigos acima dos das rubricas especiais, para não cair nas fórmulas
+	public static final int PRIMEIRO_CODIGO = 100000;
+	private static final int FILHAS_POR_RUBRICA = 10;
+	private static final long SEMENTE = 42;
+
+	private int numContas;
+	private int profundidade;
+
+	//Estado da geração
+	private Random aleatorio;
+	private int geradas;
+
+	public GeradorPlanoSintetico(int numContas) {
+		if(numContas <= 0) {
+			throw new IllegalArgumentException("Número de contas deve ser positivo: " + numContas);
+		}
+		this.numContas = numContas;
+		//Menor profundidade em que a árvore comporta todas as contas
+		int capacidade = FILHAS_POR_RUBRICA;
+		this.profundidade = 1;
+		while(capacidade < numContas) {
+			capacidade = capacidade * FILHAS_POR_RUBRICA + FILHAS_POR_RUBRICA;
+			profundidade++;
+		}
+	}
+
+	public int getNumContas() {
+		return numContas;
+	}
+
+	/**
+	 * Escreve o orçamento inicial (.csv) com as duas linhas de cabeçalho do arquivo original.
+	 * @param filename Arquivo a ser gerado
+	 * @throws IOException
+	 */
+	public void geraOrcamentoInicial(String filename) throws IOException {
+		aleatorio = new Random(SEMENTE);
+		geradas = 0;
+		try(Writer saida = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename), Charset.defaultCharset()), 1 << 16)) {
+			saida.write(",,,,,,,,,,,,,,,\n");
+			saida.write(",,,,,,,,,,,,,,,\n");
+			escreveSubarvore(saida, "3", 1);
+		}
+	}
+
+	private void escreveSubarvore(Writer saida, String classificacaoPai, int nivel) throws IOException {
+		for(int filha = 1; filha <= FILHAS_POR_RUBRICA && geradas < numContas; filha++) {
+			String classificacao = classificacaoPai + "." + filha;
+			int codigo = PRIMEIRO_CODIGO + geradas;
+			geradas++;
+
+			StringBuilder linha = new StringBuilder(128);
+			linha.append(classificacao).append(',').append(codigo).append(",Conta ").append(codigo);
+			long total = 0;
+			for(int mes = 1; mes <= 12; mes++) {
+				int valor = 1000 + aleatorio.nextInt(100000);
+				total += valor;
+				linha.append(',').append(valor);
+			}
+			linha.append(',').append(total).append('\n');
+			saida.write(linha.toString());
+
+			if(nivel < profundidade) {
+				escreveSubarvore(saida, classificacao, nivel + 1);
+			}
+		}
+	}
+
+	/**
+	 * Escreve um realizado mensal (.xlsx) com débito e crédito para todas as contas, no formato
+	 * do template de realizado mensal. A planilha é escrita em streaming.
+	 * @param filename Arquivo a ser gerado
+	 * @throws IOException
+	 */
+	public void geraRealizadoMensal(String filename) throws IOException {
+		Random aleatorio = new Random(SEMENTE + 1);
+		SXSSFWorkbook workbook = new SXSSFWorkbook(100);
+		try {
+			Sheet sheet = workbook.createSheet("FirstSheet");
+			sheet.createRow(0).createCell(0).setCellValue("Janeiro");
+			Row cabecalho = sheet.createRow(1);
+			cabecalho.createCell(0).setCellValue("Descrição da conta");
+			cabecalho.createCell(1).setCellValue("Código");
+			cabecalho.createCell(2).setCellValue("Débito");
+			cabecalho.createCell(3).setCellValue("Crédito");
+
+			for(int i = 0; i < numContas; i++) {
+				Row row = sheet.createRow(i + 2);
+				row.createCell(0).setCellValue("Conta " + (PRIMEIRO_CODIGO + i));
+				row.createCell(1).setCellValue(PRIMEIRO_CODIGO + i);
+				row.createCell(2).setCellValue(aleatorio.nextInt(50000));
+				row.createCell(3).setCellValue(aleatorio.nextInt(100000));
+			}
+
+			try(FileOutputStream saida = new FileOutputStream(filename)) {
+				workbook.write(saida);
+			}
+		}finally {
+			workbook.dispose();
+			workbook.close();
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package dominio;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import util.Metricas;
+
+/**
+ *  Avaliação das fórmulas das rubricas especiais em um intervalo de meses.
+ *  Os resultados de cada fórmula e os somatórios de cada rúbrica referenciada são
+ *  guardados, então cada um é calculado no máximo uma vez, não importa quantas
+ *  fórmulas o referenciem.
+ *
+ */
+public class AvaliacaoFormulas {
+
+	private static final Metricas.Contador AVALIACOES = Metricas.contador("formulas_avaliadas_total",
+			"Fórmulas de rubricas especiais calculadas (as já calculadas na mesma avaliação não contam)");
+
+	private TabelaFormulas tabela;
+	private Map<Integer, Rubrica> rubricas;
+	private int mesInicial;
+	private int mesFinal;
+
+	//Código -> {previsto, realizado}
+	private Map<Integer, double[]> resultadosFormulas;
+	private Map<Integer, double[]> somasRubricas;
+
+	AvaliacaoFormulas(TabelaFormulas tabela, Map<Integer, Rubrica> rubricas, int mesInicial, int mesFinal) {
+		this.tabela = tabela;
+		this.rubricas = rubricas;
+		this.mesInicial = mesInicial;
+		this.mesFinal = mesFinal;
+		//Mapas concorrentes para que a avaliação possa ser lida por várias threads
+		this.resultadosFormulas = new ConcurrentHashMap<>();
+		this.somasRubricas = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Avalia todas as fórmulas, em ordem topológica. Fórmulas que referenciam rúbricas
+	 * inexistentes no plano são ignoradas aqui e só geram erro se forem consultadas.
+	 */
+	public void avaliaTodas() {
+		for(FormulaRubrica formula : tabela.getOrdemAvaliacao()) {
+			if(!resultadosFormulas.containsKey(formula.getCodigo()) && referenciasExistem(formula)) {
+				getValores(formula.getCodigo());
+			}
+		}
+	}
+
+	/**
+	 * @param codigo Código da rubrica especial
+	 * @return Array {previsto, realizado} do resultado da fórmula no intervalo
+	 * @throws IllegalStateException se a fórmula referenciar uma rúbrica que não existe no plano
+	 */
+	public double[] getValores(int codigo) {
+		double[] resultado = resultadosFormulas.get(codigo);
+		if(resultado != null) {
+			return resultado;
+		}
+
+		FormulaRubrica formula = tabela.getFormula(codigo);
+		if(formula == null) {
+			throw new IllegalArgumentException("Rúbrica " + codigo + " não possui fórmula");
+		}
+
+		resultado = new double[2];
+		for(int termo = 0; termo < formula.getNumTermos(); termo++) {
+			int codigoTermo = formula.getCodigoTermo(termo);
+			//As fórmulas não têm ciclo, então a recursão sempre termina
+			double[] valorTermo = formula.isReferenciaFormula(termo) ? getValores(codigoTermo) : getSomaRubrica(codigoTermo, codigo);
+			resultado[0] += formula.getCoeficienteTermo(termo) * valorTermo[0];
+			resultado[1] += formula.getCoeficienteTermo(termo) * valorTermo[1];
+		}
+		resultadosFormulas.put(codigo, resultado);
+		AVALIACOES.incrementa();
+		return resultado;
+	}
+
+	public boolean isIntervalo(int mesInicial, int mesFinal) {
+		return this.mesInicial == mesInicial && this.mesFinal == mesFinal;
+	}
+
+	/**
+	 * Somatório das previsões e realizados das subrúbricas de uma rúbrica no intervalo.
+	 */
+	private double[] getSomaRubrica(int codigo, int codigoFormula) {
+		double[] soma = somasRubricas.get(codigo);
+		if(soma != null) {
+			return soma;
+		}
+		Rubrica rubrica = rubricas.get(codigo);
+		if(rubrica == null) {
+			throw new IllegalStateException("Rúbrica " + codigo + " usada na fórmula da rúbrica "
+					+ codigoFormula + " não existe no plano de contas");
+		}
+		soma = new double[] {rubrica.somaPrevistosSubrubricas(mesInicial, mesFinal), rubrica.somaRealizadosSubrubricas(mesInicial, mesFinal)};
+		somasRubricas.put(codigo, soma);
+		return soma;
+	}
+
+	private boolean referenciasExistem(FormulaRubrica formula) {
+		for(int termo = 0; termo < formula.getNumTermos(); termo++) {
+			int codigoTermo = formula.getCodigoTermo(termo);
+			if(formula.isReferenciaFormula(termo) ? !referenciasExistem(tabela.getFormula(codigoTermo)) : !rubricas.containsKey(codigoTermo)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
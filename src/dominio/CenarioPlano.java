@@ -0,0 +1,318 @@
+package dominio;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ *  Versão de um plano de contas para simulações ("e se a receita subir 5%?"). Cada cenário é
+ *  derivado de outro em O(1) e compartilha com ele todas as rúbricas que não alterou: alterar uma
+ *  rúbrica copia só ela e o caminho até a raiz, então a memória de um cenário é proporcional às
+ *  contas alteradas. O cenário base é uma cópia do plano de origem feita uma única vez, para que
+ *  alterações posteriores do plano não mudem os cenários.
+ *
+ *  getPlano() devolve um PlanoContas com as rúbricas do cenário, para ser usado pelos agentes
+ *  (ex: AgenteAnaliseComparativa) como qualquer plano; alterações de valores nele devem passar por
+ *  altera ou alteraFolhas, que copiam as rúbricas antes. As rúbricas compartilhadas continuam com
+ *  getPai() apontando para o pai do cenário de onde vieram; use os códigos para navegar para cima.
+ *  Um cenário não deve ser alterado por mais de um thread ao mesmo tempo.
+ *
+ */
+public final class CenarioPlano {
+
+	private final String nome;
+	private final CenarioPlano base;
+	//Rúbricas do cenário base, na ordem do plano de origem
+	private final Map<Integer, Rubrica> rubricasBase;
+	//Cópias ainda não compartilhadas, que podem ser alteradas no lugar; as camadas de baixo são
+	//compartilhadas com outros cenários e nunca mudam
+	private Camada camada;
+	private final PlanoContas plano;
+
+	private CenarioPlano(String nome, CenarioPlano base, Map<Integer, Rubrica> rubricasBase, Camada camada, PlanoContas origem) {
+		this.nome = nome;
+		this.base = base;
+		this.rubricasBase = rubricasBase;
+		this.camada = camada;
+		this.plano = new PlanoContas();
+		this.plano.setRubricas(new VistaRubricas());
+		this.plano.setRubricasEspeciais(origem.getRubricasEspeciais());
+		this.plano.setDataCongelamento(origem.getDataCongelamento());
+		this.plano.setHistorico(origem.getHistorico());
+	}
+
+	/**
+	 * Cria o cenário base com uma cópia do estado atual do plano, lido de forma consistente.
+	 * @param plano Plano de contas de origem
+	 * @return O cenário base, chamado "base"
+	 */
+	public static CenarioPlano base(PlanoContas plano) {
+		Map<Integer, Rubrica> copias = plano.leConsistente(() -> {
+			Map<Rubrica, Rubrica> copiaDe = new IdentityHashMap<Rubrica, Rubrica>(plano.getRubricas().size() * 2);
+			for(Rubrica rubrica : plano.getRubricas().values()) {
+				Rubrica copia = rubrica.copia(null);
+				copia.desligaSubRubricas();
+				copiaDe.put(rubrica, copia);
+			}
+			Map<Integer, Rubrica> rubricas = new LinkedHashMap<Integer, Rubrica>(Math.max(16, (int) (copiaDe.size() / 0.75f) + 1));
+			for(Rubrica rubrica : plano.getRubricas().values()) {
+				Rubrica copia = copiaDe.get(rubrica);
+				for(Rubrica subRubrica : rubrica.getSubRubricas()) {
+					copia.ligaSubRubrica(copiaDe.get(subRubrica));
+				}
+				rubricas.put(rubrica.getCodigo(), copia);
+			}
+			return rubricas;
+		});
+		return new CenarioPlano("base", null, copias, new Camada(null), plano);
+	}
+
+	/**
+	 * Deriva um novo cenário deste, em O(1). As cópias já feitas passam a ser compartilhadas: a
+	 * próxima alteração delas, aqui ou no derivado, copia de novo. Cada derivação acrescenta uma
+	 * camada às buscas dos dois cenários, então cadeias muito longas de derivações ficam mais lentas.
+	 * @param nome Nome do novo cenário
+	 * @return O cenário derivado, inicialmente igual a este
+	 */
+	public CenarioPlano deriva(String nome) {
+		Camada congelada = camada.copias.isEmpty() ? camada.anterior : camada;
+		camada = new Camada(congelada);
+		return new CenarioPlano(nome, this, rubricasBase, new Camada(congelada), plano);
+	}
+
+	/**
+	 * Altera uma rúbrica do cenário, copiando antes ela e seus ancestrais.
+	 * @param codigo Código da rúbrica
+	 * @param alteracao Alteração, ex: rubrica -> rubrica.setValorPrevisto(3, 1000)
+	 * @return False se o código não existe
+	 */
+	public boolean altera(int codigo, Consumer<Rubrica> alteracao) {
+		Rubrica rubrica = copiaParaEscrita(codigo);
+		if(rubrica == null) {
+			return false;
+		}
+		alteracao.accept(rubrica);
+		return true;
+	}
+
+	/**
+	 * Altera todas as folhas da subárvore da rúbrica, ex: corte de 20% em todo o marketing.
+	 * @param codigo Código da raiz da subárvore
+	 * @param alteracao Alteração aplicada a cada folha
+	 * @return False se o código não existe
+	 */
+	public boolean alteraFolhas(int codigo, Consumer<Rubrica> alteracao) {
+		Rubrica raiz = copiaParaEscrita(codigo);
+		if(raiz == null) {
+			return false;
+		}
+		alteraFolhas(raiz, alteracao);
+		return true;
+	}
+
+	private void alteraFolhas(Rubrica rubrica, Consumer<Rubrica> alteracao) {
+		if(rubrica.getSubRubricas().isEmpty()) {
+			alteracao.accept(rubrica);
+			return;
+		}
+		for(Rubrica subRubrica : new ArrayList<Rubrica>(rubrica.getSubRubricas())) {
+			alteraFolhas(copiaFilha(rubrica, subRubrica), alteracao);
+		}
+	}
+
+	/**
+	 * Copia as rúbricas e os seus ancestrais que ainda não são próprios deste cenário, para que
+	 * possam ser alterados diretamente, ex: antes de aplicar um lote de previsões em getPlano().
+	 * @param codigos Códigos das rúbricas
+	 * @param subarvore True para copiar também todas as subrúbricas
+	 */
+	public void copiaParaEscrita(int[] codigos, boolean subarvore) {
+		for(int codigo : codigos) {
+			Rubrica rubrica = copiaParaEscrita(codigo);
+			if(rubrica != null && subarvore) {
+				copiaSubarvore(rubrica);
+			}
+		}
+	}
+
+	private void copiaSubarvore(Rubrica rubrica) {
+		for(Rubrica subRubrica : new ArrayList<Rubrica>(rubrica.getSubRubricas())) {
+			copiaSubarvore(copiaFilha(rubrica, subRubrica));
+		}
+	}
+
+	/**
+	 * @return A cópia própria da rúbrica, com todo o caminho até a raiz copiado, ou null se o código não existe
+	 */
+	private Rubrica copiaParaEscrita(int codigo) {
+		Rubrica propria = camada.copias.get(codigo);
+		if(propria != null) {
+			return propria;
+		}
+		Rubrica rubrica = busca(codigo);
+		if(rubrica == null) {
+			return null;
+		}
+		if(rubrica.getPai() == null) {
+			return registra(rubrica.copia(null));
+		}
+		Rubrica pai = copiaParaEscrita(rubrica.getPai().getCodigo());
+		return copiaFilha(pai, busca(codigo));
+	}
+
+	/**
+	 * @param pai Cópia própria do pai
+	 * @param filha Subrúbrica atual do pai no cenário
+	 * @return A cópia própria da filha, ligada ao pai
+	 */
+	private Rubrica copiaFilha(Rubrica pai, Rubrica filha) {
+		Rubrica propria = camada.copias.get(filha.getCodigo());
+		if(propria != null) {
+			return propria;
+		}
+		Rubrica copia = filha.copia(pai);
+		pai.substituiSubRubrica(filha, copia);
+		return registra(copia);
+	}
+
+	private Rubrica registra(Rubrica copia) {
+		camada.copias.put(copia.getCodigo(), copia);
+		return copia;
+	}
+
+	/**
+	 * @return A rúbrica do cenário: a cópia da camada mais alta, ou a da base
+	 */
+	private Rubrica busca(int codigo) {
+		for(Camada atual = camada; atual != null; atual = atual.anterior) {
+			Rubrica rubrica = atual.copias.get(codigo);
+			if(rubrica != null) {
+				return rubrica;
+			}
+		}
+		return rubricasBase.get(codigo);
+	}
+
+	/**
+	 * Códigos das rúbricas que podem ter valores diferentes entre os dois cenários: as copiadas
+	 * em algum deles desde o ancestral comum mais recente.
+	 * @param outro Cenário derivado da mesma base
+	 * @return Os códigos, sem ordem definida
+	 * @throws IllegalArgumentException se os cenários não vêm da mesma base
+	 */
+	public Set<Integer> codigosAlteradosEntre(CenarioPlano outro) {
+		if(rubricasBase != outro.rubricasBase) {
+			throw new IllegalArgumentException("Cenários " + nome + " e " + outro.nome + " não vêm da mesma base");
+		}
+		Set<Camada> camadas = Collections.newSetFromMap(new IdentityHashMap<Camada, Boolean>());
+		for(Camada atual = camada; atual != null; atual = atual.anterior) {
+			camadas.add(atual);
+		}
+		Camada comum = outro.camada;
+		while(comum != null && !camadas.contains(comum)) {
+			comum = comum.anterior;
+		}
+		Set<Integer> codigos = new HashSet<Integer>();
+		for(Camada atual = camada; atual != comum; atual = atual.anterior) {
+			codigos.addAll(atual.copias.keySet());
+		}
+		for(Camada atual = outro.camada; atual != comum; atual = atual.anterior) {
+			codigos.addAll(atual.copias.keySet());
+		}
+		return codigos;
+	}
+
+	public String getNome() {
+		return nome;
+	}
+
+	/**
+	 * @return Cenário de onde este foi derivado, ou null no cenário base
+	 */
+	public CenarioPlano getBase() {
+		return base;
+	}
+
+	/**
+	 * @return Plano de contas com as rúbricas do cenário
+	 */
+	public PlanoContas getPlano() {
+		return plano;
+	}
+
+	/**
+	 * @return Número de rúbricas deste cenário que não são as da base, feitas por ele ou pelos cenários de onde veio
+	 */
+	public int getNumCopias() {
+		Set<Integer> codigos = new HashSet<Integer>();
+		for(Camada atual = camada; atual != null; atual = atual.anterior) {
+			codigos.addAll(atual.copias.keySet());
+		}
+		return codigos.size();
+	}
+
+	public String toString() {
+		return "Cenário " + nome + (base == null ? "" : " (de " + base.nome + ")") + ": " + getNumCopias() + " rúbricas copiadas";
+	}
+
+	/**
+	 * As rúbricas do cenário vistas como um mapa, na ordem do plano de origem, sem copiar o mapa.
+	 */
+	private final class VistaRubricas extends AbstractMap<Integer, Rubrica> {
+
+		public Rubrica get(Object codigo) {
+			return codigo instanceof Integer ? busca((Integer) codigo) : null;
+		}
+
+		public boolean containsKey(Object codigo) {
+			return rubricasBase.containsKey(codigo);
+		}
+
+		public int size() {
+			return rubricasBase.size();
+		}
+
+		public Set<Map.Entry<Integer, Rubrica>> entrySet() {
+			return new AbstractSet<Map.Entry<Integer, Rubrica>>() {
+				public Iterator<Map.Entry<Integer, Rubrica>> iterator() {
+					Iterator<Integer> codigos = rubricasBase.keySet().iterator();
+					return new Iterator<Map.Entry<Integer, Rubrica>>() {
+						public boolean hasNext() {
+							return codigos.hasNext();
+						}
+
+						public Map.Entry<Integer, Rubrica> next() {
+							int codigo = codigos.next();
+							return new AbstractMap.SimpleImmutableEntry<Integer, Rubrica>(codigo, busca(codigo));
+						}
+					};
+				}
+
+				public int size() {
+					return rubricasBase.size();
+				}
+			};
+		}
+	}
+
+	/**
+	 * Cópias de rúbricas feitas por um cenário, sobre as camadas dos cenários de onde ele veio.
+	 */
+	private static final class Camada {
+		final Map<Integer, Rubrica> copias = new HashMap<Integer, Rubrica>();
+		final Camada anterior;
+
+		Camada(Camada anterior) {
+			this.anterior = anterior;
+		}
+	}
+}
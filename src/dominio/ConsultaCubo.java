@@ -0,0 +1,451 @@
+package dominio;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import util.CategoriaAgregacao;
+import util.CategoriaMedida;
+import util.CategoriaRubrica;
+import util.KernelMeses;
+import util.Metricas;
+
+/**
+ *  Consulta de filtro, agrupamento e agregação sobre um CuboPlanoContas. Cada medida usada é somada
+ *  no intervalo de meses da consulta para todas as contas, em uma varredura por mês; os filtros
+ *  marcam as contas selecionadas em um vetor, também em varreduras simples, e só então as contas
+ *  selecionadas são agregadas por grupo. Variação e porcentagem são calculadas, como na análise
+ *  comparativa, sobre os totais de previsto e realizado do intervalo.
+ *
+ *  Ex: total realizado no 3º trimestre por grupo de profundidade 2:
+ *      cubo.consulta().meses(7, 9).apenasFolhas().agrupaPorAncestral(2).agrega(CategoriaAgregacao.SOMA, CategoriaMedida.REALIZADO).executa()
+ *  Despesas com realizado mais de 10% acima do previsto no ano:
+ *      cubo.consulta().categoria(CategoriaRubrica.DESPESA).acimaDe(CategoriaMedida.REALIZADO, 1.10, CategoriaMedida.PREVISTO)
+ *          .agrega(CategoriaAgregacao.SOMA, CategoriaMedida.REALIZADO).executa()
+ *  As 10 contas com a maior porcentagem de variação no 1º semestre:
+ *      cubo.consulta().meses(1, 6).agrega(CategoriaAgregacao.SOMA, CategoriaMedida.PORCENTAGEM).ordenaPor(0, true).limita(10).executa()
+ *
+ *  Sem agrupamento, cada conta selecionada é uma linha do resultado.
+ *
+ */
+public class ConsultaCubo {
+
+	private static final Metricas.Temporizador CONSULTAS = Metricas.temporizador("cubo_consulta_segundos",
+			"Tempo de execução de cada consulta ao cubo do plano de contas");
+
+	private static final int POR_CONTA = 0;
+	private static final int POR_ANCESTRAL = 1;
+	private static final int POR_CATEGORIA = 2;
+	private static final int POR_PROFUNDIDADE = 3;
+	private static final int TOTAL = 4;
+
+	private final CuboPlanoContas cubo;
+	private int mesInicial = 1;
+	private int mesFinal = 12;
+	private CategoriaRubrica categoria;
+	private int profundidade = -1;
+	private boolean apenasFolhas;
+	private List<Filtro> filtros = new ArrayList<Filtro>();
+	private int agrupamento = POR_CONTA;
+	private int profundidadeGrupo;
+	private List<CategoriaAgregacao> agregacoes = new ArrayList<CategoriaAgregacao>();
+	private List<CategoriaMedida> medidasAgregadas = new ArrayList<CategoriaMedida>();
+	private int colunaOrdem = -1;
+	private boolean decrescente;
+	private int limite = Integer.MAX_VALUE;
+
+	ConsultaCubo(CuboPlanoContas cubo) {
+		this.cubo = cubo;
+	}
+
+	/**
+	 * Restringe os totais ao intervalo de meses.
+	 */
+	public ConsultaCubo meses(int mesInicial, int mesFinal) {
+		this.mesInicial = mesInicial;
+		this.mesFinal = mesFinal;
+		return this;
+	}
+
+	public ConsultaCubo categoria(CategoriaRubrica categoria) {
+		this.categoria = categoria;
+		return this;
+	}
+
+	/**
+	 * Seleciona só as contas na profundidade, com as raízes na profundidade 0.
+	 */
+	public ConsultaCubo profundidade(int profundidade) {
+		this.profundidade = profundidade;
+		return this;
+	}
+
+	public ConsultaCubo apenasFolhas() {
+		this.apenasFolhas = true;
+		return this;
+	}
+
+	/**
+	 * Seleciona as contas cujo total da medida no intervalo é maior que o limite.
+	 */
+	public ConsultaCubo acimaDe(CategoriaMedida medida, double limite) {
+		filtros.add(new Filtro(medida, true, limite, null, 0));
+		return this;
+	}
+
+	/**
+	 * Seleciona as contas cujo total da medida no intervalo é menor que o limite.
+	 */
+	public ConsultaCubo abaixoDe(CategoriaMedida medida, double limite) {
+		filtros.add(new Filtro(medida, false, limite, null, 0));
+		return this;
+	}
+
+	/**
+	 * Seleciona as contas cujo total da medida é maior que o da outra medida multiplicado pelo fator.
+	 * Ex: acimaDe(REALIZADO, 1.10, PREVISTO) para realizado mais de 10% acima do previsto.
+	 */
+	public ConsultaCubo acimaDe(CategoriaMedida medida, double fator, CategoriaMedida outraMedida) {
+		filtros.add(new Filtro(medida, true, 0, outraMedida, fator));
+		return this;
+	}
+
+	/**
+	 * Seleciona as contas cujo total da medida é menor que o da outra medida multiplicado pelo fator.
+	 */
+	public ConsultaCubo abaixoDe(CategoriaMedida medida, double fator, CategoriaMedida outraMedida) {
+		filtros.add(new Filtro(medida, false, 0, outraMedida, fator));
+		return this;
+	}
+
+	/**
+	 * Agrupa as contas pelo ancestral na profundidade; contas mais rasas ficam de fora.
+	 */
+	public ConsultaCubo agrupaPorAncestral(int profundidade) {
+		this.agrupamento = POR_ANCESTRAL;
+		this.profundidadeGrupo = profundidade;
+		return this;
+	}
+
+	public ConsultaCubo agrupaPorCategoria() {
+		this.agrupamento = POR_CATEGORIA;
+		return this;
+	}
+
+	public ConsultaCubo agrupaPorProfundidade() {
+		this.agrupamento = POR_PROFUNDIDADE;
+		return this;
+	}
+
+	/**
+	 * Agrega todas as contas selecionadas em uma única linha.
+	 */
+	public ConsultaCubo agrupaTudo() {
+		this.agrupamento = TOTAL;
+		return this;
+	}
+
+	/**
+	 * Acrescenta uma coluna ao resultado. Sem nenhuma, o resultado tem só a contagem de contas.
+	 * @param agregacao Agregação dos totais das contas de cada grupo
+	 * @param medida Medida agregada; ignorada na CONTAGEM
+	 */
+	public ConsultaCubo agrega(CategoriaAgregacao agregacao, CategoriaMedida medida) {
+		agregacoes.add(agregacao);
+		medidasAgregadas.add(medida);
+		return this;
+	}
+
+	/**
+	 * Ordena as linhas do resultado pela coluna; sem ordenação ficam na ordem do plano de contas.
+	 * @param coluna Índice da agregação, na ordem em que foram acrescentadas
+	 */
+	public ConsultaCubo ordenaPor(int coluna, boolean decrescente) {
+		this.colunaOrdem = coluna;
+		this.decrescente = decrescente;
+		return this;
+	}
+
+	/**
+	 * Mantém só as primeiras linhas do resultado, depois da ordenação.
+	 */
+	public ConsultaCubo limita(int linhas) {
+		this.limite = linhas;
+		return this;
+	}
+
+	/**
+	 * @return O resultado da consulta
+	 * @throws IllegalArgumentException se o intervalo de meses, a profundidade ou a coluna de ordenação forem inválidos
+	 */
+	public ResultadoConsulta executa() {
+		if(mesInicial < 1 || mesFinal > 12 || mesInicial > mesFinal) {
+			throw new IllegalArgumentException("Intervalo de meses inválido " + mesInicial + "-" + mesFinal);
+		}
+		if(agrupamento == POR_ANCESTRAL && profundidadeGrupo < 0) {
+			throw new IllegalArgumentException("Profundidade de agrupamento inválida: " + profundidadeGrupo);
+		}
+		if(colunaOrdem >= agregacoes.size()) {
+			throw new IllegalArgumentException("Coluna de ordenação inexistente: " + colunaOrdem);
+		}
+
+		long inicio = CONSULTAS.inicia();
+		Map<CategoriaMedida, double[]> totais = new EnumMap<CategoriaMedida, double[]>(CategoriaMedida.class);
+		int[] selecionadas = seleciona(totais);
+		ResultadoConsulta resultado = agrupa(selecionadas, totais);
+		CONSULTAS.para(inicio);
+		return resultado;
+	}
+
+	private double[] total(CategoriaMedida medida, Map<CategoriaMedida, double[]> totais) {
+		double[] total = totais.get(medida);
+		if(total != null) {
+			return total;
+		}
+		int n = cubo.getNumContas();
+		switch(medida) {
+		case VARIACAO:
+			total = new double[n];
+			KernelMeses.variacao(total(CategoriaMedida.PREVISTO, totais), total(CategoriaMedida.REALIZADO, totais), total, n);
+			break;
+		case PORCENTAGEM:
+			total = new double[n];
+			KernelMeses.porcentagem(total(CategoriaMedida.PREVISTO, totais), total(CategoriaMedida.VARIACAO, totais), total, n);
+			break;
+		default:
+			total = cubo.totais(medida, mesInicial, mesFinal);
+		}
+		totais.put(medida, total);
+		return total;
+	}
+
+	/**
+	 * @return Índices das contas que passam em todos os filtros, em ordem crescente
+	 */
+	private int[] seleciona(Map<CategoriaMedida, double[]> totais) {
+		int n = cubo.getNumContas();
+		boolean[] selecao = new boolean[n];
+		Arrays.fill(selecao, true);
+
+		if(categoria != null) {
+			byte[] categorias = cubo.getCategorias();
+			byte ordinal = (byte) categoria.ordinal();
+			for(int i = 0; i < n; i++) {
+				selecao[i] &= categorias[i] == ordinal;
+			}
+		}
+		if(profundidade >= 0) {
+			int[] profundidades = cubo.getProfundidades();
+			for(int i = 0; i < n; i++) {
+				selecao[i] &= profundidades[i] == profundidade;
+			}
+		}
+		if(apenasFolhas) {
+			boolean[] folhas = cubo.getFolhas();
+			for(int i = 0; i < n; i++) {
+				selecao[i] &= folhas[i];
+			}
+		}
+		for(Filtro filtro : filtros) {
+			double[] valores = total(filtro.medida, totais);
+			if(filtro.outraMedida == null) {
+				double limite = filtro.limite;
+				if(filtro.acima) {
+					for(int i = 0; i < n; i++) {
+						selecao[i] &= valores[i] > limite;
+					}
+				}else {
+					for(int i = 0; i < n; i++) {
+						selecao[i] &= valores[i] < limite;
+					}
+				}
+			}else {
+				double[] outros = total(filtro.outraMedida, totais);
+				double fator = filtro.fator;
+				if(filtro.acima) {
+					for(int i = 0; i < n; i++) {
+						selecao[i] &= valores[i] > outros[i] * fator;
+					}
+				}else {
+					for(int i = 0; i < n; i++) {
+						selecao[i] &= valores[i] < outros[i] * fator;
+					}
+				}
+			}
+		}
+
+		int[] selecionadas = new int[n];
+		int quantidade = 0;
+		for(int i = 0; i < n; i++) {
+			selecionadas[quantidade] = i;
+			quantidade += selecao[i] ? 1 : 0;
+		}
+		return Arrays.copyOf(selecionadas, quantidade);
+	}
+
+	private ResultadoConsulta agrupa(int[] selecionadas, Map<CategoriaMedida, double[]> totais) {
+		//Chave de grupo de cada conta selecionada; -1 deixa a conta de fora
+		int[] chaves = new int[selecionadas.length];
+		int numChaves;
+		switch(agrupamento) {
+		case POR_ANCESTRAL:
+			int[] ancestrais = cubo.ancestrais(profundidadeGrupo);
+			for(int s = 0; s < selecionadas.length; s++) {
+				chaves[s] = ancestrais[selecionadas[s]];
+			}
+			numChaves = cubo.getNumContas();
+			break;
+		case POR_CATEGORIA:
+			byte[] categorias = cubo.getCategorias();
+			//A última chave é a das contas sem categoria
+			for(int s = 0; s < selecionadas.length; s++) {
+				byte c = categorias[selecionadas[s]];
+				chaves[s] = c < 0 ? CategoriaRubrica.values().length : c;
+			}
+			numChaves = CategoriaRubrica.values().length + 1;
+			break;
+		case POR_PROFUNDIDADE:
+			int[] profundidades = cubo.getProfundidades();
+			for(int s = 0; s < selecionadas.length; s++) {
+				chaves[s] = profundidades[selecionadas[s]];
+			}
+			numChaves = cubo.getProfundidadeMaxima() + 1;
+			break;
+		case TOTAL:
+			numChaves = 1;
+			break;
+		default:
+			System.arraycopy(selecionadas, 0, chaves, 0, selecionadas.length);
+			numChaves = cubo.getNumContas();
+		}
+
+		//Grupos numerados na ordem em que aparecem
+		int[] grupoDaChave = new int[numChaves];
+		Arrays.fill(grupoDaChave, -1);
+		int[] chaveDoGrupo = new int[Math.min(numChaves, Math.max(selecionadas.length, 1))];
+		int[] grupos = new int[selecionadas.length];
+		int numGrupos = 0;
+		for(int s = 0; s < selecionadas.length; s++) {
+			int chave = chaves[s];
+			if(chave < 0) {
+				grupos[s] = -1;
+				continue;
+			}
+			if(grupoDaChave[chave] < 0) {
+				grupoDaChave[chave] = numGrupos;
+				chaveDoGrupo[numGrupos++] = chave;
+			}
+			grupos[s] = grupoDaChave[chave];
+		}
+		if(agrupamento == TOTAL && numGrupos == 0) {
+			//O total existe mesmo sem nenhuma conta selecionada
+			chaveDoGrupo[numGrupos++] = 0;
+		}
+
+		long[] contagens = new long[numGrupos];
+		for(int s = 0; s < selecionadas.length; s++) {
+			if(grupos[s] >= 0) {
+				contagens[grupos[s]]++;
+			}
+		}
+
+		double[][] colunas = new double[agregacoes.size()][];
+		for(int a = 0; a < colunas.length; a++) {
+			colunas[a] = agrega(agregacoes.get(a), medidasAgregadas.get(a), selecionadas, grupos, contagens, totais);
+		}
+
+		String[] chavesTexto = new String[numGrupos];
+		String[] nomes = new String[numGrupos];
+		for(int g = 0; g < numGrupos; g++) {
+			int chave = chaveDoGrupo[g];
+			switch(agrupamento) {
+			case POR_CATEGORIA:
+				chavesTexto[g] = chave < CategoriaRubrica.values().length ? CategoriaRubrica.values()[chave].toString() : "SEM_CATEGORIA";
+				nomes[g] = chavesTexto[g];
+				break;
+			case POR_PROFUNDIDADE:
+				chavesTexto[g] = String.valueOf(chave);
+				nomes[g] = "Profundidade " + chave;
+				break;
+			case TOTAL:
+				chavesTexto[g] = "TOTAL";
+				nomes[g] = "Total";
+				break;
+			default:
+				chavesTexto[g] = String.valueOf(cubo.getCodigo(chave));
+				nomes[g] = cubo.getNome(chave);
+			}
+		}
+
+		String[] nomesColunas = new String[agregacoes.size()];
+		for(int a = 0; a < nomesColunas.length; a++) {
+			nomesColunas[a] = agregacoes.get(a) == CategoriaAgregacao.CONTAGEM ? agregacoes.get(a).toString()
+					: agregacoes.get(a) + "(" + medidasAgregadas.get(a) + ")";
+		}
+		return new ResultadoConsulta(nomesColunas, chavesTexto, nomes, contagens, colunas, colunaOrdem, decrescente, limite);
+	}
+
+	private double[] agrega(CategoriaAgregacao agregacao, CategoriaMedida medida, int[] selecionadas, int[] grupos,
+			long[] contagens, Map<CategoriaMedida, double[]> totais) {
+		double[] resultado = new double[contagens.length];
+		if(agregacao == CategoriaAgregacao.CONTAGEM) {
+			for(int g = 0; g < resultado.length; g++) {
+				resultado[g] = contagens[g];
+			}
+			return resultado;
+		}
+
+		double[] valores = total(medida, totais);
+		if(agregacao == CategoriaAgregacao.MINIMO || agregacao == CategoriaAgregacao.MAXIMO) {
+			boolean minimo = agregacao == CategoriaAgregacao.MINIMO;
+			Arrays.fill(resultado, minimo ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY);
+			for(int s = 0; s < selecionadas.length; s++) {
+				int g = grupos[s];
+				if(g >= 0) {
+					double valor = valores[selecionadas[s]];
+					resultado[g] = minimo ? Math.min(resultado[g], valor) : Math.max(resultado[g], valor);
+				}
+			}
+			for(int g = 0; g < resultado.length; g++) {
+				if(contagens[g] == 0) {
+					resultado[g] = Double.NaN;
+				}
+			}
+			return resultado;
+		}
+
+		for(int s = 0; s < selecionadas.length; s++) {
+			int g = grupos[s];
+			if(g >= 0) {
+				resultado[g] += valores[selecionadas[s]];
+			}
+		}
+		if(agregacao == CategoriaAgregacao.MEDIA) {
+			for(int g = 0; g < resultado.length; g++) {
+				resultado[g] = contagens[g] == 0 ? Double.NaN : resultado[g] / contagens[g];
+			}
+		}
+		return resultado;
+	}
+
+	/**
+	 *  Filtro sobre o total de uma medida: comparado a um limite fixo ou a outra medida vezes um fator.
+	 */
+	private static class Filtro {
+		private final CategoriaMedida medida;
+		private final boolean acima;
+		private final double limite;
+		private final CategoriaMedida outraMedida;
+		private final double fator;
+
+		Filtro(CategoriaMedida medida, boolean acima, double limite, CategoriaMedida outraMedida, double fator) {
+			this.medida = medida;
+			this.acima = acima;
+			this.limite = limite;
+			this.outraMedida = outraMedida;
+			this.fator = fator;
+		}
+	}
+}
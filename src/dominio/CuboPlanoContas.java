@@ -0,0 +1,248 @@
+package dominio;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import util.CategoriaMedida;
+import util.CategoriaRubrica;
+import util.KernelMeses;
+
+/**
+ *  Cópia colunar e imutável do plano de contas para consultas analíticas (ConsultaCubo): conta ×
+ *  mês × medida em arrays primitivos, mais as colunas de dimensão profundidade, pai, categoria e
+ *  folha. Os valores ficam em um array contíguo por medida e mês, com uma posição por conta
+ *  (valores[medida][mes - 1][conta]), então somar um intervalo de meses para todas as contas é
+ *  uma varredura sequencial de cada mês, sem objetos.
+ *
+ *  Previsto e realizado são os consolidados da subárvore de cada rúbrica, como na análise
+ *  comparativa; o ano passado é o valor da própria rúbrica, NaN nos meses sem valor. Nos totais,
+ *  meses sem valor contam como zero. Variação e porcentagem são derivadas do previsto e do realizado.
+ *  Para totais por grupo sem contar a mesma conta duas vezes, agregue só as folhas ou só uma
+ *  profundidade. O cubo não acompanha as alterações do plano: gere outro para ver os novos valores.
+ *
+ */
+public final class CuboPlanoContas {
+
+	private static final CategoriaRubrica[] CATEGORIAS = CategoriaRubrica.values();
+	//Só as medidas não derivadas têm valores guardados; em CategoriaMedida elas vêm antes das derivadas
+	private static final int MEDIDAS_GUARDADAS = CategoriaMedida.VARIACAO.ordinal();
+
+	private final int numContas;
+	private final int[] codigos;
+	private final String[] nomes;
+	private final int[] profundidades;
+	//Índice do pai no cubo, -1 nas raízes
+	private final int[] pais;
+	//Ordinal de CategoriaRubrica, -1 se a rúbrica não tem categoria
+	private final byte[] categorias;
+	private final boolean[] folhas;
+	//valores[medida][mes - 1][conta]
+	private final double[][][] valores;
+	//Contas em ordem crescente de profundidade: os pais sempre antes dos filhos
+	private final int[] ordemProfundidade;
+	private final int profundidadeMaxima;
+	private final Map<Integer, Integer> indices;
+
+	/**
+	 * Gera o cubo com todas as rúbricas lidas em um mesmo estado do plano.
+	 * @param plano Plano de contas
+	 * @return O cubo, na ordem das rúbricas do plano
+	 */
+	public static CuboPlanoContas de(PlanoContas plano) {
+		return plano.leConsistente(() -> new CuboPlanoContas(plano.getRubricas()));
+	}
+
+	private CuboPlanoContas(Map<Integer, Rubrica> rubricas) {
+		numContas = rubricas.size();
+		codigos = new int[numContas];
+		nomes = new String[numContas];
+		profundidades = new int[numContas];
+		pais = new int[numContas];
+		categorias = new byte[numContas];
+		folhas = new boolean[numContas];
+		valores = new double[MEDIDAS_GUARDADAS][12][numContas];
+		indices = new HashMap<Integer, Integer>(numContas * 2);
+
+		Rubrica[] contas = rubricas.values().toArray(new Rubrica[numContas]);
+		for(int i = 0; i < numContas; i++) {
+			indices.put(contas[i].getCodigo(), i);
+		}
+
+		double[][] previstos = valores[CategoriaMedida.PREVISTO.ordinal()];
+		double[][] realizados = valores[CategoriaMedida.REALIZADO.ordinal()];
+		double[][] anoPassado = valores[CategoriaMedida.ANO_PASSADO.ordinal()];
+		for(int i = 0; i < numContas; i++) {
+			Rubrica rubrica = contas[i];
+			codigos[i] = rubrica.getCodigo();
+			nomes[i] = rubrica.getNome();
+			Integer pai = rubrica.getPai() == null ? null : indices.get(rubrica.getPai().getCodigo());
+			pais[i] = pai == null ? -1 : pai;
+			categorias[i] = (byte) (rubrica.getCategoria() == null ? -1 : rubrica.getCategoria().ordinal());
+			folhas[i] = rubrica.getSubRubricas().isEmpty();
+			for(int mes = 1; mes <= 12; mes++) {
+				previstos[mes - 1][i] = rubrica.somaPrevistosSubrubricas(mes);
+				realizados[mes - 1][i] = rubrica.somaRealizadosSubrubricas(mes);
+				anoPassado[mes - 1][i] = rubrica.temValorAnoPassado(mes) ? rubrica.getValorAnoPassadoOuZero(mes) : Double.NaN;
+			}
+		}
+
+		profundidadeMaxima = calculaProfundidades();
+		ordemProfundidade = ordenaPorProfundidade();
+	}
+
+	/**
+	 * Calcula a profundidade de cada conta (raízes com profundidade 0) subindo até um ancestral
+	 * já calculado, então cada conta é visitada uma única vez.
+	 * @return A maior profundidade
+	 */
+	private int calculaProfundidades() {
+		Arrays.fill(profundidades, -1);
+		int[] caminho = new int[16];
+		int maxima = 0;
+		for(int i = 0; i < numContas; i++) {
+			int tamanho = 0;
+			int conta = i;
+			while(conta >= 0 && profundidades[conta] < 0) {
+				if(tamanho == caminho.length) {
+					caminho = Arrays.copyOf(caminho, tamanho * 2);
+				}
+				caminho[tamanho++] = conta;
+				conta = pais[conta];
+			}
+			int profundidade = conta < 0 ? -1 : profundidades[conta];
+			while(tamanho > 0) {
+				profundidades[caminho[--tamanho]] = ++profundidade;
+			}
+			maxima = Math.max(maxima, profundidades[i]);
+		}
+		return maxima;
+	}
+
+	private int[] ordenaPorProfundidade() {
+		int[] inicio = new int[profundidadeMaxima + 2];
+		for(int i = 0; i < numContas; i++) {
+			inicio[profundidades[i] + 1]++;
+		}
+		for(int p = 1; p < inicio.length; p++) {
+			inicio[p] += inicio[p - 1];
+		}
+		int[] ordem = new int[numContas];
+		for(int i = 0; i < numContas; i++) {
+			ordem[inicio[profundidades[i]]++] = i;
+		}
+		return ordem;
+	}
+
+	/**
+	 * @return Uma nova consulta a este cubo, com todos os meses e todas as contas
+	 */
+	public ConsultaCubo consulta() {
+		return new ConsultaCubo(this);
+	}
+
+	public int getNumContas() {
+		return numContas;
+	}
+
+	public int getProfundidadeMaxima() {
+		return profundidadeMaxima;
+	}
+
+	/**
+	 * @return Índice da rúbrica no cubo, ou -1 se o código não existe
+	 */
+	public int getIndice(int codigo) {
+		Integer indice = indices.get(codigo);
+		return indice == null ? -1 : indice;
+	}
+
+	public int getCodigo(int conta) {
+		return codigos[conta];
+	}
+
+	public String getNome(int conta) {
+		return nomes[conta];
+	}
+
+	public int getProfundidade(int conta) {
+		return profundidades[conta];
+	}
+
+	/**
+	 * @return Índice do pai no cubo, -1 nas raízes
+	 */
+	public int getPai(int conta) {
+		return pais[conta];
+	}
+
+	/**
+	 * @return Categoria da rúbrica, ou null se ela não tem categoria
+	 */
+	public CategoriaRubrica getCategoria(int conta) {
+		return categorias[conta] < 0 ? null : CATEGORIAS[categorias[conta]];
+	}
+
+	public boolean isFolha(int conta) {
+		return folhas[conta];
+	}
+
+	/**
+	 * @return Valor da medida da conta no mês; NaN se é o ano passado e o mês não tem valor
+	 */
+	public double getValor(CategoriaMedida medida, int mes, int conta) {
+		if(!medida.isDerivada()) {
+			return valores[medida.ordinal()][mes - 1][conta];
+		}
+		double previsto = valores[CategoriaMedida.PREVISTO.ordinal()][mes - 1][conta];
+		double variacao = previsto - valores[CategoriaMedida.REALIZADO.ordinal()][mes - 1][conta];
+		if(medida == CategoriaMedida.VARIACAO) {
+			return variacao;
+		}
+		return previsto != 0.0 ? variacao * 100 / previsto : 0.0;
+	}
+
+	/**
+	 * Soma a medida de cada conta no intervalo de meses, com os meses sem valor contando como zero.
+	 * @param medida Medida não derivada
+	 * @return total[conta]
+	 */
+	double[] totais(CategoriaMedida medida, int mesInicial, int mesFinal) {
+		if(medida.isDerivada()) {
+			throw new IllegalArgumentException("Medida derivada não tem valores no cubo: " + medida);
+		}
+		double[] total = new double[numContas];
+		if(medida == CategoriaMedida.ANO_PASSADO) {
+			KernelMeses.somaIntervaloIgnorandoNulos(valores[medida.ordinal()], mesInicial, mesFinal, total, null, numContas);
+		}else {
+			KernelMeses.somaIntervalo(valores[medida.ordinal()], mesInicial, mesFinal, total, numContas);
+		}
+		return total;
+	}
+
+	/**
+	 * @return Para cada conta, o índice do seu ancestral na profundidade (ela mesma, se estiver
+	 * nela), ou -1 se a conta é mais rasa
+	 */
+	int[] ancestrais(int profundidade) {
+		int[] ancestral = new int[numContas];
+		//Os pais vêm antes dos filhos em ordemProfundidade
+		for(int conta : ordemProfundidade) {
+			int p = profundidades[conta];
+			ancestral[conta] = p < profundidade ? -1 : p == profundidade ? conta : ancestral[pais[conta]];
+		}
+		return ancestral;
+	}
+
+	int[] getProfundidades() {
+		return profundidades;
+	}
+
+	byte[] getCategorias() {
+		return categorias;
+	}
+
+	boolean[] getFolhas() {
+		return folhas;
+	}
+}
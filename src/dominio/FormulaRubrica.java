@@ -0,0 +1,214 @@
+package dominio;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *  Fórmula de uma rubrica especial já compilada em uma combinação linear de termos.
+ *  Sintaxe aceita:
+ *  - um número (ex: 187) é o somatório das subrúbricas da rúbrica com esse código;
+ *  - um número entre colchetes (ex: [12]) é o resultado da fórmula da rubrica especial 12;
+ *  - os operadores + e -, inclusive unários e misturados, e parênteses.
+ *  Ex: "12 - 914 - 205", "- 187", "[11] - (197 + 205)"
+ *
+ */
+public class FormulaRubrica {
+
+	private int codigo;
+	private String expressao;
+	private int[] codigos;
+	private double[] coeficientes;
+	private boolean[] referenciaFormula;
+
+	private FormulaRubrica(int codigo, String expressao, List<Termo> termos) {
+		this.codigo = codigo;
+		this.expressao = expressao;
+		this.codigos = new int[termos.size()];
+		this.coeficientes = new double[termos.size()];
+		this.referenciaFormula = new boolean[termos.size()];
+		for(int i = 0; i < termos.size(); i++) {
+			this.codigos[i] = termos.get(i).codigo;
+			this.coeficientes[i] = termos.get(i).coeficiente;
+			this.referenciaFormula[i] = termos.get(i).referenciaFormula;
+		}
+	}
+
+	/**
+	 * Compila a fórmula de uma rubrica especial.
+	 * @param codigo Código da rubrica especial
+	 * @param expressao Fórmula, ex: "103 - 2396"
+	 * @return Fórmula compilada
+	 * @throws IllegalArgumentException se a fórmula não for válida
+	 */
+	public static FormulaRubrica compila(int codigo, String expressao) {
+		Compilador compilador = new Compilador(codigo, expressao);
+		List<Termo> termos = new ArrayList<>();
+		compilador.expressao(1.0, termos);
+		if(compilador.posicao < expressao.length()) {
+			throw compilador.erro("caractere inesperado '" + expressao.charAt(compilador.posicao) + "'");
+		}
+		return new FormulaRubrica(codigo, expressao, termos);
+	}
+
+	public int getCodigo() {
+		return codigo;
+	}
+
+	public String getExpressao() {
+		return expressao;
+	}
+
+	public int getNumTermos() {
+		return codigos.length;
+	}
+
+	/**
+	 * @param termo Índice do termo
+	 * @return Código da rúbrica do termo
+	 */
+	public int getCodigoTermo(int termo) {
+		return codigos[termo];
+	}
+
+	/**
+	 * @param termo Índice do termo
+	 * @return Coeficiente do termo (1 para soma, -1 para subtração)
+	 */
+	public double getCoeficienteTermo(int termo) {
+		return coeficientes[termo];
+	}
+
+	/**
+	 * @param termo Índice do termo
+	 * @return True se o termo é o resultado da fórmula de outra rubrica especial,
+	 * falso se é o somatório das subrúbricas da rúbrica
+	 */
+	public boolean isReferenciaFormula(int termo) {
+		return referenciaFormula[termo];
+	}
+
+	public String toString() {
+		return codigo + " = " + expressao;
+	}
+
+	private static class Termo {
+		private int codigo;
+		private double coeficiente;
+		private boolean referenciaFormula;
+	}
+
+	/**
+	 * Analisador descendente recursivo da fórmula.
+	 */
+	private static class Compilador {
+
+		private int codigoRubrica;
+		private String expressao;
+		private int posicao;
+
+		Compilador(int codigoRubrica, String expressao) {
+			this.codigoRubrica = codigoRubrica;
+			this.expressao = expressao;
+		}
+
+		//expressao := termo (('+' | '-') termo)*
+		void expressao(double sinal, List<Termo> termos) {
+			termo(sinal, termos);
+			while(true) {
+				char c = proximo();
+				if(c == '+') {
+					posicao++;
+					termo(sinal, termos);
+				}
+				else if(c == '-') {
+					posicao++;
+					termo(-sinal, termos);
+				}
+				else {
+					return;
+				}
+			}
+		}
+
+		//termo := ('+' | '-') termo | numero | '[' numero ']' | '(' expressao ')'
+		void termo(double sinal, List<Termo> termos) {
+			char c = proximo();
+			if(c == '+') {
+				posicao++;
+				termo(sinal, termos);
+			}
+			else if(c == '-') {
+				posicao++;
+				termo(-sinal, termos);
+			}
+			else if(c == '(') {
+				posicao++;
+				expressao(sinal, termos);
+				consome(')');
+			}
+			else if(c == '[') {
+				posicao++;
+				adiciona(termos, numero(), sinal, true);
+				consome(']');
+			}
+			else {
+				adiciona(termos, numero(), sinal, false);
+			}
+		}
+
+		int numero() {
+			proximo();
+			int inicio = posicao;
+			while(posicao < expressao.length() && Character.isDigit(expressao.charAt(posicao))) {
+				posicao++;
+			}
+			if(inicio == posicao) {
+				throw erro("código de rúbrica esperado");
+			}
+			try {
+				return Integer.parseInt(expressao.substring(inicio, posicao));
+			}catch(NumberFormatException e) {
+				throw erro("código de rúbrica inválido");
+			}
+		}
+
+		/**
+		 * Termos repetidos são combinados em um só, somando os coeficientes.
+		 */
+		void adiciona(List<Termo> termos, int codigo, double sinal, boolean referenciaFormula) {
+			for(Termo termo : termos) {
+				if(termo.codigo == codigo && termo.referenciaFormula == referenciaFormula) {
+					termo.coeficiente += sinal;
+					return;
+				}
+			}
+			Termo termo = new Termo();
+			termo.codigo = codigo;
+			termo.coeficiente = sinal;
+			termo.referenciaFormula = referenciaFormula;
+			termos.add(termo);
+		}
+
+		void consome(char esperado) {
+			if(proximo() != esperado) {
+				throw erro("'" + esperado + "' esperado");
+			}
+			posicao++;
+		}
+
+		/**
+		 * Pula os espaços e retorna o próximo caractere, sem consumi-lo.
+		 */
+		char proximo() {
+			while(posicao < expressao.length() && Character.isWhitespace(expressao.charAt(posicao))) {
+				posicao++;
+			}
+			return posicao < expressao.length() ? expressao.charAt(posicao) : '\0';
+		}
+
+		IllegalArgumentException erro(String mensagem) {
+			return new IllegalArgumentException("Fórmula inválida da rúbrica " + codigoRubrica + " (\"" + expressao
+					+ "\"), posição " + posicao + ": " + mensagem);
+		}
+	}
+}
@@ -0,0 +1,622 @@
+package dominio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ *  Histórico de vários anos dos valores mensais de todas as rúbricas, além do ano passado guardado
+ *  em cada Rubrica. Cada ano é um bloco comprimido com a série de 12 meses de cada conta:
+ *  valores em centavos exatos (o caso comum) são gravados como deltas de um mês para o outro em
+ *  varint; os demais como o XOR dos bits de cada valor com o do mês anterior, só com os bits
+ *  significativos. Meses sem valor não ocupam espaço.
+ *
+ *  No arquivo os anos são carregados sob demanda: abrir lê só o índice, e cada bloco é lido na
+ *  primeira consulta ao seu ano e mantido por uma SoftReference, que a coleta de lixo pode liberar
+ *  (o bloco é lido de novo quando preciso). Anos nunca consultados não ocupam o heap. O arquivo só
+ *  cresce: cada ano arquivado é acrescentado no final com um novo índice.
+ *
+ *  Formato (versão 1): int mágico "PLCH", int versão, blocos, e no final o índice (int número de
+ *  anos, (int ano, long posição, int tamanho) por ano), long posição do índice e int mágico.
+ *  Bloco: int n, int[n] códigos em ordem crescente, int[n] início da série de cada conta, séries.
+ *  Série: short presença (bit m - 1 para o mês m) e, se algum mês tem valor, byte modo e os valores.
+ *  Tudo em little-endian.
+ *
+ */
+public final class HistoricoPlanoContas implements Closeable {
+
+	public static final int VERSAO = 1;
+
+	//"PLCH"
+	private static final int MAGICO = 0x504C4348;
+	private static final int TAMANHO_CABECALHO = 8;
+	private static final int TAMANHO_FINAL = 12;
+	private static final byte MODO_CENTAVOS = 0;
+	private static final byte MODO_XOR = 1;
+
+	private final Path arquivo;
+	private final FileChannel canal;
+	//ano -> {posição, tamanho} do bloco no arquivo
+	private final TreeMap<Integer, long[]> indice = new TreeMap<Integer, long[]>();
+	private final Map<Integer, SoftReference<Bloco>> carregados = new HashMap<Integer, SoftReference<Bloco>>();
+	//Anos do histórico em memória, que não têm arquivo de onde serem lidos de novo
+	private final Map<Integer, Bloco> emMemoria = new HashMap<Integer, Bloco>();
+
+	private HistoricoPlanoContas(Path arquivo, FileChannel canal) {
+		this.arquivo = arquivo;
+		this.canal = canal;
+	}
+
+	/**
+	 * @return Um histórico vazio só em memória, sem arquivo
+	 */
+	public static HistoricoPlanoContas emMemoria() {
+		return new HistoricoPlanoContas(null, null);
+	}
+
+	/**
+	 * Abre o histórico do arquivo, lendo só o índice dos anos, ou cria o arquivo vazio se ele não existe.
+	 * @param arquivo Arquivo do histórico
+	 * @throws IOException se o arquivo não puder ser lido ou não for um histórico
+	 */
+	public static HistoricoPlanoContas abre(Path arquivo) throws IOException {
+		FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		HistoricoPlanoContas historico = new HistoricoPlanoContas(arquivo, canal);
+		try {
+			if(canal.size() == 0) {
+				ByteBuffer cabecalho = buffer(TAMANHO_CABECALHO);
+				cabecalho.putInt(MAGICO).putInt(VERSAO).flip();
+				escreveTudo(canal, cabecalho, 0);
+				historico.escreveIndice(TAMANHO_CABECALHO);
+			}else {
+				historico.leIndice();
+			}
+		}catch(IOException | RuntimeException e) {
+			canal.close();
+			throw e;
+		}
+		return historico;
+	}
+
+	private void leIndice() throws IOException {
+		long tamanho = canal.size();
+		if(tamanho < TAMANHO_CABECALHO + 4 + TAMANHO_FINAL) {
+			throw new IOException("Arquivo não é um histórico de plano de contas: " + arquivo);
+		}
+		ByteBuffer cabecalho = le(0, TAMANHO_CABECALHO);
+		if(cabecalho.getInt() != MAGICO) {
+			throw new IOException("Arquivo não é um histórico de plano de contas: " + arquivo);
+		}
+		int versao = cabecalho.getInt();
+		if(versao != VERSAO) {
+			throw new IOException("Versão de histórico não suportada: " + versao);
+		}
+		ByteBuffer fim = le(tamanho - TAMANHO_FINAL, TAMANHO_FINAL);
+		long posicaoIndice = fim.getLong();
+		if(fim.getInt() != MAGICO || posicaoIndice < TAMANHO_CABECALHO || posicaoIndice > tamanho - TAMANHO_FINAL - 4) {
+			throw new IOException("Histórico corrompido: índice não encontrado em " + arquivo);
+		}
+		ByteBuffer entradas = le(posicaoIndice, (int) (tamanho - TAMANHO_FINAL - posicaoIndice));
+		int anos = entradas.getInt();
+		if(anos < 0 || entradas.remaining() != anos * 16) {
+			throw new IOException("Histórico corrompido: índice inválido em " + arquivo);
+		}
+		for(int i = 0; i < anos; i++) {
+			indice.put(entradas.getInt(), new long[] {entradas.getLong(), entradas.getInt()});
+		}
+	}
+
+	/**
+	 * Acrescenta o índice atual e o final do arquivo na posição dada.
+	 */
+	private void escreveIndice(long posicao) throws IOException {
+		ByteBuffer entradas = buffer(4 + indice.size() * 16 + TAMANHO_FINAL);
+		entradas.putInt(indice.size());
+		for(Map.Entry<Integer, long[]> ano : indice.entrySet()) {
+			entradas.putInt(ano.getKey()).putLong(ano.getValue()[0]).putInt((int) ano.getValue()[1]);
+		}
+		entradas.putLong(posicao).putInt(MAGICO).flip();
+		escreveTudo(canal, entradas, posicao);
+		canal.force(false);
+	}
+
+	/**
+	 * Arquiva os realizados atuais do plano como os valores do ano. Rúbricas com subrúbricas
+	 * guardam o realizado consolidado, que existe nos meses em que alguma folha tem realizado.
+	 * @param ano Ano dos realizados
+	 * @param plano Plano de contas, lido de forma consistente
+	 * @throws IOException
+	 */
+	public void arquivaAno(int ano, PlanoContas plano) throws IOException {
+		Map<Integer, Double[]> valores = plano.leConsistente(() -> {
+			Map<Integer, Double[]> realizados = new LinkedHashMap<Integer, Double[]>();
+			for(Rubrica rubrica : plano.getRubricas().values()) {
+				if(rubrica.getPai() == null) {
+					capturaRealizados(rubrica, realizados);
+				}
+			}
+			return realizados;
+		});
+		adicionaAno(ano, valores);
+	}
+
+	private static boolean[] capturaRealizados(Rubrica rubrica, Map<Integer, Double[]> realizados) {
+		Double[] valores = new Double[12];
+		boolean[] presentes = new boolean[12];
+		if(rubrica.getSubRubricas().isEmpty()) {
+			for(int mes = 1; mes <= 12; mes++) {
+				valores[mes - 1] = rubrica.getValorRealizado(mes);
+				presentes[mes - 1] = valores[mes - 1] != null;
+			}
+		}else {
+			for(Rubrica subRubrica : rubrica.getSubRubricas()) {
+				boolean[] presentesSubRubrica = capturaRealizados(subRubrica, realizados);
+				for(int mes = 0; mes < 12; mes++) {
+					presentes[mes] |= presentesSubRubrica[mes];
+				}
+			}
+			for(int mes = 1; mes <= 12; mes++) {
+				valores[mes - 1] = presentes[mes - 1] ? rubrica.somaRealizadosSubrubricas(mes) : null;
+			}
+		}
+		realizados.put(rubrica.getCodigo(), valores);
+		return presentes;
+	}
+
+	/**
+	 * Adiciona ou substitui os valores de um ano. No arquivo, o bloco é acrescentado e gravado em disco.
+	 * @param ano Ano
+	 * @param valores Código da rúbrica -> valores de janeiro a dezembro, null nos meses sem valor
+	 * @throws IOException
+	 */
+	public synchronized void adicionaAno(int ano, Map<Integer, Double[]> valores) throws IOException {
+		int[] codigos = new int[valores.size()];
+		int n = 0;
+		for(int codigo : valores.keySet()) {
+			codigos[n++] = codigo;
+		}
+		Arrays.sort(codigos);
+
+		Escritor escritor = new Escritor();
+		int[] inicios = new int[n];
+		for(int i = 0; i < n; i++) {
+			inicios[i] = escritor.tamanho;
+			escreveSerie(escritor, valores.get(codigos[i]));
+		}
+		Bloco bloco = new Bloco(codigos, inicios, Arrays.copyOf(escritor.dados, escritor.tamanho));
+
+		if(canal == null) {
+			emMemoria.put(ano, bloco);
+			return;
+		}
+		ByteBuffer bytes = buffer(4 + n * 8 + bloco.dados.length);
+		bytes.putInt(n);
+		bytes.asIntBuffer().put(codigos);
+		bytes.position(4 + n * 4);
+		bytes.asIntBuffer().put(inicios);
+		bytes.position(4 + n * 8);
+		bytes.put(bloco.dados).flip();
+
+		long posicao = canal.size();
+		escreveTudo(canal, bytes, posicao);
+		indice.put(ano, new long[] {posicao, bytes.limit()});
+		escreveIndice(posicao + bytes.limit());
+		carregados.put(ano, new SoftReference<Bloco>(bloco));
+	}
+
+	/**
+	 * @return Anos do histórico em ordem crescente
+	 */
+	public synchronized SortedSet<Integer> getAnos() {
+		return Collections.unmodifiableSortedSet(new TreeSet<Integer>(canal == null ? emMemoria.keySet() : indice.keySet()));
+	}
+
+	/**
+	 * @return True se o bloco do ano está no heap
+	 */
+	public synchronized boolean isCarregado(int ano) {
+		if(canal == null) {
+			return emMemoria.containsKey(ano);
+		}
+		SoftReference<Bloco> referencia = carregados.get(ano);
+		return referencia != null && referencia.get() != null;
+	}
+
+	/**
+	 * Descarta os blocos carregados do arquivo; eles são lidos de novo na próxima consulta.
+	 */
+	public synchronized void descarregaAnos() {
+		carregados.clear();
+	}
+
+	/**
+	 * @return Bytes dos blocos no heap: as séries comprimidas e o índice de cada ano
+	 */
+	public synchronized long getBytesCarregados() {
+		long bytes = 0;
+		for(Bloco bloco : canal == null ? emMemoria.values() : blocosCarregados()) {
+			bytes += bloco.dados.length + bloco.codigos.length * 8L;
+		}
+		return bytes;
+	}
+
+	private List<Bloco> blocosCarregados() {
+		List<Bloco> blocos = new ArrayList<Bloco>();
+		for(SoftReference<Bloco> referencia : carregados.values()) {
+			Bloco bloco = referencia.get();
+			if(bloco != null) {
+				blocos.add(bloco);
+			}
+		}
+		return blocos;
+	}
+
+	/**
+	 * @return O bloco do ano, lido do arquivo se não estiver carregado, ou null se o ano não existe
+	 */
+	private synchronized Bloco bloco(int ano) throws IOException {
+		if(canal == null) {
+			return emMemoria.get(ano);
+		}
+		SoftReference<Bloco> referencia = carregados.get(ano);
+		Bloco bloco = referencia == null ? null : referencia.get();
+		if(bloco == null) {
+			long[] posicao = indice.get(ano);
+			if(posicao == null) {
+				return null;
+			}
+			ByteBuffer bytes = le(posicao[0], (int) posicao[1]);
+			int n = bytes.getInt();
+			if(n < 0 || 4 + n * 8L > posicao[1]) {
+				throw new IOException("Histórico corrompido: bloco do ano " + ano + " em " + arquivo);
+			}
+			int[] codigos = new int[n];
+			int[] inicios = new int[n];
+			bytes.asIntBuffer().get(codigos);
+			bytes.position(4 + n * 4);
+			bytes.asIntBuffer().get(inicios);
+			bytes.position(4 + n * 8);
+			byte[] dados = new byte[bytes.remaining()];
+			bytes.get(dados);
+			bloco = new Bloco(codigos, inicios, dados);
+			carregados.put(ano, new SoftReference<Bloco>(bloco));
+		}
+		return bloco;
+	}
+
+	/**
+	 * @param codigo Código da rúbrica
+	 * @param ano Ano
+	 * @return Valores de janeiro a dezembro, com null nos meses sem valor, ou null se a rúbrica ou o ano não estão no histórico
+	 * @throws IOException
+	 */
+	public Double[] getAno(int codigo, int ano) throws IOException {
+		Bloco bloco = bloco(ano);
+		int conta = bloco == null ? -1 : Arrays.binarySearch(bloco.codigos, codigo);
+		if(conta < 0) {
+			return null;
+		}
+		double[] valores = new double[12];
+		leSerie(bloco.dados, bloco.inicios[conta], 12, valores);
+		Double[] mensais = new Double[12];
+		for(int mes = 0; mes < 12; mes++) {
+			mensais[mes] = Double.isNaN(valores[mes]) ? null : valores[mes];
+		}
+		return mensais;
+	}
+
+	/**
+	 * @return Valor da rúbrica no mês do ano, ou null se não existe
+	 * @throws IOException
+	 */
+	public Double getValor(int codigo, int ano, int mes) throws IOException {
+		double[] valores = mesmoMes(codigo, mes, ano, 1);
+		return Double.isNaN(valores[0]) ? null : valores[0];
+	}
+
+	/**
+	 * Valores de um mês nos últimos anos, ex: março dos últimos 5 anos. Cada série é decodificada
+	 * só até o mês pedido, e só os anos do intervalo são carregados.
+	 * @param codigo Código da rúbrica
+	 * @param mes Mês
+	 * @param anoFinal Último ano
+	 * @param anos Número de anos
+	 * @return valores[i] é o mês no ano anoFinal - anos + 1 + i, ou NaN se não existe
+	 * @throws IOException
+	 */
+	public double[] mesmoMes(int codigo, int mes, int anoFinal, int anos) throws IOException {
+		if(mes < 1 || mes > 12) {
+			throw new IllegalArgumentException("Mês inválido " + mes);
+		}
+		if(anos < 1) {
+			throw new IllegalArgumentException("Número de anos inválido " + anos);
+		}
+		double[] resultado = new double[anos];
+		double[] serie = new double[12];
+		for(int i = 0; i < anos; i++) {
+			Bloco bloco = bloco(anoFinal - anos + 1 + i);
+			int conta = bloco == null ? -1 : Arrays.binarySearch(bloco.codigos, codigo);
+			if(conta < 0) {
+				resultado[i] = Double.NaN;
+			}else {
+				leSerie(bloco.dados, bloco.inicios[conta], mes, serie);
+				resultado[i] = serie[mes - 1];
+			}
+		}
+		return resultado;
+	}
+
+	/**
+	 * Substitui os valores do ano passado de todas as rúbricas do plano pelos do ano do histórico.
+	 * Rúbricas que não estão no ano ficam sem valores do ano passado.
+	 * @param plano Plano de contas
+	 * @param ano Ano do histórico
+	 * @throws IOException
+	 * @throws IllegalArgumentException se o ano não está no histórico
+	 */
+	public void aplicaAnoPassado(PlanoContas plano, int ano) throws IOException {
+		Bloco bloco = bloco(ano);
+		if(bloco == null) {
+			throw new IllegalArgumentException("Ano " + ano + " não está no histórico");
+		}
+		plano.escreveTudo(() -> {
+			double[] serie = new double[12];
+			Double[] valores = new Double[12];
+			for(Rubrica rubrica : plano.getRubricas().values()) {
+				int conta = Arrays.binarySearch(bloco.codigos, rubrica.getCodigo());
+				Arrays.fill(valores, null);
+				if(conta >= 0) {
+					leSerie(bloco.dados, bloco.inicios[conta], 12, serie);
+					for(int mes = 0; mes < 12; mes++) {
+						valores[mes] = Double.isNaN(serie[mes]) ? null : serie[mes];
+					}
+				}
+				rubrica.defineAnoPassado(valores);
+			}
+		});
+	}
+
+	public void close() throws IOException {
+		if(canal != null) {
+			canal.close();
+		}
+	}
+
+	private static void escreveSerie(Escritor escritor, Double[] valores) {
+		int presenca = 0;
+		boolean centavos = true;
+		for(int mes = 0; mes < 12 && valores != null && mes < valores.length; mes++) {
+			Double valor = valores[mes];
+			if(valor != null) {
+				presenca |= 1 << mes;
+				centavos &= centavosExatos(valor) != null;
+			}
+		}
+		escritor.escreveByte(presenca);
+		escritor.escreveByte(presenca >>> 8);
+		if(presenca == 0) {
+			return;
+		}
+		escritor.escreveByte(centavos ? MODO_CENTAVOS : MODO_XOR);
+		long anterior = 0;
+		boolean primeiro = true;
+		for(int mes = 0; mes < 12; mes++) {
+			if((presenca & (1 << mes)) == 0) {
+				continue;
+			}
+			if(centavos) {
+				long atual = centavosExatos(valores[mes]);
+				escritor.escreveVarLong(zigzag(atual - anterior));
+				anterior = atual;
+			}else {
+				long atual = Double.doubleToRawLongBits(valores[mes]);
+				if(primeiro) {
+					escritor.escreveBits(atual, 64);
+				}else {
+					escreveXor(escritor, atual ^ anterior);
+				}
+				anterior = atual;
+			}
+			primeiro = false;
+		}
+		escritor.alinha();
+	}
+
+	private static void escreveXor(Escritor escritor, long xor) {
+		if(xor == 0) {
+			escritor.escreveBits(0, 1);
+			return;
+		}
+		int zerosInicio = Long.numberOfLeadingZeros(xor);
+		int zerosFim = Long.numberOfTrailingZeros(xor);
+		int significativos = 64 - zerosInicio - zerosFim;
+		escritor.escreveBits(1, 1);
+		escritor.escreveBits(zerosInicio, 6);
+		escritor.escreveBits(significativos - 1, 6);
+		escritor.escreveBits(xor >>> zerosFim, significativos);
+	}
+
+	/**
+	 * Decodifica a série até o mês dado; meses sem valor ficam NaN.
+	 */
+	private static void leSerie(byte[] dados, int inicio, int ateMes, double[] valores) {
+		Leitor leitor = new Leitor(dados, inicio);
+		int presenca = leitor.leByte() | (leitor.leByte() << 8);
+		Arrays.fill(valores, 0, ateMes, Double.NaN);
+		if(presenca == 0) {
+			return;
+		}
+		boolean centavos = leitor.leByte() == MODO_CENTAVOS;
+		long anterior = 0;
+		boolean primeiro = true;
+		for(int mes = 0; mes < ateMes; mes++) {
+			if((presenca & (1 << mes)) == 0) {
+				continue;
+			}
+			if(centavos) {
+				anterior += dezigzag(leitor.leVarLong());
+				valores[mes] = anterior / 100.0;
+			}else {
+				if(primeiro) {
+					anterior = leitor.leBits(64);
+				}else if(leitor.leBits(1) != 0) {
+					int zerosInicio = (int) leitor.leBits(6);
+					int significativos = (int) leitor.leBits(6) + 1;
+					anterior ^= leitor.leBits(significativos) << (64 - zerosInicio - significativos);
+				}
+				valores[mes] = Double.longBitsToDouble(anterior);
+			}
+			primeiro = false;
+		}
+	}
+
+	/**
+	 * @return O valor em centavos, se ele é exatamente esse número de centavos, ou null
+	 */
+	private static Long centavosExatos(double valor) {
+		if(!(Math.abs(valor) < 1e15)) {
+			return null;
+		}
+		long centavos = Math.round(valor * 100);
+		return Double.doubleToLongBits(centavos / 100.0) == Double.doubleToLongBits(valor) ? centavos : null;
+	}
+
+	private static long zigzag(long valor) {
+		return (valor << 1) ^ (valor >> 63);
+	}
+
+	private static long dezigzag(long valor) {
+		return (valor >>> 1) ^ -(valor & 1);
+	}
+
+	private ByteBuffer le(long posicao, int tamanho) throws IOException {
+		ByteBuffer bytes = buffer(tamanho);
+		while(bytes.hasRemaining()) {
+			if(canal.read(bytes, posicao + bytes.position()) < 0) {
+				throw new IOException("Histórico corrompido: fim inesperado de " + arquivo);
+			}
+		}
+		bytes.flip();
+		return bytes;
+	}
+
+	private static void escreveTudo(FileChannel canal, ByteBuffer bytes, long posicao) throws IOException {
+		while(bytes.hasRemaining()) {
+			posicao += canal.write(bytes, posicao);
+		}
+	}
+
+	private static ByteBuffer buffer(int tamanho) {
+		return ByteBuffer.allocate(tamanho).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Um ano do histórico: códigos em ordem crescente, início da série de cada um e as séries.
+	 */
+	private static final class Bloco {
+		final int[] codigos;
+		final int[] inicios;
+		final byte[] dados;
+
+		Bloco(int[] codigos, int[] inicios, byte[] dados) {
+			this.codigos = codigos;
+			this.inicios = inicios;
+			this.dados = dados;
+		}
+	}
+
+	private static final class Escritor {
+		byte[] dados = new byte[1024];
+		int tamanho;
+		//Bits ainda não completaram um byte
+		int bits;
+		int numBits;
+
+		void escreveByte(int valor) {
+			if(tamanho == dados.length) {
+				dados = Arrays.copyOf(dados, dados.length * 2);
+			}
+			dados[tamanho++] = (byte) valor;
+		}
+
+		void escreveVarLong(long valor) {
+			while((valor & ~0x7FL) != 0) {
+				escreveByte((int) (valor & 0x7F) | 0x80);
+				valor >>>= 7;
+			}
+			escreveByte((int) valor);
+		}
+
+		void escreveBits(long valor, int n) {
+			for(int i = n - 1; i >= 0; i--) {
+				bits = (bits << 1) | (int) ((valor >>> i) & 1);
+				if(++numBits == 8) {
+					escreveByte(bits);
+					bits = 0;
+					numBits = 0;
+				}
+			}
+		}
+
+		void alinha() {
+			if(numBits > 0) {
+				escreveBits(0, 8 - numBits);
+			}
+		}
+	}
+
+	private static final class Leitor {
+		final byte[] dados;
+		int posicao;
+		int bits;
+		int numBits;
+
+		Leitor(byte[] dados, int posicao) {
+			this.dados = dados;
+			this.posicao = posicao;
+		}
+
+		int leByte() {
+			return dados[posicao++] & 0xFF;
+		}
+
+		long leVarLong() {
+			long valor = 0;
+			int deslocamento = 0;
+			int b;
+			do {
+				b = leByte();
+				valor |= (long) (b & 0x7F) << deslocamento;
+				deslocamento += 7;
+			}while((b & 0x80) != 0);
+			return valor;
+		}
+
+		long leBits(int n) {
+			long valor = 0;
+			for(int i = 0; i < n; i++) {
+				if(numBits == 0) {
+					bits = leByte();
+					numBits = 8;
+				}
+				valor = (valor << 1) | ((bits >>> --numBits) & 1);
+			}
+			return valor;
+		}
+	}
+}
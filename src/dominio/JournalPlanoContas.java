@@ -0,0 +1,438 @@
+package dominio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ *  Journal (write-ahead log) das alterações de previstos e realizados de um plano de contas,
+ *  com checkpoints periódicos em snapshot (SnapshotPlanoContas).
+ *
+ *  Cada alteração vira um registro (código, tipo, mês, valor) copiado para um buffer em memória;
+ *  o thread que alterou o valor não espera o disco. Um thread escritor grava e sincroniza (force)
+ *  tudo o que se acumulou desde a última gravação de uma só vez (group commit), então os registros
+ *  ficam duráveis alguns milissegundos depois da alteração; sincroniza espera por isso.
+ *
+ *  Os arquivos ficam em um diretório: journal-N.log com os registros da geração N e checkpoint-N.snapshot
+ *  com o plano que já contém todos os registros das gerações anteriores a N. Ao abrir, o último checkpoint
+ *  é restaurado e os journals a partir da sua geração são reaplicados. Como cada registro define um valor,
+ *  reaplicar um registro já contido no checkpoint não muda o resultado. Um checkpoint é feito a cada
+ *  registrosCheckpoint registros, o que limita o tempo de recuperação.
+ *
+ */
+public class JournalPlanoContas implements OuvinteMutacao, Closeable {
+
+	public static final long REGISTROS_CHECKPOINT_PADRAO = 1000000;
+
+	//"PLJN"
+	private static final int MAGICO = 0x504C4A4E;
+	private static final int VERSAO = 1;
+	private static final int TAMANHO_CABECALHO = 12;
+	//int código, byte tipo, byte mês, double valor, int verificação
+	private static final int TAMANHO_REGISTRO = 18;
+	private static final int TAMANHO_BUFFER = 1 << 20;
+	private static final String PREFIXO_JOURNAL = "journal-";
+	private static final String SUFIXO_JOURNAL = ".log";
+	private static final String PREFIXO_CHECKPOINT = "checkpoint-";
+	private static final String SUFIXO_CHECKPOINT = ".snapshot";
+
+	private final PlanoContas plano;
+	private final Path diretorio;
+	private final long registrosCheckpoint;
+
+	private final Object trava = new Object();
+	//Registros ainda não gravados, preenchido pelos threads que alteram o plano
+	private ByteBuffer pendente;
+	//Registros sendo gravados pelo escritor
+	private ByteBuffer emGravacao;
+	private long registrosAnexados;
+	private long registrosDuraveis;
+	private long registrosDesdeCheckpoint;
+	private boolean checkpointPedido;
+	private long checkpointsFeitos;
+	private boolean fechado;
+	private IOException erro;
+
+	//Só usados pelo escritor (e por abre, antes de ele começar)
+	private int geracao;
+	private FileChannel canal;
+	private Thread escritor;
+
+	private JournalPlanoContas(PlanoContas plano, Path diretorio, long registrosCheckpoint) {
+		this.plano = plano;
+		this.diretorio = diretorio;
+		this.registrosCheckpoint = registrosCheckpoint;
+		this.pendente = ByteBuffer.allocateDirect(TAMANHO_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+		this.emGravacao = ByteBuffer.allocateDirect(TAMANHO_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Abre o journal com o intervalo padrão de checkpoints.
+	 * @see #abre(PlanoContas, Path, long)
+	 */
+	public static JournalPlanoContas abre(PlanoContas plano, Path diretorio) throws IOException {
+		return abre(plano, diretorio, REGISTROS_CHECKPOINT_PADRAO);
+	}
+
+	/**
+	 * Recupera o plano do último checkpoint e dos journals do diretório e passa a registrar
+	 * todas as alterações do plano. Sem checkpoint, os journals são reaplicados sobre o estado
+	 * atual do plano (ex: o orçamento inicial recém lido).
+	 * @param plano Plano de contas
+	 * @param diretorio Diretório dos journals e checkpoints, criado se não existir
+	 * @param registrosCheckpoint Número de registros entre checkpoints
+	 * @return Journal aberto, que deve ser fechado ao final
+	 * @throws IOException
+	 */
+	public static JournalPlanoContas abre(PlanoContas plano, Path diretorio, long registrosCheckpoint) throws IOException {
+		if(registrosCheckpoint <= 0) {
+			throw new IllegalArgumentException("Intervalo de checkpoints inválido: " + registrosCheckpoint);
+		}
+		if(plano.getOuvinteMutacao() != null) {
+			throw new IllegalStateException("O plano de contas já possui um ouvinte de alterações");
+		}
+		Files.createDirectories(diretorio);
+		JournalPlanoContas journal = new JournalPlanoContas(plano, diretorio, registrosCheckpoint);
+
+		int ultimoCheckpoint = ultimaGeracao(diretorio, PREFIXO_CHECKPOINT, SUFIXO_CHECKPOINT);
+		if(ultimoCheckpoint > 0) {
+			SnapshotPlanoContas.restaura(journal.arquivoCheckpoint(ultimoCheckpoint), plano);
+		}
+		int ultimaGeracao = ultimoCheckpoint;
+		for(int geracaoJournal : geracoes(diretorio, PREFIXO_JOURNAL, SUFIXO_JOURNAL)) {
+			if(geracaoJournal >= ultimoCheckpoint) {
+				journal.registrosDesdeCheckpoint += reaplica(journal.arquivoJournal(geracaoJournal), plano);
+				ultimaGeracao = Math.max(ultimaGeracao, geracaoJournal);
+			}
+		}
+
+		//Uma nova geração, para nunca anexar depois de um registro incompleto
+		journal.abreGeracao(ultimaGeracao + 1);
+		plano.setOuvinteMutacao(journal);
+		journal.escritor = new Thread(journal::executaEscritor, "journal-" + diretorio.getFileName());
+		journal.escritor.setDaemon(true);
+		journal.escritor.start();
+		return journal;
+	}
+
+	/**
+	 * Anexa o registro da alteração ao buffer, sem nunca esperar pelo disco: se o buffer estiver cheio
+	 * enquanto o escritor grava o lote anterior (ou um checkpoint), ele cresce. Depois de uma falha de
+	 * gravação as alterações deixam de ser registradas; a falha é relatada por sincroniza e close.
+	 */
+	@Override
+	public void valorAlterado(int codigo, int tipo, int mes, double valor) {
+		synchronized(trava) {
+			if(fechado) {
+				return;
+			}
+			if(pendente.remaining() < TAMANHO_REGISTRO) {
+				ByteBuffer maior = ByteBuffer.allocateDirect(pendente.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+				pendente.flip();
+				maior.put(pendente);
+				pendente = maior;
+			}
+			pendente.putInt(codigo).put((byte) tipo).put((byte) mes).putDouble(valor)
+					.putInt(verificacao(codigo, tipo, mes, valor));
+			registrosAnexados++;
+			if(pendente.position() == TAMANHO_REGISTRO) {
+				//O escritor só espera quando não há nada pendente
+				trava.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Espera até que todas as alterações registradas até agora estejam gravadas no disco.
+	 * @throws IOException se a gravação do journal falhou
+	 */
+	public void sincroniza() throws IOException {
+		synchronized(trava) {
+			long alvo = registrosAnexados;
+			trava.notifyAll();
+			while(registrosDuraveis < alvo && erro == null && !(fechado && escritor == null)) {
+				aguarda();
+			}
+			if(erro != null) {
+				throw erro;
+			}
+		}
+	}
+
+	/**
+	 * Faz um checkpoint agora e espera que termine.
+	 * @throws IOException se a gravação do journal ou do checkpoint falhou
+	 */
+	public void checkpoint() throws IOException {
+		synchronized(trava) {
+			long alvo = checkpointsFeitos + 1;
+			checkpointPedido = true;
+			trava.notifyAll();
+			while(checkpointsFeitos < alvo && erro == null && !fechado) {
+				aguarda();
+			}
+			if(erro != null) {
+				throw erro;
+			}
+		}
+	}
+
+	/**
+	 * Grava os registros pendentes, para o escritor e deixa de registrar as alterações do plano.
+	 * @throws IOException se a gravação do journal falhou
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized(trava) {
+			if(escritor == null) {
+				return;
+			}
+			fechado = true;
+			trava.notifyAll();
+		}
+		try {
+			escritor.join();
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		plano.setOuvinteMutacao(null);
+		canal.close();
+		synchronized(trava) {
+			escritor = null;
+			trava.notifyAll();
+			if(erro != null) {
+				throw erro;
+			}
+		}
+	}
+
+	public long getRegistrosDuraveis() {
+		synchronized(trava) {
+			return registrosDuraveis;
+		}
+	}
+
+	public int getGeracao() {
+		return geracao;
+	}
+
+	private void executaEscritor() {
+		try {
+			while(true) {
+				ByteBuffer lote;
+				long ate;
+				boolean fazCheckpoint;
+				synchronized(trava) {
+					while(pendente.position() == 0 && !fechado && !checkpointPedido) {
+						aguarda();
+					}
+					if(fechado && pendente.position() == 0) {
+						return;
+					}
+					lote = trocaBuffers();
+					ate = registrosAnexados;
+					fazCheckpoint = checkpointPedido
+							|| registrosDesdeCheckpoint + lote.position() / TAMANHO_REGISTRO >= registrosCheckpoint;
+					checkpointPedido = false;
+				}
+
+				//Os registros que chegarem daqui em diante vão para o próximo lote
+				grava(lote);
+				if(fazCheckpoint) {
+					fazCheckpoint(ate);
+				}
+				else {
+					marcaDuraveis(ate, lote);
+				}
+				lote.clear();
+			}
+		}catch(IOException e) {
+			System.out.println("Falha na gravação do journal do plano de contas: " + e.getMessage());
+			synchronized(trava) {
+				erro = e;
+				fechado = true;
+				trava.notifyAll();
+			}
+		}
+	}
+
+	private ByteBuffer trocaBuffers() {
+		ByteBuffer lote = pendente;
+		pendente = emGravacao;
+		emGravacao = lote;
+		return lote;
+	}
+
+	private void grava(ByteBuffer lote) throws IOException {
+		lote.flip();
+		while(lote.hasRemaining()) {
+			canal.write(lote);
+		}
+		canal.force(false);
+	}
+
+	private void marcaDuraveis(long ate, ByteBuffer lote) {
+		synchronized(trava) {
+			registrosDuraveis = ate;
+			registrosDesdeCheckpoint += lote.limit() / TAMANHO_REGISTRO;
+			trava.notifyAll();
+		}
+	}
+
+	/**
+	 * Passa a gravar em uma nova geração e grava o checkpoint dela, que contém tudo o que foi gravado
+	 * até agora. Depois apaga o checkpoint e os journals anteriores.
+	 * @param ate Registros já gravados
+	 */
+	private void fazCheckpoint(long ate) throws IOException {
+		int anterior = geracao;
+		canal.close();
+		abreGeracao(anterior + 1);
+		synchronized(trava) {
+			registrosDuraveis = ate;
+			registrosDesdeCheckpoint = 0;
+			trava.notifyAll();
+		}
+
+		SnapshotPlanoContas.salva(plano, arquivoCheckpoint(geracao));
+		for(int antiga : geracoes(diretorio, PREFIXO_CHECKPOINT, SUFIXO_CHECKPOINT)) {
+			if(antiga < geracao) {
+				Files.deleteIfExists(arquivoCheckpoint(antiga));
+			}
+		}
+		for(int antiga : geracoes(diretorio, PREFIXO_JOURNAL, SUFIXO_JOURNAL)) {
+			if(antiga < geracao) {
+				Files.deleteIfExists(arquivoJournal(antiga));
+			}
+		}
+		synchronized(trava) {
+			checkpointsFeitos++;
+			trava.notifyAll();
+		}
+	}
+
+	private void abreGeracao(int novaGeracao) throws IOException {
+		geracao = novaGeracao;
+		canal = FileChannel.open(arquivoJournal(novaGeracao), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		ByteBuffer cabecalho = ByteBuffer.allocate(TAMANHO_CABECALHO).order(ByteOrder.LITTLE_ENDIAN);
+		cabecalho.putInt(MAGICO).putInt(VERSAO).putInt(novaGeracao).flip();
+		while(cabecalho.hasRemaining()) {
+			canal.write(cabecalho);
+		}
+		canal.force(true);
+	}
+
+	/**
+	 * Reaplica os registros de um journal no plano. A leitura para no primeiro registro incompleto ou
+	 * inválido, que é o que sobra de uma gravação interrompida.
+	 * @return Número de registros reaplicados
+	 */
+	private static long reaplica(Path arquivo, PlanoContas plano) throws IOException {
+		long reaplicados = 0;
+		try(FileChannel leitura = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(TAMANHO_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+			while(buffer.position() < TAMANHO_CABECALHO && leitura.read(buffer) >= 0) {
+			}
+			buffer.flip();
+			if(buffer.remaining() < TAMANHO_CABECALHO || buffer.getInt() != MAGICO) {
+				System.out.println("Journal inválido ignorado: " + arquivo);
+				return 0;
+			}
+			int versao = buffer.getInt();
+			if(versao != VERSAO) {
+				throw new IOException("Versão de journal não suportada: " + versao + " em " + arquivo);
+			}
+			buffer.getInt();
+
+			while(true) {
+				if(buffer.remaining() < TAMANHO_REGISTRO) {
+					buffer.compact();
+					int lidos = leitura.read(buffer);
+					buffer.flip();
+					if(lidos < 0 && buffer.remaining() < TAMANHO_REGISTRO) {
+						break;
+					}
+					if(buffer.remaining() < TAMANHO_REGISTRO) {
+						continue;
+					}
+				}
+				int codigo = buffer.getInt();
+				int tipo = buffer.get();
+				int mes = buffer.get();
+				double valor = buffer.getDouble();
+				if(buffer.getInt() != verificacao(codigo, tipo, mes, valor) || mes < 1 || mes > 12) {
+					System.out.println("Journal " + arquivo.getFileName() + " interrompido depois de " + reaplicados + " registros");
+					break;
+				}
+				Rubrica rubrica = plano.getRubricas().get(codigo);
+				if(rubrica != null) {
+					if(tipo == TIPO_PREVISTO) {
+						rubrica.setValorPrevisto(mes, valor);
+					}
+					else {
+						rubrica.setValorRealizado(mes, valor);
+					}
+				}
+				reaplicados++;
+			}
+		}
+		return reaplicados;
+	}
+
+	private static int verificacao(int codigo, int tipo, int mes, double valor) {
+		long bits = Double.doubleToRawLongBits(valor);
+		int hash = MAGICO ^ codigo * 0x9E3779B9 ^ (tipo << 8 | mes) * 0x85EBCA6B ^ (int) bits ^ (int) (bits >>> 32) * 0xC2B2AE35;
+		return hash ^ (hash >>> 15);
+	}
+
+	private Path arquivoJournal(int geracaoJournal) {
+		return diretorio.resolve(PREFIXO_JOURNAL + geracaoJournal + SUFIXO_JOURNAL);
+	}
+
+	private Path arquivoCheckpoint(int geracaoCheckpoint) {
+		return diretorio.resolve(PREFIXO_CHECKPOINT + geracaoCheckpoint + SUFIXO_CHECKPOINT);
+	}
+
+	/**
+	 * @return Gerações dos arquivos do diretório com o prefixo e sufixo dados, em ordem crescente
+	 */
+	private static List<Integer> geracoes(Path diretorio, String prefixo, String sufixo) throws IOException {
+		List<Integer> geracoes = new ArrayList<Integer>();
+		try(DirectoryStream<Path> arquivos = Files.newDirectoryStream(diretorio, prefixo + "*" + sufixo)) {
+			for(Path arquivo : arquivos) {
+				String nome = arquivo.getFileName().toString();
+				try {
+					geracoes.add(Integer.parseInt(nome.substring(prefixo.length(), nome.length() - sufixo.length())));
+				}catch(NumberFormatException e) {
+					//Não é um arquivo do journal
+				}
+			}
+		}
+		Collections.sort(geracoes);
+		return geracoes;
+	}
+
+	private static int ultimaGeracao(Path diretorio, String prefixo, String sufixo) throws IOException {
+		List<Integer> geracoes = geracoes(diretorio, prefixo, sufixo);
+		return geracoes.isEmpty() ? 0 : geracoes.get(geracoes.size() - 1);
+	}
+
+	private void aguarda() {
+		try {
+			trava.wait();
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrompido esperando o journal do plano de contas", e);
+		}
+	}
+}
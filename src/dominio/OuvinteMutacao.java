@@ -0,0 +1,20 @@
+package dominio;
+
+/**
+ *  Ouvinte das alterações de valores previstos e realizados das rúbricas de um plano de contas.
+ *  É chamado pelo thread que fez a alteração, logo depois de o valor ser definido, então deve ser rápido.
+ *
+ */
+public interface OuvinteMutacao {
+
+	int TIPO_PREVISTO = 1;
+	int TIPO_REALIZADO = 2;
+
+	/**
+	 * @param codigo Código da rúbrica alterada
+	 * @param tipo TIPO_PREVISTO ou TIPO_REALIZADO
+	 * @param mes Mês alterado
+	 * @param valor Novo valor
+	 */
+	void valorAlterado(int codigo, int tipo, int mes, double valor);
+}
@@ -2,21 +2,48 @@ package dominio;
 
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 
 /**
  *  Classe que representa um Plano de Contas de uma empresa.
- *  Usado o Design-Pattern de Singleton
+ *  Cada instância é independente, com suas rúbricas, fórmulas especiais e data de congelamento;
+ *  os planos de várias empresas são mantidos pelo RegistroPlanos. A instância única de getInstance
+ *  (Design-Pattern de Singleton) é o plano usado pela interface do sistema.
+ *  
+ *  No modo concorrente (ativaModoConcorrente) as alterações de valores passam por atualiza, que trava
+ *  só a faixa de travas da subárvore raiz da rúbrica, então várias threads podem alterar subárvores
+ *  diferentes ao mesmo tempo. Relatórios usam leConsistente, que trava todas as faixas para leitura
+ *  e assim enxerga as somas de todas as subárvores em um mesmo estado.
  *
  */
 public class PlanoContas {
 	
-	private Map<Integer, Rubrica> rubricas;
-	private LocalDate dataCongelamento;
+	public static final int FAIXAS_TRAVAS_PADRAO = 64;
+	
+	private volatile Map<Integer, Rubrica> rubricas;
+	private volatile LocalDate dataCongelamento;
 	
 	static PlanoContas instance;
 	
 	private Map<Integer, String> rubricasEspeciais;
+	private TabelaFormulas formulas;
+	
+	//Travas do modo concorrente; cada subárvore raiz usa a faixa dada pelo código da raiz. Null fora do modo concorrente
+	private volatile ReentrantReadWriteLock[] faixasTravas;
+	
+	//Avisado das alterações de valores de todas as rúbricas do plano, ex: JournalPlanoContas
+	private OuvinteMutacao ouvinteMutacao;
+	
+	//Valores de anos anteriores além do ano passado; null se nenhum histórico foi aberto
+	private volatile HistoricoPlanoContas historico;
+	
+	//Índice das classificações do mapa de rúbricas atual; refeito na primeira consulta após setRubricas
+	private volatile IndiceClassificacao indiceClassificacao;
 	
 	/**
 	 * Implementação do Singleton Plano de Contas
@@ -26,22 +53,31 @@ public class PlanoContas {
 		
 		if(instance == null){
 			instance = new PlanoContas();
-			instance.inicializaMapRubricasEspeciais();
 		}		
 		return(instance);	
 	}
 	
 	/**
-	 *  Inicializa as rubricas especiais que possuem fórmula especial para o somatório.
+	 *  Fórmulas das rubricas especiais do plano de contas da empresa, usadas por todo plano novo.
+	 *  No orçamento inicial, as linhas sem classificação com esses códigos são totais calculados
+	 *  pelas fórmulas, e não contas da hierarquia (ver GerenciadorArquivos.lerOrcamentoInicial).
+	 */
+	public static final Map<Integer, String> RUBRICAS_ESPECIAIS_PADRAO = rubricasEspeciaisPadrao();
+	
+	/**
+	 *  Monta as fórmulas das rubricas especiais que possuem fórmula especial para o somatório.
 	 *  A chave do map é o código da rúbrica, e a String é a fórmula dos códigos que devem ser
 	 *  somados ou subtraídos.
 	 *  Ex:
 	 *  1 -> "103 - 2396"    
 	 *  Rubrica 1 possui o valor da rubrica 103 subtraído da rúbrica 2396
+	 *  3 -> "[1] - [110]"
+	 *  Entre colchetes, o valor da fórmula da rubrica especial, e não a soma das suas subrúbricas
+	 *  (as linhas de total não têm subrúbricas, então a soma delas é zero)
 	 */
-	private void inicializaMapRubricasEspeciais() {
+	private static Map<Integer, String> rubricasEspeciaisPadrao() {
 		
-		rubricasEspeciais = new HashMap<Integer, String>();
+		Map<Integer, String> rubricasEspeciais = new HashMap<Integer, String>();
 		
 		rubricasEspeciais.put(103, "103"); 
 		rubricasEspeciais.put(2396, "2396"); 
@@ -49,43 +85,63 @@ public class PlanoContas {
 		rubricasEspeciais.put(110, "2 + 120"); 
 		rubricasEspeciais.put(2, "2"); 
 		rubricasEspeciais.put(120, "120"); 
-		rubricasEspeciais.put(3, "1 - 110"); 
-		rubricasEspeciais.put(2398, "133 + 156 + 312");
+		rubricasEspeciais.put(3, "[1] - [110]"); 
+		rubricasEspeciais.put(2398, "[133] + [156] + [312]");
 		rubricasEspeciais.put(133, "133 + 142");
 		rubricasEspeciais.put(4, "133"); 
 		rubricasEspeciais.put(142, "142"); 
 		rubricasEspeciais.put(156, "156 + 2401"); 
 		rubricasEspeciais.put(5, "156"); 
-		rubricasEspeciais.put(2401, "156"); 
+		rubricasEspeciais.put(2401, "2401"); 
 		rubricasEspeciais.put(312, "312 + 338"); 
 		rubricasEspeciais.put(6, "312");
 		rubricasEspeciais.put(338, "338"); 
-		rubricasEspeciais.put(7, "103 - 2398"); 
+		rubricasEspeciais.put(7, "[3] - [2398]"); 
+		rubricasEspeciais.put(9, "[7] - 8"); 
 		rubricasEspeciais.put(187, "187 - 193");  
 		rubricasEspeciais.put(10, "187"); 
 		rubricasEspeciais.put(193, "193"); 
-		rubricasEspeciais.put(11, "9 - 187"); 
+		rubricasEspeciais.put(11, "[9] - [187]"); 
 		rubricasEspeciais.put(197, "352 + 201");  
 		rubricasEspeciais.put(352, "352");  
 		rubricasEspeciais.put(201, "201"); 
-		rubricasEspeciais.put(12, "11 - 197"); 
-		rubricasEspeciais.put(13, "12 - 914 - 205"); 
-		rubricasEspeciais.put(14, "11");  
+		rubricasEspeciais.put(12, "[11] - [197]"); 
+		rubricasEspeciais.put(13, "[12] - 914 - 205"); 
+		rubricasEspeciais.put(14, "[11]");  
 		rubricasEspeciais.put(15, "172");  
 		rubricasEspeciais.put(16, "184"); 
-		rubricasEspeciais.put(17, "- 187"); 
-		rubricasEspeciais.put(18, "13 + 15 + 16 + 17");
-		rubricasEspeciais.put(19, "2398");
+		rubricasEspeciais.put(17, "- [187]"); 
+		rubricasEspeciais.put(18, "[12] + [15] + [16] + [17]");
+		rubricasEspeciais.put(19, "103 - [13]");
 		rubricasEspeciais.put(20, "21 + 22 + 23");		
+		
+		return Collections.unmodifiableMap(rubricasEspeciais);
+	}
+	
+	/**
+	 *  Inicializa as rubricas especiais com as fórmulas padrão.
+	 */
+	private void inicializaMapRubricasEspeciais() {
+		
+		rubricasEspeciais = new HashMap<Integer, String>(RUBRICAS_ESPECIAIS_PADRAO);
+		formulas = TabelaFormulas.compila(rubricasEspeciais);
 	}
 	
 	public PlanoContas(){
 		rubricas = new LinkedHashMap<Integer, Rubrica>();
 		dataCongelamento = LocalDate.of(2020, 1, 11);
+		inicializaMapRubricasEspeciais();
 	}
 	
 	public void setRubricas(Map<Integer, Rubrica> map) {
-		this.rubricas = map;
+		escreveTudo(() -> {
+			if(this.ouvinteMutacao != null) {
+				for(Rubrica rubrica : map.values()) {
+					rubrica.setOuvinteMutacao(this.ouvinteMutacao);
+				}
+			}
+			this.rubricas = map;
+		});
 	}
 	
 	public Map<Integer, Rubrica> getRubricas(){
@@ -109,5 +165,324 @@ public class PlanoContas {
 		return this.rubricasEspeciais;
 	}
 	
+	/**
+	 * Substitui as fórmulas das rubricas especiais, compilando-as.
+	 * @param rubricasEspeciais Código da rúbrica -> fórmula
+	 * @throws IllegalArgumentException se alguma fórmula for inválida ou houver ciclo entre elas
+	 */
+	public void setRubricasEspeciais(Map<Integer, String> rubricasEspeciais) {
+		TabelaFormulas compiladas = TabelaFormulas.compila(rubricasEspeciais);
+		this.rubricasEspeciais = Collections.unmodifiableMap(new HashMap<Integer, String>(rubricasEspeciais));
+		this.formulas = compiladas;
+	}
+	
+	/**
+	 * @return Fórmulas das rubricas especiais já compiladas
+	 */
+	public TabelaFormulas getFormulas() {
+		return this.formulas;
+	}
+	
+	/**
+	 * Define o ouvinte das alterações de previstos e realizados de todas as rúbricas do plano,
+	 * inclusive das rúbricas de mapas definidos depois por setRubricas.
+	 * @param ouvinte Ouvinte, ou null para remover
+	 */
+	public void setOuvinteMutacao(OuvinteMutacao ouvinte) {
+		escreveTudo(() -> {
+			this.ouvinteMutacao = ouvinte;
+			for(Rubrica rubrica : this.rubricas.values()) {
+				rubrica.setOuvinteMutacao(ouvinte);
+			}
+		});
+	}
+	
+	public OuvinteMutacao getOuvinteMutacao() {
+		return this.ouvinteMutacao;
+	}
+	
+	public void setHistorico(HistoricoPlanoContas historico) {
+		this.historico = historico;
+	}
+	
+	/**
+	 * @return Histórico de vários anos do plano, ou null se nenhum foi aberto
+	 */
+	public HistoricoPlanoContas getHistorico() {
+		return this.historico;
+	}
+	
+	/**
+	 * @param classificacao Classificação do orçamento, ex: "3.2.1.01"
+	 * @return A rúbrica com a classificação, ou null se não houver
+	 */
+	public Rubrica getRubricaPorClassificacao(String classificacao) {
+		IndiceClassificacao indice = indiceClassificacao();
+		Integer codigo = indice.codigos.get(classificacao);
+		return codigo == null ? null : indice.rubricas.get(codigo);
+	}
+	
+	/**
+	 * Rúbricas de uma subárvore da classificação, ex: "3.2.1" devolve 3.2.1, 3.2.1.01, 3.2.1.01.002...
+	 * mas não 3.2.10. É uma busca por faixa no índice ordenado das classificações, sem percorrer
+	 * a árvore, então também encontra as rúbricas da faixa que estão sem pai.
+	 * @param classificacao Classificação da raiz da subárvore, com níveis completos
+	 * @return As rúbricas em ordem de classificação; vazia se não houver nenhuma
+	 */
+	public List<Rubrica> getRubricasPorClassificacao(String classificacao) {
+		IndiceClassificacao indice = indiceClassificacao();
+		List<Rubrica> subarvore = new ArrayList<Rubrica>();
+		Integer raiz = indice.codigos.get(classificacao);
+		if(raiz != null) {
+			subarvore.add(indice.rubricas.get(raiz));
+		}
+		//'/' é o caractere seguinte a '.': a faixa tem exatamente as classificações que começam com "classificacao."
+		for(Integer codigo : indice.codigos.subMap(classificacao + ".", true, classificacao + "/", false).values()) {
+			subarvore.add(indice.rubricas.get(codigo));
+		}
+		return subarvore;
+	}
+	
+	/**
+	 * @return O índice do mapa de rúbricas atual, montado agora se o mapa mudou
+	 */
+	private IndiceClassificacao indiceClassificacao() {
+		Map<Integer, Rubrica> atual = this.rubricas;
+		IndiceClassificacao indice = this.indiceClassificacao;
+		if(indice == null || indice.rubricas != atual) {
+			indice = leConsistente(() -> new IndiceClassificacao(atual));
+			this.indiceClassificacao = indice;
+		}
+		return indice;
+	}
+	
+	/**
+	 * Compara as somas mantidas de todas as rúbricas com o recálculo completo das subárvores.
+	 * @return True se todas as somas estão consistentes
+	 */
+	public boolean verificaConsistenciaSomas() {
+		boolean consistente = true;
+		for(Rubrica rubrica : rubricas.values()) {
+			if(rubrica.getPai() == null) {
+				consistente &= rubrica.verificaConsistenciaSomas();
+			}
+		}
+		return consistente;
+	}
+	
+	/**
+	 * Refaz as somas de todas as rúbricas a partir das folhas.
+	 */
+	public void recalculaSomas() {
+		for(Rubrica rubrica : rubricas.values()) {
+			if(rubrica.getPai() == null) {
+				rubrica.recalculaSomas();
+			}
+		}
+	}
+	
 
+	/**
+	 * Ativa o modo concorrente com o número padrão de faixas de travas.
+	 */
+	public void ativaModoConcorrente() {
+		ativaModoConcorrente(FAIXAS_TRAVAS_PADRAO);
+	}
+	
+	/**
+	 * Ativa o modo concorrente. Deve ser chamado antes de o plano ser compartilhado entre threads.
+	 * @param numFaixas Número de faixas de travas; subárvores raiz diferentes só disputam a mesma
+	 * trava se caírem na mesma faixa
+	 */
+	public void ativaModoConcorrente(int numFaixas) {
+		if(numFaixas <= 0) {
+			throw new IllegalArgumentException("Número de faixas inválido: " + numFaixas);
+		}
+		ReentrantReadWriteLock[] faixas = new ReentrantReadWriteLock[numFaixas];
+		for(int i = 0; i < numFaixas; i++) {
+			faixas[i] = new ReentrantReadWriteLock();
+		}
+		this.faixasTravas = faixas;
+	}
+	
+	public boolean isModoConcorrente() {
+		return this.faixasTravas != null;
+	}
+	
+	/**
+	 * Altera uma rúbrica travando só a subárvore raiz a que ela pertence. Fora do modo concorrente
+	 * a alteração é aplicada diretamente.
+	 * @param codigo Código da rúbrica
+	 * @param alteracao Alteração aplicada à rúbrica
+	 * @return True se a rúbrica existe e foi alterada, falso se o código não existe
+	 */
+	public boolean atualiza(int codigo, Consumer<Rubrica> alteracao) {
+		Rubrica rubrica = this.rubricas.get(codigo);
+		if(rubrica == null) {
+			return false;
+		}
+		ReentrantReadWriteLock[] faixas = this.faixasTravas;
+		if(faixas == null) {
+			alteracao.accept(rubrica);
+			return true;
+		}
+		Lock trava = faixas[indiceFaixa(rubrica, faixas.length)].writeLock();
+		trava.lock();
+		try {
+			alteracao.accept(rubrica);
+		}finally {
+			trava.unlock();
+		}
+		return true;
+	}
+	
+	/**
+	 * Lê uma rúbrica travando para leitura só a subárvore raiz a que ela pertence, então os meses lidos
+	 * são de um mesmo estado sem esperar as alterações das outras subárvores.
+	 * @param codigo Código da rúbrica
+	 * @param leitura Leitura da rúbrica; não deve alterar o plano
+	 * @return Resultado da leitura, ou null se o código não existe
+	 */
+	public <T> T leRubrica(int codigo, Function<Rubrica, T> leitura) {
+		Rubrica rubrica = this.rubricas.get(codigo);
+		if(rubrica == null) {
+			return null;
+		}
+		ReentrantReadWriteLock[] faixas = this.faixasTravas;
+		if(faixas == null) {
+			return leitura.apply(rubrica);
+		}
+		Lock trava = faixas[indiceFaixa(rubrica, faixas.length)].readLock();
+		trava.lock();
+		try {
+			return leitura.apply(rubrica);
+		}finally {
+			trava.unlock();
+		}
+	}
+	
+	/**
+	 * Executa uma alteração que envolve várias rúbricas e suas subárvores travando só as faixas das
+	 * subárvores raiz delas. Se algum código não existe, trava todas as faixas, como escreveTudo.
+	 * @param codigos Códigos das rúbricas alteradas
+	 * @param alteracao Alteração a executar
+	 */
+	public void escreveRubricas(int[] codigos, Runnable alteracao) {
+		ReentrantReadWriteLock[] faixas = this.faixasTravas;
+		if(faixas == null) {
+			alteracao.run();
+			return;
+		}
+		while(true) {
+			Map<Integer, Rubrica> mapa = this.rubricas;
+			boolean[] usadas = new boolean[faixas.length];
+			for(int codigo : codigos) {
+				Rubrica rubrica = mapa.get(codigo);
+				if(rubrica == null) {
+					escreveTudo(alteracao);
+					return;
+				}
+				usadas[indiceFaixa(rubrica, faixas.length)] = true;
+			}
+			
+			//Em ordem crescente, como escreveTudo e leConsistente, para não haver impasse
+			int travadas = 0;
+			try {
+				for(; travadas < faixas.length; travadas++) {
+					if(usadas[travadas]) {
+						faixas[travadas].writeLock().lock();
+					}
+				}
+				//As rúbricas foram trocadas antes das travas: as faixas podem ser outras
+				if(mapa == this.rubricas) {
+					alteracao.run();
+					return;
+				}
+			}finally {
+				for(int i = travadas - 1; i >= 0; i--) {
+					if(usadas[i]) {
+						faixas[i].writeLock().unlock();
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Executa uma leitura com todas as subárvores travadas para leitura, de forma que nenhuma alteração
+	 * aconteça no meio dela. As travas são do thread chamador: a leitura pode repartir o trabalho com
+	 * outros threads sem que eles travem de novo. Não deve alterar o plano.
+	 * @param leitura Leitura a executar
+	 * @return Resultado da leitura
+	 */
+	public <T> T leConsistente(Supplier<T> leitura) {
+		ReentrantReadWriteLock[] faixas = this.faixasTravas;
+		if(faixas == null) {
+			return leitura.get();
+		}
+		int travadas = 0;
+		try {
+			//Sempre na mesma ordem, para não haver impasse entre leitores e escritores de tudo
+			for(; travadas < faixas.length; travadas++) {
+				faixas[travadas].readLock().lock();
+			}
+			return leitura.get();
+		}finally {
+			for(int i = travadas - 1; i >= 0; i--) {
+				faixas[i].readLock().unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Executa uma alteração com todas as subárvores travadas para escrita, como a troca das rúbricas
+	 * ou a leitura de um realizado mensal inteiro.
+	 * @param alteracao Alteração a executar
+	 */
+	public void escreveTudo(Runnable alteracao) {
+		ReentrantReadWriteLock[] faixas = this.faixasTravas;
+		if(faixas == null) {
+			alteracao.run();
+			return;
+		}
+		int travadas = 0;
+		try {
+			for(; travadas < faixas.length; travadas++) {
+				faixas[travadas].writeLock().lock();
+			}
+			alteracao.run();
+		}finally {
+			for(int i = travadas - 1; i >= 0; i--) {
+				faixas[i].writeLock().unlock();
+			}
+		}
+	}
+	
+	private static int indiceFaixa(Rubrica rubrica, int numFaixas) {
+		Rubrica raiz = rubrica;
+		while(raiz.getPai() != null) {
+			raiz = raiz.getPai();
+		}
+		int hash = raiz.getCodigo() * 0x9E3779B9;
+		return Math.floorMod(hash ^ (hash >>> 16), numFaixas);
+	}
+	
+	
+	/**
+	 * Classificação -> código de cada rúbrica classificada de um mapa de rúbricas, em ordem de
+	 * classificação. Classificações repetidas ficam com a última rúbrica do mapa.
+	 */
+	private static final class IndiceClassificacao {
+		final Map<Integer, Rubrica> rubricas;
+		final NavigableMap<String, Integer> codigos = new TreeMap<String, Integer>();
+		
+		IndiceClassificacao(Map<Integer, Rubrica> rubricas) {
+			this.rubricas = rubricas;
+			for(Rubrica rubrica : rubricas.values()) {
+				if(rubrica.getClassificacao() != null) {
+					codigos.put(rubrica.getClassificacao(), rubrica.getCodigo());
+				}
+			}
+		}
+	}
 }
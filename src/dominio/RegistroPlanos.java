@@ -0,0 +1,226 @@
+package dominio;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ *  Registro dos planos de contas de várias empresas em uma mesma JVM. Cada empresa tem o seu
+ *  PlanoContas, independente dos demais (rúbricas, fórmulas especiais e data de congelamento).
+ *  
+ *  Um plano pode ser registrado já pronto, e então fica sempre em memória, ou por um carregador,
+ *  que só é chamado quando o plano é pedido. Planos com carregador que ficam ociosos passam a ser
+ *  mantidos só por uma SoftReference: o coletor de lixo pode descartá-los se faltar memória, e o
+ *  carregador é chamado de novo no próximo acesso. Alterações feitas em um plano descartado se
+ *  perdem, então o carregador deve refletir o estado salvo da empresa.
+ *
+ */
+public class RegistroPlanos {
+
+	public static final long TEMPO_OCIOSO_PADRAO = 10 * 60 * 1000;
+
+	private ConcurrentHashMap<String, Entrada> planos = new ConcurrentHashMap<String, Entrada>();
+	private long tempoOcioso;
+	private AtomicLong ultimaLiberacao = new AtomicLong(System.currentTimeMillis());
+
+	public RegistroPlanos() {
+		this(TEMPO_OCIOSO_PADRAO);
+	}
+
+	/**
+	 * @param tempoOcioso Tempo sem acesso, em milissegundos, para que um plano com carregador
+	 * possa ser descartado
+	 */
+	public RegistroPlanos(long tempoOcioso) {
+		if(tempoOcioso < 0) {
+			throw new IllegalArgumentException("Tempo ocioso inválido: " + tempoOcioso);
+		}
+		this.tempoOcioso = tempoOcioso;
+	}
+
+	/**
+	 * Registra o plano de uma empresa. O plano fica sempre em memória.
+	 * @param empresa Identificador da empresa
+	 * @param plano Plano de contas da empresa
+	 * @throws IllegalArgumentException se a empresa já estiver registrada
+	 */
+	public void registra(String empresa, PlanoContas plano) {
+		if(plano == null) {
+			throw new NullPointerException("Plano da empresa " + empresa + " nulo");
+		}
+		adiciona(empresa, new Entrada(null, plano));
+	}
+
+	/**
+	 * Registra uma empresa cujo plano é carregado sob demanda.
+	 * @param empresa Identificador da empresa
+	 * @param carregador Função que cria o plano da empresa a partir do identificador
+	 * @throws IllegalArgumentException se a empresa já estiver registrada
+	 */
+	public void registra(String empresa, Function<String, PlanoContas> carregador) {
+		if(carregador == null) {
+			throw new NullPointerException("Carregador da empresa " + empresa + " nulo");
+		}
+		adiciona(empresa, new Entrada(carregador, null));
+	}
+
+	private void adiciona(String empresa, Entrada entrada) {
+		if(planos.putIfAbsent(empresa, entrada) != null) {
+			throw new IllegalArgumentException("Empresa " + empresa + " já registrada");
+		}
+	}
+
+	/**
+	 * @param empresa Identificador da empresa
+	 * @return O plano de contas da empresa, carregando-o se necessário
+	 * @throws IllegalArgumentException se a empresa não estiver registrada
+	 */
+	public PlanoContas getPlano(String empresa) {
+		Entrada entrada = planos.get(empresa);
+		if(entrada == null) {
+			throw new IllegalArgumentException("Empresa " + empresa + " não registrada");
+		}
+
+		//A varredura dos ociosos é feita de vez em quando, aproveitando os acessos
+		long agora = System.currentTimeMillis();
+		long ultima = ultimaLiberacao.get();
+		if(agora - ultima >= tempoOcioso / 2 && ultimaLiberacao.compareAndSet(ultima, agora)) {
+			liberaOciosos();
+		}
+		return entrada.obtem(empresa);
+	}
+
+	public boolean contem(String empresa) {
+		return planos.containsKey(empresa);
+	}
+
+	/**
+	 * @param empresa Identificador da empresa
+	 * @return True se o plano da empresa está em memória
+	 */
+	public boolean isCarregado(String empresa) {
+		Entrada entrada = planos.get(empresa);
+		return entrada != null && entrada.isCarregado();
+	}
+
+	/**
+	 * Remove a empresa do registro.
+	 * @param empresa Identificador da empresa
+	 * @return True se a empresa estava registrada
+	 */
+	public boolean remove(String empresa) {
+		return planos.remove(empresa) != null;
+	}
+
+	/**
+	 * @return Identificadores das empresas registradas, em ordem
+	 */
+	public Set<String> getEmpresas() {
+		return Collections.unmodifiableSet(new TreeSet<String>(planos.keySet()));
+	}
+
+	/**
+	 * Passa a manter só por SoftReference os planos com carregador que estão ociosos,
+	 * permitindo que sejam descartados se faltar memória.
+	 * @return Número de planos liberados
+	 */
+	public int liberaOciosos() {
+		long agora = System.currentTimeMillis();
+		int liberados = 0;
+		for(Entrada entrada : planos.values()) {
+			if(entrada.liberaSeOcioso(agora, tempoOcioso)) {
+				liberados++;
+			}
+		}
+		return liberados;
+	}
+
+	/**
+	 * Executa uma tarefa no plano de cada empresa, em paralelo. Cada plano é carregado (se preciso)
+	 * dentro da própria tarefa.
+	 * @param tarefa Tarefa executada com o plano de cada empresa
+	 * @param executor Executor das tarefas
+	 * @return Empresa -> resultado da tarefa, em ordem de empresa
+	 * @throws InterruptedException se a espera pelas tarefas for interrompida
+	 * @throws IllegalStateException se a tarefa falhar para alguma empresa
+	 */
+	public <T> Map<String, T> executaEmTodas(final Function<PlanoContas, T> tarefa, ExecutorService executor) throws InterruptedException {
+		List<String> empresas = new ArrayList<String>(getEmpresas());
+		List<Future<T>> futuros = new ArrayList<Future<T>>();
+		for(final String empresa : empresas) {
+			futuros.add(executor.submit(() -> tarefa.apply(getPlano(empresa))));
+		}
+
+		Map<String, T> resultados = new TreeMap<String, T>();
+		for(int i = 0; i < empresas.size(); i++) {
+			try {
+				resultados.put(empresas.get(i), futuros.get(i).get());
+			}catch(ExecutionException e) {
+				for(Future<T> futuro : futuros) {
+					futuro.cancel(true);
+				}
+				throw new IllegalStateException("Erro no plano da empresa " + empresas.get(i), e.getCause());
+			}
+		}
+		return resultados;
+	}
+
+	/**
+	 * Plano de uma empresa: referência forte enquanto em uso e SoftReference quando ocioso.
+	 */
+	private static class Entrada {
+
+		private Function<String, PlanoContas> carregador;
+		private PlanoContas forte;
+		private SoftReference<PlanoContas> fraca;
+		private volatile long ultimoAcesso;
+
+		Entrada(Function<String, PlanoContas> carregador, PlanoContas plano) {
+			this.carregador = carregador;
+			this.forte = plano;
+			this.ultimoAcesso = System.currentTimeMillis();
+		}
+
+		synchronized PlanoContas obtem(String empresa) {
+			ultimoAcesso = System.currentTimeMillis();
+			if(forte == null) {
+				forte = fraca != null ? fraca.get() : null;
+				if(forte == null) {
+					forte = carregador.apply(empresa);
+					if(forte == null) {
+						throw new IllegalStateException("Carregador não retornou o plano da empresa " + empresa);
+					}
+				}
+				fraca = null;
+			}
+			return forte;
+		}
+
+		synchronized boolean isCarregado() {
+			return forte != null || (fraca != null && fraca.get() != null);
+		}
+
+		/**
+		 * Planos sem carregador não podem ser recriados, então nunca são liberados.
+		 */
+		synchronized boolean liberaSeOcioso(long agora, long tempoOcioso) {
+			if(carregador == null || forte == null || agora - ultimoAcesso < tempoOcioso) {
+				return false;
+			}
+			fraca = new SoftReference<PlanoContas>(forte);
+			forte = null;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package dominio;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ *  Resultado imutável de uma ConsultaCubo: uma linha por grupo, com a chave do grupo (código da
+ *  rúbrica, categoria, profundidade ou TOTAL), o seu nome, o número de contas agregadas e uma
+ *  coluna por agregação pedida.
+ *
+ */
+public final class ResultadoConsulta {
+
+	private final String[] colunas;
+	private final String[] chaves;
+	private final String[] nomes;
+	private final long[] contagens;
+	//valores[coluna][linha]
+	private final double[][] valores;
+
+	ResultadoConsulta(String[] colunas, String[] chaves, String[] nomes, long[] contagens, double[][] valores,
+			int colunaOrdem, boolean decrescente, int limite) {
+		int linhas = Math.min(chaves.length, Math.max(limite, 0));
+		this.colunas = colunas.clone();
+		if(colunaOrdem < 0) {
+			//Na ordem do plano de contas, só cortando no limite
+			this.chaves = Arrays.copyOf(chaves, linhas);
+			this.nomes = Arrays.copyOf(nomes, linhas);
+			this.contagens = Arrays.copyOf(contagens, linhas);
+			this.valores = new double[colunas.length][];
+			for(int c = 0; c < colunas.length; c++) {
+				this.valores[c] = Arrays.copyOf(valores[c], linhas);
+			}
+			return;
+		}
+
+		Integer[] ordem = new Integer[chaves.length];
+		for(int i = 0; i < ordem.length; i++) {
+			ordem[i] = i;
+		}
+		double[] coluna = valores[colunaOrdem];
+		Comparator<Integer> comparador = Comparator.comparingDouble(linha -> coluna[linha]);
+		//Ordenação estável: empates ficam na ordem do plano de contas
+		Arrays.sort(ordem, decrescente ? comparador.reversed() : comparador);
+
+		this.chaves = new String[linhas];
+		this.nomes = new String[linhas];
+		this.contagens = new long[linhas];
+		this.valores = new double[colunas.length][linhas];
+		for(int i = 0; i < linhas; i++) {
+			int linha = ordem[i];
+			this.chaves[i] = chaves[linha];
+			this.nomes[i] = nomes[linha];
+			this.contagens[i] = contagens[linha];
+			for(int c = 0; c < colunas.length; c++) {
+				this.valores[c][i] = valores[c][linha];
+			}
+		}
+	}
+
+	public int getNumLinhas() {
+		return chaves.length;
+	}
+
+	public int getNumColunas() {
+		return colunas.length;
+	}
+
+	/**
+	 * @return Nome da coluna, ex: soma(realizado)
+	 */
+	public String getColuna(int coluna) {
+		return colunas[coluna];
+	}
+
+	/**
+	 * @return Código da rúbrica do grupo, nome da categoria, profundidade ou TOTAL
+	 */
+	public String getChave(int linha) {
+		return chaves[linha];
+	}
+
+	public String getNome(int linha) {
+		return nomes[linha];
+	}
+
+	/**
+	 * @return Número de contas agregadas na linha
+	 */
+	public long getContagem(int linha) {
+		return contagens[linha];
+	}
+
+	public double getValor(int linha, int coluna) {
+		return valores[coluna][linha];
+	}
+
+	public String toString() {
+		StringBuilder texto = new StringBuilder("chave\tnome\tcontas");
+		for(String coluna : colunas) {
+			texto.append('\t').append(coluna);
+		}
+		for(int linha = 0; linha < chaves.length; linha++) {
+			texto.append(System.lineSeparator()).append(chaves[linha]).append('\t').append(nomes[linha]).append('\t').append(contagens[linha]);
+			for(int coluna = 0; coluna < colunas.length; coluna++) {
+				texto.append('\t').append(valores[coluna][linha]);
+			}
+		}
+		return texto.toString();
+	}
+}
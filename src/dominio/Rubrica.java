@@ -4,52 +4,176 @@ import static org.junit.Assert.assertNotNull;
 import java.util.*;
 
 import util.CategoriaRubrica;
+import util.Metricas;
 
 /**
  *  Classe que representa uma Rubrica de um Plano de Contas
+ *  Não é thread-safe: com várias threads, as alterações devem passar por PlanoContas.atualiza
+ *  (modo concorrente do plano).
  *
  */
 public class Rubrica {
 	
+	//Número de valores de uma rúbrica: ano passado, previstos e realizados, 12 meses de cada
+	static final int NUM_VALORES = 36;
+	
+	//Deslocamento de cada tipo de valor dentro do array de valores
+	private static final int ANO_PASSADO = 0;
+	private static final int PREVISTO = 12;
+	private static final int REALIZADO = 24;
+	
+	//Deslocamento de cada soma dentro do array de somas das subrúbricas
+	private static final int SOMA_PREVISTO = 0;
+	private static final int SOMA_REALIZADO = 12;
+	private static final double TOLERANCIA_SOMAS = 1e-6;
+	
+	//Deslocamento de cada soma acumulada dentro do array de acumulados: 13 posições cada,
+	//a posição 0 é sempre zero e a posição m é a soma dos meses 1 a m
+	private static final int ACUMULADO_ANO_PASSADO = 0;
+	private static final int ACUMULADO_PREVISTO = 13;
+	private static final int ACUMULADO_REALIZADO = 26;
+	
+	//Quando ativo, toda leitura das somas é comparada com o recálculo completo da subárvore
+	private static volatile boolean verificacaoConsistencia = false;
+	
+	private static final Metricas.Contador PROPAGACOES = Metricas.contador("rubrica_propagacoes_total",
+			"Alterações de valor propagadas às somas dos ancestrais");
+	
 	private Rubrica pai;
 	private String nome;
 	private int codigo;
+	//Classificação do orçamento, ex: "3.2.1.01.002"; null se a rúbrica não veio de um orçamento
+	private String classificacao;
 	private CategoriaRubrica categoria;
-	private Double[] valoresAnoPassado;
-	private Double[] valoresPrevistos;
-	private Double[] valoresRealizados;
+	//Valores do ano passado, previstos e realizados, 12 meses de cada, em um único array
+	private double[] valores;
+	//Bit i indica se valores[i] foi definido
+	private long presenca;
+	//Somas dos previstos e realizados das folhas da subárvore, mantidas a cada alteração
+	private double[] somas;
+	//Somas acumuladas (prefixos) do ano passado da rúbrica e das somas das subrúbricas,
+	//mantidas junto com as somas, para somar qualquer intervalo de meses em O(1)
+	private double[] acumulados;
 	private List<Rubrica> subRubricas;
+	//Vista imutável de subRubricas, devolvida por getSubRubricas
+	private List<Rubrica> vistaSubRubricas;
+	//Avisado de cada alteração de previsto ou realizado; definido pelo plano de contas
+	private OuvinteMutacao ouvinte;
 	
 	public Rubrica(Rubrica pai, String nome, int codigo, CategoriaRubrica categoria, Double[] valoresAnoPassado) {
+		this(pai, nome, codigo, categoria, valoresAnoPassado, null);
+	}
+	
+	/**
+	 * @param classificacao Classificação do orçamento, ex: "3.2.1.01.002", ou null
+	 */
+	public Rubrica(Rubrica pai, String nome, int codigo, CategoriaRubrica categoria, Double[] valoresAnoPassado, String classificacao) {
 		this.pai = pai;
+		this.classificacao = classificacao;
 		this.nome = nome;
 		this.codigo = codigo;
 		this.categoria = categoria;
 		this.subRubricas = new ArrayList<>();
-		this.valoresAnoPassado = valoresAnoPassado; 
-		this.valoresPrevistos = new Double[12]; 
-		this.valoresRealizados = new Double[12]; 
+		this.vistaSubRubricas = Collections.unmodifiableList(this.subRubricas);
+		this.valores = new double[NUM_VALORES];
+		this.somas = new double[24];
+		this.acumulados = new double[39];
+		if(valoresAnoPassado != null) {
+			for(int i = 0; i < valoresAnoPassado.length && i < 12; i++) {
+				if(valoresAnoPassado[i] != null) {
+					defineValor(ANO_PASSADO + i, valoresAnoPassado[i]);
+				}
+			}
+		}
+		recalculaAcumulados(ANO_PASSADO, this.valores, ACUMULADO_ANO_PASSADO);
 	}
 
 
 	public Rubrica getPai() {
 		return this.pai;
 	}
+	
+	/**
+	 * @return Classificação do orçamento, ex: "3.2.1.01.002", ou null se não houver
+	 */
+	public String getClassificacao() {
+		return this.classificacao;
+	}
+	
 	public int getCodigo() {
 		return codigo;
 	}
+	/**
+	 * @return Lista imutável das subrúbricas; para alterá-la, use addSubRubrica e removeSubRubrica,
+	 * que mantêm as somas
+	 */
 	public List<Rubrica> getSubRubricas(){
-		return this.subRubricas;
+		return this.vistaSubRubricas;
 	
 	}
 	
+	/**
+	 * Adiciona uma subrúbrica, tornando esta rúbrica o seu pai, e atualiza as somas
+	 * desta rúbrica e de seus ancestrais. Se a subrúbrica já tinha um pai, ela é antes removida
+	 * dele, e as suas somas saem das somas do pai antigo e dos ancestrais dele.
+	 * @param subRubrica Subrúbrica a ser adicionada
+	 */
 	public void addSubRubrica(Rubrica subRubrica) {
+		if(subRubrica.pai != null) {
+			subRubrica.pai.removeSubRubrica(subRubrica);
+		}
+		boolean eraFolha = this.subRubricas.isEmpty();
 		this.subRubricas.add(subRubrica);
+		subRubrica.pai = this;
+		
+		//Uma folha soma os próprios valores; ao ganhar a primeira filha passa a somar as filhas
+		for(int i = 0; i < this.somas.length; i++) {
+			double novaSoma = eraFolha ? subRubrica.somas[i] : this.somas[i] + subRubrica.somas[i];
+			propagaSoma(i, novaSoma - this.somas[i]);
+		}
+	}
+	
+	/**
+	 * Remove uma subrúbrica, que fica sem pai, e tira as somas dela das somas desta rúbrica e de
+	 * seus ancestrais. Sem subrúbricas, esta rúbrica volta a somar os próprios valores.
+	 * @param subRubrica Subrúbrica a ser removida
+	 * @return False se a rúbrica não era subrúbrica desta
+	 */
+	public boolean removeSubRubrica(Rubrica subRubrica) {
+		int posicao = -1;
+		for(int i = 0; i < this.subRubricas.size() && posicao < 0; i++) {
+			if(this.subRubricas.get(i) == subRubrica) {
+				posicao = i;
+			}
+		}
+		if(subRubrica.pai == this) {
+			subRubrica.pai = null;
+		}
+		if(posicao < 0) {
+			return false;
+		}
+		this.subRubricas.remove(posicao);
+		
+		boolean ficouFolha = this.subRubricas.isEmpty();
+		for(int i = 0; i < this.somas.length; i++) {
+			//somas[i] corresponde a valores[PREVISTO + i], tanto nos previstos quanto nos realizados
+			double novaSoma = ficouFolha ? this.valores[PREVISTO + i] : this.somas[i] - subRubrica.somas[i];
+			propagaSoma(i, novaSoma - this.somas[i]);
+		}
+		return true;
 	}
 	
 	public void setValorRealizado(int mes, double valor) {
 		try {
-			this.valoresRealizados[mes - 1] = valor;
+			int indice = indice(REALIZADO, mes);
+			double anterior = this.valores[indice];
+			defineValor(indice, valor);
+			if(this.subRubricas.isEmpty()) {
+				propagaSoma(SOMA_REALIZADO + mes - 1, valor - anterior);
+			}
+			if(this.ouvinte != null) {
+				this.ouvinte.valorAlterado(this.codigo, OuvinteMutacao.TIPO_REALIZADO, mes, valor);
+			}
 			
 		}catch(ArrayIndexOutOfBoundsException e) {
 			 System.out.println("Mês inválido!");
@@ -58,26 +182,65 @@ public class Rubrica {
 	
 	public void setValorPrevisto(int mes, double valor) {
 		try {
-			this.valoresPrevistos[mes - 1] = valor;
+			int indice = indice(PREVISTO, mes);
+			double anterior = this.valores[indice];
+			defineValor(indice, valor);
+			if(this.subRubricas.isEmpty()) {
+				propagaSoma(SOMA_PREVISTO + mes - 1, valor - anterior);
+			}
+			if(this.ouvinte != null) {
+				this.ouvinte.valorAlterado(this.codigo, OuvinteMutacao.TIPO_PREVISTO, mes, valor);
+			}
 			
 		}catch(ArrayIndexOutOfBoundsException e) {
 			 System.out.println("Mês inválido!");
 		}
 	}
 	
+	/**
+	 * Soma uma diferença à soma desta rúbrica e de todos os seus ancestrais, e às somas
+	 * acumuladas a partir do mês alterado.
+	 */
+	private void propagaSoma(int indiceSoma, double diferenca) {
+		if(diferenca == 0.0) {
+			return;
+		}
+		PROPAGACOES.incrementa();
+		int acumulado = (indiceSoma < SOMA_REALIZADO ? ACUMULADO_PREVISTO : ACUMULADO_REALIZADO) + indiceSoma % 12 + 1;
+		int fimAcumulado = acumulado - indiceSoma % 12 + 11;
+		for(Rubrica rubrica = this; rubrica != null; rubrica = rubrica.pai) {
+			rubrica.somas[indiceSoma] += diferenca;
+			for(int i = acumulado; i <= fimAcumulado; i++) {
+				rubrica.acumulados[i] += diferenca;
+			}
+		}
+	}
+	
 	public String getValorPrevisto(int mes, int codigo) {
-		String out = this.nome + "  " +  String.valueOf(this.codigo) + " " + this.valoresPrevistos[mes - 1];
+		String out = this.nome + "  " +  String.valueOf(this.codigo) + " " + this.getValorPrevisto(mes);
 		return out;
 	}
 	
+	/**
+	 * @param mes Mês da previsão
+	 * @return Valor previsto, ou null se ainda não foi previsto
+	 */
 	public Double getValorPrevisto(int mes) {
 		
-		return this.valoresPrevistos[mes - 1];
+		return valorOuNulo(indice(PREVISTO, mes));
 	}
 	
-	
+	/**
+	 * @param mes Mês
+	 * @return Valor do ano passado
+	 * @throws NullPointerException se a rúbrica não possui valor do ano passado no mês
+	 */
 	public double getvalorAnoPassado(int mes) {
-		return this.valoresAnoPassado[mes - 1];
+		int indice = indice(ANO_PASSADO, mes);
+		if(!possuiValor(indice)) {
+			throw new NullPointerException("Rúbrica " + this.codigo + " sem valor do ano passado no mês " + mes);
+		}
+		return this.valores[indice];
 	}
 	
 	public String getNome() {
@@ -87,8 +250,160 @@ public class Rubrica {
 	public CategoriaRubrica getCategoria () {
 		return this.categoria;
 	}
+	
+	/**
+	 * @param mes Mês do realizado
+	 * @return Valor realizado, ou null se ainda não foi lido
+	 */
 	public Double getValorRealizado(int mes) {
-		return this.valoresRealizados[mes - 1];
+		return valorOuNulo(indice(REALIZADO, mes));
+	}
+	
+	//Acesso primitivo, sem alocação, para os laços de agregação
+	
+	public boolean temValorPrevisto(int mes) {
+		return possuiValor(indice(PREVISTO, mes));
+	}
+	
+	public boolean temValorRealizado(int mes) {
+		return possuiValor(indice(REALIZADO, mes));
+	}
+	
+	public boolean temValorAnoPassado(int mes) {
+		return possuiValor(indice(ANO_PASSADO, mes));
+	}
+	
+	/**
+	 * @param mes Mês da previsão
+	 * @return Valor previsto, ou zero se ainda não foi previsto
+	 */
+	public double getValorPrevistoOuZero(int mes) {
+		return this.valores[indice(PREVISTO, mes)];
+	}
+	
+	/**
+	 * @param mes Mês do realizado
+	 * @return Valor realizado, ou zero se ainda não foi lido
+	 */
+	public double getValorRealizadoOuZero(int mes) {
+		return this.valores[indice(REALIZADO, mes)];
+	}
+	
+	/**
+	 * @param mes Mês
+	 * @return Valor do ano passado, ou zero se não existe
+	 */
+	public double getValorAnoPassadoOuZero(int mes) {
+		return this.valores[indice(ANO_PASSADO, mes)];
+	}
+	
+	//Acesso direto aos valores para o SnapshotPlanoContas
+	
+	double[] getValoresBrutos() {
+		return this.valores;
+	}
+	
+	long getPresenca() {
+		return this.presenca;
+	}
+	
+	/**
+	 * Restaura os 36 valores e a presença de cada um sem atualizar as somas; as somas devem ser
+	 * refeitas com recalculaSomas depois que toda a árvore for restaurada.
+	 */
+	void restauraValores(double[] origem, int inicio, long presenca) {
+		System.arraycopy(origem, inicio, this.valores, 0, this.valores.length);
+		this.presenca = presenca;
+		recalculaAcumulados(ANO_PASSADO, this.valores, ACUMULADO_ANO_PASSADO);
+	}
+	
+	/**
+	 * Substitui os valores do ano passado, ex: por um ano do HistoricoPlanoContas.
+	 * @param valoresAnoPassado Valores de janeiro a dezembro, null nos meses sem valor
+	 */
+	void defineAnoPassado(Double[] valoresAnoPassado) {
+		for(int i = 0; i < 12; i++) {
+			Double valor = i < valoresAnoPassado.length ? valoresAnoPassado[i] : null;
+			if(valor == null) {
+				this.valores[ANO_PASSADO + i] = 0;
+				this.presenca &= ~(1L << (ANO_PASSADO + i));
+			}else {
+				defineValor(ANO_PASSADO + i, valor);
+			}
+		}
+		recalculaAcumulados(ANO_PASSADO, this.valores, ACUMULADO_ANO_PASSADO);
+	}
+	
+	void setOuvinteMutacao(OuvinteMutacao ouvinte) {
+		this.ouvinte = ouvinte;
+	}
+	
+	/**
+	 * Cópia para um cenário (CenarioPlano): valores, presença e somas copiados, com as mesmas
+	 * subrúbricas, que continuam apontando para o pai original até serem copiadas também.
+	 * @param pai Pai da cópia
+	 */
+	Rubrica copia(Rubrica pai) {
+		Rubrica copia = new Rubrica(pai, this.nome, this.codigo, this.categoria, null, this.classificacao);
+		System.arraycopy(this.valores, 0, copia.valores, 0, NUM_VALORES);
+		System.arraycopy(this.somas, 0, copia.somas, 0, this.somas.length);
+		System.arraycopy(this.acumulados, 0, copia.acumulados, 0, this.acumulados.length);
+		copia.presenca = this.presenca;
+		copia.subRubricas.addAll(this.subRubricas);
+		return copia;
+	}
+	
+	/**
+	 * Troca uma subrúbrica pela sua cópia, sem alterar as somas, para a cópia de caminhos do CenarioPlano.
+	 */
+	void substituiSubRubrica(Rubrica antiga, Rubrica nova) {
+		for(int i = 0; i < this.subRubricas.size(); i++) {
+			if(this.subRubricas.get(i) == antiga) {
+				this.subRubricas.set(i, nova);
+				return;
+			}
+		}
+		throw new IllegalStateException("Rúbrica " + antiga.codigo + " não é subrúbrica de " + this.codigo);
+	}
+	
+	/**
+	 * Desliga todas as subrúbricas sem atualizar as somas nem o pai delas, para a cópia do plano
+	 * inteiro do CenarioPlano, que liga depois as cópias das subrúbricas.
+	 */
+	void desligaSubRubricas() {
+		this.subRubricas.clear();
+	}
+	
+	/**
+	 * Liga uma subrúbrica sem atualizar as somas, para a restauração do snapshot.
+	 */
+	void ligaSubRubrica(Rubrica subRubrica) {
+		this.subRubricas.add(subRubrica);
+		subRubrica.pai = this;
+	}
+	
+	/**
+	 * Converte o mês no índice do array de valores.
+	 * @throws ArrayIndexOutOfBoundsException se o mês não estiver entre 1 e 12
+	 */
+	private static int indice(int deslocamento, int mes) {
+		if(mes < 1 || mes > 12) {
+			throw new ArrayIndexOutOfBoundsException(mes - 1);
+		}
+		return deslocamento + mes - 1;
+	}
+	
+	private boolean possuiValor(int indice) {
+		return (this.presenca & (1L << indice)) != 0;
+	}
+	
+	private Double valorOuNulo(int indice) {
+		return possuiValor(indice) ? this.valores[indice] : null;
+	}
+	
+	private void defineValor(int indice, double valor) {
+		this.valores[indice] = valor;
+		this.presenca |= 1L << indice;
 	}
 
 	/**
@@ -97,49 +412,251 @@ public class Rubrica {
 	 * @return Somatório das pŕevisões das subrubricas
 	 */
 	public Double somaValoresPrevistosSubrubricas(int mes)  {
-		if(this.getSubRubricas().isEmpty() ) {
-			if(this.getValorPrevisto(mes) == null) {
-				return 0.0;
+		return somaPrevistosSubrubricas(mes);
+	}
+
+	/**
+	 * Dado um mes retorna a soma dos valores realizados de todas as suas subrúbricas, não incluindo ela mesma. 
+	 * @param mes Mês do Realizado Mensal
+	 * @return Somatório dos valores realizados das subrubricas
+	 */
+	public Double somaValoresRealizadosSubrubricas(int mes)  {
+		return somaRealizadosSubrubricas(mes);
+	}
+	
+	/**
+	 * Versão primitiva de somaValoresPrevistosSubrubricas. A soma é mantida a cada
+	 * alteração de valor, portanto a leitura é O(1).
+	 * @param mes Mês da previsão
+	 * @return Somatório das pŕevisões das subrubricas
+	 */
+	public double somaPrevistosSubrubricas(int mes) {
+		double soma = this.somas[indiceSoma(SOMA_PREVISTO, mes)];
+		if(verificacaoConsistencia) {
+			verificaSoma(soma, recalculaPrevistosSubrubricas(mes), "prevista", mes);
+		}
+		return soma;
+	}
+	
+	/**
+	 * Versão primitiva de somaValoresRealizadosSubrubricas. A soma é mantida a cada
+	 * alteração de valor, portanto a leitura é O(1).
+	 * @param mes Mês do Realizado Mensal
+	 * @return Somatório dos valores realizados das subrubricas
+	 */
+	public double somaRealizadosSubrubricas(int mes) {
+		double soma = this.somas[indiceSoma(SOMA_REALIZADO, mes)];
+		if(verificacaoConsistencia) {
+			verificaSoma(soma, recalculaRealizadosSubrubricas(mes), "realizada", mes);
+		}
+		return soma;
+	}
+	
+	/**
+	 * Soma das previsões das subrúbricas em um intervalo de meses, em O(1) pelas somas acumuladas.
+	 * @param mesInicial Primeiro mês do intervalo
+	 * @param mesFinal Último mês do intervalo
+	 * @return Somatório das previsões das subrúbricas no intervalo, zero se o intervalo é vazio
+	 */
+	public double somaPrevistosSubrubricas(int mesInicial, int mesFinal) {
+		double soma = somaIntervalo(ACUMULADO_PREVISTO, mesInicial, mesFinal);
+		if(verificacaoConsistencia) {
+			double recalculada = 0.0;
+			for(int mes = mesInicial; mes <= mesFinal; mes++) {
+				recalculada += recalculaPrevistosSubrubricas(mes);
 			}
-			else {
-				return this.getValorPrevisto(mes);	
+			verificaSoma(soma, recalculada, "prevista", mesInicial, mesFinal);
+		}
+		return soma;
+	}
+	
+	/**
+	 * Soma dos valores realizados das subrúbricas em um intervalo de meses, em O(1) pelas somas acumuladas.
+	 * @param mesInicial Primeiro mês do intervalo
+	 * @param mesFinal Último mês do intervalo
+	 * @return Somatório dos valores realizados das subrúbricas no intervalo, zero se o intervalo é vazio
+	 */
+	public double somaRealizadosSubrubricas(int mesInicial, int mesFinal) {
+		double soma = somaIntervalo(ACUMULADO_REALIZADO, mesInicial, mesFinal);
+		if(verificacaoConsistencia) {
+			double recalculada = 0.0;
+			for(int mes = mesInicial; mes <= mesFinal; mes++) {
+				recalculada += recalculaRealizadosSubrubricas(mes);
 			}
-		
+			verificaSoma(soma, recalculada, "realizada", mesInicial, mesFinal);
 		}
-		
-		Double count = 0.0;
-		for (Rubrica subRubrica : this.getSubRubricas()) {
-			count = count + subRubrica.somaValoresPrevistosSubrubricas(mes);
+		return soma;
+	}
+	
+	/**
+	 * Soma dos valores do ano passado desta rúbrica em um intervalo de meses, em O(1).
+	 * Meses sem valor contam como zero.
+	 * @param mesInicial Primeiro mês do intervalo
+	 * @param mesFinal Último mês do intervalo
+	 * @return Somatório do ano passado no intervalo, zero se o intervalo é vazio
+	 */
+	public double somaAnoPassado(int mesInicial, int mesFinal) {
+		return somaIntervalo(ACUMULADO_ANO_PASSADO, mesInicial, mesFinal);
+	}
+	
+	/**
+	 * @throws ArrayIndexOutOfBoundsException se algum dos meses não estiver entre 1 e 12
+	 */
+	private double somaIntervalo(int deslocamento, int mesInicial, int mesFinal) {
+		indiceSoma(0, mesInicial);
+		indiceSoma(0, mesFinal);
+		if(mesInicial > mesFinal) {
+			return 0.0;
+		}
+		if(mesInicial == mesFinal) {
+			//Um único mês é lido diretamente, sem o arredondamento da diferença de acumulados
+			return deslocamento == ACUMULADO_ANO_PASSADO ? this.valores[ANO_PASSADO + mesInicial - 1]
+					: this.somas[(deslocamento == ACUMULADO_PREVISTO ? SOMA_PREVISTO : SOMA_REALIZADO) + mesInicial - 1];
+		}
+		return this.acumulados[deslocamento + mesFinal] - this.acumulados[deslocamento + mesInicial - 1];
+	}
+	
+	/**
+	 * Refaz as somas acumuladas de 12 meses a partir dos valores mês a mês.
+	 */
+	private void recalculaAcumulados(int origem, double[] valoresMensais, int destino) {
+		this.acumulados[destino] = 0.0;
+		for(int mes = 1; mes <= 12; mes++) {
+			this.acumulados[destino + mes] = this.acumulados[destino + mes - 1] + valoresMensais[origem + mes - 1];
+		}
+	}
+	
+	/**
+	 * Recalcula percorrendo toda a subárvore a soma das previsões das subrúbricas.
+	 * @param mes Mês da previsão
+	 * @return Somatório das pŕevisões das subrubricas
+	 */
+	public double recalculaPrevistosSubrubricas(int mes) {
+		if(this.subRubricas.isEmpty()) {
+			return getValorPrevistoOuZero(mes);
 		}
 		
+		double count = 0.0;
+		for (Rubrica subRubrica : this.subRubricas) {
+			count += subRubrica.recalculaPrevistosSubrubricas(mes);
+		}
 		return count;
 	}
-
+	
 	/**
-	 * Dado um mes retorna a soma dos valores realizados de todas as suas subrúbricas, não incluindo ela mesma. 
+	 * Recalcula percorrendo toda a subárvore a soma dos valores realizados das subrúbricas.
 	 * @param mes Mês do Realizado Mensal
 	 * @return Somatório dos valores realizados das subrubricas
 	 */
-	public Double somaValoresRealizadosSubrubricas(int mes)  {
-		if (this.getSubRubricas().isEmpty() ) {
-			try { 
-				if(this.getValorRealizado(mes) == null) {
-					return 0.0;
-				}
-				else {
-					return this.getValorRealizado(mes);
+	public double recalculaRealizadosSubrubricas(int mes) {
+		if(this.subRubricas.isEmpty()) {
+			return getValorRealizadoOuZero(mes);
+		}
+		
+		double count = 0.0;
+		for (Rubrica subRubrica : this.subRubricas) {
+			count += subRubrica.recalculaRealizadosSubrubricas(mes);
+		}
+		return count;
+	}
+	
+	/**
+	 * Refaz as somas desta rúbrica e de toda a sua subárvore a partir das folhas.
+	 * Útil após carregar valores em lote ou para descartar erros de arredondamento acumulados.
+	 */
+	public void recalculaSomas() {
+		if(this.subRubricas.isEmpty()) {
+			for(int mes = 1; mes <= 12; mes++) {
+				this.somas[SOMA_PREVISTO + mes - 1] = getValorPrevistoOuZero(mes);
+				this.somas[SOMA_REALIZADO + mes - 1] = getValorRealizadoOuZero(mes);
+			}
+		}
+		else {
+			Arrays.fill(this.somas, 0.0);
+			for(Rubrica subRubrica : this.subRubricas) {
+				subRubrica.recalculaSomas();
+				for(int i = 0; i < this.somas.length; i++) {
+					this.somas[i] += subRubrica.somas[i];
 				}
 			}
-			catch (NullPointerException ex){
-				return 0.0;
+		}
+		recalculaAcumulados(SOMA_PREVISTO, this.somas, ACUMULADO_PREVISTO);
+		recalculaAcumulados(SOMA_REALIZADO, this.somas, ACUMULADO_REALIZADO);
+	}
+	
+	/**
+	 * Compara as somas mantidas desta rúbrica e de toda a sua subárvore com o recálculo completo.
+	 * @return True se todas as somas estão consistentes
+	 */
+	public boolean verificaConsistenciaSomas() {
+		double[] esperadas = new double[this.somas.length];
+		return verificaConsistenciaSomas(esperadas);
+	}
+	
+	private boolean verificaConsistenciaSomas(double[] esperadas) {
+		boolean consistente = true;
+		Arrays.fill(esperadas, 0.0);
+		if(this.subRubricas.isEmpty()) {
+			for(int mes = 1; mes <= 12; mes++) {
+				esperadas[SOMA_PREVISTO + mes - 1] = getValorPrevistoOuZero(mes);
+				esperadas[SOMA_REALIZADO + mes - 1] = getValorRealizadoOuZero(mes);
 			}
 		}
-		
-		Double count = 0.0;
-		for (Rubrica subRubrica : this.getSubRubricas()) {
-			count = count + subRubrica.somaValoresRealizadosSubrubricas(mes);
+		else {
+			double[] somaFilhas = new double[this.somas.length];
+			for(Rubrica subRubrica : this.subRubricas) {
+				consistente &= subRubrica.verificaConsistenciaSomas(somaFilhas);
+				for(int i = 0; i < esperadas.length; i++) {
+					esperadas[i] += somaFilhas[i];
+				}
+			}
 		}
-		return count;
+		double[] acumulado = new double[2];
+		for(int i = 0; i < esperadas.length; i++) {
+			consistente &= somasIguais(this.somas[i], esperadas[i]);
+			acumulado[i / 12] = i % 12 == 0 ? esperadas[i] : acumulado[i / 12] + esperadas[i];
+			int indiceAcumulado = (i < SOMA_REALIZADO ? ACUMULADO_PREVISTO : ACUMULADO_REALIZADO) + i % 12 + 1;
+			consistente &= somasIguais(this.acumulados[indiceAcumulado], acumulado[i / 12]);
+		}
+		return consistente;
+	}
+	
+	/**
+	 * Ativa ou desativa o modo de verificação de consistência, em que cada leitura das somas
+	 * é comparada com o recálculo completo da subárvore.
+	 * @param ativa True para ativar a verificação
+	 */
+	public static void setVerificacaoConsistencia(boolean ativa) {
+		verificacaoConsistencia = ativa;
+	}
+	
+	public static boolean isVerificacaoConsistencia() {
+		return verificacaoConsistencia;
+	}
+	
+	private void verificaSoma(double mantida, double recalculada, String tipo, int mes) {
+		if(!somasIguais(mantida, recalculada)) {
+			throw new IllegalStateException("Soma " + tipo + " da rúbrica " + this.codigo + " no mês " + mes
+					+ " inconsistente: mantida " + mantida + ", recalculada " + recalculada);
+		}
+	}
+	
+	private void verificaSoma(double mantida, double recalculada, String tipo, int mesInicial, int mesFinal) {
+		if(!somasIguais(mantida, recalculada)) {
+			throw new IllegalStateException("Soma " + tipo + " da rúbrica " + this.codigo + " nos meses " + mesInicial + "-" + mesFinal
+					+ " inconsistente: mantida " + mantida + ", recalculada " + recalculada);
+		}
+	}
+	
+	private static boolean somasIguais(double a, double b) {
+		return Math.abs(a - b) <= TOLERANCIA_SOMAS * Math.max(1.0, Math.max(Math.abs(a), Math.abs(b)));
+	}
+	
+	private static int indiceSoma(int deslocamento, int mes) {
+		if(mes < 1 || mes > 12) {
+			throw new ArrayIndexOutOfBoundsException(mes - 1);
+		}
+		return deslocamento + mes - 1;
 	}
 	
 	
@@ -150,8 +667,8 @@ public class Rubrica {
 		String out = this.nome + "  " +  String.valueOf(this.codigo);
 		double total = 0;
 		for(int i = 0; i < 12; i++) {
-			if(this.valoresAnoPassado[i] == null) System.out.println(this.nome +"\n");
-			total += this.valoresAnoPassado[i];
+			if(!this.possuiValor(ANO_PASSADO + i)) System.out.println(this.nome +"\n");
+			total += this.getvalorAnoPassado(i + 1);
 			
 		}
 		out += "  " + String.valueOf(total);
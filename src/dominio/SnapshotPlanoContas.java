@@ -0,0 +1,481 @@
+package dominio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import util.CategoriaRubrica;
+
+/**
+ *  Snapshot binário de um plano de contas inteiro: hierarquia, nomes, classificações, valores do ano passado,
+ *  previstos e realizados, fórmulas das rubricas especiais e data de congelamento.
+ *
+ *  O arquivo é gravado por coluna (todos os códigos, depois todos os nomes, todos os valores...),
+ *  em little-endian, por um FileChannel com buffer direto e cópia em bloco dos arrays primitivos.
+ *  As somas das subrúbricas não são gravadas: são refeitas em uma passada ao restaurar.
+ *
+ *  Formato (versão 2):
+ *  int mágico "PLCS", int versão, int número de rúbricas n, long data de congelamento (dia da época),
+ *  int[n] códigos, int[n] tamanho em bytes do nome (-1 se nulo), long total de bytes + nomes em UTF-8,
+ *  classificações no mesmo formato dos nomes, byte[n] categoria (-1 se nula), int[n] número de subrúbricas, int[] índices das subrúbricas em ordem,
+ *  long[n] presença dos valores, double[n * 36] valores, int número de fórmulas, (int código,
+ *  int tamanho, bytes UTF-8) por fórmula, int mágico final. A versão 1, sem as classificações,
+ *  ainda é lida.
+ *
+ */
+public final class SnapshotPlanoContas {
+
+	public static final int VERSAO = 2;
+
+	//"PLCS"
+	private static final int MAGICO = 0x504C4353;
+	private static final int TAMANHO_BUFFER = 1 << 20;
+	private static final int NULO = -1;
+
+	private SnapshotPlanoContas() {
+	}
+
+	/**
+	 * Grava o snapshot do plano. O plano é lido de forma consistente (ver PlanoContas.leConsistente)
+	 * e o arquivo só substitui o anterior depois de completamente gravado, em um temporário único
+	 * no mesmo diretório, então gravações simultâneas do mesmo arquivo não se misturam.
+	 * @param plano Plano de contas
+	 * @param arquivo Arquivo do snapshot
+	 * @throws IOException
+	 */
+	public static void salva(PlanoContas plano, Path arquivo) throws IOException {
+		Path diretorio = arquivo.toAbsolutePath().getParent();
+		Path temporario = Files.createTempFile(diretorio, arquivo.getFileName() + ".", ".tmp");
+		boolean movido = false;
+		try {
+			try(FileChannel canal = FileChannel.open(temporario, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				plano.leConsistente(() -> {
+					try {
+						escreve(plano, new Escritor(canal));
+					}catch(IOException e) {
+						throw new UncheckedIOException(e);
+					}
+					return null;
+				});
+			}catch(UncheckedIOException e) {
+				throw e.getCause();
+			}
+			Files.move(temporario, arquivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			movido = true;
+		}finally {
+			if(!movido) {
+				Files.deleteIfExists(temporario);
+			}
+		}
+	}
+
+	/**
+	 * Lê um snapshot em um novo plano de contas.
+	 * @param arquivo Arquivo do snapshot
+	 * @return Plano restaurado
+	 * @throws IOException se o arquivo não puder ser lido, não for um snapshot ou for de versão não suportada
+	 */
+	public static PlanoContas carrega(Path arquivo) throws IOException {
+		PlanoContas plano = new PlanoContas();
+		restaura(arquivo, plano);
+		return plano;
+	}
+
+	/**
+	 * Lê um snapshot substituindo as rúbricas, fórmulas e data de congelamento de um plano existente.
+	 * O plano só é alterado se o snapshot for lido por completo.
+	 * @param arquivo Arquivo do snapshot
+	 * @param plano Plano a ser substituído
+	 * @throws IOException se o arquivo não puder ser lido, não for um snapshot ou for de versão não suportada
+	 */
+	public static void restaura(Path arquivo, PlanoContas plano) throws IOException {
+		Map<Integer, Rubrica> rubricas;
+		Map<Integer, String> rubricasEspeciais;
+		LocalDate dataCongelamento;
+
+		try(FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+			Leitor leitor = new Leitor(canal);
+			if(leitor.leInt() != MAGICO) {
+				throw new IOException("Arquivo não é um snapshot de plano de contas: " + arquivo);
+			}
+			int versao = leitor.leInt();
+			if(versao != VERSAO && versao != 1) {
+				throw new IOException("Versão de snapshot não suportada: " + versao);
+			}
+			int n = leitor.leInt();
+			if(n < 0) {
+				throw new IOException("Snapshot corrompido: número de rúbricas " + n);
+			}
+			dataCongelamento = LocalDate.ofEpochDay(leitor.leLong());
+
+			int[] codigos = leitor.leInts(n);
+			String[] nomes = leStrings(leitor, n);
+			String[] classificacoes = versao == 1 ? new String[n] : leStrings(leitor, n);
+			byte[] categorias = leitor.leBytes(n);
+			CategoriaRubrica[] valoresCategoria = CategoriaRubrica.values();
+
+			Rubrica[] ordem = new Rubrica[n];
+			for(int i = 0; i < n; i++) {
+				CategoriaRubrica categoria = categorias[i] == NULO ? null : valoresCategoria[categorias[i]];
+				ordem[i] = new Rubrica(null, nomes[i], codigos[i], categoria, null, classificacoes[i]);
+			}
+
+			int[] numSubRubricas = leitor.leInts(n);
+			int totalSubRubricas = 0;
+			for(int numero : numSubRubricas) {
+				totalSubRubricas += numero;
+			}
+			int[] subRubricas = leitor.leInts(totalSubRubricas);
+			int proxima = 0;
+			for(int i = 0; i < n; i++) {
+				for(int j = 0; j < numSubRubricas[i]; j++) {
+					ordem[i].ligaSubRubrica(ordem[subRubricas[proxima++]]);
+				}
+			}
+
+			long[] presencas = leitor.leLongs(n);
+			double[] valores = new double[Rubrica.NUM_VALORES];
+			for(int i = 0; i < n; i++) {
+				leitor.leDoubles(valores);
+				ordem[i].restauraValores(valores, 0, presencas[i]);
+			}
+
+			int numFormulas = leitor.leInt();
+			rubricasEspeciais = new HashMap<Integer, String>();
+			for(int i = 0; i < numFormulas; i++) {
+				int codigo = leitor.leInt();
+				rubricasEspeciais.put(codigo, leitor.leString());
+			}
+			if(leitor.leInt() != MAGICO) {
+				throw new IOException("Snapshot corrompido: marcador final não encontrado");
+			}
+
+			rubricas = new LinkedHashMap<Integer, Rubrica>(Math.max(16, (int) (n / 0.75f) + 1));
+			for(Rubrica rubrica : ordem) {
+				rubricas.put(rubrica.getCodigo(), rubrica);
+			}
+		}catch(ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Snapshot corrompido: " + arquivo, e);
+		}
+
+		for(Rubrica rubrica : rubricas.values()) {
+			if(rubrica.getPai() == null) {
+				rubrica.recalculaSomas();
+			}
+		}
+
+		Map<Integer, Rubrica> restauradas = rubricas;
+		plano.escreveTudo(() -> {
+			plano.setRubricasEspeciais(rubricasEspeciais);
+			plano.setRubricas(restauradas);
+			plano.setDataCongelamento(dataCongelamento);
+		});
+	}
+
+	private static void escreve(PlanoContas plano, Escritor escritor) throws IOException {
+		Rubrica[] ordem = plano.getRubricas().values().toArray(new Rubrica[0]);
+		int n = ordem.length;
+		Map<Rubrica, Integer> indices = new IdentityHashMap<Rubrica, Integer>(n * 2);
+		for(int i = 0; i < n; i++) {
+			indices.put(ordem[i], i);
+		}
+
+		escritor.escreveInt(MAGICO);
+		escritor.escreveInt(VERSAO);
+		escritor.escreveInt(n);
+		escritor.escreveLong(plano.getDataCongelamento().toEpochDay());
+
+		int[] coluna = new int[n];
+		for(int i = 0; i < n; i++) {
+			coluna[i] = ordem[i].getCodigo();
+		}
+		escritor.escreveInts(coluna, n);
+
+		String[] textos = new String[n];
+		for(int i = 0; i < n; i++) {
+			textos[i] = ordem[i].getNome();
+		}
+		escreveStrings(escritor, textos, coluna);
+		for(int i = 0; i < n; i++) {
+			textos[i] = ordem[i].getClassificacao();
+		}
+		escreveStrings(escritor, textos, coluna);
+
+		byte[] categorias = new byte[n];
+		for(int i = 0; i < n; i++) {
+			categorias[i] = ordem[i].getCategoria() == null ? NULO : (byte) ordem[i].getCategoria().ordinal();
+		}
+		escritor.escreveBytes(categorias, n);
+
+		//Subrúbricas fora do mapa do plano não fazem parte do snapshot
+		int[] subRubricas = new int[n];
+		int totalSubRubricas = 0;
+		for(int i = 0; i < n; i++) {
+			int numero = 0;
+			for(Rubrica subRubrica : ordem[i].getSubRubricas()) {
+				Integer indice = indices.get(subRubrica);
+				if(indice != null) {
+					if(totalSubRubricas == subRubricas.length) {
+						subRubricas = Arrays.copyOf(subRubricas, subRubricas.length * 2);
+					}
+					subRubricas[totalSubRubricas++] = indice;
+					numero++;
+				}
+			}
+			coluna[i] = numero;
+		}
+		escritor.escreveInts(coluna, n);
+		escritor.escreveInts(subRubricas, totalSubRubricas);
+
+		long[] presencas = new long[n];
+		for(int i = 0; i < n; i++) {
+			presencas[i] = ordem[i].getPresenca();
+		}
+		escritor.escreveLongs(presencas, n);
+		for(Rubrica rubrica : ordem) {
+			escritor.escreveDoubles(rubrica.getValoresBrutos());
+		}
+
+		//Fórmulas em ordem de código, para que o mesmo plano gere sempre o mesmo arquivo
+		Map<Integer, String> formulas = new TreeMap<Integer, String>(plano.getRubricasEspeciais());
+		escritor.escreveInt(formulas.size());
+		for(Map.Entry<Integer, String> formula : formulas.entrySet()) {
+			escritor.escreveInt(formula.getKey());
+			escritor.escreveString(formula.getValue());
+		}
+		escritor.escreveInt(MAGICO);
+		escritor.descarrega();
+	}
+
+	/**
+	 * Grava uma coluna de textos: primeiro os tamanhos, depois todos os bytes juntos.
+	 * @param coluna Array de trabalho para os tamanhos, com um elemento por texto
+	 */
+	private static void escreveStrings(Escritor escritor, String[] textos, int[] coluna) throws IOException {
+		int n = textos.length;
+		byte[][] bytes = new byte[n][];
+		long totalBytes = 0;
+		for(int i = 0; i < n; i++) {
+			bytes[i] = textos[i] == null ? null : textos[i].getBytes(StandardCharsets.UTF_8);
+			coluna[i] = bytes[i] == null ? NULO : bytes[i].length;
+			totalBytes += Math.max(coluna[i], 0);
+		}
+		escritor.escreveInts(coluna, n);
+		escritor.escreveLong(totalBytes);
+		for(byte[] texto : bytes) {
+			if(texto != null) {
+				escritor.escreveBytes(texto, texto.length);
+			}
+		}
+	}
+
+	private static String[] leStrings(Leitor leitor, int n) throws IOException {
+		int[] tamanhos = leitor.leInts(n);
+		long totalBytes = leitor.leLong();
+		if(totalBytes < 0 || totalBytes > Integer.MAX_VALUE) {
+			throw new IOException("Snapshot corrompido: " + totalBytes + " bytes de textos");
+		}
+		byte[] bytes = leitor.leBytes((int) totalBytes);
+		String[] nomes = new String[n];
+		int posicao = 0;
+		for(int i = 0; i < n; i++) {
+			if(tamanhos[i] != NULO) {
+				nomes[i] = new String(bytes, posicao, tamanhos[i], StandardCharsets.UTF_8);
+				posicao += tamanhos[i];
+			}
+		}
+		return nomes;
+	}
+
+	/**
+	 * Escrita bufferizada de primitivos em um canal.
+	 */
+	private static class Escritor {
+		private FileChannel canal;
+		private ByteBuffer buffer = ByteBuffer.allocateDirect(TAMANHO_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+
+		Escritor(FileChannel canal) {
+			this.canal = canal;
+		}
+
+		void escreveInt(int valor) throws IOException {
+			garante(Integer.BYTES);
+			buffer.putInt(valor);
+		}
+
+		void escreveLong(long valor) throws IOException {
+			garante(Long.BYTES);
+			buffer.putLong(valor);
+		}
+
+		void escreveString(String valor) throws IOException {
+			byte[] bytes = valor.getBytes(StandardCharsets.UTF_8);
+			escreveInt(bytes.length);
+			escreveBytes(bytes, bytes.length);
+		}
+
+		void escreveBytes(byte[] valores, int tamanho) throws IOException {
+			for(int i = 0; i < tamanho; ) {
+				garante(1);
+				int quantos = Math.min(tamanho - i, buffer.remaining());
+				buffer.put(valores, i, quantos);
+				i += quantos;
+			}
+		}
+
+		void escreveInts(int[] valores, int tamanho) throws IOException {
+			for(int i = 0; i < tamanho; ) {
+				garante(Integer.BYTES);
+				int quantos = Math.min(tamanho - i, buffer.remaining() / Integer.BYTES);
+				buffer.asIntBuffer().put(valores, i, quantos);
+				buffer.position(buffer.position() + quantos * Integer.BYTES);
+				i += quantos;
+			}
+		}
+
+		void escreveLongs(long[] valores, int tamanho) throws IOException {
+			for(int i = 0; i < tamanho; ) {
+				garante(Long.BYTES);
+				int quantos = Math.min(tamanho - i, buffer.remaining() / Long.BYTES);
+				buffer.asLongBuffer().put(valores, i, quantos);
+				buffer.position(buffer.position() + quantos * Long.BYTES);
+				i += quantos;
+			}
+		}
+
+		void escreveDoubles(double[] valores) throws IOException {
+			for(int i = 0; i < valores.length; ) {
+				garante(Double.BYTES);
+				int quantos = Math.min(valores.length - i, buffer.remaining() / Double.BYTES);
+				buffer.asDoubleBuffer().put(valores, i, quantos);
+				buffer.position(buffer.position() + quantos * Double.BYTES);
+				i += quantos;
+			}
+		}
+
+		private void garante(int bytes) throws IOException {
+			if(buffer.remaining() < bytes) {
+				descarrega();
+			}
+		}
+
+		void descarrega() throws IOException {
+			buffer.flip();
+			while(buffer.hasRemaining()) {
+				canal.write(buffer);
+			}
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * Leitura bufferizada de primitivos de um canal.
+	 */
+	private static class Leitor {
+		private FileChannel canal;
+		private ByteBuffer buffer = ByteBuffer.allocateDirect(TAMANHO_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+
+		Leitor(FileChannel canal) {
+			this.canal = canal;
+			buffer.flip();
+		}
+
+		int leInt() throws IOException {
+			garante(Integer.BYTES);
+			return buffer.getInt();
+		}
+
+		long leLong() throws IOException {
+			garante(Long.BYTES);
+			return buffer.getLong();
+		}
+
+		String leString() throws IOException {
+			int tamanho = leInt();
+			if(tamanho < 0) {
+				throw new IOException("Snapshot corrompido: texto de tamanho " + tamanho);
+			}
+			return new String(leBytes(tamanho), StandardCharsets.UTF_8);
+		}
+
+		byte[] leBytes(int tamanho) throws IOException {
+			byte[] valores = new byte[tamanho];
+			for(int i = 0; i < tamanho; ) {
+				garante(1);
+				int quantos = Math.min(tamanho - i, buffer.remaining());
+				buffer.get(valores, i, quantos);
+				i += quantos;
+			}
+			return valores;
+		}
+
+		int[] leInts(int tamanho) throws IOException {
+			if(tamanho < 0) {
+				throw new IOException("Snapshot corrompido: coluna de tamanho " + tamanho);
+			}
+			int[] valores = new int[tamanho];
+			for(int i = 0; i < tamanho; ) {
+				garante(Integer.BYTES);
+				int quantos = Math.min(tamanho - i, buffer.remaining() / Integer.BYTES);
+				buffer.asIntBuffer().get(valores, i, quantos);
+				buffer.position(buffer.position() + quantos * Integer.BYTES);
+				i += quantos;
+			}
+			return valores;
+		}
+
+		long[] leLongs(int tamanho) throws IOException {
+			long[] valores = new long[tamanho];
+			for(int i = 0; i < tamanho; ) {
+				garante(Long.BYTES);
+				int quantos = Math.min(tamanho - i, buffer.remaining() / Long.BYTES);
+				buffer.asLongBuffer().get(valores, i, quantos);
+				buffer.position(buffer.position() + quantos * Long.BYTES);
+				i += quantos;
+			}
+			return valores;
+		}
+
+		void leDoubles(double[] valores) throws IOException {
+			for(int i = 0; i < valores.length; ) {
+				garante(Double.BYTES);
+				int quantos = Math.min(valores.length - i, buffer.remaining() / Double.BYTES);
+				buffer.asDoubleBuffer().get(valores, i, quantos);
+				buffer.position(buffer.position() + quantos * Double.BYTES);
+				i += quantos;
+			}
+		}
+
+		/**
+		 * Garante que há pelo menos o número de bytes pedido no buffer, lendo mais do canal.
+		 * @throws EOFException se o arquivo terminar antes
+		 */
+		private void garante(int bytes) throws IOException {
+			if(buffer.remaining() >= bytes) {
+				return;
+			}
+			buffer.compact();
+			while(buffer.position() < bytes) {
+				if(canal.read(buffer) < 0) {
+					throw new EOFException("Snapshot truncado");
+				}
+			}
+			buffer.flip();
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package dominio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *  Conjunto das fórmulas das rubricas especiais de um plano de contas, compiladas uma única vez.
+ *  As dependências entre fórmulas (referências [codigo]) são verificadas contra ciclos e as
+ *  fórmulas são mantidas em ordem topológica, de forma que cada uma só é avaliada depois
+ *  das fórmulas de que depende.
+ *
+ */
+public class TabelaFormulas {
+
+	private Map<Integer, FormulaRubrica> formulas;
+	private List<FormulaRubrica> ordemAvaliacao;
+
+	private TabelaFormulas(Map<Integer, FormulaRubrica> formulas, List<FormulaRubrica> ordemAvaliacao) {
+		this.formulas = formulas;
+		this.ordemAvaliacao = ordemAvaliacao;
+	}
+
+	/**
+	 * Compila as fórmulas das rubricas especiais.
+	 * @param rubricasEspeciais Código da rubrica -> fórmula
+	 * @return Tabela de fórmulas compiladas
+	 * @throws IllegalArgumentException se alguma fórmula for inválida, referenciar uma fórmula
+	 * inexistente ou houver ciclo entre as fórmulas
+	 */
+	public static TabelaFormulas compila(Map<Integer, String> rubricasEspeciais) {
+		Map<Integer, FormulaRubrica> formulas = new HashMap<>();
+		for(Map.Entry<Integer, String> entrada : rubricasEspeciais.entrySet()) {
+			formulas.put(entrada.getKey(), FormulaRubrica.compila(entrada.getKey(), entrada.getValue()));
+		}
+
+		//Ordenação topológica por busca em profundidade, detectando ciclos
+		List<FormulaRubrica> ordem = new ArrayList<>();
+		Map<Integer, Boolean> visitadas = new HashMap<>();
+		for(FormulaRubrica formula : formulas.values()) {
+			visita(formula, formulas, visitadas, new ArrayList<Integer>(), ordem);
+		}
+
+		Map<Integer, FormulaRubrica> ordenadas = new LinkedHashMap<>();
+		for(FormulaRubrica formula : ordem) {
+			ordenadas.put(formula.getCodigo(), formula);
+		}
+		return new TabelaFormulas(Collections.unmodifiableMap(ordenadas), Collections.unmodifiableList(ordem));
+	}
+
+	/**
+	 * @param visitadas Código -> true se a fórmula já foi ordenada, false se está no caminho atual
+	 * @param caminho Fórmulas do caminho atual, para a mensagem de ciclo
+	 */
+	private static void visita(FormulaRubrica formula, Map<Integer, FormulaRubrica> formulas, Map<Integer, Boolean> visitadas,
+			List<Integer> caminho, List<FormulaRubrica> ordem) {
+
+		Boolean estado = visitadas.get(formula.getCodigo());
+		if(estado != null) {
+			if(!estado) {
+				caminho.add(formula.getCodigo());
+				throw new IllegalArgumentException("Ciclo nas fórmulas das rubricas especiais: "
+						+ caminho.subList(caminho.indexOf(formula.getCodigo()), caminho.size()));
+			}
+			return;
+		}
+
+		visitadas.put(formula.getCodigo(), false);
+		caminho.add(formula.getCodigo());
+		for(int termo = 0; termo < formula.getNumTermos(); termo++) {
+			if(formula.isReferenciaFormula(termo)) {
+				FormulaRubrica dependencia = formulas.get(formula.getCodigoTermo(termo));
+				if(dependencia == null) {
+					throw new IllegalArgumentException("Fórmula da rúbrica " + formula.getCodigo()
+							+ " referencia a rúbrica " + formula.getCodigoTermo(termo) + ", que não possui fórmula");
+				}
+				visita(dependencia, formulas, visitadas, caminho, ordem);
+			}
+		}
+		caminho.remove(caminho.size() - 1);
+		visitadas.put(formula.getCodigo(), true);
+		ordem.add(formula);
+	}
+
+	public boolean contem(int codigo) {
+		return formulas.containsKey(codigo);
+	}
+
+	public FormulaRubrica getFormula(int codigo) {
+		return formulas.get(codigo);
+	}
+
+	/**
+	 * @return Fórmulas em ordem topológica: cada uma aparece depois das que ela referencia
+	 */
+	public List<FormulaRubrica> getOrdemAvaliacao() {
+		return ordemAvaliacao;
+	}
+
+	/**
+	 * Cria uma avaliação das fórmulas para um intervalo de meses. Cada fórmula é calculada
+	 * uma única vez por avaliação.
+	 * @param rubricas Rúbricas do plano de contas
+	 * @param mesInicial Mês inicial do intervalo
+	 * @param mesFinal Mês final do intervalo
+	 * @return Avaliação das fórmulas
+	 */
+	public AvaliacaoFormulas avalia(Map<Integer, Rubrica> rubricas, int mesInicial, int mesFinal) {
+		return new AvaliacaoFormulas(this, rubricas, mesInicial, mesFinal);
+	}
+}
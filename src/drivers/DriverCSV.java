@@ -2,57 +2,144 @@ package drivers;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.util.Scanner;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.NoSuchElementException;
 
 /**
- *  Driver para leitura de arquivo CSV
+ *  Driver para leitura de arquivo CSV.
+ *  Cada linha é separada uma única vez pelo TokenizadorCSV; os campos podem ser lidos
+ *  individualmente sem criar um array a cada chamada.
  *
  */
 public class DriverCSV{
 
 	private File csvFile;
-	private String line;
-	private Scanner scanner;
+	private char delimitador;
+	private TokenizadorCSV tokenizador;
 	private String[] fieldNames;
-	
+
+	//Campos da linha atual, criados somente quando pedidos por getFields()
+	private String[] fields;
+
 	public DriverCSV(String filename) throws FileNotFoundException {
+		this(filename, TokenizadorCSV.DELIMITADOR_PADRAO);
+	}
+
+	public DriverCSV(String filename, char delimitador) throws FileNotFoundException {
 		this.csvFile = new File(filename);
-		this.scanner = new Scanner(this.csvFile);
+		this.delimitador = delimitador;
+		this.tokenizador = new TokenizadorCSV(new FileReader(this.csvFile), delimitador);
 		//enters first line
-		this.proceed(); 
+		this.proceed();
 		//initiate file scanning by reading the fields names
 		this.fieldNames = this.getFields();
 		//proceed to essence
 		this.proceed();
 	}
-	
+
+	/**
+	 * Número de campos da linha, desconsiderando os campos vazios do final da linha
+	 * (mesma contagem de line.split(",")).
+	 * @return Número de campos da linha atual
+	 */
 	public int getNumOfLineFields() {
-		return line.split(",").length;
+		return tokenizador.getNumCamposPreenchidos();
 	}
-	
+
 	public void proceed() {
-		this.line = this.scanner.nextLine();
+		this.fields = null;
+		try {
+			if(!tokenizador.proximaLinha()) {
+				throw new NoSuchElementException("No line found");
+			}
+		}catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
 	}
-	
+
 	public boolean hasNext() {
-		return scanner.hasNext();
+		try {
+			return tokenizador.temConteudo();
+		}catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
 	}
-	
+
+	/**
+	 * Campos da linha atual. O array é criado uma vez por linha e reaproveitado
+	 * nas chamadas seguintes, portanto não deve ser alterado.
+	 * @return Campos da linha atual
+	 */
 	public String[] getFields() {
-		return line.split(",");
+		if(this.fields == null) {
+			this.fields = tokenizador.getCampos();
+		}
+		return this.fields;
+	}
+
+	/**
+	 * @param index Índice do campo
+	 * @return Campo da linha atual
+	 */
+	public String getField(int index) {
+		if(index >= this.getNumOfLineFields()) {
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+		return tokenizador.getCampo(index);
+	}
+
+	/**
+	 * @param index Índice do campo
+	 * @return True se o campo da linha atual é vazio
+	 */
+	public boolean isFieldEmpty(int index) {
+		if(index >= this.getNumOfLineFields()) {
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+		return tokenizador.isCampoVazio(index);
+	}
+
+	/**
+	 * Conta as ocorrências de um caractere em um campo, sem criar String.
+	 * @param index Índice do campo
+	 * @param caractere Caractere procurado
+	 * @return Número de ocorrências
+	 */
+	public int countInField(int index, char caractere) {
+		if(index >= this.getNumOfLineFields()) {
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+		return tokenizador.contaOcorrencias(index, caractere);
 	}
-	
+
 	public String[] getFieldNames() {
 		return this.fieldNames;
 	}
-	
+
 	public String[] gotoSpecificLine(int lineIndex) throws FileNotFoundException{
-		scanner.close();
-		scanner = new Scanner(csvFile);
+		try {
+			tokenizador.close();
+		}catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		tokenizador = new TokenizadorCSV(new FileReader(csvFile), delimitador);
 		for(int i = 0; i < lineIndex; i++) {
 			this.proceed();
 		}
 		return this.getFields();
 	}
-	
+
+	/**
+	 * Fecha o arquivo lido.
+	 */
+	public void close() {
+		try {
+			tokenizador.close();
+		}catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
 }
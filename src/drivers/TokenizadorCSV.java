@@ -0,0 +1,286 @@
+package drivers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ *  Tokenizador de CSV com leitura bufferizada em passada única.
+ *  Cada linha é lida e separada em campos uma única vez; os campos ficam em um buffer
+ *  reutilizado entre as linhas, e só viram String quando pedidos.
+ *  Suporta campos entre aspas (com aspas duplicadas como escape) e delimitador configurável.
+ *
+ */
+public class TokenizadorCSV implements Closeable {
+
+	public static final char DELIMITADOR_PADRAO = ',';
+	private static final char ASPAS = '"';
+	private static final int TAMANHO_BUFFER = 64 * 1024;
+
+	private Reader leitor;
+	private char delimitador;
+
+	//Buffer de leitura do arquivo
+	private char[] buffer;
+	private int posicao;
+	private int limite;
+	private boolean fimArquivo;
+
+	//Conteúdo da linha atual, já sem as aspas, e os limites de cada campo dentro dela
+	private char[] linha;
+	private int tamanhoLinha;
+	private int[] inicioCampos;
+	private int[] fimCampos;
+	private int numCampos;
+
+	public TokenizadorCSV(Reader leitor) {
+		this(leitor, DELIMITADOR_PADRAO);
+	}
+
+	public TokenizadorCSV(Reader leitor, char delimitador) {
+		if(delimitador == ASPAS || delimitador == '\n' || delimitador == '\r') {
+			throw new IllegalArgumentException("Delimitador inválido: " + delimitador);
+		}
+		this.leitor = leitor;
+		this.delimitador = delimitador;
+		this.buffer = new char[TAMANHO_BUFFER];
+		this.linha = new char[256];
+		this.inicioCampos = new int[32];
+		this.fimCampos = new int[32];
+	}
+
+	/**
+	 * Lê e separa a próxima linha do arquivo.
+	 * @return True se uma linha foi lida, falso se o arquivo terminou
+	 * @throws IOException
+	 */
+	public boolean proximaLinha() throws IOException {
+
+		tamanhoLinha = 0;
+		numCampos = 0;
+
+		if(posicao >= limite && !preencheBuffer()) {
+			return false;
+		}
+
+		int inicioCampo = 0;
+		boolean entreAspas = false;
+
+		while(true) {
+			if(posicao >= limite && !preencheBuffer()) {
+				break;
+			}
+			char c = buffer[posicao++];
+
+			if(entreAspas) {
+				if(c == ASPAS) {
+					//Aspas duplicadas dentro de um campo entre aspas representam uma aspa literal
+					if(posicao >= limite) {
+						preencheBuffer();
+					}
+					if(posicao < limite && buffer[posicao] == ASPAS) {
+						adicionaCaractere(ASPAS);
+						posicao++;
+					}
+					else {
+						entreAspas = false;
+					}
+				}
+				else {
+					adicionaCaractere(c);
+				}
+			}
+			else if(c == delimitador) {
+				fechaCampo(inicioCampo);
+				inicioCampo = tamanhoLinha;
+			}
+			else if(c == '\n') {
+				break;
+			}
+			else if(c == '\r') {
+				//Trata \r\n como uma única quebra de linha
+				if(posicao >= limite) {
+					preencheBuffer();
+				}
+				if(posicao < limite && buffer[posicao] == '\n') {
+					posicao++;
+				}
+				break;
+			}
+			else if(c == ASPAS && tamanhoLinha == inicioCampo) {
+				entreAspas = true;
+			}
+			else {
+				adicionaCaractere(c);
+			}
+		}
+		fechaCampo(inicioCampo);
+
+		return true;
+	}
+
+	/**
+	 * Verifica se ainda existe algum caractere que não seja espaço em branco no arquivo,
+	 * sem consumir a entrada.
+	 * @return True se ainda há conteúdo a ser lido
+	 * @throws IOException
+	 */
+	public boolean temConteudo() throws IOException {
+		int i = posicao;
+		while(true) {
+			if(i >= limite) {
+				int lidos = i - posicao;
+				if(!preencheBuffer()) {
+					return false;
+				}
+				i = posicao + lidos;
+				if(i >= limite) {
+					return false;
+				}
+			}
+			if(!Character.isWhitespace(buffer[i])) {
+				return true;
+			}
+			i++;
+		}
+	}
+
+	public int getNumCampos() {
+		return numCampos;
+	}
+
+	/**
+	 * Número de campos da linha desconsiderando os campos vazios do final,
+	 * mesma contagem de String.split(): uma linha vazia tem um campo e uma linha
+	 * só com delimitadores não tem nenhum.
+	 * @return Número de campos preenchidos da linha atual
+	 */
+	public int getNumCamposPreenchidos() {
+		if(tamanhoLinha == 0) {
+			return numCampos == 1 ? 1 : 0;
+		}
+		int preenchidos = numCampos;
+		while(preenchidos > 0 && fimCampos[preenchidos - 1] == inicioCampos[preenchidos - 1]) {
+			preenchidos--;
+		}
+		return preenchidos;
+	}
+
+	/**
+	 * @return Os campos preenchidos da linha atual como um novo array
+	 */
+	public String[] getCampos() {
+		int preenchidos = getNumCamposPreenchidos();
+		String[] campos = new String[preenchidos];
+		for(int i = 0; i < preenchidos; i++) {
+			campos[i] = getCampo(i);
+		}
+		return campos;
+	}
+
+	/**
+	 * @param indice Índice do campo na linha atual
+	 * @return O campo como String
+	 */
+	public String getCampo(int indice) {
+		verificaIndice(indice);
+		return new String(linha, inicioCampos[indice], fimCampos[indice] - inicioCampos[indice]);
+	}
+
+	public int getTamanhoCampo(int indice) {
+		verificaIndice(indice);
+		return fimCampos[indice] - inicioCampos[indice];
+	}
+
+	public boolean isCampoVazio(int indice) {
+		return getTamanhoCampo(indice) == 0;
+	}
+
+	/**
+	 * Conta quantas vezes um caractere aparece em um campo, sem criar String.
+	 * @param indice Índice do campo na linha atual
+	 * @param caractere Caractere procurado
+	 * @return Número de ocorrências
+	 */
+	public int contaOcorrencias(int indice, char caractere) {
+		verificaIndice(indice);
+		int total = 0;
+		for(int i = inicioCampos[indice]; i < fimCampos[indice]; i++) {
+			if(linha[i] == caractere) {
+				total++;
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * @return Número de caracteres da linha atual (sem delimitadores e aspas)
+	 */
+	public int getTamanhoLinha() {
+		return tamanhoLinha;
+	}
+
+	@Override
+	public void close() throws IOException {
+		leitor.close();
+	}
+
+	private void verificaIndice(int indice) {
+		if(indice < 0 || indice >= numCampos) {
+			throw new ArrayIndexOutOfBoundsException(indice);
+		}
+	}
+
+	private void adicionaCaractere(char c) {
+		if(tamanhoLinha == linha.length) {
+			char[] novaLinha = new char[linha.length * 2];
+			System.arraycopy(linha, 0, novaLinha, 0, tamanhoLinha);
+			linha = novaLinha;
+		}
+		linha[tamanhoLinha++] = c;
+	}
+
+	private void fechaCampo(int inicioCampo) {
+		if(numCampos == inicioCampos.length) {
+			int[] novoInicio = new int[numCampos * 2];
+			int[] novoFim = new int[numCampos * 2];
+			System.arraycopy(inicioCampos, 0, novoInicio, 0, numCampos);
+			System.arraycopy(fimCampos, 0, novoFim, 0, numCampos);
+			inicioCampos = novoInicio;
+			fimCampos = novoFim;
+		}
+		inicioCampos[numCampos] = inicioCampo;
+		fimCampos[numCampos] = tamanhoLinha;
+		numCampos++;
+	}
+
+	/**
+	 * Lê mais caracteres para o buffer, mantendo os que ainda não foram consumidos.
+	 * @return True se algum caractere novo foi lido
+	 * @throws IOException
+	 */
+	private boolean preencheBuffer() throws IOException {
+		if(fimArquivo) {
+			return false;
+		}
+		int restantes = limite - posicao;
+		if(posicao > 0) {
+			System.arraycopy(buffer, posicao, buffer, 0, restantes);
+		}
+		else if(restantes == buffer.length) {
+			char[] novoBuffer = new char[buffer.length * 2];
+			System.arraycopy(buffer, 0, novoBuffer, 0, restantes);
+			buffer = novoBuffer;
+		}
+		posicao = 0;
+		limite = restantes;
+
+		int lidos = leitor.read(buffer, limite, buffer.length - limite);
+		if(lidos <= 0) {
+			fimArquivo = true;
+			return false;
+		}
+		limite += lidos;
+		return true;
+	}
+}
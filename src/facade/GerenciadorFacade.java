@@ -1,14 +1,31 @@
 package facade;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
+import dominio.CuboPlanoContas;
+import dominio.HistoricoPlanoContas;
+import dominio.JournalPlanoContas;
 import dominio.PlanoContas;
+import dominio.SnapshotPlanoContas;
 import negocios.AgenteAnaliseComparativa;
 import negocios.AgenteOrcamentoInicial;
 import negocios.AgentePrevisao;
 import negocios.AgenteRealizadoMensal;
+import negocios.CacheArquivosLidos;
+import negocios.LinhaAnaliseComparativa;
+import negocios.LotePrevisao;
+import negocios.PrevisaoEstatistica;
+import negocios.RelatorioImportacaoRealizado;
+import negocios.RelatorioPrevisaoEstatistica;
+import util.CategoriaFormatoArquivo;
 import util.CategoriaMes;
+import util.Metricas;
 
 /**
  *  Clase fachada para todos os agentes que operam sobre o Plano de Contas
@@ -20,6 +37,7 @@ public class GerenciadorFacade {
 	private AgenteRealizadoMensal agenteRealizadoMensal;
 	private AgentePrevisao agentePrevisao;
 	private AgenteOrcamentoInicial agenteOrcamentoInicial;
+	private JournalPlanoContas journal;
 
 
 	public GerenciadorFacade(PlanoContas plano) {
@@ -30,6 +48,57 @@ public class GerenciadorFacade {
 		
 	}
 	
+	/**
+	 * Define o formato (XLS ou XLSX) dos arquivos de análise comparativa e
+	 * dos templates de realizado mensal gerados.
+	 * @param formato
+	 */
+	public void setFormatoArquivos(CategoriaFormatoArquivo formato) {
+		agenteAnaliseComparativa.setFormatoArquivo(formato);
+		agenteRealizadoMensal.setFormatoArquivo(formato);
+	}
+	
+	/**
+	 * Ativa o cache dos arquivos de orçamento inicial e realizado mensal já lidos, para que
+	 * arquivos não alterados não sejam interpretados de novo.
+	 * @param diretorio Diretório do cache
+	 * @throws IOException
+	 */
+	public void ativaCacheArquivos(String diretorio) throws IOException {
+		CacheArquivosLidos cache = new CacheArquivosLidos(Paths.get(diretorio), CacheArquivosLidos.TAMANHO_MAXIMO_PADRAO);
+		agenteOrcamentoInicial.setCacheArquivos(cache);
+		agenteRealizadoMensal.setCacheArquivos(cache);
+	}
+	
+	/**
+	 * Ativa as métricas de desempenho e registra os medidores de memória deste plano de contas.
+	 * @param periodoLogSegundos Intervalo entre as linhas de resumo exibidas, ou 0 para não exibir
+	 */
+	public void ativaMetricas(long periodoLogSegundos) {
+		PlanoContas plano = agentePrevisao.getPlanoContas();
+		Metricas.medidor("plano_rubricas", "Rúbricas do plano de contas", () -> plano.getRubricas().size());
+		Metricas.medidor("heap_usado_bytes", "Heap usado pela JVM", () -> usoHeap());
+		Metricas.medidor("heap_bytes_por_rubrica", "Heap usado pela JVM dividido pelas rúbricas do plano",
+				() -> usoHeap() / Math.max(1, plano.getRubricas().size()));
+		Metricas.ativa();
+		if(periodoLogSegundos > 0) {
+			Metricas.iniciaLogPeriodico(periodoLogSegundos);
+		}
+	}
+	
+	private static double usoHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+	
+	/**
+	 * Ativa o modo concorrente do plano de contas, permitindo previsões simultâneas
+	 * de vários usuários em subárvores diferentes.
+	 */
+	public void ativaModoConcorrente() {
+		agentePrevisao.getPlanoContas().ativaModoConcorrente();
+	}
+	
 	/**
 	 * Executa o agente de previsão.
 	 * @param option 1 - Valor Fixo, 2 - Valor em Porcentual, 3 - Valor Ano Anterior
@@ -68,6 +137,52 @@ public class GerenciadorFacade {
 		}
 	}
 	
+	/**
+	 * Executa o agente de previsão para um lote de previsões. A data de congelamento
+	 * é verificada uma única vez para todo o lote.
+	 * @param lote Lote de previsões
+	 * @return True se o lote foi aplicado, falso se nenhuma previsão foi feita
+	 */
+	public boolean geraPrevisaoLote(LotePrevisao lote) {
+		
+		List<String> erros = aplicaPrevisaoLote(lote);
+		for(String erro : erros) {
+			System.out.println(erro);
+		}
+		return erros.isEmpty();
+	}
+	
+	/**
+	 * Aplica um lote de previsões sem exibir nada, para quem precisa devolver os erros
+	 * ao usuário de outra forma.
+	 * @param lote Lote de previsões
+	 * @return Erros que impediram o lote de ser aplicado, vazio se ele foi aplicado
+	 */
+	public List<String> aplicaPrevisaoLote(LotePrevisao lote) {
+		
+		if(!LocalDate.now().isBefore(agentePrevisao.getPlanoContas().getDataCongelamento())) {
+			return Collections.singletonList("Data de congelamento atingida, desculpe, mas alterações nas previsões não podem mais ser feitas");
+		}
+		return agentePrevisao.aplicaLote(lote);
+	}
+	
+	/**
+	 * Previsão estatística automática dos 12 meses de todas as rúbricas folha, ajustada em
+	 * paralelo. Exibe o relatório com as contagens e os tempos de cada etapa.
+	 * @param previsao Modelo e anos do histórico usados
+	 * @return O relatório, ou null se a data de congelamento foi atingida
+	 */
+	public RelatorioPrevisaoEstatistica geraPrevisaoEstatistica(PrevisaoEstatistica previsao) {
+		
+		if(!LocalDate.now().isBefore(agentePrevisao.getPlanoContas().getDataCongelamento())) {
+			System.out.println("Data de congelamento atingida, desculpe, mas alterações nas previsões não podem mais ser feitas");
+			return null;
+		}
+		RelatorioPrevisaoEstatistica relatorio = agentePrevisao.previsaoEstatistica(previsao);
+		System.out.println(relatorio);
+		return relatorio;
+	}
+	
 	/**
 	 * Executa o agente de Orçamento Inicial.
 	 * @param filename Arquivo de Orçamento Inicial 
@@ -77,6 +192,108 @@ public class GerenciadorFacade {
 		agenteOrcamentoInicial.lerOrcamentoAnterior(filename);
 	}
 	
+	/**
+	 * Executa o agente de Orçamento Inicial lendo o arquivo em paralelo.
+	 * @param filename Arquivo de Orçamento Inicial 
+	 * @throws FileNotFoundException
+	 */
+	public void lerOrcamentoInicialParalelo(String filename) throws FileNotFoundException {
+		agenteOrcamentoInicial.lerOrcamentoAnteriorParalelo(filename);
+	}
+	
+	/**
+	 * Grava todo o estado do plano de contas (rúbricas, previsões, realizados, fórmulas e
+	 * data de congelamento) em um snapshot binário.
+	 * @param filename Arquivo do snapshot
+	 * @throws IOException
+	 */
+	public void salvaSnapshot(String filename) throws IOException {
+		SnapshotPlanoContas.salva(agentePrevisao.getPlanoContas(), Paths.get(filename));
+	}
+	
+	/**
+	 * Restaura o plano de contas de um snapshot binário, no lugar de ler o orçamento inicial
+	 * e os realizados mensais novamente.
+	 * @param filename Arquivo do snapshot
+	 * @throws IOException
+	 */
+	public void carregaSnapshot(String filename) throws IOException {
+		SnapshotPlanoContas.restaura(Paths.get(filename), agentePrevisao.getPlanoContas());
+	}
+	
+	/**
+	 * Recupera o plano de contas do journal do diretório (último checkpoint mais as alterações
+	 * registradas depois dele) e passa a registrar todas as previsões e realizados lidos.
+	 * @param diretorio Diretório do journal
+	 * @throws IOException
+	 */
+	public void ativaJournal(String diretorio) throws IOException {
+		if(journal != null) {
+			System.out.println("O journal já está ativo");
+			return;
+		}
+		journal = JournalPlanoContas.abre(agentePrevisao.getPlanoContas(), Paths.get(diretorio));
+	}
+	
+	/**
+	 * Grava as alterações pendentes e deixa de registrar as alterações do plano de contas.
+	 * @throws IOException
+	 */
+	public void fechaJournal() throws IOException {
+		if(journal != null) {
+			JournalPlanoContas fechando = journal;
+			journal = null;
+			fechando.close();
+		}
+	}
+	
+	/**
+	 * Abre (ou cria) o histórico de vários anos do plano de contas. Os anos do arquivo só são
+	 * carregados quando consultados.
+	 * @param filename Arquivo do histórico
+	 * @throws IOException
+	 */
+	public void abreHistorico(String filename) throws IOException {
+		fechaHistorico();
+		agentePrevisao.getPlanoContas().setHistorico(HistoricoPlanoContas.abre(Paths.get(filename)));
+	}
+	
+	/**
+	 * Guarda os realizados atuais do plano no histórico como os valores do ano.
+	 * @param ano Ano dos realizados
+	 * @throws IOException
+	 */
+	public void arquivaAno(int ano) throws IOException {
+		HistoricoPlanoContas historico = agentePrevisao.getPlanoContas().getHistorico();
+		if(historico == null) {
+			System.out.println("Nenhum histórico aberto");
+			return;
+		}
+		historico.arquivaAno(ano, agentePrevisao.getPlanoContas());
+	}
+	
+	/**
+	 * Usa um ano do histórico como o ano passado de todas as rúbricas.
+	 * @param ano Ano do histórico
+	 * @throws IOException
+	 */
+	public void carregaAnoPassado(int ano) throws IOException {
+		HistoricoPlanoContas historico = agentePrevisao.getPlanoContas().getHistorico();
+		if(historico == null || !historico.getAnos().contains(ano)) {
+			System.out.println("Ano " + ano + " não está no histórico");
+			return;
+		}
+		historico.aplicaAnoPassado(agentePrevisao.getPlanoContas(), ano);
+	}
+	
+	public void fechaHistorico() throws IOException {
+		HistoricoPlanoContas historico = agentePrevisao.getPlanoContas().getHistorico();
+		if(historico != null) {
+			agentePrevisao.getPlanoContas().setHistorico(null);
+			historico.close();
+		}
+	}
+	
 	/**
 	 * Executa o agente de Realizado Mensal para gerar um template
 	 * a ser preenchido pelo usuário.
@@ -96,6 +313,30 @@ public class GerenciadorFacade {
 		agenteRealizadoMensal.leRealizadoMensal(filename, mes);
 	}
 	
+	/**
+	 * Executa o agente de Realizado Mensal para ler os arquivos de vários meses
+	 * ao mesmo tempo, exibindo o resultado de cada arquivo.
+	 * @param arquivos Mês -> arquivo preenchido pelo usuário
+	 * @return True se todos os arquivos foram importados
+	 */
+	public boolean leRealizadosMensais(Map<CategoriaMes, String> arquivos) {
+		RelatorioImportacaoRealizado relatorio = importaRealizadosMensais(arquivos);
+		for(String mensagem : relatorio.getMensagens()) {
+			System.out.println(mensagem);
+		}
+		return relatorio.isSucesso();
+	}
+	
+	/**
+	 * Executa o agente de Realizado Mensal para ler os arquivos de vários meses
+	 * ao mesmo tempo, sem exibir nada.
+	 * @param arquivos Mês -> arquivo preenchido pelo usuário
+	 * @return Resultado de cada arquivo
+	 */
+	public RelatorioImportacaoRealizado importaRealizadosMensais(Map<CategoriaMes, String> arquivos) {
+		return agenteRealizadoMensal.leRealizadosMensais(arquivos);
+	}
+	
 	/**
 	 * Executa o agente de Analise Comparativa para gerar analise
 	 * no período entre os meses fornecidos.
@@ -106,6 +347,40 @@ public class GerenciadorFacade {
 
 		agenteAnaliseComparativa.geraAnaliseComparativa(mesInicial, mesFinal);
 	}
+	
+	/**
+	 * Executa o agente de Analise Comparativa calculando as rúbricas
+	 * em paralelo, no período entre os meses fornecidos.
+	 * @param mesInicial
+	 * @param mesFinal
+	 */
+	public void geraAnaliseParalela(CategoriaMes mesInicial, CategoriaMes mesFinal) {
+
+		agenteAnaliseComparativa.geraAnaliseComparativaParalela(mesInicial, mesFinal);
+	}
+	
+	/**
+	 * Calcula a análise comparativa no período entre os meses fornecidos, sem gerar o arquivo.
+	 * @param mesInicial
+	 * @param mesFinal
+	 * @return Uma linha por rúbrica, na ordem do plano de contas
+	 */
+	public List<LinhaAnaliseComparativa> calculaAnalise(CategoriaMes mesInicial, CategoriaMes mesFinal) {
+
+		return agenteAnaliseComparativa.calculaAnaliseComparativa(mesInicial, mesFinal);
+	}
+	
+	/**
+	 * Gera a cópia colunar do plano de contas, para consultas de filtro, agrupamento e agregação.
+	 * @return O cubo com os valores atuais do plano
+	 */
+	public CuboPlanoContas geraCubo() {
+		return CuboPlanoContas.de(agentePrevisao.getPlanoContas());
+	}
+	
+	public PlanoContas getPlanoContas() {
+		return agentePrevisao.getPlanoContas();
+	}
 
 	
 }
@@ -1,9 +1,20 @@
 package negocios;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+import dominio.AvaliacaoFormulas;
+import dominio.CenarioPlano;
 import dominio.PlanoContas;
 import dominio.Rubrica;
+import util.CategoriaFormatoArquivo;
 import util.CategoriaMes;
 import util.CategoriaRubrica;
 import static org.junit.Assert.*;
@@ -16,24 +27,195 @@ import static org.junit.Assert.*;
  */
 public class AgenteAnaliseComparativa extends AgenteAbstract{
 
+	//Fórmulas das rubricas especiais avaliadas para a análise em andamento
+	private AvaliacaoFormulas avaliacaoFormulas;
+	
+	private CategoriaFormatoArquivo formatoArquivo = CategoriaFormatoArquivo.XLS;
 	
 	public AgenteAnaliseComparativa(PlanoContas plano) {
 		super(plano);
 	}
 	
+	public CategoriaFormatoArquivo getFormatoArquivo() {
+		return formatoArquivo;
+	}
+	
+	/**
+	 * @param formatoArquivo Formato do arquivo de análise comparativa gerado
+	 */
+	public void setFormatoArquivo(CategoriaFormatoArquivo formatoArquivo) {
+		this.formatoArquivo = formatoArquivo;
+	}
+	
 
 	public void geraAnaliseComparativa(CategoriaMes mesInicial, CategoriaMes mesFinal) {
 		
+		escreveAnaliseComparativa(calculaAnaliseComparativa(mesInicial, mesFinal));
+	}
+	
+	/**
+	 * Gera o arquivo de análise comparativa calculando as rúbricas em paralelo no pool comum
+	 * de fork-join. O arquivo gerado é o mesmo de geraAnaliseComparativa.
+	 * @param mesInicial
+	 * @param mesFinal
+	 */
+	public void geraAnaliseComparativaParalela(CategoriaMes mesInicial, CategoriaMes mesFinal) {
+		
+		escreveAnaliseComparativa(calculaAnaliseComparativaParalela(mesInicial, mesFinal, ForkJoinPool.commonPool()));
+	}
+	
+	/**
+	 * Calcula a análise comparativa de todas as rúbricas, na ordem do plano de contas.
+	 * @param mesInicial
+	 * @param mesFinal
+	 * @return Tabela imutável com uma linha por rúbrica
+	 */
+	public List<LinhaAnaliseComparativa> calculaAnaliseComparativa(CategoriaMes mesInicial, CategoriaMes mesFinal) {
+		
+		//No modo concorrente todas as rúbricas são lidas em um mesmo estado do plano
+		return getPlanoContas().leConsistente(() -> calculaLinhas(mesInicial, mesFinal));
+	}
+	
+	private List<LinhaAnaliseComparativa> calculaLinhas(CategoriaMes mesInicial, CategoriaMes mesFinal) {
+		
+		List<LinhaAnaliseComparativa> linhas = new ArrayList<LinhaAnaliseComparativa>();
+		
+		//Cada fórmula especial é calculada uma única vez para toda a análise
+		avaliacaoFormulas = getPlanoContas().getFormulas().avalia(getPlanoContas().getRubricas(), mesInicial.toInt(), mesFinal.toInt());
+		avaliacaoFormulas.avaliaTodas();
+		try {
+	        for (int codigoRubrica : getPlanoContas().getRubricas().keySet()) {
+	        		Rubrica rubrica = getPlanoContas().getRubricas().get(codigoRubrica);
+	        		linhas.add(calculaLinhaRubrica(rubrica, mesInicial, mesFinal));
+	        }
+		}finally {
+			avaliacaoFormulas = null;
+		}
+		return Collections.unmodifiableList(linhas);
+	}
+	
+	/**
+	 * Calcula a análise comparativa de todas as rúbricas em paralelo. As fórmulas especiais
+	 * são avaliadas antes, e as somas das rúbricas só são lidas, então as rúbricas podem ser
+	 * calculadas em qualquer ordem; o resultado fica na ordem do plano de contas.
+	 * @param mesInicial
+	 * @param mesFinal
+	 * @param pool Pool em que as rúbricas serão calculadas
+	 * @return Tabela imutável com uma linha por rúbrica
+	 */
+	public List<LinhaAnaliseComparativa> calculaAnaliseComparativaParalela(CategoriaMes mesInicial, CategoriaMes mesFinal, ForkJoinPool pool) {
+		
+		return getPlanoContas().leConsistente(() -> calculaLinhasEmParalelo(mesInicial, mesFinal, pool));
+	}
+	
+	private List<LinhaAnaliseComparativa> calculaLinhasEmParalelo(CategoriaMes mesInicial, CategoriaMes mesFinal, ForkJoinPool pool) {
+		
+		Rubrica[] rubricas = getPlanoContas().getRubricas().values().toArray(new Rubrica[0]);
+		LinhaAnaliseComparativa[] linhas = new LinhaAnaliseComparativa[rubricas.length];
+		
+		avaliacaoFormulas = getPlanoContas().getFormulas().avalia(getPlanoContas().getRubricas(), mesInicial.toInt(), mesFinal.toInt());
+		avaliacaoFormulas.avaliaTodas();
+		try {
+			pool.invoke(new TarefaAnalise(rubricas, linhas, 0, rubricas.length, mesInicial, mesFinal));
+		}finally {
+			avaliacaoFormulas = null;
+		}
+		return Collections.unmodifiableList(Arrays.asList(linhas));
+	}
+	
+	/**
+	 * Tarefa que calcula uma faixa das rúbricas, dividindo-a ao meio enquanto for grande.
+	 */
+	private class TarefaAnalise extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		private static final int LIMITE_SEQUENCIAL = 512;
+		
+		private Rubrica[] rubricas;
+		private LinhaAnaliseComparativa[] linhas;
+		private int inicio;
+		private int fim;
+		private CategoriaMes mesInicial;
+		private CategoriaMes mesFinal;
+		
+		TarefaAnalise(Rubrica[] rubricas, LinhaAnaliseComparativa[] linhas, int inicio, int fim, CategoriaMes mesInicial, CategoriaMes mesFinal) {
+			this.rubricas = rubricas;
+			this.linhas = linhas;
+			this.inicio = inicio;
+			this.fim = fim;
+			this.mesInicial = mesInicial;
+			this.mesFinal = mesFinal;
+		}
+		
+		@Override
+		protected void compute() {
+			if(fim - inicio > LIMITE_SEQUENCIAL) {
+				int meio = (inicio + fim) >>> 1;
+				invokeAll(new TarefaAnalise(rubricas, linhas, inicio, meio, mesInicial, mesFinal),
+						new TarefaAnalise(rubricas, linhas, meio, fim, mesInicial, mesFinal));
+				return;
+			}
+			for(int i = inicio; i < fim; i++) {
+				linhas[i] = calculaLinhaRubrica(rubricas[i], mesInicial, mesFinal);
+			}
+		}
+	}
+	
+	/**
+	 * Compara a análise comparativa de um cenário com a de outro, em geral a sua base. Só são
+	 * calculadas as rúbricas copiadas em algum dos dois desde o ancestral comum e as rubricas
+	 * especiais, então o custo é proporcional às alterações e não ao plano.
+	 * @param base Cenário de referência
+	 * @param cenario Cenário comparado
+	 * @param mesInicial
+	 * @param mesFinal
+	 * @return Rúbricas com previsto ou realizado diferente, em ordem de código
+	 */
+	public static List<DiferencaCenario> comparaCenarios(CenarioPlano base, CenarioPlano cenario, CategoriaMes mesInicial, CategoriaMes mesFinal) {
+		
+		Set<Integer> codigos = new TreeSet<Integer>(cenario.codigosAlteradosEntre(base));
+		codigos.addAll(base.getPlano().getRubricasEspeciais().keySet());
+		codigos.addAll(cenario.getPlano().getRubricasEspeciais().keySet());
+		
+		AgenteAnaliseComparativa agenteBase = new AgenteAnaliseComparativa(base.getPlano());
+		AgenteAnaliseComparativa agenteCenario = new AgenteAnaliseComparativa(cenario.getPlano());
+		Map<Integer, Rubrica> rubricasBase = base.getPlano().getRubricas();
+		Map<Integer, Rubrica> rubricasCenario = cenario.getPlano().getRubricas();
+		List<DiferencaCenario> diferencas = new ArrayList<DiferencaCenario>();
+		for(int codigo : codigos) {
+			if(!rubricasBase.containsKey(codigo)) {
+				continue;
+			}
+			LinhaAnaliseComparativa linhaBase = agenteBase.calculaLinhaRubrica(rubricasBase.get(codigo), mesInicial, mesFinal);
+			LinhaAnaliseComparativa linhaCenario = agenteCenario.calculaLinhaRubrica(rubricasCenario.get(codigo), mesInicial, mesFinal);
+			if(linhaBase.getPrevisto() != linhaCenario.getPrevisto() || linhaBase.getRealizado() != linhaCenario.getRealizado()) {
+				diferencas.add(new DiferencaCenario(linhaBase, linhaCenario));
+			}
+		}
+		return Collections.unmodifiableList(diferencas);
+	}
+	
+	/**
+	 * Escreve o arquivo de análise comparativa a partir da tabela já calculada.
+	 * @param linhas Linhas da análise, na ordem do plano de contas
+	 */
+	private void escreveAnaliseComparativa(List<LinhaAnaliseComparativa> linhas) {
+		
 		int contadorRubrica = 1;
 		
+		//Cabeçalho + uma linha por rúbrica
+		if (linhas.size() + 1 > formatoArquivo.getMaxLinhas()) {
+			System.out.println("Plano de contas grande demais para o formato " + formatoArquivo + ", use " + CategoriaFormatoArquivo.XLSX);
+			return;
+		}
+		
 		GerenciadorArquivos gerenciadorArquivo = new GerenciadorArquivos();
-		gerenciadorArquivo.geraArquivoAnaliseComparativa();
+		gerenciadorArquivo.geraArquivoAnaliseComparativa(formatoArquivo);
 		
-        for (int codigoRubrica : getPlanoContas().getRubricas().keySet()) {
-        		Rubrica rubrica = getPlanoContas().getRubricas().get(codigoRubrica);
-        		gerenciadorArquivo.preencheLinhaAnaliseComparativa(geraValoresRubrica(rubrica, mesInicial, mesFinal), contadorRubrica);
-        		contadorRubrica += 1;
-        }
+		for (LinhaAnaliseComparativa linha : linhas) {
+			gerenciadorArquivo.preencheLinhaAnaliseComparativa(linha, contadorRubrica);
+			contadorRubrica += 1;
+		}
 		
 		gerenciadorArquivo.finalizaArquivoAnaliseComparativa();
 	}
@@ -54,34 +236,36 @@ public class AgenteAnaliseComparativa extends AgenteAbstract{
 	 */
 	public ArrayList<String> geraValoresRubrica(Rubrica rubrica, CategoriaMes mesInicial, CategoriaMes mesFinal) {
 		
-		ArrayList<String> valores = new ArrayList<String>();
-		Double previstos = 0.0;
-		Double realizados = 0.0;
+		return calculaLinhaRubrica(rubrica, mesInicial, mesFinal).toValores();
+	}
+	
+	/**
+	 * calcula as 7 caracteristicas de uma rubrica (ver geraValoresRubrica)
+	 * @param rubrica
+	 * @param mesInicial
+	 * @param mesFinal
+	 * @return
+	 */
+	public LinhaAnaliseComparativa calculaLinhaRubrica(Rubrica rubrica, CategoriaMes mesInicial, CategoriaMes mesFinal) {
+		
 		Double[] previstosERealizados = {0.0, 0.0};
 		
 		assertNotNull(rubrica.getCodigo());
 		assertNotNull(rubrica.getNome());
-
-		valores.add(String.valueOf(rubrica.getCodigo()));
-		valores.add(String.valueOf(rubrica.getNome()));
 	
-		if (PlanoContas.getInstance().getRubricasEspeciais().containsKey(rubrica.getCodigo())) {
-			previstosERealizados = getValoresPrevistosRealizadosRubricaEspecial(rubrica.getCodigo(), mesInicial, mesFinal);
+		if (getPlanoContas().getFormulas().contem(rubrica.getCodigo())) {
+			previstosERealizados = getValoresRubricaEspecial(rubrica.getCodigo(), mesInicial, mesFinal);
 			
 		}
 		else {
 			previstosERealizados = iteraESomaValoresRubricas(rubrica, mesInicial, mesFinal);
 		}
-		previstos = previstosERealizados[0];
-		realizados = previstosERealizados[1];
-		valores.add(previstos.toString());
-		valores.add(realizados.toString());
-		Double variacao = previstos - realizados;
-		valores.add(String.valueOf(variacao));
-		valores.add(calculaPorcentagem(previstos, variacao).toString() + "%");
-		valores.add(String.valueOf(geraAvaliacao(rubrica.getCategoria(), variacao)));
+		double previstos = previstosERealizados[0];
+		double realizados = previstosERealizados[1];
+		double variacao = previstos - realizados;
 	   
-		return valores;
+		return new LinhaAnaliseComparativa(rubrica.getCodigo(), rubrica.getNome(), previstos, realizados, variacao,
+				calculaPorcentagem(previstos, variacao), geraAvaliacao(rubrica.getCategoria(), variacao));
 		
 	}
 	/**
@@ -94,23 +278,36 @@ public class AgenteAnaliseComparativa extends AgenteAbstract{
 	 */
 	public static Double[] iteraESomaValoresRubricas(Rubrica rubrica, CategoriaMes mesInicial, CategoriaMes mesFinal) {
 		
-		Double somaValoresPrevistos = 0.0;
-		Double somaValoresRealizados = 0.0;
-		
-		for (int mounthCounter = mesInicial.toInt(); mounthCounter <= mesFinal.toInt(); mounthCounter ++) {
-			somaValoresPrevistos += rubrica.somaValoresPrevistosSubrubricas(mounthCounter);
-			somaValoresRealizados += rubrica.somaValoresRealizadosSubrubricas(mounthCounter);
-		}
+		//Somas acumuladas da rúbrica: O(1) para qualquer intervalo
+		double somaValoresPrevistos = rubrica.somaPrevistosSubrubricas(mesInicial.toInt(), mesFinal.toInt());
+		double somaValoresRealizados = rubrica.somaRealizadosSubrubricas(mesInicial.toInt(), mesFinal.toInt());
 		return new Double[] {somaValoresPrevistos, somaValoresRealizados};
 
 	}
+	/**
+	 * gera um array de 2 valores, o primeiro o valor previsto e o segundo o valor realizado
+	 * ambos referentes a uma rubrica especial, usando as fórmulas já avaliadas da análise
+	 * em andamento quando o intervalo é o mesmo
+	 * @param codigo
+	 * @param mesInicial
+	 * @param mesFinal
+	 * @return
+	 */
+	private Double[] getValoresRubricaEspecial(int codigo, CategoriaMes mesInicial, CategoriaMes mesFinal) {
+		AvaliacaoFormulas avaliacao = this.avaliacaoFormulas;
+		if (avaliacao == null || !avaliacao.isIntervalo(mesInicial.toInt(), mesFinal.toInt())) {
+			avaliacao = getPlanoContas().getFormulas().avalia(getPlanoContas().getRubricas(), mesInicial.toInt(), mesFinal.toInt());
+		}
+		double[] valores = avaliacao.getValores(codigo);
+		return new Double[] {valores[0], valores[1]};
+	}
+	
 	/**
 	 * gera um array de 2 valores, o primeiro o valor previsto e o segundo o valor realizado
 	 * ambos referentes a uma rubrica especial
-	 * faz um parser da fórmula da rubrica especial
-	 * caso 1: a rubrica depende de apenas uma outra
-	 * caso 2: a rubrica depende do inverso de outra
-	 * caso 3: a rubrica depende da soma de varias outras ou depende da subtracao de varias outras
+	 * a fórmula da rubrica especial já foi compilada ao carregar o plano de contas
+	 * (ver FormulaRubrica): aceita somas, subtrações e negações misturadas, parênteses
+	 * e referências [codigo] ao resultado da fórmula de outra rubrica especial
 	 * @param RubricaCode
 	 * @param mesInicial
 	 * @param mesFinal
@@ -118,64 +315,22 @@ public class AgenteAnaliseComparativa extends AgenteAbstract{
 	 */
 	
 	public static Double[] getValoresPrevistosRealizadosRubricaEspecial(int RubricaCode, CategoriaMes mesInicial, CategoriaMes mesFinal) {
-		String formula = PlanoContas.getInstance().getRubricasEspeciais().get(RubricaCode);
-		
-	
-		String[] formulaArray = formula.split(" ");
-		
-		Double acumuladorPrevistos = 0.0;
-		Double acumuladorRealizados = 0.0;
-		
-		
-		//se o comprimento é um, é porque a fórmula é uma rubrica; sem operacao
-		
-		if (formulaArray.length == 1) {
-			
-			Rubrica rubrica =  PlanoContas.getInstance().getRubricas().get(Integer.valueOf(formulaArray[0]));
-			return iteraESomaValoresRubricas(rubrica, mesInicial, mesFinal);
-		}
-		
-		//se é dois, é porque é -x. sim, sempre.
-		if (formulaArray.length == 2) {
-			Rubrica rubrica =  PlanoContas.getInstance().getRubricas().get(Integer.valueOf(formulaArray[1]));
-			Double[] result = iteraESomaValoresRubricas(rubrica, mesInicial, mesFinal);
-			
-			for (Double element : result) {
-				element *= -1;
-			}
-			return result;
-		}
-		//se é maior. é pq é ou x + x + ... ou x - x - x... nunca terá - e + misturados.
+		return getValoresPrevistosRealizadosRubricaEspecial(PlanoContas.getInstance(), RubricaCode, mesInicial, mesFinal);
+	}
 	
-		if (formulaArray[1].equals("+")) {
-
-			for (int cont=0; cont < formulaArray.length; cont += 2) {
-				Rubrica rubrica =  PlanoContas.getInstance().getRubricas().get(Integer.valueOf(formulaArray[cont]));
-				
-				
-				Double[] result = iteraESomaValoresRubricas(rubrica, mesInicial, mesFinal);
-				acumuladorPrevistos += result[0];
-				acumuladorRealizados += result[1];
-			}
-			return new Double[] {acumuladorPrevistos, acumuladorRealizados};
-		}
-		else {
-			
-			for (int cont = 0; cont < formulaArray.length; cont += 2) {
-				Rubrica rubrica =  PlanoContas.getInstance().getRubricas().get(Integer.valueOf(formulaArray[cont]));
-				Double[] result = iteraESomaValoresRubricas(rubrica, mesInicial, mesFinal);
-				if (cont == 0) {
-					acumuladorPrevistos = result[0];
-					acumuladorRealizados = result[1];
-				}
-				else {
-					acumuladorPrevistos -= result[0];
-					acumuladorRealizados -= result[1];
-				}
-			}
-			return new Double[] {acumuladorPrevistos, acumuladorRealizados};
-			
-		}
+	/**
+	 * mesmo que getValoresPrevistosRealizadosRubricaEspecial, para a rubrica especial de um plano de contas dado
+	 * @param plano
+	 * @param RubricaCode
+	 * @param mesInicial
+	 * @param mesFinal
+	 * @return
+	 */
+	public static Double[] getValoresPrevistosRealizadosRubricaEspecial(PlanoContas plano, int RubricaCode, CategoriaMes mesInicial, CategoriaMes mesFinal) {
+		double[] valores = plano.getFormulas()
+				.avalia(plano.getRubricas(), mesInicial.toInt(), mesFinal.toInt())
+				.getValores(RubricaCode);
+		return new Double[] {valores[0], valores[1]};
 	}
 	/**
 	 * dada a categoria que uma rubrica pertence, avaliar a variacao obtida em um intervalo de tempo 
@@ -12,11 +12,23 @@ import dominio.Rubrica;
  */
 public class AgenteOrcamentoInicial extends AgenteAbstract {
 
+	private CacheArquivosLidos cacheArquivos;
 	
 	public AgenteOrcamentoInicial(PlanoContas plano) {
 		super(plano);
 	}
 	
+	public CacheArquivosLidos getCacheArquivos() {
+		return cacheArquivos;
+	}
+	
+	/**
+	 * @param cacheArquivos Cache dos orçamentos já lidos, ou null para sempre ler o arquivo
+	 */
+	public void setCacheArquivos(CacheArquivosLidos cacheArquivos) {
+		this.cacheArquivos = cacheArquivos;
+	}
+	
 	/**
 	 * Lê o arquivo CSV com o Orçamento do ano passado da empresa.
 	 * @param filename Arquivo csv
@@ -24,11 +36,25 @@ public class AgenteOrcamentoInicial extends AgenteAbstract {
 	 */
 	public void lerOrcamentoAnterior(String filename) throws FileNotFoundException{
 		
-		GerenciadorArquivos ler = new GerenciadorArquivos();
+		GerenciadorArquivos ler = new GerenciadorArquivos(cacheArquivos);
 		LinkedHashMap<Integer, Rubrica> rubricasIniciais = ler.lerOrcamentoInicial(filename);
 		
 		getPlanoContas().setRubricas(rubricasIniciais);
 
 	}
 	
-}
\ No newline at end of file
+	/**
+	 * Lê o arquivo CSV com o Orçamento do ano passado da empresa mapeando-o em memória
+	 * e interpretando-o em paralelo. Indicado para planos de contas muito grandes.
+	 * @param filename Arquivo csv
+	 * @throws FileNotFoundException
+	 */
+	public void lerOrcamentoAnteriorParalelo(String filename) throws FileNotFoundException{
+		
+		GerenciadorArquivos ler = new GerenciadorArquivos(cacheArquivos);
+		LinkedHashMap<Integer, Rubrica> rubricasIniciais = ler.lerOrcamentoInicialParalelo(filename);
+		
+		getPlanoContas().setRubricas(rubricasIniciais);
+	}
+	
+}
\ No newline at end of file
@@ -1,6 +1,20 @@
 package negocios;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import dominio.CenarioPlano;
+import dominio.HistoricoPlanoContas;
 import dominio.PlanoContas;
+import dominio.Rubrica;
+import util.CategoriaModeloPrevisao;
+import util.Metricas;
 
 /**
  *   Classe que gerencia a previsão para o próximo ano do 
@@ -11,6 +25,11 @@ public class AgentePrevisao extends AgenteAbstract {
 	public static final int PREVISAO_VALORFIXO = 1;
 	public static final int PREVISAO_VALORPORCENTAGEM = 2;
 	public static final int PREVISAO_VALORANOANTERIOR = 3;
+	
+	private static final Metricas.Temporizador PREVISAO_ESTATISTICA = Metricas.temporizador("previsao_estatistica_segundos",
+			"Tempo das previsões estatísticas do plano inteiro");
+	private static final Metricas.Contador SERIES_AJUSTADAS = Metricas.contador("previsao_estatistica_series_total",
+			"Séries de rúbricas folha ajustadas pela previsão estatística");
 
 	
 	public AgentePrevisao(PlanoContas plano) {
@@ -26,9 +45,14 @@ public class AgentePrevisao extends AgenteAbstract {
 	public void previsaoPorcentagem(int codigo, double porcentagem, int mes) {
 		
 		try {
-			double valorAnoPassado = getPlanoContas().getRubricas().get(codigo).getvalorAnoPassado(mes);
-			
-			getPlanoContas().getRubricas().get(codigo).setValorPrevisto(mes, (valorAnoPassado*porcentagem));
+			boolean existe = getPlanoContas().atualiza(codigo, rubrica -> {
+				double valorAnoPassado = rubrica.getvalorAnoPassado(mes);
+				
+				rubrica.setValorPrevisto(mes, (valorAnoPassado*porcentagem));
+			});
+			if(!existe) {
+				System.out.println("O código digitado não existe!");
+			}
 		}
 		catch (NullPointerException npe) {
 			 System.out.println("O código digitado não existe!");
@@ -43,10 +67,7 @@ public class AgentePrevisao extends AgenteAbstract {
 	 */
 	public void previsaoValorFixo(int codigo, double valor, int mes) {
 		
-		try {
-			super.getPlanoContas().getRubricas().get(codigo).setValorPrevisto(mes, valor);
-		}
-		catch(NullPointerException npe) {
+		if(!getPlanoContas().atualiza(codigo, rubrica -> rubrica.setValorPrevisto(mes, valor))) {
 			 System.out.println("O código digitado não existe!");
 		}
 	}
@@ -59,8 +80,13 @@ public class AgentePrevisao extends AgenteAbstract {
 	public void previsaoManterAnoAnterior(int codigo, int mes) {
 		
 		try {
-			double valorAnoPassado = getPlanoContas().getRubricas().get(codigo).getvalorAnoPassado(mes);
-			super.getPlanoContas().getRubricas().get(codigo).setValorPrevisto(mes, valorAnoPassado);
+			boolean existe = getPlanoContas().atualiza(codigo, rubrica -> {
+				double valorAnoPassado = rubrica.getvalorAnoPassado(mes);
+				rubrica.setValorPrevisto(mes, valorAnoPassado);
+			});
+			if(!existe) {
+				System.out.println("O código digitado não existe!");
+			}
 		}
 		catch (NullPointerException npe) {
 			 System.out.println("O código digitado não existe!");
@@ -68,10 +94,185 @@ public class AgentePrevisao extends AgenteAbstract {
 	}
 	
 	
+	/**
+	 * Aplica um lote de previsões em uma única passada. Todas as operações são validadas
+	 * antes de qualquer alteração: se alguma for inválida, nenhuma previsão é feita.
+	 * @param lote Lote de previsões
+	 * @return Erros encontrados; vazia se o lote foi aplicado
+	 */
+	public List<String> aplicaLote(LotePrevisao lote) {
+		
+		List<String> erros = new ArrayList<String>();
+		PlanoContas plano = getPlanoContas();
+		plano.escreveRubricas(lote.getCodigos(), () -> {
+			LotePrevisao.Celulas celulas = lote.resolve(plano.getRubricas(), erros);
+			if(erros.isEmpty()) {
+				celulas.aplica();
+			}
+		});
+		return erros;
+	}
+	
+	/**
+	 * Aplica um lote de previsões em um cenário, copiando antes as rúbricas que o lote altera.
+	 * O plano e os outros cenários não são alterados.
+	 * @param cenario Cenário
+	 * @param lote Lote de previsões
+	 * @return Erros encontrados; vazia se o lote foi aplicado
+	 */
+	public static List<String> aplicaLote(CenarioPlano cenario, LotePrevisao lote) {
+		
+		cenario.copiaParaEscrita(lote.getCodigos(), lote.temSubarvore());
+		return new AgentePrevisao(cenario.getPlano()).aplicaLote(lote);
+	}
+	
+	/**
+	 * Previsão estatística de todas as rúbricas folha no pool comum de fork-join.
+	 * @see #previsaoEstatistica(PrevisaoEstatistica, ForkJoinPool)
+	 */
+	public RelatorioPrevisaoEstatistica previsaoEstatistica(PrevisaoEstatistica previsao) {
+		
+		return previsaoEstatistica(previsao, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Ajusta o modelo à série de cada rúbrica folha e grava os 12 meses previstos de todas de uma
+	 * só vez, como um lote: os pais recebem os totais pela soma das subrúbricas. As séries são
+	 * lidas em um mesmo estado do plano e os modelos são ajustados em paralelo, sem travar o plano.
+	 * Meses previstos negativos são gravados como zero; folhas sem histórico não são alteradas.
+	 * @param previsao Modelo e anos do histórico usados
+	 * @param pool Pool em que os modelos são ajustados
+	 * @return Contagens por modelo, tempos de cada etapa e erros
+	 */
+	public RelatorioPrevisaoEstatistica previsaoEstatistica(PrevisaoEstatistica previsao, ForkJoinPool pool) {
+		
+		RelatorioPrevisaoEstatistica relatorio = new RelatorioPrevisaoEstatistica(previsao.getModelo(), pool.getParallelism());
+		PlanoContas plano = getPlanoContas();
+		HistoricoPlanoContas historico = plano.getHistorico();
+		if(previsao.getAnosHistorico() > 0 && historico == null) {
+			relatorio.adicionaErros(Collections.singletonList("Nenhum histórico aberto para os anos anteriores"));
+			return relatorio;
+		}
+		long inicioMetrica = PREVISAO_ESTATISTICA.inicia();
+		
+		long inicio = System.nanoTime();
+		List<Rubrica> folhas = new ArrayList<Rubrica>();
+		double[][] anosPassados = plano.leConsistente(() -> {
+			for(Rubrica rubrica : plano.getRubricas().values()) {
+				if(rubrica.getSubRubricas().isEmpty()) {
+					folhas.add(rubrica);
+				}
+			}
+			double[][] valores = new double[folhas.size()][12];
+			for(int i = 0; i < valores.length; i++) {
+				for(int mes = 1; mes <= 12; mes++) {
+					Rubrica folha = folhas.get(i);
+					valores[i][mes - 1] = folha.temValorAnoPassado(mes) ? folha.getValorAnoPassadoOuZero(mes) : Double.NaN;
+				}
+			}
+			return valores;
+		});
+		int[] codigos = new int[folhas.size()];
+		for(int i = 0; i < codigos.length; i++) {
+			codigos[i] = folhas.get(i).getCodigo();
+		}
+		relatorio.setNumFolhas(codigos.length);
+		long coleta = System.nanoTime();
+		
+		double[][] previstos = new double[codigos.length][12];
+		CategoriaModeloPrevisao[] modelos = new CategoriaModeloPrevisao[codigos.length];
+		try {
+			pool.invoke(new TarefaPrevisao(previsao, historico, codigos, anosPassados, previstos, modelos, 0, codigos.length));
+		}catch(UncheckedIOException e) {
+			relatorio.adicionaErros(Collections.singletonList("Erro ao ler o histórico: " + e.getCause().getMessage()));
+			PREVISAO_ESTATISTICA.para(inicioMetrica);
+			return relatorio;
+		}
+		SERIES_AJUSTADAS.soma(codigos.length);
+		
+		int numPrevistas = 0;
+		for(int i = 0; i < codigos.length; i++) {
+			relatorio.contaPrevista(modelos[i]);
+			if(modelos[i] != null) {
+				codigos[numPrevistas] = codigos[i];
+				previstos[numPrevistas++] = previstos[i];
+				for(int mes = 0; mes < 12; mes++) {
+					if(previstos[i][mes] < 0) {
+						previstos[i][mes] = 0;
+						relatorio.contaLimitadaAZero();
+					}
+				}
+			}
+		}
+		long ajuste = System.nanoTime();
+		
+		LotePrevisao lote = new LotePrevisao().matriz(Arrays.copyOf(codigos, numPrevistas), Arrays.copyOf(previstos, numPrevistas));
+		relatorio.adicionaErros(aplicaLote(lote));
+		relatorio.setTempos(coleta - inicio, ajuste - coleta, System.nanoTime() - ajuste);
+		PREVISAO_ESTATISTICA.para(inicioMetrica);
+		return relatorio;
+	}
+	
+	/**
+	 * Tarefa que ajusta os modelos de uma faixa das folhas, dividindo-a ao meio enquanto for grande.
+	 */
+	private static class TarefaPrevisao extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		private static final int LIMITE_SEQUENCIAL = 256;
+		
+		private PrevisaoEstatistica previsao;
+		private HistoricoPlanoContas historico;
+		private int[] codigos;
+		private double[][] anosPassados;
+		private double[][] previstos;
+		private CategoriaModeloPrevisao[] modelos;
+		private int inicio;
+		private int fim;
+		
+		TarefaPrevisao(PrevisaoEstatistica previsao, HistoricoPlanoContas historico, int[] codigos, double[][] anosPassados,
+				double[][] previstos, CategoriaModeloPrevisao[] modelos, int inicio, int fim) {
+			this.previsao = previsao;
+			this.historico = historico;
+			this.codigos = codigos;
+			this.anosPassados = anosPassados;
+			this.previstos = previstos;
+			this.modelos = modelos;
+			this.inicio = inicio;
+			this.fim = fim;
+		}
+		
+		@Override
+		protected void compute() {
+			if(fim - inicio > LIMITE_SEQUENCIAL) {
+				int meio = (inicio + fim) >>> 1;
+				invokeAll(new TarefaPrevisao(previsao, historico, codigos, anosPassados, previstos, modelos, inicio, meio),
+						new TarefaPrevisao(previsao, historico, codigos, anosPassados, previstos, modelos, meio, fim));
+				return;
+			}
+			int anos = previsao.getAnosHistorico();
+			double[] serie = new double[(anos + 1) * 12];
+			for(int i = inicio; i < fim; i++) {
+				try {
+					for(int ano = 0; ano < anos; ano++) {
+						Double[] valores = historico.getAno(codigos[i], previsao.getAnoPassado() - anos + ano);
+						for(int mes = 0; mes < 12; mes++) {
+							serie[ano * 12 + mes] = valores == null || valores[mes] == null ? Double.NaN : valores[mes];
+						}
+					}
+				}catch(IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				System.arraycopy(anosPassados[i], 0, serie, anos * 12, 12);
+				modelos[i] = previsao.preve(serie, previstos[i]);
+			}
+		}
+	}
+	
 	public String toString(int codigo, int mes) {
 		
 		return super.getPlanoContas().getRubricas().get(codigo).getValorPrevisto(mes, codigo) + " mes: " + mes;
 	}
 	
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -1,11 +1,19 @@
 package negocios;
 import static org.junit.Assert.assertNotNull;
 
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import dominio.PlanoContas;
 import dominio.Rubrica;
+import util.CategoriaFormatoArquivo;
 import util.CategoriaMes;
+import util.MapaIntDouble;
 
 /**
  * Classe respons�vel por controlar o que foi realmente realizado de gastos
@@ -15,10 +23,35 @@ import util.CategoriaMes;
 public class AgenteRealizadoMensal extends AgenteAbstract {
 
 
+	private CategoriaFormatoArquivo formatoArquivo = CategoriaFormatoArquivo.XLS;
+	private CacheArquivosLidos cacheArquivos;
+
 	public AgenteRealizadoMensal(PlanoContas plano) {
 		super(plano);
 	}
 	
+	public CategoriaFormatoArquivo getFormatoArquivo() {
+		return formatoArquivo;
+	}
+	
+	/**
+	 * @param formatoArquivo Formato dos templates de realizado mensal gerados
+	 */
+	public void setFormatoArquivo(CategoriaFormatoArquivo formatoArquivo) {
+		this.formatoArquivo = formatoArquivo;
+	}
+	
+	public CacheArquivosLidos getCacheArquivos() {
+		return cacheArquivos;
+	}
+	
+	/**
+	 * @param cacheArquivos Cache dos realizados mensais já lidos, ou null para sempre ler o arquivo
+	 */
+	public void setCacheArquivos(CacheArquivosLidos cacheArquivos) {
+		this.cacheArquivos = cacheArquivos;
+	}
+	
 	/**
 	 * Dado um plano de contas e um mes, gera um tamplate de arquivo .xls para o realizado mensal
 	 * @param mes
@@ -26,34 +59,135 @@ public class AgenteRealizadoMensal extends AgenteAbstract {
 	public void geraTemplateOrcamentoMensal(CategoriaMes mes) {
 		
 		GerenciadorArquivos gerador = new GerenciadorArquivos();
-		gerador.geraTemplateRealizadoMensal(getPlanoContas(), mes);
+		gerador.geraTemplateRealizadoMensal(getPlanoContas(), mes, formatoArquivo);
 	}
 	
 	/**
-	 * Le o realizado mensal de um respectivo mes e atualiza as rubricas
+	 * Le o realizado mensal de um respectivo mes e atualiza as rubricas.
+	 * Rúbricas que não estão no arquivo ficam sem o realizado do mês.
 	 * @param mes
 	 */
 	public void leRealizadoMensal(String filename, CategoriaMes mes) {
 		
-		GerenciadorArquivos leitor = new GerenciadorArquivos();
+		GerenciadorArquivos leitor = new GerenciadorArquivos(cacheArquivos);
 		
 		// Codigo para Valor realizado de cada rubrica
-		LinkedHashMap<Integer, Double> realizado = leitor.lerRealizadoMensal(filename);
+		MapaIntDouble realizado = leitor.lerRealizadoMensalStreaming(filename);
 		
 		assertNotNull(realizado);
 		
-		if(getPlanoContas().getRubricas().keySet().size() != realizado.keySet().size()) {
+		if(getPlanoContas().getRubricas().keySet().size() != realizado.size()) {
 			System.out.println("Falta rúbrica no realizado mensal!");
 		}
 		
-		for(Integer cod : getPlanoContas().getRubricas().keySet()) {
-			
-			Rubrica rubrica = getPlanoContas().getRubricas().get(cod);
-			
-			rubrica.setValorRealizado(mes.toInt(), realizado.get(cod));
+		//O mês inteiro é atualizado de uma vez, sem relatórios vendo parte dele
+		getPlanoContas().escreveTudo(() -> {
+			for(Integer cod : getPlanoContas().getRubricas().keySet()) {
+				
+				if(!realizado.contem(cod)) {
+					continue;
+				}
+				Rubrica rubrica = getPlanoContas().getRubricas().get(cod);
+				
+				rubrica.setValorRealizado(mes.toInt(), realizado.get(cod));
+			}
+		});
+		
+		
+	}
+	
+	/**
+	 * Lê os realizados mensais de vários meses ao mesmo tempo, um thread por arquivo, e os aplica
+	 * ao plano em uma única passada. Um arquivo com erro não impede a importação dos demais.
+	 * @param arquivos Mês -> arquivo do realizado mensal do mês
+	 * @return Relatório com o resultado de cada arquivo
+	 */
+	public RelatorioImportacaoRealizado leRealizadosMensais(Map<CategoriaMes, String> arquivos) {
+		
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, arquivos.size()));
+		try {
+			return leRealizadosMensais(arquivos, executor);
+		}finally {
+			executor.shutdown();
+		}
+	}
+	
+	/**
+	 * Lê os realizados mensais de vários meses em paralelo no executor dado e os aplica ao plano
+	 * em uma única passada, com o plano inteiro travado (ver PlanoContas.escreveTudo).
+	 * @param arquivos Mês -> arquivo do realizado mensal do mês
+	 * @param executor Executor em que os arquivos são lidos
+	 * @return Relatório com o resultado de cada arquivo
+	 */
+	public RelatorioImportacaoRealizado leRealizadosMensais(Map<CategoriaMes, String> arquivos, ExecutorService executor) {
+		
+		GerenciadorArquivos leitor = new GerenciadorArquivos(cacheArquivos);
+		List<CategoriaMes> meses = new ArrayList<CategoriaMes>(arquivos.keySet());
+		List<Future<MapaIntDouble>> leituras = new ArrayList<Future<MapaIntDouble>>();
+		for(CategoriaMes mes : meses) {
+			String arquivo = arquivos.get(mes);
+			leituras.add(executor.submit(() -> leitor.lerRealizadoMensalVerificado(arquivo)));
+		}
+		
+		RelatorioImportacaoRealizado relatorio = new RelatorioImportacaoRealizado();
+		List<RelatorioImportacaoRealizado.ResultadoMes> lidos = new ArrayList<RelatorioImportacaoRealizado.ResultadoMes>();
+		List<MapaIntDouble> realizados = new ArrayList<MapaIntDouble>();
+		for(int i = 0; i < meses.size(); i++) {
+			RelatorioImportacaoRealizado.ResultadoMes resultado =
+					new RelatorioImportacaoRealizado.ResultadoMes(meses.get(i), arquivos.get(meses.get(i)));
+			try {
+				realizados.add(leituras.get(i).get());
+				lidos.add(resultado);
+			}catch(ExecutionException e) {
+				resultado.setErro(e.getCause().getMessage() != null ? e.getCause().getMessage() : e.getCause().toString());
+			}catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				resultado.setErro("importação interrompida");
+			}
+			relatorio.adiciona(resultado);
 		}
 		
+		getPlanoContas().escreveTudo(() -> aplicaRealizados(lidos, realizados));
+		return relatorio;
+	}
+	
+	/**
+	 * Aplica os realizados de todos os meses lidos percorrendo as rúbricas do plano uma única vez.
+	 */
+	private void aplicaRealizados(List<RelatorioImportacaoRealizado.ResultadoMes> lidos, List<MapaIntDouble> realizados) {
 		
+		Map<Integer, Rubrica> rubricas = getPlanoContas().getRubricas();
+		int numMeses = lidos.size();
+		int[] numRealizados = new int[numMeses];
+		List<List<Integer>> faltantes = new ArrayList<List<Integer>>();
+		for(int m = 0; m < numMeses; m++) {
+			faltantes.add(new ArrayList<Integer>());
+		}
+		
+		for(Rubrica rubrica : rubricas.values()) {
+			int codigo = rubrica.getCodigo();
+			for(int m = 0; m < numMeses; m++) {
+				MapaIntDouble realizado = realizados.get(m);
+				if(realizado.contem(codigo)) {
+					rubrica.setValorRealizado(lidos.get(m).getMes().toInt(), realizado.get(codigo));
+					numRealizados[m]++;
+				}
+				else {
+					faltantes.get(m).add(codigo);
+				}
+			}
+		}
+		
+		for(int m = 0; m < numMeses; m++) {
+			MapaIntDouble realizado = realizados.get(m);
+			List<Integer> desconhecidos = new ArrayList<Integer>();
+			for(int i = 0; i < realizado.size(); i++) {
+				if(!rubricas.containsKey(realizado.getChave(i))) {
+					desconhecidos.add(realizado.getChave(i));
+				}
+			}
+			lidos.get(m).setLido(numRealizados[m], faltantes.get(m), desconhecidos);
+		}
 	}
 	
 }
@@ -0,0 +1,273 @@
+package negocios;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import dominio.PlanoContas;
+import dominio.Rubrica;
+import dominio.SnapshotPlanoContas;
+import util.MapaIntDouble;
+
+/**
+ *  Cache em disco dos arquivos de orçamento inicial e de realizado mensal já interpretados.
+ *  Cada entrada é identificada pelo caminho, tamanho, data de modificação e hash SHA-256 do conteúdo
+ *  do arquivo lido, então um arquivo alterado nunca é servido do cache. Um acerto não passa pelo CSV
+ *  nem pelo POI: o orçamento é gravado como snapshot (SnapshotPlanoContas) e o realizado como
+ *  arrays de códigos e valores.
+ *
+ *  O tamanho total das entradas é limitado; quando passa do limite, as entradas usadas há mais
+ *  tempo são apagadas (LRU). A data de modificação de cada entrada marca o seu último uso, então
+ *  a ordem de uso é mantida entre execuções. Falhas do cache nunca impedem a leitura: o arquivo
+ *  é simplesmente interpretado de novo.
+ *
+ */
+public class CacheArquivosLidos {
+
+	public static final long TAMANHO_MAXIMO_PADRAO = 512L * 1024 * 1024;
+
+	//"PLCA"
+	private static final int MAGICO = 0x504C4341;
+	//Versão das entradas de realizado (2: débito ou crédito em branco vale 0)
+	private static final int VERSAO = 2;
+	private static final String SUFIXO = ".cache";
+	//Regras de montagem da hierarquia do orçamento (2: linhas sem classificação entram no grupo acima)
+	private static final int VERSAO_HIERARQUIA = 2;
+	//Entradas de versões anteriores do snapshot ou da hierarquia não são servidas e saem pelo LRU
+	private static final String ORCAMENTO = "orcamento-v" + SnapshotPlanoContas.VERSAO + "h" + VERSAO_HIERARQUIA;
+	private static final String REALIZADO = "realizado";
+
+	private final Path diretorio;
+	private final long tamanhoMaximo;
+	private final AtomicLong acertos = new AtomicLong();
+	private final AtomicLong falhas = new AtomicLong();
+
+	/**
+	 * @param diretorio Diretório das entradas, criado se não existir
+	 * @param tamanhoMaximo Tamanho total máximo das entradas, em bytes
+	 * @throws IOException
+	 */
+	public CacheArquivosLidos(Path diretorio, long tamanhoMaximo) throws IOException {
+		if(tamanhoMaximo <= 0) {
+			throw new IllegalArgumentException("Tamanho máximo do cache inválido: " + tamanhoMaximo);
+		}
+		this.diretorio = diretorio;
+		this.tamanhoMaximo = tamanhoMaximo;
+		Files.createDirectories(diretorio);
+	}
+
+	/**
+	 * Calcula a chave do arquivo, lendo todo o seu conteúdo para o hash.
+	 * @param filename Arquivo de entrada
+	 * @return Chave do arquivo no seu estado atual
+	 * @throws IOException se o arquivo não puder ser lido
+	 */
+	public Chave chave(String filename) throws IOException {
+		Path arquivo = Paths.get(filename).toAbsolutePath().normalize();
+		BasicFileAttributes atributos = Files.readAttributes(arquivo, BasicFileAttributes.class);
+		MessageDigest sha = novoSha256();
+		try(FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+			while(canal.read(buffer) >= 0) {
+				buffer.flip();
+				sha.update(buffer);
+				buffer.clear();
+			}
+		}
+		sha.update((arquivo + "|" + atributos.size() + "|" + atributos.lastModifiedTime().toMillis()).getBytes(StandardCharsets.UTF_8));
+		return new Chave(paraHexadecimal(sha.digest()));
+	}
+
+	/**
+	 * @return O orçamento inicial interpretado, como novos objetos, ou null se não está no cache
+	 */
+	public LinkedHashMap<Integer, Rubrica> obtemOrcamento(Chave chave) {
+		Path entrada = entrada(chave, ORCAMENTO);
+		if(!Files.exists(entrada)) {
+			falhas.incrementAndGet();
+			return null;
+		}
+		try {
+			LinkedHashMap<Integer, Rubrica> rubricas = new LinkedHashMap<Integer, Rubrica>(SnapshotPlanoContas.carrega(entrada).getRubricas());
+			marcaUso(entrada);
+			acertos.incrementAndGet();
+			return rubricas;
+		}catch(IOException e) {
+			descarta(entrada, e);
+			return null;
+		}
+	}
+
+	public void guardaOrcamento(Chave chave, Map<Integer, Rubrica> rubricas) {
+		PlanoContas plano = new PlanoContas();
+		plano.setRubricas(rubricas);
+		Path entrada = entrada(chave, ORCAMENTO);
+		try {
+			SnapshotPlanoContas.salva(plano, entrada);
+			limita();
+		}catch(IOException e) {
+			descarta(entrada, e);
+		}
+	}
+
+	/**
+	 * @return O realizado mensal interpretado, ou null se não está no cache
+	 */
+	public MapaIntDouble obtemRealizado(Chave chave) {
+		Path entrada = entrada(chave, REALIZADO);
+		if(!Files.exists(entrada)) {
+			falhas.incrementAndGet();
+			return null;
+		}
+		try(DataInputStream leitor = new DataInputStream(new BufferedInputStream(Files.newInputStream(entrada)))) {
+			if(leitor.readInt() != MAGICO || leitor.readInt() != VERSAO) {
+				throw new IOException("Entrada de cache inválida: " + entrada);
+			}
+			int tamanho = leitor.readInt();
+			MapaIntDouble realizados = new MapaIntDouble(tamanho);
+			for(int i = 0; i < tamanho; i++) {
+				realizados.put(leitor.readInt(), leitor.readDouble());
+			}
+			marcaUso(entrada);
+			acertos.incrementAndGet();
+			return realizados;
+		}catch(IOException e) {
+			descarta(entrada, e);
+			return null;
+		}
+	}
+
+	public void guardaRealizado(Chave chave, MapaIntDouble realizados) {
+		Path entrada = entrada(chave, REALIZADO);
+		Path temporario = null;
+		try {
+			//Um temporário único por gravação: importações simultâneas do mesmo arquivo não escrevem no mesmo
+			temporario = Files.createTempFile(diretorio, entrada.getFileName() + ".", ".tmp");
+			try(DataOutputStream escritor = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporario)))) {
+				escritor.writeInt(MAGICO);
+				escritor.writeInt(VERSAO);
+				escritor.writeInt(realizados.size());
+				for(int i = 0; i < realizados.size(); i++) {
+					escritor.writeInt(realizados.getChave(i));
+					escritor.writeDouble(realizados.getValor(i));
+				}
+			}
+			Files.move(temporario, entrada, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			limita();
+		}catch(IOException e) {
+			descarta(temporario != null ? temporario : entrada, e);
+		}
+	}
+
+	public long getAcertos() {
+		return acertos.get();
+	}
+
+	public long getFalhas() {
+		return falhas.get();
+	}
+
+	/**
+	 * Apaga as entradas usadas há mais tempo até o total caber no tamanho máximo.
+	 */
+	private synchronized void limita() throws IOException {
+		List<Path> entradas = new ArrayList<Path>();
+		List<BasicFileAttributes> atributos = new ArrayList<BasicFileAttributes>();
+		long total = 0;
+		try(DirectoryStream<Path> arquivos = Files.newDirectoryStream(diretorio, "*" + SUFIXO)) {
+			for(Path arquivo : arquivos) {
+				BasicFileAttributes atributo = Files.readAttributes(arquivo, BasicFileAttributes.class);
+				entradas.add(arquivo);
+				atributos.add(atributo);
+				total += atributo.size();
+			}
+		}
+		if(total <= tamanhoMaximo) {
+			return;
+		}
+
+		Integer[] ordem = new Integer[entradas.size()];
+		for(int i = 0; i < ordem.length; i++) {
+			ordem[i] = i;
+		}
+		Arrays.sort(ordem, (a, b) -> atributos.get(a).lastModifiedTime().compareTo(atributos.get(b).lastModifiedTime()));
+		for(int i = 0; i < ordem.length && total > tamanhoMaximo; i++) {
+			Files.deleteIfExists(entradas.get(ordem[i]));
+			total -= atributos.get(ordem[i]).size();
+		}
+	}
+
+	private static void marcaUso(Path entrada) {
+		try {
+			Files.setLastModifiedTime(entrada, FileTime.fromMillis(System.currentTimeMillis()));
+		}catch(IOException e) {
+			//Só afeta a ordem de remoção
+		}
+	}
+
+	private void descarta(Path entrada, IOException e) {
+		System.out.println("Entrada do cache de arquivos descartada: " + e.getMessage());
+		try {
+			Files.deleteIfExists(entrada);
+		}catch(IOException erro) {
+			//A entrada será sobrescrita ou removida pelo limite de tamanho
+		}
+	}
+
+	private Path entrada(Chave chave, String tipo) {
+		return diretorio.resolve(tipo + "-" + chave.hash + SUFIXO);
+	}
+
+	private static MessageDigest novoSha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		}catch(NoSuchAlgorithmException e) {
+			//Toda JVM tem SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String paraHexadecimal(byte[] bytes) {
+		StringBuilder hexadecimal = new StringBuilder(bytes.length * 2);
+		for(byte b : bytes) {
+			hexadecimal.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hexadecimal.toString();
+	}
+
+	/**
+	 * Identificação de um arquivo de entrada em um estado: caminho, tamanho, data de modificação e conteúdo.
+	 */
+	public static final class Chave {
+		private final String hash;
+
+		private Chave(String hash) {
+			this.hash = hash;
+		}
+
+		public String toString() {
+			return hash;
+		}
+	}
+}
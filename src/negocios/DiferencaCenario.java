@@ -0,0 +1,59 @@
+package negocios;
+
+/**
+ *  Diferença da análise comparativa de uma rúbrica entre um cenário e a sua base
+ *  (AgenteAnaliseComparativa.comparaCenarios): a linha de cada um e as diferenças cenário - base.
+ *
+ */
+public final class DiferencaCenario {
+
+	private final LinhaAnaliseComparativa base;
+	private final LinhaAnaliseComparativa cenario;
+
+	public DiferencaCenario(LinhaAnaliseComparativa base, LinhaAnaliseComparativa cenario) {
+		this.base = base;
+		this.cenario = cenario;
+	}
+
+	public int getCodigo() {
+		return cenario.getCodigo();
+	}
+
+	public String getNome() {
+		return cenario.getNome();
+	}
+
+	public LinhaAnaliseComparativa getBase() {
+		return base;
+	}
+
+	public LinhaAnaliseComparativa getCenario() {
+		return cenario;
+	}
+
+	public double getDiferencaPrevisto() {
+		return cenario.getPrevisto() - base.getPrevisto();
+	}
+
+	public double getDiferencaRealizado() {
+		return cenario.getRealizado() - base.getRealizado();
+	}
+
+	public double getDiferencaVariacao() {
+		return cenario.getVariacao() - base.getVariacao();
+	}
+
+	/**
+	 * @return True se a avaliação (:) ou :() mudou no cenário
+	 */
+	public boolean isAvaliacaoAlterada() {
+		return !cenario.getAvaliacao().equals(base.getAvaliacao());
+	}
+
+	public String toString() {
+		return getCodigo() + " " + getNome() + ": previsto " + base.getPrevisto() + " -> " + cenario.getPrevisto()
+				+ ", realizado " + base.getRealizado() + " -> " + cenario.getRealizado()
+				+ ", variação " + base.getVariacao() + " -> " + cenario.getVariacao()
+				+ " " + base.getAvaliacao() + " -> " + cenario.getAvaliacao();
+	}
+}
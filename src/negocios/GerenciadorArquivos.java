@@ -1,34 +1,75 @@
 package negocios;
 
+import java.io.BufferedInputStream;
+import java.io.CharArrayReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
-import org.apache.poi.EncryptedDocumentException;
-import org.apache.poi.hssf.usermodel.HSSFCell;
-import org.apache.poi.hssf.usermodel.HSSFCellStyle;
-import org.apache.poi.hssf.usermodel.HSSFRow;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BlankRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.MulBlankRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.RowRecord;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.poifs.filesystem.FileMagic;
+import org.apache.poi.poifs.filesystem.NPOIFSFileSystem;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CellType;
 import org.apache.poi.ss.usermodel.FillPatternType;
 import org.apache.poi.ss.usermodel.IndexedColors;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.util.RecordFormatException;
+import org.apache.poi.util.SAXHelper;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
 
 import dominio.PlanoContas;
 import dominio.Rubrica;
 import drivers.DriverCSV;
+import drivers.TokenizadorCSV;
 import util.CategoriaAnaliseComparativa;
+import util.CategoriaFormatoArquivo;
 import util.CategoriaMes;
 import util.CategoriaRubrica;
+import util.MapaIntDouble;
+import util.Metricas;
 
 /**
  *  Classe responsavel pelo acessoa a escrita e leitura dos arquivos da empresa
@@ -36,15 +77,49 @@ import util.CategoriaRubrica;
  */
 public class GerenciadorArquivos {
 
-	private HSSFSheet analiseComparativaSheet;
-	private HSSFWorkbook analisaComparativaWorkbook;
+	private static final int TAMANHO_BLOCO_PARALELO = 8 * 1024 * 1024;
+
+	//Linhas mantidas em memória pelo SXSSFWorkbook; as demais vão para um arquivo temporário
+	private static final int JANELA_LINHAS_XLSX = 100;
+
+	//Código de CellType.NUMERIC no tipo do resultado guardado de uma fórmula .xls; no POI 3.17
+	//tanto CellType.getCode quanto CellType.forInt estão obsoletos
+	private static final int RESULTADO_NUMERICO = 0;
+
+	private static final Metricas.Temporizador LEITURA_ORCAMENTO = Metricas.temporizador("orcamento_leitura_segundos",
+			"Tempo de leitura de cada arquivo de orçamento inicial, incluindo os servidos do cache");
+	private static final Metricas.Contador LINHAS_ORCAMENTO = Metricas.contador("orcamento_linhas_lidas_total",
+			"Rúbricas lidas dos arquivos de orçamento inicial");
+	private static final Metricas.Temporizador LEITURA_REALIZADO = Metricas.temporizador("realizado_leitura_segundos",
+			"Tempo de leitura de cada arquivo de realizado mensal, incluindo os servidos do cache");
+	private static final Metricas.Contador LINHAS_REALIZADO = Metricas.contador("realizado_linhas_lidas_total",
+			"Linhas com código lidas dos arquivos de realizado mensal");
+	private static final Metricas.Temporizador ESCRITA_PLANILHA = Metricas.temporizador("planilha_escrita_segundos",
+			"Tempo de gravação de cada planilha gerada (templates e análises comparativas)");
+
+	private Sheet analiseComparativaSheet;
+	private Workbook analisaComparativaWorkbook;
+	private CategoriaFormatoArquivo formatoAnaliseComparativa;
+	private CellStyle estiloPorcentagem;
+	//Cache dos arquivos de entrada já interpretados; null para sempre interpretar
+	private CacheArquivosLidos cache;
 	
 	public GerenciadorArquivos(){
 		
 	}
+	
+	/**
+	 * @param cache Cache dos orçamentos iniciais e realizados mensais já lidos, ou null
+	 */
+	public GerenciadorArquivos(CacheArquivosLidos cache){
+		this.cache = cache;
+	}
 
 	/**
-	 * Lê o arquivo de orçamento inicial da empresa
+	 * Lê o arquivo de orçamento inicial da empresa. A hierarquia vem da classificação de cada
+	 * linha (ex: 3.2.1.01.002), então as linhas classificadas não precisam estar em ordem. As linhas
+	 * sem classificação das rubricas especiais são totais sem subrúbricas (o valor vem da fórmula);
+	 * as demais sem classificação entram no grupo da linha classificada acima delas.
 	 * 
 	 * @param filename Arquivo .csv com o orçamento inicial
 	 * @return Map de Código da Rúbrica -> Rúbrica
@@ -52,94 +127,364 @@ public class GerenciadorArquivos {
 	 */
 	public LinkedHashMap<Integer, Rubrica> lerOrcamentoInicial(String filename) throws FileNotFoundException{
 	
+		long inicio = LEITURA_ORCAMENTO.inicia();
+		LinkedHashMap<Integer, Rubrica> rubricas = lerOrcamentoInicialSequencial(filename);
+		LEITURA_ORCAMENTO.para(inicio);
+		LINHAS_ORCAMENTO.soma(rubricas.size());
+		return rubricas;
+	}
+	
+	private LinkedHashMap<Integer, Rubrica> lerOrcamentoInicialSequencial(String filename) throws FileNotFoundException{
+	
+		CacheArquivosLidos.Chave chave = chaveCache(filename);
+		if(chave != null) {
+			LinkedHashMap<Integer, Rubrica> rubricas = cache.obtemOrcamento(chave);
+			if(rubricas != null) {
+				return rubricas;
+			}
+		}
 		
-		LinkedHashMap<Integer, Rubrica> map = new LinkedHashMap<Integer, Rubrica>();
-			
-		//Lista de pais para a estruturação da linhagem hierárquica
-		List<Rubrica> pais = new ArrayList<>();
-		Rubrica parent = null;
-		int parentClass = 0;
+		MontadorHierarquia montador = new MontadorHierarquia();
 		
 		DriverCSV driver = new DriverCSV(filename);
-			
-		Double[] pastValues;
 		
 		while(driver.hasNext()) {
-			Rubrica rubrica;
 			// INTERPRETAÇÃO DA LINHA
 			driver.proceed();
 			
 			if(driver.getNumOfLineFields() != 0) {
 				
+				//A linha é separada uma única vez e os campos são reaproveitados
+				LinhaOrcamento linha = criaLinhaOrcamento(driver.getFields());
+				if(linha != null) {
+					montador.adiciona(linha);
+				}
+			}
 				
-				String classification = driver.getFields()[0];
-				String cod = driver.getFields()[1];
-				String name = driver.getFields()[2];
-				
-				assert(!cod.isEmpty());
+		}
+		driver.close();
+		
+		if(chave != null) {
+			cache.guardaOrcamento(chave, montador.getRubricas());
+		}
+		return montador.getRubricas();
+	}
+	
+	/**
+	 * Lê o arquivo de orçamento inicial da empresa mapeando-o em memória e interpretando
+	 * blocos do arquivo em paralelo no pool comum de fork-join.
+	 * O resultado é o mesmo de lerOrcamentoInicial.
+	 * 
+	 * @param filename Arquivo .csv com o orçamento inicial
+	 * @return Map de Código da Rúbrica -> Rúbrica
+	 * @throws FileNotFoundException
+	 */
+	public LinkedHashMap<Integer, Rubrica> lerOrcamentoInicialParalelo(String filename) throws FileNotFoundException{
+		return lerOrcamentoInicialParalelo(filename, ForkJoinPool.commonPool(), TAMANHO_BLOCO_PARALELO);
+	}
+	
+	/**
+	 * Lê o arquivo de orçamento inicial da empresa mapeando-o em memória e interpretando
+	 * blocos do arquivo em paralelo. Os blocos são divididos em quebras de linha e, ao final,
+	 * a hierarquia é montada em uma passada sequencial pelas classificações.
+	 * 
+	 * @param filename Arquivo .csv com o orçamento inicial
+	 * @param pool Pool em que os blocos serão interpretados
+	 * @param tamanhoBloco Tamanho aproximado, em bytes, de cada bloco
+	 * @return Map de Código da Rúbrica -> Rúbrica
+	 * @throws FileNotFoundException
+	 */
+	public LinkedHashMap<Integer, Rubrica> lerOrcamentoInicialParalelo(String filename, ForkJoinPool pool, int tamanhoBloco) throws FileNotFoundException{
+		
+		long inicio = LEITURA_ORCAMENTO.inicia();
+		LinkedHashMap<Integer, Rubrica> rubricas = lerOrcamentoInicialBlocos(filename, pool, tamanhoBloco);
+		LEITURA_ORCAMENTO.para(inicio);
+		LINHAS_ORCAMENTO.soma(rubricas.size());
+		return rubricas;
+	}
+	
+	private LinkedHashMap<Integer, Rubrica> lerOrcamentoInicialBlocos(String filename, ForkJoinPool pool, int tamanhoBloco) throws FileNotFoundException{
+		
+		CacheArquivosLidos.Chave chave = chaveCache(filename);
+		if(chave != null) {
+			LinkedHashMap<Integer, Rubrica> rubricas = cache.obtemOrcamento(chave);
+			if(rubricas != null) {
+				return rubricas;
+			}
+		}
+		
+		MontadorHierarquia montador = new MontadorHierarquia();
+		
+		try(RandomAccessFile arquivo = new RandomAccessFile(filename, "r");
+			FileChannel canal = arquivo.getChannel()) {
+			
+			//As duas primeiras linhas são o cabeçalho, assim como no DriverCSV
+			long inicio = posicaoAposQuebraDeLinha(canal, posicaoAposQuebraDeLinha(canal, 0));
+			List<long[]> blocos = divideEmBlocos(canal, inicio, tamanhoBloco);
+			
+			List<LinhaOrcamento> linhas = pool.invoke(new TarefaLeituraBlocos(canal, blocos, 0, blocos.size()));
+			for(LinhaOrcamento linha : linhas) {
+				montador.adiciona(linha);
+			}
+		}catch(FileNotFoundException e) {
+			throw e;
+		}catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		
+		if(chave != null) {
+			cache.guardaOrcamento(chave, montador.getRubricas());
+		}
+		return montador.getRubricas();
+	}
+	
+	/**
+	 * @return A chave do arquivo no cache, ou null se não há cache ou o arquivo não pode ser lido
+	 */
+	private CacheArquivosLidos.Chave chaveCache(String filename) {
+		if(cache == null || filename == null) {
+			return null;
+		}
+		try {
+			return cache.chave(filename);
+		}catch(IOException e) {
+			//O próprio leitor relata o erro do arquivo
+			return null;
+		}
+	}
+	
+	/**
+	 * Divide o arquivo em blocos de aproximadamente tamanhoBloco bytes, sempre terminando
+	 * logo após uma quebra de linha.
+	 * @return Lista de pares {início, fim} de cada bloco
+	 * @throws IOException
+	 */
+	private static List<long[]> divideEmBlocos(FileChannel canal, long inicio, int tamanhoBloco) throws IOException {
+		List<long[]> blocos = new ArrayList<>();
+		long tamanho = canal.size();
+		while(inicio < tamanho) {
+			long fim = Math.min(tamanho, posicaoAposQuebraDeLinha(canal, Math.min(tamanho, inicio + tamanhoBloco)));
+			blocos.add(new long[] {inicio, fim});
+			inicio = fim;
+		}
+		return blocos;
+	}
+	
+	/**
+	 * As quebras de linha são as mesmas do TokenizadorCSV: \n, \r\n e \r sozinho; um \r\n nunca é
+	 * dividido entre dois blocos.
+	 * @return Posição logo após a primeira quebra de linha a partir de posicao,
+	 * ou o tamanho do arquivo se não houver mais nenhuma
+	 * @throws IOException
+	 */
+	private static long posicaoAposQuebraDeLinha(FileChannel canal, long posicao) throws IOException {
+		ByteBuffer janela = ByteBuffer.allocate(8 * 1024);
+		long tamanho = canal.size();
+		while(posicao < tamanho) {
+			janela.clear();
+			int lidos = canal.read(janela, posicao);
+			if(lidos <= 0) {
+				break;
+			}
+			for(int i = 0; i < lidos; i++) {
+				byte b = janela.get(i);
+				if(b == '\n') {
+					return posicao + i + 1;
+				}
+				if(b == '\r') {
+					long apos = posicao + i + 1;
+					//O \n seguinte pode estar já fora da janela
+					byte seguinte = i + 1 < lidos ? janela.get(i + 1) : byteEm(canal, apos);
+					return seguinte == '\n' ? apos + 1 : apos;
+				}
+			}
+			posicao += lidos;
+		}
+		return tamanho;
+	}
+	
+	/**
+	 * @return O byte na posição, ou 0 se ela está no fim do arquivo
+	 */
+	private static byte byteEm(FileChannel canal, long posicao) throws IOException {
+		ByteBuffer umByte = ByteBuffer.allocate(1);
+		return canal.read(umByte, posicao) == 1 ? umByte.get(0) : 0;
+	}
+	
+	/**
+	 * Tarefa que mapeia e interpreta uma faixa de blocos do arquivo, dividindo-a ao meio
+	 * enquanto houver mais de um bloco. Os resultados são concatenados na ordem do arquivo.
+	 */
+	private static class TarefaLeituraBlocos extends RecursiveTask<List<LinhaOrcamento>> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private FileChannel canal;
+		private List<long[]> blocos;
+		private int primeiro;
+		private int ultimo;
+		
+		TarefaLeituraBlocos(FileChannel canal, List<long[]> blocos, int primeiro, int ultimo) {
+			this.canal = canal;
+			this.blocos = blocos;
+			this.primeiro = primeiro;
+			this.ultimo = ultimo;
+		}
+		
+		@Override
+		protected List<LinhaOrcamento> compute() {
+			if(ultimo - primeiro > 1) {
+				int meio = (primeiro + ultimo) >>> 1;
+				TarefaLeituraBlocos esquerda = new TarefaLeituraBlocos(canal, blocos, primeiro, meio);
+				TarefaLeituraBlocos direita = new TarefaLeituraBlocos(canal, blocos, meio, ultimo);
+				esquerda.fork();
+				List<LinhaOrcamento> linhasDireita = direita.compute();
+				List<LinhaOrcamento> linhas = esquerda.join();
+				linhas.addAll(linhasDireita);
+				return linhas;
+			}
+			
+			List<LinhaOrcamento> linhas = new ArrayList<>();
+			if(primeiro == ultimo) {
+				return linhas;
+			}
+			long[] bloco = blocos.get(primeiro);
+			try {
+				MappedByteBuffer mapa = canal.map(FileChannel.MapMode.READ_ONLY, bloco[0], bloco[1] - bloco[0]);
+				CharBuffer texto = Charset.defaultCharset().decode(mapa);
+				TokenizadorCSV tokenizador = new TokenizadorCSV(new CharArrayReader(texto.array(), texto.arrayOffset(), texto.limit()));
 				
-				//Caso a rúbrica for classificável
-				if(this.isRubricaValid(driver.getFields())) {
-
-					pastValues = this.getPastValues(driver.getFields());
-					
-					//Instanciar o número de pontos de classificação da rúbrica,
-					//ou seja, verificar em que nível a rúbrica está
-					int depth = this.getRubricaDepth(driver.getFields());
-					
-					//Caso o número de pontos seja zero, ou seja, a rubrica lida não possui pai
-					//limpa-se os pais registrados e inicializa a rubrica com pai=null
-					if(depth == 0) {
-						pais.clear();
-						rubrica = new Rubrica(null, name, (int)Integer.valueOf(cod), CategoriaRubrica.DESPESA, pastValues);
-					}
-
-					//Caso a rubrica esteja classificada ao mesmo nível de sua antecessora, 
-					//possui o mesmo pai que ela
-					else if(depth == parentClass) {
-						rubrica = new Rubrica(parent.getPai(), name, (int)Integer.valueOf(cod), CategoriaRubrica.DESPESA, pastValues);
-						parent.getPai().addSubRubrica(rubrica);
-						
-					//Caso a rubrica esteja em um nível mais profundo que a outra, adicionamos a rubrica
-					//anterior na lista de pais a adicionamos como pai da rubrica atual
-					}
-					else if(depth > parentClass){
-						rubrica = new Rubrica(parent, name, (int)Integer.valueOf(cod), CategoriaRubrica.DESPESA, pastValues);
-						if(parent != null) {
-							pais.add(parent);
-							parent.addSubRubrica(rubrica);
+				while(tokenizador.temConteudo() && tokenizador.proximaLinha()) {
+					if(tokenizador.getNumCamposPreenchidos() != 0) {
+						LinhaOrcamento linha = criaLinhaOrcamento(tokenizador.getCampos());
+						if(linha != null) {
+							linhas.add(linha);
 						}
-					
-					//Caso tenhamos voltado um nível, deletamos a diferença de níveis da rubrica atual e da anterior,
-					//assim como retomamos a posição da rubrica antes de intanciarmos ela
 					}
-					else {
-						try{
-							parent = pais.get(depth - 1);
-						}catch(IndexOutOfBoundsException e){
-							parent =  null;
-							pais.clear();
-						}
-						rubrica = new Rubrica(parent, name, (int)Integer.valueOf(cod), CategoriaRubrica.DESPESA, pastValues);
-						if(parent != null) {
-							parent.addSubRubrica(rubrica);
-						}
-						for(int i = depth; i < pais.size(); i++) {
-							pais.remove(i);
-						}
-					}
-					//set final
-					parent = rubrica;
-					parentClass = depth;
-						
-					//coloca no mapa
-					map.put(Integer.valueOf(cod), rubrica);
 				}
+			}catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return linhas;
+		}
+	}
+	
+	/**
+	 * Interpreta os campos de uma linha do orçamento.
+	 * @param fields Campos da linha
+	 * @return A linha interpretada, ou null se a rúbrica não for válida
+	 */
+	private static LinhaOrcamento criaLinhaOrcamento(String[] fields) {
+		
+		String cod = fields[1];
+		String name = fields[2];
+		
+		assert(!cod.isEmpty());
+		
+		//Caso a rúbrica for classificável
+		if(!isRubricaValid(fields)) {
+			return null;
+		}
+		
+		//A classificação (ex: 3.2.1.01.002) define o nível da rúbrica e o seu pai
+		int codigo = Integer.valueOf(cod);
+		String classificacao = fields[0].trim();
+		//Os valores das linhas de total das rubricas especiais vêm das fórmulas
+		boolean total = classificacao.isEmpty() && PlanoContas.RUBRICAS_ESPECIAIS_PADRAO.containsKey(codigo);
+		return new LinhaOrcamento(codigo, name, total ? null : getPastValues(fields), classificacao, total);
+	}
+	
+	/**
+	 * Linha do orçamento inicial já interpretada, antes de ser ligada à hierarquia.
+	 */
+	private static class LinhaOrcamento {
+		
+		private int codigo;
+		private String nome;
+		private Double[] pastValues;
+		private String classificacao;
+		//Linha sem classificação de uma rubrica especial, cujo valor é calculado pela fórmula
+		private boolean total;
+		
+		LinhaOrcamento(int codigo, String nome, Double[] pastValues, String classificacao, boolean total) {
+			this.codigo = codigo;
+			this.nome = nome;
+			this.pastValues = pastValues;
+			this.classificacao = classificacao;
+			this.total = total;
+		}
+	}
+	
+	/**
+	 * Monta a hierarquia de rúbricas a partir das linhas do orçamento em uma única passada, pelo
+	 * índice das classificações: o pai de "3.2.1.01.002" é a rúbrica classificada como "3.2.1.01".
+	 * As linhas classificadas podem vir em qualquer ordem; uma rúbrica cujo pai ainda não foi lido
+	 * espera por ele, e as que nunca o encontram ficam sem pai, como as de classificação sem pontos.
+	 * 
+	 * Linhas sem classificação:
+	 * - as das rubricas especiais (PlanoContas.RUBRICAS_ESPECIAIS_PADRAO) são totais, sem pai nem
+	 *   subrúbricas, e o seu valor vem da fórmula;
+	 * - as demais são contas do grupo da linha classificada logo acima delas, como na planilha
+	 *   (ex: 24 e 25 abaixo de 3.2.1.03.998 são filhas de 3.2.1.03); logo depois de um total, ficam sem pai.
+	 *   Só estas dependem da ordem das linhas.
+	 */
+	private static class MontadorHierarquia {
+		
+		private LinkedHashMap<Integer, Rubrica> map = new LinkedHashMap<Integer, Rubrica>();
+		
+		//Classificação -> rúbrica, para achar o pai de cada linha
+		private HashMap<String, Rubrica> porClassificacao = new HashMap<String, Rubrica>();
+		//Classificação do pai -> rúbricas lidas antes dele
+		private HashMap<String, List<Rubrica>> aguardandoPai = new HashMap<String, List<Rubrica>>();
+		//Classificação do grupo da última linha lida, para as linhas sem classificação; null depois de um total
+		private String grupoAnterior;
+		
+		void adiciona(LinhaOrcamento linha) {
+			String classificacao = linha.classificacao;
+			Rubrica rubrica = new Rubrica(null, linha.nome, linha.codigo, CategoriaRubrica.DESPESA, linha.pastValues,
+					classificacao.isEmpty() ? null : classificacao);
+			
+			//coloca no mapa
+			map.put(Integer.valueOf(linha.codigo), rubrica);
+			
+			if(linha.total) {
+				grupoAnterior = null;
+				return;
+			}
+			if(classificacao.isEmpty()) {
+				if(grupoAnterior != null) {
+					vinculaAoPai(rubrica, grupoAnterior);
+				}
+				return;
+			}
+			porClassificacao.put(classificacao, rubrica);
+			
+			List<Rubrica> filhas = aguardandoPai.remove(classificacao);
+			if(filhas != null) {
+				for(Rubrica filha : filhas) {
+					rubrica.addSubRubrica(filha);
+				}
+			}
+			
+			int ponto = classificacao.lastIndexOf('.');
+			grupoAnterior = ponto < 0 ? null : classificacao.substring(0, ponto);
+			if(grupoAnterior != null) {
+				vinculaAoPai(rubrica, grupoAnterior);
 			}
-				
 		}
 		
-		return map;
+		private void vinculaAoPai(Rubrica rubrica, String classificacaoPai) {
+			Rubrica pai = porClassificacao.get(classificacaoPai);
+			if(pai != null) {
+				pai.addSubRubrica(rubrica);
+			}else {
+				aguardandoPai.computeIfAbsent(classificacaoPai, chave -> new ArrayList<Rubrica>()).add(rubrica);
+			}
+		}
+		
+		LinkedHashMap<Integer, Rubrica> getRubricas() {
+			return map;
+		}
 	}
 	
 	/**
@@ -147,7 +492,7 @@ public class GerenciadorArquivos {
 	 * @param line Linha do arquivo
 	 * @return True se o código da rúbrica não é vazio, falso caso contrário
 	 */
-	private boolean isRubricaValid(String line[]) {
+	private static boolean isRubricaValid(String line[]) {
 		String cod = line[1];
 		if(cod.isEmpty()) {
 			return false;
@@ -160,12 +505,7 @@ public class GerenciadorArquivos {
 	 * @param line Linha do CSV
 	 * @return Array com valor anterior de cada mês
 	 */
-	private Double[] getPastValues(String line[]) {
-		
-		String classification = line[0];
-		if(classification.isEmpty()) {
-			return null;
-		}
+	private static Double[] getPastValues(String line[]) {
 		
 		Double pastValues[] = new Double[12];
 		int lowerBound = line.length - 12;
@@ -182,11 +522,6 @@ public class GerenciadorArquivos {
 	}
 	
 	
-	private int getRubricaDepth(String line[]) {
-		String classe = line[0];
-		return classe.length() - classe.replace(".", "").length();
-	}
-	
 	/**
 	 * Lê um arquivo com os valores realizados em um certo mês.
 	 * @param filename
@@ -196,34 +531,323 @@ public class GerenciadorArquivos {
 		
 		LinkedHashMap<Integer, Double> realizados = new LinkedHashMap<Integer, Double>();
 		
+		MapaIntDouble lidos = lerRealizadoMensalStreaming(filename);
+		for (int i = 0; i < lidos.size(); i++) {
+			realizados.put(lidos.getChave(i), lidos.getValor(i));
+		}
+
+		return realizados;
+	}
+	
+	/**
+	 * Lê um arquivo .xls ou .xlsx com os valores realizados em um certo mês sem carregar a planilha
+	 * em memória: o .xls é lido pelo modelo de eventos do HSSF e o .xlsx pelo XML da planilha em SAX.
+	 * Só as colunas de código, débito e crédito da primeira planilha são consideradas.
+	 * @param filename
+	 * @return Map Código -> Valor Realizado, na ordem do arquivo
+	 */
+	public MapaIntDouble lerRealizadoMensalStreaming(String filename){
+		
+		AcumuladorRealizado acumulador = new AcumuladorRealizado();
 		try {
-			InputStream inp = new FileInputStream(filename);
-			Workbook wb = WorkbookFactory.create(inp);
-			Sheet sheet = wb.getSheetAt(0);
-			
-			int row = 2;
-			while(sheet.getRow(row) != null) {
-				
-				Row linha = sheet.getRow(row);
-				int codigo = (int) linha.getCell(1).getNumericCellValue();
-				double debito, credito;
+			return lerRealizadoMensalVerificado(filename, acumulador);
+		}catch(IOException e) {
+			System.out.println("Arquivo " + filename + " inválido");
+			return acumulador.getRealizados();
+		}
+	}
+	
+	/**
+	 * Lê um arquivo de realizado mensal como lerRealizadoMensalStreaming, mas relatando o erro
+	 * em vez de retornar o que foi lido até ele.
+	 * @param filename
+	 * @return Map Código -> Valor Realizado, na ordem do arquivo
+	 * @throws IOException se o arquivo não existir, não for uma planilha .xls ou .xlsx ou for inválido
+	 */
+	public MapaIntDouble lerRealizadoMensalVerificado(String filename) throws IOException {
+		return lerRealizadoMensalVerificado(filename, new AcumuladorRealizado());
+	}
+	
+	private MapaIntDouble lerRealizadoMensalVerificado(String filename, AcumuladorRealizado acumulador) throws IOException {
+		
+		long inicio = LEITURA_REALIZADO.inicia();
+		MapaIntDouble realizados = lerRealizadoMensalArquivo(filename, acumulador);
+		LEITURA_REALIZADO.para(inicio);
+		LINHAS_REALIZADO.soma(realizados.size());
+		return realizados;
+	}
+	
+	private MapaIntDouble lerRealizadoMensalArquivo(String filename, AcumuladorRealizado acumulador) throws IOException {
+		
+		CacheArquivosLidos.Chave chave = chaveCache(filename);
+		if(chave != null) {
+			MapaIntDouble realizados = cache.obtemRealizado(chave);
+			if(realizados != null) {
+				return realizados;
+			}
+		}
+		
+		File arquivo = new File(filename);
+		FileMagic formato;
+		try (InputStream inp = new BufferedInputStream(new FileInputStream(arquivo))) {
+			formato = FileMagic.valueOf(inp);
+		}
+		
+		try {
+			if (formato == FileMagic.OLE2) {
+				leRealizadoXls(arquivo, acumulador);
+			}
+			else if (formato == FileMagic.OOXML) {
+				leRealizadoXlsx(arquivo, acumulador);
+			}
+			else {
+				throw new IOException("Arquivo " + filename + " não é uma planilha .xls ou .xlsx");
+			}
+		}catch(OpenXML4JException | SAXException | RecordFormatException e) {
+			throw new IOException("Arquivo " + filename + " inválido: " + e.getMessage(), e);
+		}
+
+		//Só arquivos lidos sem erro vão para o cache
+		if(chave != null) {
+			cache.guardaRealizado(chave, acumulador.getRealizados());
+		}
+		return acumulador.getRealizados();
+	}
+	
+	private static void leRealizadoXls(File arquivo, AcumuladorRealizado acumulador) throws IOException {
+		
+		try (NPOIFSFileSystem fs = new NPOIFSFileSystem(arquivo, true)) {
+			HSSFRequest requisicao = new HSSFRequest();
+			requisicao.addListenerForAllRecords(new OuvinteRealizadoXls(acumulador));
+			new HSSFEventFactory().processWorkbookEvents(requisicao, fs.getRoot());
+		}
+	}
+	
+	private static void leRealizadoXlsx(File arquivo, AcumuladorRealizado acumulador) throws IOException, OpenXML4JException, SAXException {
+		
+		try (OPCPackage pacote = OPCPackage.open(arquivo, PackageAccess.READ)) {
+			XSSFReader leitor = new XSSFReader(pacote);
+			Iterator<InputStream> planilhas = leitor.getSheetsData();
+			if (!planilhas.hasNext()) {
+				return;
+			}
+			try (InputStream planilha = planilhas.next()) {
+				XMLReader parser = SAXHelper.newXMLReader();
+				parser.setContentHandler(new OuvinteRealizadoXlsx(acumulador));
+				parser.parse(new InputSource(planilha));
+			} catch (ParserConfigurationException e) {
+				throw new SAXException(e);
+			}
+		}
+	}
+	
+	/**
+	 * Monta o realizado mensal a partir das linhas e das células numéricas e em branco da planilha,
+	 * recebidas em ordem. Mesmas regras da leitura original (getNumericCellValue): os dados começam
+	 * na terceira linha e vão até a primeira linha que não existe; célula de débito ou crédito em
+	 * branco vale 0, e só sem a célula de débito ou a de crédito o realizado é 0. A diferença é a
+	 * linha sem código numérico, ignorada aqui; na leitura original ela gerava o código 0 (célula
+	 * em branco) ou um erro.
+	 */
+	private static class AcumuladorRealizado {
+		
+		private static final int PRIMEIRA_LINHA = 2;
+		private static final int COLUNA_CODIGO = 1;
+		private static final int COLUNA_DEBITO = 2;
+		private static final int COLUNA_CREDITO = 3;
+		
+		private MapaIntDouble realizados = new MapaIntDouble(1024);
+		
+		//Primeira linha ainda não vista; linhas a partir dela são ignoradas depois de uma lacuna
+		private int proximaLinha = PRIMEIRA_LINHA;
+		private boolean lacuna = false;
+		
+		//Linha em andamento
+		private int linhaAtual = -1;
+		private boolean temCodigo, temDebito, temCredito;
+		private double codigo, debito, credito;
+		
+		/**
+		 * Registra que a linha existe na planilha. As linhas devem chegar em ordem crescente.
+		 */
+		void linha(int linha) {
+			if (linha < PRIMEIRA_LINHA || lacuna) {
+				return;
+			}
+			if (linha == proximaLinha) {
+				proximaLinha++;
+			}
+			else if (linha > proximaLinha) {
+				lacuna = true;
+			}
+		}
+		
+		void celula(int linha, int coluna, double valor) {
+			if (linha != linhaAtual) {
+				fechaLinha();
+				linhaAtual = linha;
+			}
+			if (coluna == COLUNA_CODIGO) {
+				codigo = valor;
+				temCodigo = true;
+			}
+			else if (coluna == COLUNA_DEBITO) {
+				debito = valor;
+				temDebito = true;
+			}
+			else if (coluna == COLUNA_CREDITO) {
+				credito = valor;
+				temCredito = true;
+			}
+		}
+		
+		/**
+		 * Registra uma célula existente sem valor, que vale 0 como débito ou crédito.
+		 */
+		void celulaEmBranco(int linha, int coluna) {
+			if (coluna == COLUNA_DEBITO || coluna == COLUNA_CREDITO) {
+				celula(linha, coluna, 0.0);
+			}
+		}
+		
+		void fechaLinha() {
+			if (temCodigo && linhaAtual >= PRIMEIRA_LINHA && linhaAtual < proximaLinha) {
+				realizados.put((int) codigo, temDebito && temCredito ? credito - debito : 0);
+			}
+			temCodigo = temDebito = temCredito = false;
+		}
+		
+		MapaIntDouble getRealizados() {
+			fechaLinha();
+			return realizados;
+		}
+	}
+	
+	/**
+	 * Ouvinte dos registros do .xls. Só a primeira planilha é lida; os registros de linha
+	 * vêm antes das células de cada bloco de linhas, e as células vêm em ordem de linha.
+	 */
+	private static class OuvinteRealizadoXls implements HSSFListener {
+		
+		private AcumuladorRealizado acumulador;
+		private int planilha = -1;
+		
+		OuvinteRealizadoXls(AcumuladorRealizado acumulador) {
+			this.acumulador = acumulador;
+		}
+		
+		@Override
+		public void processRecord(Record record) {
+			if (record instanceof BOFRecord) {
+				if (((BOFRecord) record).getType() == BOFRecord.TYPE_WORKSHEET) {
+					planilha++;
+				}
+				return;
+			}
+			if (planilha != 0) {
+				return;
+			}
+			if (record instanceof RowRecord) {
+				acumulador.linha(((RowRecord) record).getRowNumber());
+			}
+			else if (record instanceof NumberRecord) {
+				NumberRecord numero = (NumberRecord) record;
+				acumulador.celula(numero.getRow(), numero.getColumn(), numero.getValue());
+			}
+			else if (record instanceof BlankRecord) {
+				BlankRecord branco = (BlankRecord) record;
+				acumulador.celulaEmBranco(branco.getRow(), branco.getColumn());
+			}
+			else if (record instanceof MulBlankRecord) {
+				//Células em branco consecutivas de uma mesma linha
+				MulBlankRecord brancos = (MulBlankRecord) record;
+				for (int coluna = brancos.getFirstColumn(); coluna <= brancos.getLastColumn(); coluna++) {
+					acumulador.celulaEmBranco(brancos.getRow(), coluna);
+				}
+			}
+			else if (record instanceof FormulaRecord) {
+				FormulaRecord formula = (FormulaRecord) record;
+				if (formula.getCachedResultType() == RESULTADO_NUMERICO) {
+					acumulador.celula(formula.getRow(), formula.getColumn(), formula.getValue());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Ouvinte SAX do XML da planilha do .xlsx. Só os valores de células numéricas são lidos;
+	 * textos (inclusive os compartilhados) são ignorados. Uma célula sem valor (&lt;c&gt; sem
+	 * &lt;v&gt; nem texto) é uma célula em branco.
+	 */
+	private static class OuvinteRealizadoXlsx extends DefaultHandler {
+		
+		private AcumuladorRealizado acumulador;
+		private int linha = -1;
+		private int coluna = -1;
+		private boolean celulaNumerica;
+		private boolean celulaComValor;
+		private StringBuilder valor;
+		
+		OuvinteRealizadoXlsx(AcumuladorRealizado acumulador) {
+			this.acumulador = acumulador;
+		}
+		
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes atributos) {
+			if ("row".equals(localName)) {
+				String referencia = atributos.getValue("r");
+				linha = referencia != null ? Integer.parseInt(referencia) - 1 : linha + 1;
+				coluna = -1;
+				acumulador.linha(linha);
+			}
+			else if ("c".equals(localName)) {
+				String referencia = atributos.getValue("r");
+				coluna = referencia != null ? colunaDaReferencia(referencia) : coluna + 1;
+				String tipo = atributos.getValue("t");
+				celulaNumerica = tipo == null || "n".equals(tipo);
+				celulaComValor = false;
+			}
+			else if ("v".equals(localName) || "is".equals(localName)) {
+				celulaComValor = true;
+				if (celulaNumerica && "v".equals(localName)) {
+					valor = new StringBuilder();
+				}
+			}
+		}
+		
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			if (valor != null) {
+				valor.append(ch, start, length);
+			}
+		}
+		
+		@Override
+		public void endElement(String uri, String localName, String qName) {
+			if ("v".equals(localName) && valor != null) {
 				try {
-					debito = linha.getCell(2).getNumericCellValue();
-					credito = linha.getCell(3).getNumericCellValue();
-				}catch(NullPointerException e) {
-					debito = 0;
-					credito = 0; 
+					acumulador.celula(linha, coluna, Double.parseDouble(valor.toString()));
+				}catch(NumberFormatException e) {
+					//Valor não numérico, a célula é ignorada
 				}
-				realizados.put(codigo, credito - debito);
-				
-				row++;
+				valor = null;
+			}
+			else if ("c".equals(localName) && !celulaComValor) {
+				acumulador.celulaEmBranco(linha, coluna);
 			}
-			
-		}catch(EncryptedDocumentException | InvalidFormatException | IOException e) {
-			System.out.println("Arquivo " + filename + " inválido");
 		}
-
-		return realizados;
+		
+		/**
+		 * @param referencia Referência da célula, ex: "B3"
+		 * @return Índice da coluna a partir de 0
+		 */
+		private static int colunaDaReferencia(String referencia) {
+			int coluna = 0;
+			for (int i = 0; i < referencia.length() && Character.isLetter(referencia.charAt(i)); i++) {
+				coluna = coluna * 26 + (Character.toUpperCase(referencia.charAt(i)) - 'A' + 1);
+			}
+			return coluna - 1;
+		}
 	}
 	
 	/**
@@ -233,58 +857,105 @@ public class GerenciadorArquivos {
 	 * @param mes
 	 */
 	public void geraTemplateRealizadoMensal(PlanoContas planoContas, CategoriaMes mes) {
+		geraTemplateRealizadoMensal(planoContas, mes, CategoriaFormatoArquivo.XLS);
+	}
+	
+	/**
+	 * Dado um plano de contas e um mes, gera um tamplate de arquivo para o realizado mensal
+	 * no formato escolhido
+	 * 
+	 * @param planoContas
+	 * @param mes
+	 * @param formato XLS ou XLSX (escrito em streaming)
+	 */
+	public void geraTemplateRealizadoMensal(PlanoContas planoContas, CategoriaMes mes, CategoriaFormatoArquivo formato) {
 		
-		 try {
-	           
-	            HSSFWorkbook workbook = new HSSFWorkbook();
-	            HSSFSheet sheet = workbook.createSheet("FirstSheet"); 
+		String outputFileName = "Template" + mes.toString() + formato.getExtensao();
+		
+		//Cabeçalho de 2 linhas + uma linha por rúbrica
+		if (planoContas.getRubricas().size() + 2 > formato.getMaxLinhas()) {
+			System.out.println("Plano de contas grande demais para o formato " + formato + ", use " + CategoriaFormatoArquivo.XLSX);
+			System.out.println("Erro na criação do Template!");
+			return;
+		}
+		
+		Workbook workbook = criaWorkbook(formato);
+		try {
+	            Sheet sheet = workbook.createSheet("FirstSheet"); 
 	            sheet.setColumnWidth(0, 10000);
 
-	            HSSFRow mesRelizado = sheet.createRow((short)0);
+	            Row mesRelizado = sheet.createRow(0);
 	            mesRelizado.createCell(0).setCellValue(mes.toString());
 	            
-	            HSSFRow rowhead = sheet.createRow((short)1);
+	            Row rowhead = sheet.createRow(1);
 	            rowhead.createCell(0).setCellValue("Descrição da conta");
 	            rowhead.createCell(1).setCellValue("Código");
 	            rowhead.createCell(2).setCellValue("Débito");
 	            rowhead.createCell(3).setCellValue("Crédito");
 	           
 	            int lineNum = 2;
-	            for (Integer key : planoContas.getRubricas().keySet()) {
+	            for (Rubrica rubrica : planoContas.getRubricas().values()) {
 	            	
-            		HSSFRow newRubricaRow = sheet.createRow((short)lineNum);
+            		Row newRubricaRow = sheet.createRow(lineNum);
             
-            		HSSFCell rubricaNameCell = newRubricaRow.createCell(0);
-            		rubricaNameCell.setCellValue(planoContas.getRubricas().get(key).getNome());
-           
-        			newRubricaRow.createCell(1).setCellValue(key);
+            		newRubricaRow.createCell(0).setCellValue(rubrica.getNome());
+        			newRubricaRow.createCell(1).setCellValue(rubrica.getCodigo());
         			
 		            lineNum++;
 	            }
 
-	            String outputFileName = "Template" + mes.toString() + ".xls";
+	            long inicio = ESCRITA_PLANILHA.inicia();
 	            FileOutputStream fileOut = new FileOutputStream(outputFileName);
 	            workbook.write(fileOut);
 	            fileOut.close();
-	            workbook.close();
+	            ESCRITA_PLANILHA.para(inicio);
 	            
 	            System.out.println("Arquivo " + outputFileName + " gerado!");
 
 	        } catch( IOException ex ) {
 	            System.out.println(ex);
 	            System.out.println("Erro na criação do Template!");
-	        }    
+	        } finally {
+	        		fechaWorkbook(workbook);
+	        }
+	}
+	
+	/**
+	 * Cria a planilha no formato pedido. O XLSX usa o SXSSFWorkbook, que só mantém em memória
+	 * uma janela de linhas e descarrega as anteriores em um arquivo temporário.
+	 */
+	private static Workbook criaWorkbook(CategoriaFormatoArquivo formato) {
+		if (formato == CategoriaFormatoArquivo.XLSX) {
+			SXSSFWorkbook workbook = new SXSSFWorkbook(JANELA_LINHAS_XLSX);
+			workbook.setCompressTempFiles(true);
+			return workbook;
+		}
+		return new HSSFWorkbook();
+	}
+	
+	/**
+	 * Fecha a planilha, apagando os arquivos temporários do streaming se houver.
+	 */
+	private static void fechaWorkbook(Workbook workbook) {
+		if (workbook instanceof SXSSFWorkbook) {
+			((SXSSFWorkbook) workbook).dispose();
+		}
+		try {
+			workbook.close();
+		} catch (IOException e) {
+			System.out.println(e);
+		}
 	}
 	
-	private void criaHeaderAnaliseComparativa(HSSFSheet sheet, HSSFWorkbook workbook) { 
+	private void criaHeaderAnaliseComparativa(Sheet sheet, Workbook workbook) { 
 		EnumSet<CategoriaAnaliseComparativa> categorias = EnumSet.allOf(CategoriaAnaliseComparativa.class);
-	    HSSFCellStyle cellHeaderStyle = workbook.createCellStyle();
+	    CellStyle cellHeaderStyle = workbook.createCellStyle();
 	    cellHeaderStyle.setFillForegroundColor(IndexedColors.GREY_40_PERCENT.getIndex());
 	    cellHeaderStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-	    HSSFRow rowhead = sheet.createRow((short)0);  
+	    Row rowhead = sheet.createRow(0);  
 	        
 	    for (CategoriaAnaliseComparativa categoria : categorias) {
-	        	HSSFCell newcell = rowhead.createCell(categoria.toInt());
+	        	Cell newcell = rowhead.createCell(categoria.toInt());
 	        newcell.setCellStyle(cellHeaderStyle);
 	        newcell.setCellValue(categoria.toString());
 	        sheet.setColumnWidth(categoria.toInt(), 10000);
@@ -294,40 +965,114 @@ public class GerenciadorArquivos {
 	}
 	
 	public void geraArquivoAnaliseComparativa() {
+		geraArquivoAnaliseComparativa(CategoriaFormatoArquivo.XLS);
+	}
+	
+	/**
+	 * Cria o arquivo de análise comparativa no formato escolhido. No XLSX as linhas são
+	 * escritas em streaming, então a memória usada não cresce com o tamanho do plano.
+	 * @param formato XLS ou XLSX
+	 */
+	public void geraArquivoAnaliseComparativa(CategoriaFormatoArquivo formato) {
 		
-		HSSFWorkbook workbook = new HSSFWorkbook();
+		Workbook workbook = criaWorkbook(formato);
 		this.analisaComparativaWorkbook = workbook;
+		this.formatoAnaliseComparativa = formato;
 		
-        HSSFSheet sheet = workbook.createSheet("FirstSheet"); 
+        Sheet sheet = workbook.createSheet("FirstSheet"); 
         this.analiseComparativaSheet = sheet;
         
+        this.estiloPorcentagem = workbook.createCellStyle();
+        this.estiloPorcentagem.setDataFormat(workbook.createDataFormat().getFormat("0.0%"));
+        
         criaHeaderAnaliseComparativa(sheet, workbook);
             
 	}
 	
 	public void finalizaArquivoAnaliseComparativa () {
+		String nomeArquivo = "analiseComparativa" + this.formatoAnaliseComparativa.getExtensao();
 		try {
-	        FileOutputStream fileOut = new FileOutputStream("analiseComparativa.xls");
+	        long inicio = ESCRITA_PLANILHA.inicia();
+	        FileOutputStream fileOut = new FileOutputStream(nomeArquivo);
 	        this.analisaComparativaWorkbook.write(fileOut);
 	        fileOut.close();
-	        System.out.println("Arquivo analiseComparativa.xls gerado com sucesso");
+	        ESCRITA_PLANILHA.para(inicio);
+	        System.out.println("Arquivo " + nomeArquivo + " gerado com sucesso");
 		} catch (IOException ex) {
-	        System.out.println("Arquivo analiseComparativa.xls nao pode ser gerado");
+	        System.out.println("Arquivo " + nomeArquivo + " nao pode ser gerado");
+		} finally {
+			fechaWorkbook(this.analisaComparativaWorkbook);
 		}
 	}
 	
-	
+	/**
+	 * Escreve uma linha da análise comparativa a partir dos valores em texto. Os valores numéricos
+	 * (código, previsão, realizado, variação e porcentagem) são escritos como números.
+	 * @param valoresRubrica Valores na ordem de CategoriaAnaliseComparativa
+	 * @param linhaRubrica Número da linha na planilha
+	 */
 	public void preencheLinhaAnaliseComparativa(ArrayList<String> valoresRubrica, int linhaRubrica) {
 		int contadorColuna = 0;
-		HSSFRow novaLinha = this.analiseComparativaSheet.createRow((short)linhaRubrica);
+		Row novaLinha = criaLinhaAnaliseComparativa(linhaRubrica);
 		for (String valor : valoresRubrica ) {
-			HSSFCell celula = novaLinha.createCell(contadorColuna);
-		    celula.setCellValue(valor);
+			Cell celula = novaLinha.createCell(contadorColuna);
+			if (contadorColuna == CategoriaAnaliseComparativa.NOME.toInt() || contadorColuna == CategoriaAnaliseComparativa.AVALIACAO.toInt()) {
+				celula.setCellValue(valor);
+			}
+			else if (contadorColuna == CategoriaAnaliseComparativa.PORCENTAGEM.toInt() && valor != null && valor.endsWith("%")) {
+				escreveNumero(celula, valor.substring(0, valor.length() - 1), true);
+			}
+			else {
+				escreveNumero(celula, valor, false);
+			}
 		    contadorColuna += 1;
 		}			
 	}
 	
+	/**
+	 * Escreve uma linha da análise comparativa, com os valores numéricos como números.
+	 * @param linha Linha calculada da análise
+	 * @param linhaRubrica Número da linha na planilha
+	 */
+	public void preencheLinhaAnaliseComparativa(LinhaAnaliseComparativa linha, int linhaRubrica) {
+		Row novaLinha = criaLinhaAnaliseComparativa(linhaRubrica);
+		novaLinha.createCell(CategoriaAnaliseComparativa.CODIGO.toInt()).setCellValue(linha.getCodigo());
+		novaLinha.createCell(CategoriaAnaliseComparativa.NOME.toInt()).setCellValue(linha.getNome());
+		novaLinha.createCell(CategoriaAnaliseComparativa.PREVISAO.toInt()).setCellValue(linha.getPrevisto());
+		novaLinha.createCell(CategoriaAnaliseComparativa.REALIZADO.toInt()).setCellValue(linha.getRealizado());
+		novaLinha.createCell(CategoriaAnaliseComparativa.VARIACAO.toInt()).setCellValue(linha.getVariacao());
+		Cell porcentagem = novaLinha.createCell(CategoriaAnaliseComparativa.PORCENTAGEM.toInt());
+		porcentagem.setCellValue(linha.getPorcentagem() / 100);
+		porcentagem.setCellStyle(this.estiloPorcentagem);
+		novaLinha.createCell(CategoriaAnaliseComparativa.AVALIACAO.toInt()).setCellValue(linha.getAvaliacao());
+	}
 	
+	private Row criaLinhaAnaliseComparativa(int linhaRubrica) {
+		if (linhaRubrica >= this.formatoAnaliseComparativa.getMaxLinhas()) {
+			throw new IllegalArgumentException("Linha " + linhaRubrica + " excede o limite de linhas do formato "
+					+ this.formatoAnaliseComparativa + ", use " + CategoriaFormatoArquivo.XLSX);
+		}
+		return this.analiseComparativaSheet.createRow(linhaRubrica);
+	}
 	
+	/**
+	 * Escreve o valor como número, ou como texto se não for um número.
+	 * @param porcentagem Se verdadeiro, o valor está em porcentagem e é escrito como fração
+	 * com formato de porcentagem
+	 */
+	private void escreveNumero(Cell celula, String valor, boolean porcentagem) {
+		try {
+			double numero = Double.parseDouble(valor);
+			if (porcentagem) {
+				celula.setCellValue(numero / 100);
+				celula.setCellStyle(this.estiloPorcentagem);
+			}
+			else {
+				celula.setCellValue(numero);
+			}
+		} catch (NumberFormatException | NullPointerException e) {
+			celula.setCellValue(porcentagem ? valor + "%" : valor);
+		}
+	}
 	
 }
@@ -0,0 +1,76 @@
+package negocios;
+
+import java.util.ArrayList;
+
+/**
+ *  Resultado imutável da análise comparativa de uma rubrica em um intervalo de meses.
+ *
+ */
+public final class LinhaAnaliseComparativa {
+
+	private final int codigo;
+	private final String nome;
+	private final double previsto;
+	private final double realizado;
+	private final double variacao;
+	private final double porcentagem;
+	private final String avaliacao;
+
+	public LinhaAnaliseComparativa(int codigo, String nome, double previsto, double realizado, double variacao,
+			double porcentagem, String avaliacao) {
+		this.codigo = codigo;
+		this.nome = nome;
+		this.previsto = previsto;
+		this.realizado = realizado;
+		this.variacao = variacao;
+		this.porcentagem = porcentagem;
+		this.avaliacao = avaliacao;
+	}
+
+	public int getCodigo() {
+		return codigo;
+	}
+
+	public String getNome() {
+		return nome;
+	}
+
+	public double getPrevisto() {
+		return previsto;
+	}
+
+	public double getRealizado() {
+		return realizado;
+	}
+
+	public double getVariacao() {
+		return variacao;
+	}
+
+	public double getPorcentagem() {
+		return porcentagem;
+	}
+
+	public String getAvaliacao() {
+		return avaliacao;
+	}
+
+	/**
+	 * @return As 7 colunas da análise como texto, na ordem de CategoriaAnaliseComparativa
+	 */
+	public ArrayList<String> toValores() {
+		ArrayList<String> valores = new ArrayList<String>();
+		valores.add(String.valueOf(codigo));
+		valores.add(String.valueOf(nome));
+		valores.add(String.valueOf(previsto));
+		valores.add(String.valueOf(realizado));
+		valores.add(String.valueOf(variacao));
+		valores.add(String.valueOf(porcentagem) + "%");
+		valores.add(avaliacao);
+		return valores;
+	}
+
+	public String toString() {
+		return toValores().toString();
+	}
+}
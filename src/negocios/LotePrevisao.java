@@ -0,0 +1,255 @@
+package negocios;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import dominio.Rubrica;
+
+/**
+ *  Lote de previsões aplicado de uma só vez por AgentePrevisao.aplicaLote. As operações são
+ *  validadas antes de qualquer alteração: ou todas são aplicadas, ou nenhuma. Operações posteriores
+ *  do lote sobrescrevem as anteriores na mesma rúbrica e mês, como chamadas individuais fariam.
+ *  
+ *  Ex: new LotePrevisao().porcentagemSubarvore(103, 1.08, 1, 12).valorFixo(104, 1, 5000)
+ *
+ */
+public class LotePrevisao {
+
+	private static final int PORCENTAGEM = 1;
+	private static final int VALOR_FIXO = 2;
+	private static final int ANO_ANTERIOR = 3;
+
+	private List<Operacao> operacoes = new ArrayList<Operacao>();
+
+	/**
+	 * Prevê os meses como um percentual do ano passado na rúbrica.
+	 * @param codigo Código da rúbrica
+	 * @param porcentagem Taxa do valor comparado ao ano passado (ex: 1.08)
+	 * @param mesInicial Primeiro mês
+	 * @param mesFinal Último mês
+	 * @return Este lote
+	 */
+	public LotePrevisao porcentagem(int codigo, double porcentagem, int mesInicial, int mesFinal) {
+		return adiciona(PORCENTAGEM, codigo, false, mesInicial, mesFinal, porcentagem);
+	}
+
+	/**
+	 * Prevê os meses como um percentual do ano passado na rúbrica e em todas as suas subrúbricas.
+	 * @param codigo Código da rúbrica raiz da subárvore
+	 * @param porcentagem Taxa do valor comparado ao ano passado (ex: 1.08)
+	 * @param mesInicial Primeiro mês
+	 * @param mesFinal Último mês
+	 * @return Este lote
+	 */
+	public LotePrevisao porcentagemSubarvore(int codigo, double porcentagem, int mesInicial, int mesFinal) {
+		return adiciona(PORCENTAGEM, codigo, true, mesInicial, mesFinal, porcentagem);
+	}
+
+	/**
+	 * Prevê os meses com o mesmo valor do ano passado na rúbrica e, se pedido, em suas subrúbricas.
+	 * @param codigo Código da rúbrica
+	 * @param subarvore True para aplicar a toda a subárvore
+	 * @param mesInicial Primeiro mês
+	 * @param mesFinal Último mês
+	 * @return Este lote
+	 */
+	public LotePrevisao manterAnoAnterior(int codigo, boolean subarvore, int mesInicial, int mesFinal) {
+		return adiciona(ANO_ANTERIOR, codigo, subarvore, mesInicial, mesFinal, 0);
+	}
+
+	/**
+	 * Prevê um valor fixo para a rúbrica em um mês.
+	 * @param codigo Código da rúbrica
+	 * @param mes Mês da previsão
+	 * @param valor Valor previsto
+	 * @return Este lote
+	 */
+	public LotePrevisao valorFixo(int codigo, int mes, double valor) {
+		return adiciona(VALOR_FIXO, codigo, false, mes, mes, valor);
+	}
+
+	/**
+	 * Carrega uma matriz de previsões: uma linha por rúbrica, uma coluna por mês a partir de janeiro.
+	 * Células NaN não são alteradas.
+	 * @param codigos Código da rúbrica de cada linha
+	 * @param valores valores[linha][mes - 1]
+	 * @return Este lote
+	 */
+	public LotePrevisao matriz(int[] codigos, double[][] valores) {
+		if(codigos.length != valores.length) {
+			throw new IllegalArgumentException("Matriz com " + valores.length + " linhas para " + codigos.length + " códigos");
+		}
+		for(int linha = 0; linha < codigos.length; linha++) {
+			Operacao operacao = new Operacao(VALOR_FIXO, codigos[linha], false, 1, valores[linha].length, 0);
+			operacao.valores = valores[linha].clone();
+			operacoes.add(operacao);
+		}
+		return this;
+	}
+
+	public int getNumOperacoes() {
+		return operacoes.size();
+	}
+
+	public boolean isEmpty() {
+		return operacoes.isEmpty();
+	}
+
+	/**
+	 * @return Código da rúbrica de cada operação, para travar só as subárvores alteradas
+	 */
+	int[] getCodigos() {
+		int[] codigos = new int[operacoes.size()];
+		for(int i = 0; i < codigos.length; i++) {
+			codigos[i] = operacoes.get(i).codigo;
+		}
+		return codigos;
+	}
+
+	/**
+	 * @return True se alguma operação se aplica a uma subárvore inteira
+	 */
+	boolean temSubarvore() {
+		for(Operacao operacao : operacoes) {
+			if(operacao.subarvore) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private LotePrevisao adiciona(int tipo, int codigo, boolean subarvore, int mesInicial, int mesFinal, double valor) {
+		operacoes.add(new Operacao(tipo, codigo, subarvore, mesInicial, mesFinal, valor));
+		return this;
+	}
+
+	/**
+	 * Resolve as operações em células (rúbrica, mês, valor), validando todas.
+	 * @param rubricas Rúbricas do plano
+	 * @param erros Lista onde os erros encontrados são acrescentados
+	 * @return As células a aplicar; só devem ser aplicadas se não houve erro
+	 */
+	Celulas resolve(Map<Integer, Rubrica> rubricas, List<String> erros) {
+		Celulas celulas = new Celulas();
+		List<Rubrica> alvos = new ArrayList<Rubrica>();
+		for(int i = 0; i < operacoes.size(); i++) {
+			Operacao operacao = operacoes.get(i);
+			String prefixo = "Operação " + (i + 1) + " do lote (rúbrica " + operacao.codigo + "): ";
+
+			Rubrica rubrica = rubricas.get(operacao.codigo);
+			if(rubrica == null) {
+				erros.add(prefixo + "o código não existe");
+				continue;
+			}
+			if(operacao.mesInicial < 1 || operacao.mesFinal > 12 || operacao.mesInicial > operacao.mesFinal) {
+				erros.add(prefixo + "intervalo de meses inválido " + operacao.mesInicial + "-" + operacao.mesFinal);
+				continue;
+			}
+			if(operacao.tipo != ANO_ANTERIOR && operacao.valores == null && !(operacao.valor >= 0)) {
+				erros.add(prefixo + "valor não pode ser negativo");
+				continue;
+			}
+
+			alvos.clear();
+			alvos.add(rubrica);
+			if(operacao.subarvore) {
+				adicionaSubrubricas(rubrica, alvos);
+			}
+			for(Rubrica alvo : alvos) {
+				resolve(operacao, alvo, prefixo, celulas, erros);
+			}
+		}
+		return celulas;
+	}
+
+	private void resolve(Operacao operacao, Rubrica alvo, String prefixo, Celulas celulas, List<String> erros) {
+		for(int mes = operacao.mesInicial; mes <= operacao.mesFinal; mes++) {
+			double valor;
+			if(operacao.tipo == VALOR_FIXO) {
+				valor = operacao.valores != null ? operacao.valores[mes - 1] : operacao.valor;
+				if(Double.isNaN(valor)) {
+					continue;
+				}
+				if(valor < 0) {
+					erros.add(prefixo + "valor negativo no mês " + mes);
+					continue;
+				}
+			}
+			else {
+				if(!alvo.temValorAnoPassado(mes)) {
+					erros.add(prefixo + "rúbrica " + alvo.getCodigo() + " sem valor do ano passado no mês " + mes);
+					continue;
+				}
+				valor = alvo.getValorAnoPassadoOuZero(mes);
+				if(operacao.tipo == PORCENTAGEM) {
+					valor *= operacao.valor;
+				}
+			}
+			celulas.adiciona(alvo, mes, valor);
+		}
+	}
+
+	private static void adicionaSubrubricas(Rubrica rubrica, List<Rubrica> alvos) {
+		for(Rubrica subRubrica : rubrica.getSubRubricas()) {
+			alvos.add(subRubrica);
+			adicionaSubrubricas(subRubrica, alvos);
+		}
+	}
+
+	private static class Operacao {
+		private int tipo;
+		private int codigo;
+		private boolean subarvore;
+		private int mesInicial;
+		private int mesFinal;
+		private double valor;
+		//Só para a matriz: um valor por mês
+		private double[] valores;
+
+		Operacao(int tipo, int codigo, boolean subarvore, int mesInicial, int mesFinal, double valor) {
+			this.tipo = tipo;
+			this.codigo = codigo;
+			this.subarvore = subarvore;
+			this.mesInicial = mesInicial;
+			this.mesFinal = mesFinal;
+			this.valor = valor;
+		}
+	}
+
+	/**
+	 * Células resolvidas do lote, em arrays paralelos.
+	 */
+	static class Celulas {
+		private Rubrica[] rubricas = new Rubrica[64];
+		private int[] meses = new int[64];
+		private double[] valores = new double[64];
+		private int tamanho;
+
+		void adiciona(Rubrica rubrica, int mes, double valor) {
+			if(tamanho == rubricas.length) {
+				rubricas = Arrays.copyOf(rubricas, tamanho * 2);
+				meses = Arrays.copyOf(meses, tamanho * 2);
+				valores = Arrays.copyOf(valores, tamanho * 2);
+			}
+			rubricas[tamanho] = rubrica;
+			meses[tamanho] = mes;
+			valores[tamanho] = valor;
+			tamanho++;
+		}
+
+		/**
+		 * Aplica as células em ordem. Os meses já foram validados, então nenhuma falha.
+		 */
+		void aplica() {
+			for(int i = 0; i < tamanho; i++) {
+				rubricas[i].setValorPrevisto(meses[i], valores[i]);
+			}
+		}
+
+		int size() {
+			return tamanho;
+		}
+	}
+}
@@ -0,0 +1,274 @@
+package negocios;
+
+import java.util.Arrays;
+
+import util.CategoriaModeloPrevisao;
+
+/**
+ *  Configuração da previsão estatística automática (AgentePrevisao.previsaoEstatistica) e os
+ *  modelos ajustados à série mensal de cada rúbrica folha: média móvel, tendência linear por
+ *  mínimos quadrados e Holt-Winters aditivo com sazonalidade de 12 meses, cujos parâmetros são
+ *  escolhidos pelo menor erro de previsão um passo à frente sobre a própria série.
+ *
+ *  A série de cada folha são os anos do histórico do plano (HistoricoPlanoContas), se pedidos,
+ *  seguidos do ano passado da rúbrica. Quando a série é curta demais para o modelo pedido, é
+ *  usado o próximo mais simples: Holt-Winters precisa de dois anos, a tendência de dois meses e
+ *  a média móvel de um mês com valor na janela; sem nenhum, a média é de toda a série.
+ *
+ *  Ex: new PrevisaoEstatistica(CategoriaModeloPrevisao.HOLT_WINTERS).historico(2019, 4)
+ *
+ */
+public class PrevisaoEstatistica {
+
+	private static final double[] ALFAS = {0.1, 0.2, 0.4, 0.6, 0.8};
+	private static final double[] BETAS = {0.0, 0.05, 0.1, 0.2};
+	private static final double[] GAMAS = {0.05, 0.1, 0.2, 0.4};
+
+	private CategoriaModeloPrevisao modelo;
+	private int anoPassado;
+	private int anosHistorico;
+	private int janela = 12;
+
+	public PrevisaoEstatistica(CategoriaModeloPrevisao modelo) {
+		if(modelo == null) {
+			throw new IllegalArgumentException("Modelo de previsão não informado");
+		}
+		this.modelo = modelo;
+	}
+
+	/**
+	 * Usa também os anos do histórico do plano anteriores ao ano passado.
+	 * @param anoPassado Ano dos valores do ano passado das rúbricas, ex: 2019
+	 * @param anos Número de anos do histórico antes dele
+	 * @return Esta previsão
+	 */
+	public PrevisaoEstatistica historico(int anoPassado, int anos) {
+		if(anos < 0) {
+			throw new IllegalArgumentException("Número de anos inválido " + anos);
+		}
+		this.anoPassado = anoPassado;
+		this.anosHistorico = anos;
+		return this;
+	}
+
+	/**
+	 * @param meses Número de meses da média móvel, 12 por padrão
+	 * @return Esta previsão
+	 */
+	public PrevisaoEstatistica janela(int meses) {
+		if(meses < 1) {
+			throw new IllegalArgumentException("Janela inválida " + meses);
+		}
+		this.janela = meses;
+		return this;
+	}
+
+	public CategoriaModeloPrevisao getModelo() {
+		return modelo;
+	}
+
+	public int getAnoPassado() {
+		return anoPassado;
+	}
+
+	public int getAnosHistorico() {
+		return anosHistorico;
+	}
+
+	public int getJanela() {
+		return janela;
+	}
+
+	/**
+	 * Ajusta o modelo à série e prevê os 12 meses do ano seguinte. Anos iniciais sem nenhum valor
+	 * são descartados.
+	 * @param serie Valores mensais em ordem, começando em janeiro, NaN nos meses sem valor
+	 * @param previsao Recebe os 12 meses previstos
+	 * @return Modelo usado, ou null se a série não tem nenhum valor
+	 */
+	CategoriaModeloPrevisao preve(double[] serie, double[] previsao) {
+		int inicio = 0;
+		while(inicio < serie.length && semValores(serie, inicio)) {
+			inicio += 12;
+		}
+		if(inicio >= serie.length) {
+			return null;
+		}
+		double[] valores = inicio == 0 ? serie : Arrays.copyOfRange(serie, inicio, serie.length);
+		double[] resultado = null;
+		CategoriaModeloPrevisao usado = modelo;
+		if(usado == CategoriaModeloPrevisao.HOLT_WINTERS) {
+			resultado = holtWinters(valores);
+			usado = resultado == null ? CategoriaModeloPrevisao.TENDENCIA_LINEAR : usado;
+		}
+		if(usado == CategoriaModeloPrevisao.TENDENCIA_LINEAR) {
+			resultado = tendenciaLinear(valores);
+			usado = resultado == null ? CategoriaModeloPrevisao.MEDIA_MOVEL : usado;
+		}
+		if(usado == CategoriaModeloPrevisao.MEDIA_MOVEL) {
+			resultado = mediaMovel(valores, janela);
+			if(resultado == null) {
+				//Nenhum mês da janela tem valor: média de todos os meses com valor, que existem
+				resultado = mediaMovel(valores, valores.length);
+			}
+		}
+		System.arraycopy(resultado, 0, previsao, 0, 12);
+		return usado;
+	}
+
+	private static boolean semValores(double[] serie, int inicio) {
+		for(int i = inicio; i < inicio + 12 && i < serie.length; i++) {
+			if(!Double.isNaN(serie[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param serie Valores mensais, NaN nos meses sem valor
+	 * @param janela Número de meses da média
+	 * @return Os 12 meses seguintes com a média dos últimos meses da janela que têm valor, ou null se nenhum tem
+	 */
+	public static double[] mediaMovel(double[] serie, int janela) {
+		double soma = 0;
+		int meses = 0;
+		for(int t = serie.length - 1; t >= 0 && t >= serie.length - janela; t--) {
+			if(!Double.isNaN(serie[t])) {
+				soma += serie[t];
+				meses++;
+			}
+		}
+		if(meses == 0) {
+			return null;
+		}
+		double[] previsao = new double[12];
+		Arrays.fill(previsao, soma / meses);
+		return previsao;
+	}
+
+	/**
+	 * Reta de mínimos quadrados sobre os meses com valor, prolongada pelos 12 meses seguintes.
+	 * @param serie Valores mensais, NaN nos meses sem valor
+	 * @return Os 12 meses seguintes, ou null se há menos de dois meses com valor
+	 */
+	public static double[] tendenciaLinear(double[] serie) {
+		int n = 0;
+		double somaT = 0;
+		double somaY = 0;
+		for(int t = 0; t < serie.length; t++) {
+			if(!Double.isNaN(serie[t])) {
+				n++;
+				somaT += t;
+				somaY += serie[t];
+			}
+		}
+		if(n < 2) {
+			return null;
+		}
+		double mediaT = somaT / n;
+		double mediaY = somaY / n;
+		double covariancia = 0;
+		double variancia = 0;
+		for(int t = 0; t < serie.length; t++) {
+			if(!Double.isNaN(serie[t])) {
+				covariancia += (t - mediaT) * (serie[t] - mediaY);
+				variancia += (t - mediaT) * (t - mediaT);
+			}
+		}
+		double inclinacao = covariancia / variancia;
+		double[] previsao = new double[12];
+		for(int h = 0; h < 12; h++) {
+			previsao[h] = mediaY + inclinacao * (serie.length + h - mediaT);
+		}
+		return previsao;
+	}
+
+	/**
+	 * Holt-Winters aditivo com sazonalidade de 12 meses. Os meses sem valor são preenchidos com a
+	 * média do mesmo mês nos outros anos, e alfa, beta e gama são escolhidos em uma grade pelo menor
+	 * erro quadrático das previsões um mês à frente.
+	 * @param serie Valores mensais começando em janeiro, NaN nos meses sem valor
+	 * @return Os 12 meses seguintes, ou null se a série tem menos de dois anos
+	 */
+	public static double[] holtWinters(double[] serie) {
+		if(serie.length < 24) {
+			return null;
+		}
+		double[] completa = preencheAusentes(serie);
+		double[] sazonais = new double[12];
+		double[] previsao = new double[12];
+		double menorErro = Double.POSITIVE_INFINITY;
+		double[] melhor = null;
+		for(double alfa : ALFAS) {
+			for(double beta : BETAS) {
+				for(double gama : GAMAS) {
+					double erro = holtWinters(completa, alfa, beta, gama, sazonais, previsao);
+					if(erro < menorErro) {
+						menorErro = erro;
+						melhor = previsao.clone();
+					}
+				}
+			}
+		}
+		return melhor;
+	}
+
+	/**
+	 * Ajusta Holt-Winters com parâmetros fixos.
+	 * @param previsao Recebe os 12 meses seguintes
+	 * @return Soma dos quadrados dos erros das previsões um mês à frente
+	 */
+	static double holtWinters(double[] serie, double alfa, double beta, double gama, double[] sazonais, double[] previsao) {
+		double mediaPrimeiro = 0;
+		double mediaSegundo = 0;
+		for(int mes = 0; mes < 12; mes++) {
+			mediaPrimeiro += serie[mes] / 12;
+			mediaSegundo += serie[12 + mes] / 12;
+		}
+		//A média do primeiro ano é o nível no meio dele (mês 5,5); o nível inicial é o de dezembro
+		double tendencia = (mediaSegundo - mediaPrimeiro) / 12;
+		double nivel = mediaPrimeiro + 5.5 * tendencia;
+		for(int mes = 0; mes < 12; mes++) {
+			sazonais[mes] = serie[mes] - (mediaPrimeiro + (mes - 5.5) * tendencia);
+		}
+
+		double erro = 0;
+		for(int t = 12; t < serie.length; t++) {
+			int mes = t % 12;
+			double previsto = nivel + tendencia + sazonais[mes];
+			erro += (serie[t] - previsto) * (serie[t] - previsto);
+			double nivelAnterior = nivel;
+			nivel = alfa * (serie[t] - sazonais[mes]) + (1 - alfa) * (nivel + tendencia);
+			tendencia = beta * (nivel - nivelAnterior) + (1 - beta) * tendencia;
+			sazonais[mes] = gama * (serie[t] - nivel) + (1 - gama) * sazonais[mes];
+		}
+		for(int h = 1; h <= 12; h++) {
+			previsao[h - 1] = nivel + h * tendencia + sazonais[(serie.length - 1 + h) % 12];
+		}
+		return erro;
+	}
+
+	private static double[] preencheAusentes(double[] serie) {
+		double[] somas = new double[12];
+		int[] meses = new int[12];
+		double somaTotal = 0;
+		int total = 0;
+		for(int t = 0; t < serie.length; t++) {
+			if(!Double.isNaN(serie[t])) {
+				somas[t % 12] += serie[t];
+				meses[t % 12]++;
+				somaTotal += serie[t];
+				total++;
+			}
+		}
+		double[] completa = serie.clone();
+		for(int t = 0; t < serie.length; t++) {
+			if(Double.isNaN(serie[t])) {
+				int mes = t % 12;
+				completa[t] = meses[mes] > 0 ? somas[mes] / meses[mes] : total > 0 ? somaTotal / total : 0;
+			}
+		}
+		return completa;
+	}
+}
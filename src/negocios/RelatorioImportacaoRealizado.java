@@ -0,0 +1,139 @@
+package negocios;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import util.CategoriaMes;
+
+/**
+ *  Resultado da importação de vários realizados mensais: para cada arquivo, o erro que impediu a
+ *  leitura ou as diferenças entre as rúbricas do arquivo e as do plano de contas.
+ *
+ */
+public class RelatorioImportacaoRealizado {
+
+	private List<ResultadoMes> resultados = new ArrayList<ResultadoMes>();
+
+	void adiciona(ResultadoMes resultado) {
+		resultados.add(resultado);
+	}
+
+	/**
+	 * @return Resultado de cada arquivo, na ordem em que foram pedidos
+	 */
+	public List<ResultadoMes> getResultados() {
+		return Collections.unmodifiableList(resultados);
+	}
+
+	/**
+	 * @return True se todos os arquivos foram lidos, mesmo que com rúbricas faltando
+	 */
+	public boolean isSucesso() {
+		for(ResultadoMes resultado : resultados) {
+			if(!resultado.isLido()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return Uma linha por arquivo, para exibir ao usuário
+	 */
+	public List<String> getMensagens() {
+		List<String> mensagens = new ArrayList<String>();
+		for(ResultadoMes resultado : resultados) {
+			mensagens.add(resultado.toString());
+		}
+		return mensagens;
+	}
+
+	public String toString() {
+		return String.join(System.lineSeparator(), getMensagens());
+	}
+
+	/**
+	 *  Resultado da importação de um arquivo de realizado mensal.
+	 */
+	public static class ResultadoMes {
+		private CategoriaMes mes;
+		private String arquivo;
+		private String erro;
+		private int numRealizados;
+		private List<Integer> codigosFaltantes = Collections.emptyList();
+		private List<Integer> codigosDesconhecidos = Collections.emptyList();
+
+		ResultadoMes(CategoriaMes mes, String arquivo) {
+			this.mes = mes;
+			this.arquivo = arquivo;
+		}
+
+		void setErro(String erro) {
+			this.erro = erro;
+		}
+
+		void setLido(int numRealizados, List<Integer> codigosFaltantes, List<Integer> codigosDesconhecidos) {
+			this.numRealizados = numRealizados;
+			this.codigosFaltantes = Collections.unmodifiableList(codigosFaltantes);
+			this.codigosDesconhecidos = Collections.unmodifiableList(codigosDesconhecidos);
+		}
+
+		public CategoriaMes getMes() {
+			return mes;
+		}
+
+		public String getArquivo() {
+			return arquivo;
+		}
+
+		/**
+		 * @return True se o arquivo foi lido e aplicado ao plano
+		 */
+		public boolean isLido() {
+			return erro == null;
+		}
+
+		/**
+		 * @return Erro que impediu a leitura, ou null
+		 */
+		public String getErro() {
+			return erro;
+		}
+
+		/**
+		 * @return Número de rúbricas do plano que receberam o realizado do mês
+		 */
+		public int getNumRealizados() {
+			return numRealizados;
+		}
+
+		/**
+		 * @return Rúbricas do plano que não estão no arquivo e ficaram sem o realizado do mês
+		 */
+		public List<Integer> getCodigosFaltantes() {
+			return codigosFaltantes;
+		}
+
+		/**
+		 * @return Códigos do arquivo que não existem no plano
+		 */
+		public List<Integer> getCodigosDesconhecidos() {
+			return codigosDesconhecidos;
+		}
+
+		public String toString() {
+			if(erro != null) {
+				return mes + " (" + arquivo + "): não importado - " + erro;
+			}
+			String mensagem = mes + " (" + arquivo + "): " + numRealizados + " rúbricas importadas";
+			if(!codigosFaltantes.isEmpty()) {
+				mensagem += ", falta rúbrica no realizado mensal: " + codigosFaltantes;
+			}
+			if(!codigosDesconhecidos.isEmpty()) {
+				mensagem += ", códigos inexistentes no plano: " + codigosDesconhecidos;
+			}
+			return mensagem;
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package negocios;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import util.CategoriaModeloPrevisao;
+
+/**
+ *  Resultado de uma previsão estatística: quantas folhas foram previstas por cada modelo, quantas
+ *  ficaram sem previsão por falta de histórico, os erros que impediram a gravação e o tempo de
+ *  cada etapa (coleta das séries, ajuste em paralelo e gravação das previsões).
+ *
+ */
+public class RelatorioPrevisaoEstatistica {
+
+	private CategoriaModeloPrevisao modelo;
+	private int numFolhas;
+	private Map<CategoriaModeloPrevisao, Integer> previstasPorModelo = new EnumMap<CategoriaModeloPrevisao, Integer>(CategoriaModeloPrevisao.class);
+	private int semHistorico;
+	private int limitadasAZero;
+	private int threads;
+	private long nanosColeta;
+	private long nanosAjuste;
+	private long nanosGravacao;
+	private List<String> erros = new ArrayList<String>();
+
+	RelatorioPrevisaoEstatistica(CategoriaModeloPrevisao modelo, int threads) {
+		this.modelo = modelo;
+		this.threads = threads;
+		for(CategoriaModeloPrevisao categoria : CategoriaModeloPrevisao.values()) {
+			previstasPorModelo.put(categoria, 0);
+		}
+	}
+
+	void setNumFolhas(int numFolhas) {
+		this.numFolhas = numFolhas;
+	}
+
+	void contaPrevista(CategoriaModeloPrevisao usado) {
+		if(usado == null) {
+			semHistorico++;
+		}else {
+			previstasPorModelo.put(usado, previstasPorModelo.get(usado) + 1);
+		}
+	}
+
+	void contaLimitadaAZero() {
+		limitadasAZero++;
+	}
+
+	void setTempos(long nanosColeta, long nanosAjuste, long nanosGravacao) {
+		this.nanosColeta = nanosColeta;
+		this.nanosAjuste = nanosAjuste;
+		this.nanosGravacao = nanosGravacao;
+	}
+
+	void adicionaErros(List<String> erros) {
+		this.erros.addAll(erros);
+	}
+
+	public CategoriaModeloPrevisao getModelo() {
+		return modelo;
+	}
+
+	public int getNumFolhas() {
+		return numFolhas;
+	}
+
+	/**
+	 * @return Número de folhas previstas com o modelo; o pedido ou, se a série era curta, um mais simples
+	 */
+	public int getNumPrevistas(CategoriaModeloPrevisao modelo) {
+		return previstasPorModelo.get(modelo);
+	}
+
+	/**
+	 * @return Folhas sem nenhum valor no histórico, cujas previsões não foram alteradas
+	 */
+	public int getNumSemHistorico() {
+		return semHistorico;
+	}
+
+	/**
+	 * @return Meses previstos negativos que foram gravados como zero
+	 */
+	public int getNumLimitadasAZero() {
+		return limitadasAZero;
+	}
+
+	/**
+	 * @return Paralelismo do pool em que os modelos foram ajustados
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	public long getNanosColeta() {
+		return nanosColeta;
+	}
+
+	public long getNanosAjuste() {
+		return nanosAjuste;
+	}
+
+	public long getNanosGravacao() {
+		return nanosGravacao;
+	}
+
+	public long getNanosTotal() {
+		return nanosColeta + nanosAjuste + nanosGravacao;
+	}
+
+	/**
+	 * @return Erros que impediram a gravação das previsões; vazia se foram gravadas
+	 */
+	public List<String> getErros() {
+		return Collections.unmodifiableList(erros);
+	}
+
+	/**
+	 * @return True se as previsões foram gravadas
+	 */
+	public boolean isSucesso() {
+		return erros.isEmpty();
+	}
+
+	/**
+	 * @return Linhas para exibir ao usuário: contagens, tempos e erros
+	 */
+	public List<String> getMensagens() {
+		List<String> mensagens = new ArrayList<String>();
+		StringBuilder contagens = new StringBuilder("Previsão " + modelo + ": " + numFolhas + " folhas");
+		for(Map.Entry<CategoriaModeloPrevisao, Integer> previstas : previstasPorModelo.entrySet()) {
+			if(previstas.getValue() > 0) {
+				contagens.append(", ").append(previstas.getValue()).append(" por ").append(previstas.getKey());
+			}
+		}
+		contagens.append(", ").append(semHistorico).append(" sem histórico, ").append(limitadasAZero).append(" meses limitados a zero");
+		mensagens.add(contagens.toString());
+		mensagens.add(String.format("Tempos: coleta %.1f ms, ajuste %.1f ms (%d threads), gravação %.1f ms, total %.1f ms",
+				nanosColeta / 1e6, nanosAjuste / 1e6, threads, nanosGravacao / 1e6, getNanosTotal() / 1e6));
+		mensagens.addAll(erros);
+		return mensagens;
+	}
+
+	public String toString() {
+		return String.join(System.lineSeparator(), getMensagens());
+	}
+}
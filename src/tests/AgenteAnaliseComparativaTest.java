@@ -2,11 +2,19 @@ package tests;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Arrays;
-
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -16,6 +24,9 @@ import dominio.PlanoContas;
 import dominio.Rubrica;
 import facade.GerenciadorFacade;
 import negocios.AgenteAnaliseComparativa;
+import negocios.LinhaAnaliseComparativa;
+import util.CategoriaAnaliseComparativa;
+import util.CategoriaFormatoArquivo;
 import util.CategoriaMes;
 import util.CategoriaRubrica;
 
@@ -394,8 +405,8 @@ public class AgenteAnaliseComparativaTest {
 
 	@Test
 	public void calculaValoresDeRubricaEspecial17() {
-		//formula da 17 = -187
-		//187 = 187 - 193
+		//formula da 17 = -[187]
+		//187 = 187 - 193 (na fórmula da 17, [187] é o valor da fórmula da 187)
 		//193 = 193
 		
 		Rubrica rubricaCode17 = planoContas.getRubricas().get(17);
@@ -419,7 +430,7 @@ public class AgenteAnaliseComparativaTest {
 		assertEquals(correctAnswer187, obtido187);
 		
 		ArrayList<String> correctAnswer17 = new ArrayList<String>(
-				Arrays.asList("17", "Resultado Financeiro", "2600.0", "5200.0", "-2600.0", "-100.0" + "%", ":("));
+				Arrays.asList("17", "Resultado Financeiro", "-1800.0", "-3600.0", "1800.0", "-100.0" + "%", ":)"));
 		
 		ArrayList<String> obtido17 = analiseComp.geraValoresRubrica(rubricaCode17, CategoriaMes.JANEIRO, CategoriaMes.FEVEREIRO);
 		assertEquals(correctAnswer17, obtido17);
@@ -433,35 +444,35 @@ public class AgenteAnaliseComparativaTest {
 	@Test
 	public void testaRubrica110() {
 		//110 = 2 + 120
-		//2 tem 9 filhos
-		//120 tem 13 filhos
+		//2 tem 11 filhos (9 classificados, mais 24 e 25 sem classificação)
+		//120 tem 14 filhos (13 classificados, mais 551 sem classificação)
 		Rubrica rubrica110 = planoContas.getRubricas().get(110);
 		Rubrica rubrica2 = planoContas.getRubricas().get(2);
 		Rubrica rubrica120 = planoContas.getRubricas().get(120);
 		
-		assertEquals(9, rubrica2.getSubRubricas().size());
-		assertEquals(13, rubrica120.getSubRubricas().size());
+		assertEquals(11, rubrica2.getSubRubricas().size());
+		assertEquals(14, rubrica120.getSubRubricas().size());
 
 		
 		setaValoresPrevistosERealizadosSubrubricas(2);
 		setaValoresPrevistosERealizadosSubrubricas(120);
 		
-		assertEquals(9, rubrica2.getSubRubricas().size());
+		assertEquals(11, rubrica2.getSubRubricas().size());
 		
 		ArrayList<String> correctAnswer2 = new ArrayList<String>(
-				Arrays.asList("2", "Custos operacionais", "1800.0", "3600.0", "-1800.0", "-100.0" + "%", ":("));
+				Arrays.asList("2", "Custos operacionais", "2200.0", "4400.0", "-2200.0", "-100.0" + "%", ":("));
 		
 		ArrayList<String> obtido2 = analiseComp.geraValoresRubrica(rubrica2, CategoriaMes.JANEIRO, CategoriaMes.FEVEREIRO);
 		assertEquals(correctAnswer2, obtido2);
 		
 		ArrayList<String> correctAnswer120 = new ArrayList<String>(
-				Arrays.asList("120", "Custos com Pessoal", "2600.0", "5200.0", "-2600.0", "-100.0" + "%", ":("));
+				Arrays.asList("120", "Custos com Pessoal", "2800.0", "5600.0", "-2800.0", "-100.0" + "%", ":("));
 		
 		ArrayList<String> obtido120 = analiseComp.geraValoresRubrica(rubrica120, CategoriaMes.JANEIRO, CategoriaMes.FEVEREIRO);
 		assertEquals(correctAnswer120, obtido120);
 		
 		ArrayList<String> correctAnswer110 = new ArrayList<String>(
-				Arrays.asList("110", "( - ) Custo dos produtos/servi�os vendidos", "4400.0", "8800.0", "-4400.0", "-100.0" + "%", ":("));
+				Arrays.asList("110", "( - ) Custo dos produtos/servi�os vendidos", "5000.0", "10000.0", "-5000.0", "-100.0" + "%", ":("));
 		
 		ArrayList<String> obtido110 = analiseComp.geraValoresRubrica(rubrica110, CategoriaMes.JANEIRO, CategoriaMes.FEVEREIRO);
 		assertEquals(correctAnswer110, obtido110);
@@ -507,6 +518,94 @@ public class AgenteAnaliseComparativaTest {
 		assertEquals(correctAnswer1, obtido1);
 			
 	}
+	/**
+	 * Partição: Os totais das rubricas especiais batem com os da planilha do orçamento, quando o previsto
+	 * é o realizado do ano passado?
+	 * Opções de resposta: Sim Não
+	 */
+	@Test
+	public void rubricasEspeciaisIguaisAPlanilha() {
+		//Previsto = ano passado e realizado = dobro, nas contas sem subrúbricas que não são totais
+		for (Rubrica rubrica : planoContas.getRubricas().values()) {
+			if (rubrica.getSubRubricas().isEmpty() && rubrica.temValorAnoPassado(1)) {
+				rubrica.setValorPrevisto(1, rubrica.getvalorAnoPassado(1));
+				rubrica.setValorRealizado(1, 2 * rubrica.getvalorAnoPassado(1));
+			}
+		}
+		
+		//Valores de janeiro das linhas de total da planilha (arredondados, por isso a tolerância)
+		//3 = [1] - [110] = 553799 - 151286
+		//11 = [9] - [187] = ([7] - 8) - 12722
+		//12 = [11] - [197], 13 = [12] - 914 - 205, 18 = [12] + [15] + [16] + [17]
+		int[][] esperados = {{3, 402513}, {7, 149274}, {11, 136552}, {12, 136552}, {13, 114567}, {18, 138482}, {19, 479083}};
+		
+		List<LinhaAnaliseComparativa> linhas = analiseComp.calculaAnaliseComparativa(CategoriaMes.JANEIRO, CategoriaMes.JANEIRO);
+		for (int[] esperado : esperados) {
+			LinhaAnaliseComparativa linha = null;
+			for (LinhaAnaliseComparativa candidata : linhas) {
+				if (candidata.getCodigo() == esperado[0]) {
+					linha = candidata;
+				}
+			}
+			assertEquals("Previsto da " + esperado[0], esperado[1], linha.getPrevisto(), 5);
+			assertEquals("Realizado da " + esperado[0], 2 * esperado[1], linha.getRealizado(), 10);
+		}
+	}
+	
+	/**
+	 * Partição: A análise comparativa calculada em paralelo é igual à sequencial, na mesma ordem?
+	 * Opções de resposta: Sim Não
+	 */
+	@Test
+	public void calculaAnaliseComparativaParalelaIgualSequencial() {
+		this.setaValoresPrevistosERealizadosSubrubricas(103);
+		this.setaValoresPrevistosERealizadosSubrubricas(2396);
+		
+		List<LinhaAnaliseComparativa> sequencial = analiseComp.calculaAnaliseComparativa(CategoriaMes.JANEIRO, CategoriaMes.DEZEMBRO);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		List<LinhaAnaliseComparativa> paralela;
+		try {
+			paralela = analiseComp.calculaAnaliseComparativaParalela(CategoriaMes.JANEIRO, CategoriaMes.DEZEMBRO, pool);
+		}finally {
+			pool.shutdown();
+		}
+		
+		assertEquals(planoContas.getRubricas().size(), paralela.size());
+		for (int i = 0; i < sequencial.size(); i++) {
+			assertEquals(sequencial.get(i).toValores(), paralela.get(i).toValores());
+		}
+	}
+	
+	/**
+	 * Partição: A análise comparativa em XLSX mantém as colunas e escreve os valores como números?
+	 * Opções de resposta: Sim Não
+	 */
+	@Test
+	public void geraAnaliseComparativaXlsxComValoresNumericos() throws Exception {
+		this.setaValoresPrevistosERealizadosSubrubricas(103);
+		analiseComp.setFormatoArquivo(CategoriaFormatoArquivo.XLSX);
+		analiseComp.geraAnaliseComparativa(CategoriaMes.JANEIRO, CategoriaMes.FEVEREIRO);
+		
+		File arquivo = new File("analiseComparativa.xlsx");
+		try (Workbook workbook = WorkbookFactory.create(arquivo)) {
+			Sheet sheet = workbook.getSheetAt(0);
+			assertEquals(planoContas.getRubricas().size(), sheet.getLastRowNum());
+			assertEquals(CategoriaAnaliseComparativa.PREVISAO.toString(), sheet.getRow(0).getCell(CategoriaAnaliseComparativa.PREVISAO.toInt()).getStringCellValue());
+			
+			List<Integer> codigos = new ArrayList<Integer>(planoContas.getRubricas().keySet());
+			int linha103 = codigos.indexOf(103) + 1;
+			Row row = sheet.getRow(linha103);
+			assertEquals(CellType.NUMERIC, row.getCell(CategoriaAnaliseComparativa.CODIGO.toInt()).getCellTypeEnum());
+			assertEquals(103, row.getCell(CategoriaAnaliseComparativa.CODIGO.toInt()).getNumericCellValue(), 0.0);
+			assertEquals(400.0, row.getCell(CategoriaAnaliseComparativa.PREVISAO.toInt()).getNumericCellValue(), 0.0);
+			assertEquals(800.0, row.getCell(CategoriaAnaliseComparativa.REALIZADO.toInt()).getNumericCellValue(), 0.0);
+			assertEquals(-1.0, row.getCell(CategoriaAnaliseComparativa.PORCENTAGEM.toInt()).getNumericCellValue(), 0.0);
+			assertEquals(":(", row.getCell(CategoriaAnaliseComparativa.AVALIACAO.toInt()).getStringCellValue());
+		} finally {
+			arquivo.delete();
+		}
+	}
+	
 	/**
 	 * Método seta, para todas as rubricas filhas da entregue como paramentro:
 	 * valor previsto = 100
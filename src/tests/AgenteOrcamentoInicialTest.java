@@ -4,6 +4,7 @@ import static org.junit.Assert.*;
 
 import java.io.FileNotFoundException;
 import java.util.LinkedHashMap;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -115,4 +116,33 @@ public class AgenteOrcamentoInicialTest {
 		map  = le.lerOrcamentoInicial("Modelo_Controle_Orcamentario_Completo.csv");
 		assertEquals(map.get(103).getCodigo(), 103);
 	}
+	/**
+	 * Partição:   Leitura paralela do plano base gera as mesmas rúbricas, na mesma ordem e com a mesma hierarquia da leitura sequencial?
+	 * Opções de resposta: 
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void isReadingBasePlanInParallelEqualToSequential() throws FileNotFoundException {
+		GerenciadorArquivos le = new GerenciadorArquivos();
+		LinkedHashMap<Integer, Rubrica> sequencial = le.lerOrcamentoInicial("Modelo_Controle_Orcamentario_Completo.csv");
+		//Blocos pequenos para forçar a divisão do arquivo em várias partes
+		ForkJoinPool pool = new ForkJoinPool(4);
+		LinkedHashMap<Integer, Rubrica> paralelo;
+		try {
+			paralelo = le.lerOrcamentoInicialParalelo("Modelo_Controle_Orcamentario_Completo.csv", pool, 512);
+		}finally {
+			pool.shutdown();
+		}
+		
+		assertEquals(sequencial.keySet().toString(), paralelo.keySet().toString());
+		for(Integer codigo : sequencial.keySet()) {
+			Rubrica esperada = sequencial.get(codigo);
+			Rubrica obtida = paralelo.get(codigo);
+			assertEquals(esperada.getNome(), obtida.getNome());
+			assertEquals(esperada.getPai() == null ? null : esperada.getPai().getCodigo(), obtida.getPai() == null ? null : obtida.getPai().getCodigo());
+			assertEquals(esperada.getSubRubricas().size(), obtida.getSubRubricas().size());
+		}
+		assertEquals(sequencial.get(2396).getSubRubricas().toString(), paralelo.get(2396).getSubRubricas().toString());
+	}
 }
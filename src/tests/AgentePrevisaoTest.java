@@ -3,16 +3,30 @@ package tests;
 import static org.junit.Assert.*;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import dominio.HistoricoPlanoContas;
 import dominio.PlanoContas;
+import dominio.Rubrica;
 import facade.GerenciadorFacade;
 import negocios.AgentePrevisao;
+import negocios.GerenciadorArquivos;
+import negocios.LotePrevisao;
+import negocios.PrevisaoEstatistica;
+import negocios.RelatorioPrevisaoEstatistica;
 import util.CategoriaMes;
+import util.CategoriaModeloPrevisao;
+import util.CategoriaRubrica;
 
 public class AgentePrevisaoTest {
 	private GerenciadorFacade gerenciador;
@@ -129,4 +143,209 @@ public class AgentePrevisaoTest {
 		expectedEx1.expectMessage("Expected exception:  java.lang.NullPointerException");
 	}
 
+	/**
+	 * Partição:  Lote com porcentagem na subárvore prevê todas as subrúbricas nos meses pedidos? 
+	 * Opções de resposta: 
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void lotePorcentagemSubarvore() {
+		LotePrevisao lote = new LotePrevisao().porcentagemSubarvore(2396, 1.08, 1, 12);
+		assertTrue(gerenciador.geraPrevisaoLote(lote));
+		for(int codigo : new int[] {2396, 105, 106, 107, 108, 109, 936}) {
+			for(int mes = 1; mes <= 12; mes++) {
+				double valuePreviousYear = planoContas.getRubricas().get(codigo).getvalorAnoPassado(mes);
+				assertEquals(valuePreviousYear*1.08, planoContas.getRubricas().get(codigo).getValorPrevisto(mes), 0.00001);
+			}
+		}
+	}
+	
+	/**
+	 * Partição:  Lote com uma operação inválida deixa de aplicar as operações válidas? 
+	 * Opções de resposta: 
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void loteInvalidoNaoAplicaNada() {
+		gerenciador.geraPrevisao(AgentePrevisao.PREVISAO_VALORFIXO, 104, 500, CategoriaMes.MARCO.toInt());
+		LotePrevisao lote = new LotePrevisao()
+				.valorFixo(104, CategoriaMes.MARCO.toInt(), 700)
+				.valorFixo(999999, CategoriaMes.MARCO.toInt(), 700)
+				.valorFixo(119, 13, 700);
+		assertFalse(gerenciador.geraPrevisaoLote(lote));
+		assertEquals(500, planoContas.getRubricas().get(104).getValorPrevisto(CategoriaMes.MARCO.toInt()), 0.00001);
+	}
+	
+	/**
+	 * Partição:  Lote com matriz de previsões carrega cada célula e ignora as células NaN? 
+	 * Opções de resposta: 
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void loteMatriz() {
+		gerenciador.geraPrevisao(AgentePrevisao.PREVISAO_VALORFIXO, 119, 42, CategoriaMes.FEVEREIRO.toInt());
+		double[][] valores = {
+			{10, 20, 30},
+			{1, Double.NaN, 3}
+		};
+		assertTrue(gerenciador.geraPrevisaoLote(new LotePrevisao().matriz(new int[] {104, 119}, valores)));
+		assertEquals(30, planoContas.getRubricas().get(104).getValorPrevisto(3), 0.00001);
+		assertEquals(42, planoContas.getRubricas().get(119).getValorPrevisto(2), 0.00001);
+		assertEquals(30 + 3, planoContas.getRubricas().get(103).somaPrevistosSubrubricas(3), 0.00001);
+	}
+	
+	/**
+	 * Partição:  Data de congelamento atingida bloqueia o lote inteiro? 
+	 * Opções de resposta: 
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void loteAposCongelamento() {
+		gerenciador.geraPrevisao(AgentePrevisao.PREVISAO_VALORFIXO, 105, 10, CategoriaMes.ABRIL.toInt());
+		planoContas.setDataCongelamento(LocalDate.now());
+		assertFalse(gerenciador.geraPrevisaoLote(new LotePrevisao().valorFixo(105, CategoriaMes.ABRIL.toInt(), 20)));
+		assertEquals(10, planoContas.getRubricas().get(105).getValorPrevisto(CategoriaMes.ABRIL.toInt()), 0.00001);
+	}
+
+	/**
+	 * Partição:  Modelos estatísticos reproduzem séries constantes, lineares e sazonais?
+	 * Opções de resposta: 
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void modelosEstatisticos() {
+		double[] serie = new double[36];
+		for(int t = 0; t < serie.length; t++) {
+			serie[t] = 1000 + 10 * t + (t % 12 == 11 ? 500 : 0);
+		}
+		double[] tendencia = PrevisaoEstatistica.tendenciaLinear(new double[] {100, Double.NaN, 120, 130});
+		assertEquals(140, tendencia[0], 1e-9);
+		assertEquals(250, tendencia[11], 1e-9);
+		assertNull(PrevisaoEstatistica.tendenciaLinear(new double[] {Double.NaN, 5}));
+
+		double[] media = PrevisaoEstatistica.mediaMovel(new double[] {1, 2, 3, Double.NaN, 5}, 3);
+		assertEquals(4, media[0], 1e-9);
+		assertEquals(4, media[11], 1e-9);
+
+		double[] sazonal = PrevisaoEstatistica.holtWinters(serie);
+		assertNotNull(sazonal);
+		for(int mes = 0; mes < 12; mes++) {
+			assertEquals(1000 + 10 * (36 + mes) + (mes == 11 ? 500 : 0), sazonal[mes], 25);
+		}
+		assertNull(PrevisaoEstatistica.holtWinters(new double[23]));
+	}
+
+	/**
+	 * Partição:  Previsão estatística em paralelo prevê todas as folhas com o histórico e os pais recebem os totais?
+	 * Opções de resposta: 
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void previsaoEstatisticaParalela() throws IOException {
+		PlanoContas plano = new PlanoContas();
+		plano.setRubricas(new GerenciadorArquivos().lerOrcamentoInicial("Modelo_Controle_Orcamentario_Completo.csv"));
+		HistoricoPlanoContas historico = HistoricoPlanoContas.emMemoria();
+		int folhas = 0;
+		int folhasComHistorico = 0;
+		for(int ano = 2016; ano <= 2018; ano++) {
+			Map<Integer, Double[]> valores = new HashMap<Integer, Double[]>();
+			int i = 0;
+			for(Rubrica rubrica : plano.getRubricas().values()) {
+				if(rubrica.getSubRubricas().isEmpty() && i++ % 7 != 0) {
+					Double[] mensais = new Double[12];
+					for(int mes = 1; mes <= 12; mes++) {
+						mensais[mes - 1] = rubrica.getValorAnoPassadoOuZero(mes) * (0.7 + 0.1 * (ano - 2016));
+					}
+					valores.put(rubrica.getCodigo(), mensais);
+				}
+			}
+			historico.adicionaAno(ano, valores);
+		}
+		for(Rubrica rubrica : plano.getRubricas().values()) {
+			if(rubrica.getSubRubricas().isEmpty()) {
+				folhas++;
+				folhasComHistorico += historico.getAno(rubrica.getCodigo(), 2018) == null ? 0 : 1;
+			}
+		}
+		plano.setHistorico(historico);
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		RelatorioPrevisaoEstatistica relatorio;
+		try {
+			relatorio = new AgentePrevisao(plano).previsaoEstatistica(
+					new PrevisaoEstatistica(CategoriaModeloPrevisao.HOLT_WINTERS).historico(2019, 3), pool);
+		}finally {
+			pool.shutdown();
+		}
+		assertTrue(relatorio.getErros().toString(), relatorio.isSucesso());
+		assertEquals(folhas, relatorio.getNumFolhas());
+		assertEquals(folhasComHistorico, relatorio.getNumPrevistas(CategoriaModeloPrevisao.HOLT_WINTERS));
+		assertEquals(folhas - folhasComHistorico, relatorio.getNumPrevistas(CategoriaModeloPrevisao.TENDENCIA_LINEAR)
+				+ relatorio.getNumPrevistas(CategoriaModeloPrevisao.MEDIA_MOVEL) + relatorio.getNumSemHistorico());
+		assertEquals(4, relatorio.getThreads());
+		assertTrue(relatorio.getNanosAjuste() > 0);
+		assertTrue(relatorio.toString().startsWith("Previsão holtWinters: " + folhas + " folhas"));
+
+		for(Rubrica rubrica : plano.getRubricas().values()) {
+			if(rubrica.getSubRubricas().isEmpty()) {
+				for(int mes = 1; mes <= 12; mes++) {
+					assertTrue(rubrica.temValorAnoPassado(mes) == rubrica.temValorPrevisto(mes) || historico.getAno(rubrica.getCodigo(), 2018) != null);
+					assertTrue(rubrica.getValorPrevistoOuZero(mes) >= 0);
+				}
+			}
+		}
+		assertTrue(plano.verificaConsistenciaSomas());
+	}
+
+	/**
+	 * Partição:  Folha sem nenhum valor na janela da média móvel, mas com valores antes dela, é prevista pela média da série?
+	 * Opções de resposta: 
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void janelaSemValores() throws IOException {
+		Rubrica raiz = new Rubrica(null, "Raiz", 1, CategoriaRubrica.DESPESA, null);
+		//Só o histórico de 2018; o ano passado está vazio
+		Rubrica soHistorico = new Rubrica(raiz, "Só histórico", 2, CategoriaRubrica.DESPESA, null);
+		//Só janeiro do ano passado, sem histórico
+		Rubrica soJaneiro = new Rubrica(raiz, "Só janeiro", 3, CategoriaRubrica.DESPESA, new Double[] {600.0});
+		raiz.addSubRubrica(soHistorico);
+		raiz.addSubRubrica(soJaneiro);
+		Map<Integer, Rubrica> rubricas = new LinkedHashMap<Integer, Rubrica>();
+		for(Rubrica rubrica : new Rubrica[] {raiz, soHistorico, soJaneiro}) {
+			rubricas.put(rubrica.getCodigo(), rubrica);
+		}
+		PlanoContas plano = new PlanoContas();
+		plano.setRubricas(rubricas);
+		HistoricoPlanoContas historico = HistoricoPlanoContas.emMemoria();
+		Double[] mensais = new Double[12];
+		for(int mes = 0; mes < 12; mes++) {
+			mensais[mes] = 100.0 * (mes + 1);
+		}
+		historico.adicionaAno(2018, Collections.singletonMap(2, mensais));
+		plano.setHistorico(historico);
+
+		RelatorioPrevisaoEstatistica relatorio = new AgentePrevisao(plano).previsaoEstatistica(
+				new PrevisaoEstatistica(CategoriaModeloPrevisao.MEDIA_MOVEL).historico(2019, 1).janela(3));
+		assertTrue(relatorio.getErros().toString(), relatorio.isSucesso());
+		assertEquals(2, relatorio.getNumPrevistas(CategoriaModeloPrevisao.MEDIA_MOVEL));
+		for(int mes = 1; mes <= 12; mes++) {
+			assertEquals(650, soHistorico.getValorPrevistoOuZero(mes), 1e-9);
+			assertEquals(600, soJaneiro.getValorPrevistoOuZero(mes), 1e-9);
+		}
+
+		relatorio = new AgentePrevisao(plano).previsaoEstatistica(
+				new PrevisaoEstatistica(CategoriaModeloPrevisao.HOLT_WINTERS).historico(2019, 1).janela(3));
+		assertTrue(relatorio.getErros().toString(), relatorio.isSucesso());
+		assertEquals(1, relatorio.getNumPrevistas(CategoriaModeloPrevisao.MEDIA_MOVEL));
+		assertEquals(600, soJaneiro.getValorPrevistoOuZero(12), 1e-9);
+	}
+
 }
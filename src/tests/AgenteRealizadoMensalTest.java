@@ -1,6 +1,10 @@
 package tests;
 
+import static org.junit.Assert.*;
+
 import java.io.FileNotFoundException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -9,6 +13,10 @@ import org.junit.rules.ExpectedException;
 
 import dominio.PlanoContas;
 import facade.GerenciadorFacade;
+import negocios.AgenteRealizadoMensal;
+import negocios.GerenciadorArquivos;
+import negocios.RelatorioImportacaoRealizado;
+import util.MapaIntDouble;
 import util.CategoriaMes;
 
 public class AgenteRealizadoMensalTest {
@@ -87,4 +95,44 @@ public class AgenteRealizadoMensalTest {
 	}
 
 
+	/**
+	 * Partição:  Importação de vários meses aplica os arquivos válidos e relata o arquivo com erro? 
+	 * Opções de resposta: 
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void importaVariosMesesComArquivoInvalido() throws FileNotFoundException {
+		PlanoContas plano = new PlanoContas();
+		plano.setRubricas(new GerenciadorArquivos().lerOrcamentoInicial("Modelo_Controle_Orcamentario_Completo.csv"));
+		Map<CategoriaMes, String> arquivos = new LinkedHashMap<CategoriaMes, String>();
+		arquivos.put(CategoriaMes.JANEIRO, "TemplateJaneiroCompletado.xls");
+		arquivos.put(CategoriaMes.FEVEREIRO, "arquivoInexistente.xls");
+		arquivos.put(CategoriaMes.MARCO, "Modelo_Controle_Orcamentario_Completo.csv");
+		arquivos.put(CategoriaMes.ABRIL, "TemplateJaneiroCompletado.xls");
+		
+		RelatorioImportacaoRealizado relatorio = new AgenteRealizadoMensal(plano).leRealizadosMensais(arquivos);
+		
+		assertFalse(relatorio.isSucesso());
+		assertEquals(4, relatorio.getResultados().size());
+		assertTrue(relatorio.getResultados().get(0).isLido());
+		assertFalse(relatorio.getResultados().get(1).isLido());
+		assertFalse(relatorio.getResultados().get(2).isLido());
+		assertTrue(relatorio.getResultados().get(3).isLido());
+		
+		MapaIntDouble janeiro = new GerenciadorArquivos().lerRealizadoMensalStreaming("TemplateJaneiroCompletado.xls");
+		RelatorioImportacaoRealizado.ResultadoMes resultadoJaneiro = relatorio.getResultados().get(0);
+		assertEquals(plano.getRubricas().size(), resultadoJaneiro.getNumRealizados() + resultadoJaneiro.getCodigosFaltantes().size());
+		for(int i = 0; i < janeiro.size(); i++) {
+			int codigo = janeiro.getChave(i);
+			if(plano.getRubricas().containsKey(codigo)) {
+				assertEquals(janeiro.getValor(i), plano.getRubricas().get(codigo).getValorRealizado(1), 0.00001);
+				assertEquals(janeiro.getValor(i), plano.getRubricas().get(codigo).getValorRealizado(4), 0.00001);
+			}
+			else {
+				assertTrue(resultadoJaneiro.getCodigosDesconhecidos().contains(codigo));
+			}
+			assertNull(plano.getRubricas().get(codigo) == null ? null : plano.getRubricas().get(codigo).getValorRealizado(2));
+		}
+	}
 }
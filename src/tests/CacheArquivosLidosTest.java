@@ -0,0 +1,214 @@
+package tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dominio.Rubrica;
+import negocios.CacheArquivosLidos;
+import negocios.GerenciadorArquivos;
+import util.MapaIntDouble;
+
+public class CacheArquivosLidosTest {
+
+	private Path diretorio;
+	private CacheArquivosLidos cache;
+	private GerenciadorArquivos gerenciador;
+
+	@Before
+	public void criaCache() throws IOException {
+		diretorio = Files.createTempDirectory("cacheArquivos");
+		cache = new CacheArquivosLidos(diretorio.resolve("cache"), CacheArquivosLidos.TAMANHO_MAXIMO_PADRAO);
+		gerenciador = new GerenciadorArquivos(cache);
+	}
+
+	@After
+	public void apagaDiretorio() throws IOException {
+		apaga(diretorio);
+	}
+
+	private static void apaga(Path caminho) throws IOException {
+		if(Files.isDirectory(caminho)) {
+			try(DirectoryStream<Path> arquivos = Files.newDirectoryStream(caminho)) {
+				for(Path arquivo : arquivos) {
+					apaga(arquivo);
+				}
+			}
+		}
+		Files.delete(caminho);
+	}
+
+	/**
+	 * Partição:  Orçamento inicial lido de novo sem alteração vem do cache, igual ao original? 
+	 * Opções de resposta: 
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void orcamentoServidoDoCache() throws IOException {
+		LinkedHashMap<Integer, Rubrica> lido = gerenciador.lerOrcamentoInicial("Modelo_Controle_Orcamentario_Completo.csv");
+		assertEquals(0, cache.getAcertos());
+		LinkedHashMap<Integer, Rubrica> doCache = gerenciador.lerOrcamentoInicial("Modelo_Controle_Orcamentario_Completo.csv");
+		assertEquals(1, cache.getAcertos());
+
+		assertEquals(lido.size(), doCache.size());
+		Iterator<Rubrica> copias = doCache.values().iterator();
+		for(Rubrica original : lido.values()) {
+			Rubrica copia = copias.next();
+			assertNotSame(original, copia);
+			assertEquals(original.getCodigo(), copia.getCodigo());
+			assertEquals(original.getNome(), copia.getNome());
+			assertEquals(original.getSubRubricas().size(), copia.getSubRubricas().size());
+			assertEquals(original.somaAnoPassado(1, 12), copia.somaAnoPassado(1, 12), 0.00001);
+		}
+	}
+
+	/**
+	 * Partição:  Realizado mensal alterado depois de lido é interpretado de novo? 
+	 * Opções de resposta: 
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void realizadoAlteradoNaoVemDoCache() throws IOException {
+		Path realizado = diretorio.resolve("realizado.xls");
+		Files.copy(Paths.get("TemplateJaneiroCompletado.xls"), realizado);
+
+		MapaIntDouble lido = gerenciador.lerRealizadoMensalStreaming(realizado.toString());
+		MapaIntDouble doCache = gerenciador.lerRealizadoMensalStreaming(realizado.toString());
+		assertEquals(1, cache.getAcertos());
+		assertEquals(lido.size(), doCache.size());
+		for(int i = 0; i < lido.size(); i++) {
+			assertEquals(lido.getChave(i), doCache.getChave(i));
+			assertEquals(lido.getValor(i), doCache.getValor(i), 0.0);
+		}
+
+		Files.copy(Paths.get("TemplateJaneiro.xls"), realizado, StandardCopyOption.REPLACE_EXISTING);
+		gerenciador.lerRealizadoMensalStreaming(realizado.toString());
+		assertEquals(1, cache.getAcertos());
+	}
+
+	/**
+	 * Partição:  Gravações simultâneas da mesma entrada deixam uma entrada válida, sem temporários? 
+	 * Opções de resposta: 
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void gravacoesSimultaneasDaMesmaEntrada() throws Exception {
+		Path realizado = diretorio.resolve("realizado.xls");
+		Files.copy(Paths.get("TemplateJaneiroCompletado.xls"), realizado);
+		CacheArquivosLidos.Chave chave = cache.chave(realizado.toString());
+
+		//Entrada grande, para as gravações se sobreporem
+		MapaIntDouble realizados = new MapaIntDouble(1024);
+		for(int codigo = 0; codigo < 200000; codigo++) {
+			realizados.put(codigo, codigo * 0.5);
+		}
+		LinkedHashMap<Integer, Rubrica> rubricas = new GerenciadorArquivos().lerOrcamentoInicial("Modelo_Controle_Orcamentario_Completo.csv");
+
+		int threads = 8;
+		CyclicBarrier largada = new CyclicBarrier(threads);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> gravacoes = new ArrayList<Future<?>>();
+			for(int t = 0; t < threads; t++) {
+				gravacoes.add(executor.submit(() -> {
+					largada.await();
+					for(int i = 0; i < 10; i++) {
+						cache.guardaRealizado(chave, realizados);
+						cache.guardaOrcamento(chave, rubricas);
+						//Toda entrada visível está completa
+						MapaIntDouble lido = cache.obtemRealizado(chave);
+						assertNotNull(lido);
+						assertEquals(realizados.size(), lido.size());
+						assertNotNull(cache.obtemOrcamento(chave));
+					}
+					return null;
+				}));
+			}
+			for(Future<?> gravacao : gravacoes) {
+				gravacao.get();
+			}
+		}finally {
+			executor.shutdown();
+		}
+
+		try(DirectoryStream<Path> arquivos = Files.newDirectoryStream(diretorio.resolve("cache"))) {
+			for(Path arquivo : arquivos) {
+				assertTrue(arquivo.toString(), arquivo.getFileName().toString().endsWith(".cache"));
+			}
+		}
+		MapaIntDouble doCache = cache.obtemRealizado(chave);
+		assertNotNull(doCache);
+		assertEquals(realizados.size(), doCache.size());
+		for(int i = 0; i < realizados.size(); i++) {
+			assertEquals(realizados.getChave(i), doCache.getChave(i));
+			assertEquals(realizados.getValor(i), doCache.getValor(i), 0.0);
+		}
+		LinkedHashMap<Integer, Rubrica> orcamento = cache.obtemOrcamento(chave);
+		assertNotNull(orcamento);
+		assertEquals(rubricas.size(), orcamento.size());
+		assertEquals(2 * threads * 10 + 2, cache.getAcertos());
+	}
+
+	/**
+	 * Partição:  Cache acima do tamanho máximo remove a entrada usada há mais tempo? 
+	 * Opções de resposta: 
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void removeEntradaMenosUsada() throws IOException, InterruptedException {
+		Path realizado1 = diretorio.resolve("realizado1.xls");
+		Path realizado2 = diretorio.resolve("realizado2.xls");
+		Path realizado3 = diretorio.resolve("realizado3.xls");
+		Files.copy(Paths.get("TemplateJaneiroCompletado.xls"), realizado1);
+		Files.copy(Paths.get("TemplateJaneiroCompletado.xls"), realizado2);
+		Files.copy(Paths.get("TemplateJaneiroCompletado.xls"), realizado3);
+		Files.write(realizado3, new byte[] {0}, StandardOpenOption.APPEND);
+
+		//Mede uma entrada para limitar o cache a duas
+		GerenciadorArquivos medidor = new GerenciadorArquivos(new CacheArquivosLidos(diretorio.resolve("medida"), Long.MAX_VALUE));
+		medidor.lerRealizadoMensalStreaming(realizado1.toString());
+		long tamanhoEntrada;
+		try(DirectoryStream<Path> entradas = Files.newDirectoryStream(diretorio.resolve("medida"))) {
+			tamanhoEntrada = Files.size(entradas.iterator().next());
+		}
+		cache = new CacheArquivosLidos(diretorio.resolve("limitado"), 2 * tamanhoEntrada);
+		gerenciador = new GerenciadorArquivos(cache);
+
+		gerenciador.lerRealizadoMensalStreaming(realizado1.toString());
+		Thread.sleep(20);
+		gerenciador.lerRealizadoMensalStreaming(realizado2.toString());
+		Thread.sleep(20);
+		//Usar a primeira entrada a torna a mais recente
+		gerenciador.lerRealizadoMensalStreaming(realizado1.toString());
+		Thread.sleep(20);
+		gerenciador.lerRealizadoMensalStreaming(realizado3.toString());
+		assertEquals(1, cache.getAcertos());
+
+		gerenciador.lerRealizadoMensalStreaming(realizado1.toString());
+		assertEquals(2, cache.getAcertos());
+		gerenciador.lerRealizadoMensalStreaming(realizado2.toString());
+		assertEquals(2, cache.getAcertos());
+	}
+}
@@ -0,0 +1,136 @@
+package tests;
+
+import static org.junit.Assert.*;
+
+import java.io.FileNotFoundException;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import dominio.CenarioPlano;
+import dominio.PlanoContas;
+import dominio.Rubrica;
+import negocios.AgenteAnaliseComparativa;
+import negocios.AgentePrevisao;
+import negocios.DiferencaCenario;
+import negocios.GerenciadorArquivos;
+import negocios.LotePrevisao;
+import util.CategoriaMes;
+
+public class CenarioPlanoTest {
+	private PlanoContas planoContas;
+	private Rubrica folha;
+
+	@Before
+	public void criaPlano() throws FileNotFoundException {
+		planoContas = new PlanoContas();
+		planoContas.setRubricas(new GerenciadorArquivos().lerOrcamentoInicial("Modelo_Controle_Orcamentario_Completo.csv"));
+		for(Rubrica rubrica : planoContas.getRubricas().values()) {
+			if(rubrica.getSubRubricas().isEmpty() && rubrica.getPai() != null && rubrica.getPai().getPai() != null) {
+				folha = rubrica;
+				break;
+			}
+		}
+	}
+
+	private static int profundidade(Rubrica rubrica) {
+		int niveis = 0;
+		for(Rubrica atual = rubrica; atual != null; atual = atual.getPai()) {
+			niveis++;
+		}
+		return niveis;
+	}
+
+	/**
+	 * Partição:  Alteração em um cenário derivado muda o plano, a base ou outro cenário?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void alteracaoIsoladaNoCenario() {
+		int codigo = folha.getCodigo();
+		int codigoRaiz = codigo;
+		for(Rubrica atual = folha; atual != null; atual = atual.getPai()) {
+			codigoRaiz = atual.getCodigo();
+		}
+		double previstoPlano = folha.getValorPrevistoOuZero(3);
+		double somaRaizPlano = planoContas.getRubricas().get(codigoRaiz).somaPrevistosSubrubricas(3);
+
+		CenarioPlano base = CenarioPlano.base(planoContas);
+		CenarioPlano otimista = base.deriva("otimista");
+		CenarioPlano pessimista = base.deriva("pessimista");
+		assertEquals(0, otimista.getNumCopias());
+
+		assertTrue(otimista.altera(codigo, rubrica -> rubrica.setValorPrevisto(3, previstoPlano + 1000)));
+		assertFalse(otimista.altera(-1, rubrica -> rubrica.setValorPrevisto(3, 0)));
+		assertEquals(profundidade(folha), otimista.getNumCopias());
+		assertEquals(0, pessimista.getNumCopias());
+
+		PlanoContas plano = otimista.getPlano();
+		assertEquals(previstoPlano + 1000, plano.getRubricas().get(codigo).getValorPrevistoOuZero(3), 0.0);
+		assertEquals(somaRaizPlano + 1000, plano.getRubricas().get(codigoRaiz).somaPrevistosSubrubricas(3), 1e-6);
+		assertTrue(plano.verificaConsistenciaSomas());
+
+		for(PlanoContas semAlteracao : new PlanoContas[] {planoContas, base.getPlano(), pessimista.getPlano()}) {
+			assertEquals(previstoPlano, semAlteracao.getRubricas().get(codigo).getValorPrevistoOuZero(3), 0.0);
+			assertEquals(somaRaizPlano, semAlteracao.getRubricas().get(codigoRaiz).somaPrevistosSubrubricas(3), 1e-6);
+			assertTrue(semAlteracao.verificaConsistenciaSomas());
+		}
+
+		//Cópias feitas depois da derivação não aparecem no cenário derivado, nem no sentido contrário
+		CenarioPlano derivado = otimista.deriva("otimista 2");
+		otimista.altera(codigo, rubrica -> rubrica.setValorPrevisto(3, 0));
+		derivado.alteraFolhas(codigoRaiz, rubrica -> rubrica.setValorPrevisto(4, 7));
+		assertEquals(previstoPlano + 1000, derivado.getPlano().getRubricas().get(codigo).getValorPrevistoOuZero(3), 0.0);
+		assertEquals(0, otimista.getPlano().getRubricas().get(codigo).getValorPrevistoOuZero(3), 0.0);
+		assertEquals(folha.getValorPrevistoOuZero(4), otimista.getPlano().getRubricas().get(codigo).getValorPrevistoOuZero(4), 0.0);
+		assertEquals(7, derivado.getPlano().getRubricas().get(codigo).getValorPrevistoOuZero(4), 0.0);
+		assertTrue(otimista.getPlano().verificaConsistenciaSomas());
+		assertTrue(derivado.getPlano().verificaConsistenciaSomas());
+		assertTrue(base.getPlano().verificaConsistenciaSomas());
+
+		//Alterações posteriores do plano de origem não mudam os cenários
+		folha.setValorPrevisto(3, previstoPlano + 50);
+		assertEquals(previstoPlano, base.getPlano().getRubricas().get(codigo).getValorPrevistoOuZero(3), 0.0);
+	}
+
+	/**
+	 * Partição:  Comparação do cenário com a base lista só a rúbrica alterada e os seus ancestrais?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void comparaCenarioComBase() {
+		CenarioPlano base = CenarioPlano.base(planoContas);
+		CenarioPlano cenario = base.deriva("corte");
+		assertTrue(AgenteAnaliseComparativa.comparaCenarios(base, cenario, CategoriaMes.JANEIRO, CategoriaMes.DEZEMBRO).isEmpty());
+
+		List<String> erros = AgentePrevisao.aplicaLote(cenario, new LotePrevisao().valorFixo(folha.getCodigo(), 2, 12345));
+		assertTrue(erros.isEmpty());
+		assertEquals(folha.getValorPrevistoOuZero(2), base.getPlano().getRubricas().get(folha.getCodigo()).getValorPrevistoOuZero(2), 0.0);
+
+		List<DiferencaCenario> diferencas = AgenteAnaliseComparativa.comparaCenarios(base, cenario, CategoriaMes.JANEIRO, CategoriaMes.DEZEMBRO);
+		assertFalse(diferencas.isEmpty());
+		double esperado = 12345 - folha.getValorPrevistoOuZero(2);
+		int ancestrais = 0;
+		for(DiferencaCenario diferenca : diferencas) {
+			boolean ancestral = false;
+			for(Rubrica atual = folha; atual != null; atual = atual.getPai()) {
+				ancestral |= atual.getCodigo() == diferenca.getCodigo();
+			}
+			if(ancestral) {
+				ancestrais++;
+				assertEquals(esperado, diferenca.getDiferencaPrevisto(), 1e-6);
+				assertEquals(0, diferenca.getDiferencaRealizado(), 0.0);
+			}else {
+				//Só as rubricas especiais, calculadas por fórmulas, mudam fora do caminho
+				assertTrue(planoContas.getRubricasEspeciais().containsKey(diferenca.getCodigo()));
+			}
+		}
+		assertEquals(profundidade(folha), ancestrais);
+		assertEquals(profundidade(folha), cenario.codigosAlteradosEntre(base).size());
+	}
+}
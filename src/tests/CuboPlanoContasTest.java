@@ -0,0 +1,225 @@
+package tests;
+
+import static org.junit.Assert.*;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import dominio.CuboPlanoContas;
+import dominio.PlanoContas;
+import dominio.ResultadoConsulta;
+import dominio.Rubrica;
+import negocios.AgenteAnaliseComparativa;
+import negocios.GerenciadorArquivos;
+import negocios.LinhaAnaliseComparativa;
+import util.CategoriaAgregacao;
+import util.CategoriaMedida;
+import util.CategoriaMes;
+import util.CategoriaRubrica;
+
+public class CuboPlanoContasTest {
+
+	private PlanoContas plano;
+
+	@Rule
+	public ExpectedException excecao = ExpectedException.none();
+
+	@Before
+	public void lePlano() throws FileNotFoundException {
+		plano = new PlanoContas();
+		plano.setRubricas(new GerenciadorArquivos().lerOrcamentoInicial("Modelo_Controle_Orcamentario_Completo.csv"));
+		int i = 0;
+		for(Rubrica rubrica : plano.getRubricas().values()) {
+			if(rubrica.getSubRubricas().isEmpty()) {
+				for(int mes = 1; mes <= 12; mes++) {
+					rubrica.setValorPrevisto(mes, 100 + i);
+					rubrica.setValorRealizado(mes, i % 3 == 0 ? 120 + i : 90 + i);
+				}
+			}
+			i++;
+		}
+	}
+
+	private static int profundidade(Rubrica rubrica) {
+		int profundidade = 0;
+		for(Rubrica pai = rubrica.getPai(); pai != null; pai = pai.getPai()) {
+			profundidade++;
+		}
+		return profundidade;
+	}
+
+	/**
+	 * Partição:  Realizado do trimestre agrupado por ancestral é igual ao consolidado de cada ancestral?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void somaPorAncestral() {
+		ResultadoConsulta resultado = CuboPlanoContas.de(plano).consulta().meses(7, 9).apenasFolhas().agrupaPorAncestral(2)
+				.agrega(CategoriaAgregacao.SOMA, CategoriaMedida.REALIZADO).agrega(CategoriaAgregacao.CONTAGEM, null).executa();
+
+		List<Rubrica> grupos = new ArrayList<Rubrica>();
+		for(Rubrica rubrica : plano.getRubricas().values()) {
+			if(profundidade(rubrica) == 2) {
+				grupos.add(rubrica);
+			}
+		}
+		assertFalse(grupos.isEmpty());
+		assertEquals(grupos.size(), resultado.getNumLinhas());
+		assertEquals("soma(realizado)", resultado.getColuna(0));
+		for(int linha = 0; linha < resultado.getNumLinhas(); linha++) {
+			Rubrica grupo = grupos.get(linha);
+			assertEquals(String.valueOf(grupo.getCodigo()), resultado.getChave(linha));
+			assertEquals(grupo.getNome(), resultado.getNome(linha));
+			assertEquals(grupo.somaRealizadosSubrubricas(7, 9), resultado.getValor(linha, 0), 1e-6);
+			assertEquals(resultado.getContagem(linha), resultado.getValor(linha, 1), 0.0);
+		}
+	}
+
+	/**
+	 * Partição:  Filtro de realizado acima do previsto seleciona as mesmas contas de um laço sobre o plano?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void filtroAcimaDoPrevisto() {
+		ResultadoConsulta resultado = CuboPlanoContas.de(plano).consulta().categoria(CategoriaRubrica.DESPESA).apenasFolhas()
+				.acimaDe(CategoriaMedida.REALIZADO, 1.10, CategoriaMedida.PREVISTO)
+				.agrega(CategoriaAgregacao.SOMA, CategoriaMedida.REALIZADO).executa();
+
+		List<Rubrica> esperadas = new ArrayList<Rubrica>();
+		for(Rubrica rubrica : plano.getRubricas().values()) {
+			if(rubrica.getSubRubricas().isEmpty() && rubrica.getCategoria() == CategoriaRubrica.DESPESA
+					&& rubrica.somaRealizadosSubrubricas(1, 12) > 1.10 * rubrica.somaPrevistosSubrubricas(1, 12)) {
+				esperadas.add(rubrica);
+			}
+		}
+		assertFalse(esperadas.isEmpty());
+		assertEquals(esperadas.size(), resultado.getNumLinhas());
+		for(int linha = 0; linha < resultado.getNumLinhas(); linha++) {
+			assertEquals(String.valueOf(esperadas.get(linha).getCodigo()), resultado.getChave(linha));
+			assertEquals(esperadas.get(linha).somaRealizadosSubrubricas(1, 12), resultado.getValor(linha, 0), 1e-6);
+		}
+	}
+
+	/**
+	 * Partição:  Variação e porcentagem de cada conta são as da análise comparativa, inclusive com previsto zero?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void variacaoEPorcentagemIguaisAnaliseComparativa() {
+		Rubrica semPrevisto = null;
+		for(Rubrica rubrica : plano.getRubricas().values()) {
+			if(rubrica.getSubRubricas().isEmpty() && !plano.getFormulas().contem(rubrica.getCodigo())) {
+				semPrevisto = rubrica;
+				break;
+			}
+		}
+		for(int mes = 1; mes <= 12; mes++) {
+			semPrevisto.setValorPrevisto(mes, 0);
+		}
+
+		CuboPlanoContas cubo = CuboPlanoContas.de(plano);
+		ResultadoConsulta resultado = cubo.consulta().meses(4, 9).agrega(CategoriaAgregacao.SOMA, CategoriaMedida.VARIACAO)
+				.agrega(CategoriaAgregacao.SOMA, CategoriaMedida.PORCENTAGEM).executa();
+		List<LinhaAnaliseComparativa> analise = new AgenteAnaliseComparativa(plano).calculaAnaliseComparativa(CategoriaMes.ABRIL, CategoriaMes.SETEMBRO);
+
+		assertEquals("soma(variacao)", resultado.getColuna(0));
+		assertEquals(analise.size(), resultado.getNumLinhas());
+		int comparadas = 0;
+		for(int linha = 0; linha < resultado.getNumLinhas(); linha++) {
+			LinhaAnaliseComparativa esperada = analise.get(linha);
+			assertEquals(String.valueOf(esperada.getCodigo()), resultado.getChave(linha));
+			//As rubricas especiais usam a fórmula na análise, e a soma das subrúbricas no cubo
+			if(plano.getFormulas().contem(esperada.getCodigo())) {
+				continue;
+			}
+			assertEquals(esperada.getVariacao(), resultado.getValor(linha, 0), 1e-6);
+			assertEquals(esperada.getPorcentagem(), resultado.getValor(linha, 1), 1e-9);
+			comparadas++;
+		}
+		assertTrue(comparadas > 0);
+
+		int conta = cubo.getIndice(semPrevisto.getCodigo());
+		assertEquals(0.0, resultado.getValor(conta, 1), 0.0);
+		assertEquals(-semPrevisto.somaRealizadosSubrubricas(4, 9), resultado.getValor(conta, 0), 1e-6);
+		assertEquals(0.0, cubo.getValor(CategoriaMedida.PORCENTAGEM, 5, conta), 0.0);
+	}
+
+	/**
+	 * Partição:  Mês sem valor do ano passado é NaN no cubo e conta como zero nos totais?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void anoPassadoSemValor() {
+		//Linha de total do orçamento, sem valores próprios
+		Rubrica total = plano.getRubricas().get(3);
+		assertFalse(total.temValorAnoPassado(1));
+		Rubrica receita = plano.getRubricas().get(103);
+
+		CuboPlanoContas cubo = CuboPlanoContas.de(plano);
+		assertTrue(Double.isNaN(cubo.getValor(CategoriaMedida.ANO_PASSADO, 1, cubo.getIndice(3))));
+		assertEquals(receita.getvalorAnoPassado(1), cubo.getValor(CategoriaMedida.ANO_PASSADO, 1, cubo.getIndice(103)), 0.0);
+
+		ResultadoConsulta resultado = cubo.consulta().agrega(CategoriaAgregacao.SOMA, CategoriaMedida.ANO_PASSADO).executa();
+		assertEquals(0.0, resultado.getValor(cubo.getIndice(3), 0), 0.0);
+		assertEquals(receita.somaAnoPassado(1, 12), resultado.getValor(cubo.getIndice(103), 0), 1e-6);
+	}
+
+	/**
+	 * Partição:  Total, ordenação, limite e média por profundidade batem com o plano?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void totalOrdenacaoELimite() {
+		CuboPlanoContas cubo = CuboPlanoContas.de(plano);
+		double somaFolhas = 0;
+		double maiorFolha = Double.NEGATIVE_INFINITY;
+		int folhas = 0;
+		for(Rubrica rubrica : plano.getRubricas().values()) {
+			if(rubrica.getSubRubricas().isEmpty()) {
+				somaFolhas += rubrica.somaPrevistosSubrubricas(1, 12);
+				maiorFolha = Math.max(maiorFolha, rubrica.somaPrevistosSubrubricas(1, 12));
+				folhas++;
+			}
+		}
+
+		ResultadoConsulta total = cubo.consulta().apenasFolhas().agrupaTudo().agrega(CategoriaAgregacao.SOMA, CategoriaMedida.PREVISTO)
+				.agrega(CategoriaAgregacao.MAXIMO, CategoriaMedida.PREVISTO).agrega(CategoriaAgregacao.MEDIA, CategoriaMedida.PREVISTO).executa();
+		assertEquals(1, total.getNumLinhas());
+		assertEquals("TOTAL", total.getChave(0));
+		assertEquals(folhas, total.getContagem(0));
+		assertEquals(somaFolhas, total.getValor(0, 0), 1e-6);
+		assertEquals(maiorFolha, total.getValor(0, 1), 0.0);
+		assertEquals(somaFolhas / folhas, total.getValor(0, 2), 1e-6);
+
+		ResultadoConsulta maiores = cubo.consulta().apenasFolhas().agrega(CategoriaAgregacao.SOMA, CategoriaMedida.PREVISTO)
+				.ordenaPor(0, true).limita(3).executa();
+		assertEquals(3, maiores.getNumLinhas());
+		assertEquals(maiorFolha, maiores.getValor(0, 0), 0.0);
+		assertTrue(maiores.getValor(0, 0) >= maiores.getValor(1, 0) && maiores.getValor(1, 0) >= maiores.getValor(2, 0));
+
+		ResultadoConsulta vazio = cubo.consulta().acimaDe(CategoriaMedida.PREVISTO, Double.MAX_VALUE).agrupaTudo()
+				.agrega(CategoriaAgregacao.MEDIA, CategoriaMedida.PREVISTO).executa();
+		assertEquals(0, vazio.getContagem(0));
+		assertTrue(Double.isNaN(vazio.getValor(0, 0)));
+
+		excecao.expect(IllegalArgumentException.class);
+		excecao.expectMessage("Intervalo de meses inválido 0-12");
+		cubo.consulta().meses(0, 12).executa();
+	}
+}
@@ -0,0 +1,85 @@
+package tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import drivers.DriverCSV;
+import drivers.TokenizadorCSV;
+
+public class DriverCSVTest {
+
+	private File criaArquivo(String conteudo) throws IOException {
+		File arquivo = File.createTempFile("driver", ".csv");
+		arquivo.deleteOnExit();
+		FileWriter writer = new FileWriter(arquivo);
+		writer.write(conteudo);
+		writer.close();
+		return arquivo;
+	}
+
+	//===================functionality-based tests:	===================//
+	/**
+	 * Partição:  Campos entre aspas com delimitador e aspas escapadas são lidos corretamente?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void camposEntreAspas() throws IOException {
+		TokenizadorCSV tokenizador = new TokenizadorCSV(new StringReader("1,\"Receita, Bruta\",\"a \"\"b\"\"\"\n"));
+		assertTrue(tokenizador.proximaLinha());
+		assertEquals(3, tokenizador.getNumCampos());
+		assertEquals("1", tokenizador.getCampo(0));
+		assertEquals("Receita, Bruta", tokenizador.getCampo(1));
+		assertEquals("a \"b\"", tokenizador.getCampo(2));
+		assertFalse(tokenizador.proximaLinha());
+	}
+
+	/**
+	 * Partição:  Delimitador configurável é respeitado?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void delimitadorConfiguravel() throws IOException {
+		TokenizadorCSV tokenizador = new TokenizadorCSV(new StringReader("3.2.1;103;Receita Bruta\r\n"), ';');
+		assertTrue(tokenizador.proximaLinha());
+		assertEquals(3, tokenizador.getNumCampos());
+		assertEquals(2, tokenizador.contaOcorrencias(0, '.'));
+		assertEquals("Receita Bruta", tokenizador.getCampo(2));
+		assertFalse(tokenizador.temConteudo());
+	}
+
+	/**
+	 * Partição:  Driver mantém a contagem de campos do split (sem campos vazios no final)?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void contagemDeCamposIgualAoSplit() throws IOException {
+		File arquivo = criaArquivo("a,b,c\n,,,\n3.2.1.01,103,Receita Bruta,,\n,1,Receita Liquida\n");
+		DriverCSV driver = new DriverCSV(arquivo.getPath());
+		assertArrayEquals(new String[] {"a", "b", "c"}, driver.getFieldNames());
+		assertEquals(0, driver.getNumOfLineFields());
+
+		assertTrue(driver.hasNext());
+		driver.proceed();
+		assertEquals(3, driver.getNumOfLineFields());
+		assertSame(driver.getFields(), driver.getFields());
+		assertEquals("103", driver.getField(1));
+
+		driver.proceed();
+		assertTrue(driver.isFieldEmpty(0));
+		assertEquals("Receita Liquida", driver.getFields()[2]);
+		assertFalse(driver.hasNext());
+		driver.close();
+	}
+}
@@ -2,17 +2,39 @@ package tests;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import dominio.PlanoContas;
+import dominio.Rubrica;
 import facade.GerenciadorFacade;
 import negocios.GerenciadorArquivos;
 import util.CategoriaMes;
+import util.MapaIntDouble;
 
 public class GerenciadorArquivosTest {
 	private GerenciadorArquivos gerenciador;
@@ -66,4 +88,291 @@ public class GerenciadorArquivosTest {
 
 	
 
+	/**
+	 * Partição: A leitura em streaming do realizado mensal (.xls e .xlsx) segue as regras da leitura original,
+	 * ou seja, realizado = crédito - débito, 0 sem débito ou crédito, e para na primeira linha inexistente?
+	 * Opções de resposta: Sim Não
+	 */
+	@Test
+	public void leRealizadoMensalStreamingXls() throws IOException {
+		verificaLeituraStreaming(new HSSFWorkbook(), "realizadoStreamingTeste.xls");
+	}
+	
+	@Test
+	public void leRealizadoMensalStreamingXlsx() throws IOException {
+		verificaLeituraStreaming(new XSSFWorkbook(), "realizadoStreamingTeste.xlsx");
+	}
+	
+	/**
+	 * Partição: Célula de débito ou crédito em branco (existente, sem valor) vale 0, como na leitura original?
+	 * Opções de resposta: Sim Não
+	 */
+	@Test
+	public void leRealizadoMensalCelulasEmBrancoXls() throws IOException {
+		verificaCelulasEmBranco(new HSSFWorkbook(), "realizadoEmBrancoTeste.xls");
+	}
+	
+	@Test
+	public void leRealizadoMensalCelulasEmBrancoXlsx() throws IOException {
+		verificaCelulasEmBranco(new XSSFWorkbook(), "realizadoEmBrancoTeste.xlsx");
+	}
+	
+	/**
+	 * Partição: Orçamento com as linhas fora de ordem gera a mesma hierarquia, na leitura sequencial e na paralela?
+	 * Opções de resposta: Sim Não
+	 */
+	@Test
+	public void orcamentoForaDeOrdem() throws IOException {
+		Map<Integer, Rubrica> ordenado = gerenciador.lerOrcamentoInicial("Modelo_Controle_Orcamentario_Completo.csv");
+		
+		//ISO-8859-1 preserva os bytes de qualquer codificação do arquivo
+		List<String> linhas = Files.readAllLines(Paths.get("Modelo_Controle_Orcamentario_Completo.csv"), StandardCharsets.ISO_8859_1);
+		//As linhas sem classificação que não são rubricas especiais pertencem ao grupo da linha
+		//acima, então andam junto com ela
+		List<List<String>> grupos = new ArrayList<List<String>>();
+		for(String linha : linhas.subList(2, linhas.size())) {
+			String[] campos = linha.split(",", -1);
+			boolean emBranco = campos[1].isEmpty();
+			boolean doGrupoAcima = !emBranco && campos[0].isEmpty()
+					&& !PlanoContas.RUBRICAS_ESPECIAIS_PADRAO.containsKey(Integer.valueOf(campos[1]));
+			if(doGrupoAcima) {
+				grupos.get(grupos.size() - 1).add(linha);
+			}else {
+				grupos.add(new ArrayList<String>(Collections.singletonList(linha)));
+			}
+		}
+		Collections.shuffle(grupos, new Random(3));
+		List<String> embaralhadas = new ArrayList<String>(linhas.subList(0, 2));
+		for(List<String> grupo : grupos) {
+			embaralhadas.addAll(grupo);
+		}
+		Path arquivo = Files.createTempFile("orcamentoForaDeOrdem", ".csv");
+		try {
+			Files.write(arquivo, embaralhadas, StandardCharsets.ISO_8859_1);
+			List<Map<Integer, Rubrica>> lidos = new ArrayList<Map<Integer, Rubrica>>();
+			lidos.add(gerenciador.lerOrcamentoInicial(arquivo.toString()));
+			ForkJoinPool pool = new ForkJoinPool(4);
+			try {
+				lidos.add(gerenciador.lerOrcamentoInicialParalelo(arquivo.toString(), pool, 512));
+			}finally {
+				pool.shutdown();
+			}
+			for(Map<Integer, Rubrica> lido : lidos) {
+				assertEquals(ordenado.size(), lido.size());
+				for(Rubrica original : ordenado.values()) {
+					Rubrica rubrica = lido.get(original.getCodigo());
+					assertEquals(original.getClassificacao(), rubrica.getClassificacao());
+					assertEquals(original.getPai() == null ? null : original.getPai().getCodigo(),
+							rubrica.getPai() == null ? null : rubrica.getPai().getCodigo());
+					assertEquals(codigos(original.getSubRubricas()), codigos(rubrica.getSubRubricas()));
+					assertEquals(original.somaAnoPassado(1, 12), rubrica.somaAnoPassado(1, 12), 0.00001);
+				}
+			}
+		} finally {
+			Files.delete(arquivo);
+		}
+	}
+	
+	/**
+	 * Partição: Orçamento com quebras de linha \r\n ou só \r é lido igual ao original, na leitura sequencial e na paralela?
+	 * Opções de resposta: Sim Não
+	 */
+	@Test
+	public void orcamentoComOutrasQuebrasDeLinha() throws IOException {
+		Map<Integer, Rubrica> original = gerenciador.lerOrcamentoInicial("Modelo_Controle_Orcamentario_Completo.csv");
+		
+		//ISO-8859-1 preserva os bytes de qualquer codificação do arquivo
+		String conteudo = new String(Files.readAllBytes(Paths.get("Modelo_Controle_Orcamentario_Completo.csv")), StandardCharsets.ISO_8859_1)
+				.replace("\r\n", "\n");
+		for(String quebra : new String[] {"\r\n", "\r"}) {
+			Path arquivo = Files.createTempFile("orcamentoQuebras", ".csv");
+			try {
+				Files.write(arquivo, conteudo.replace("\n", quebra).getBytes(StandardCharsets.ISO_8859_1));
+				List<Map<Integer, Rubrica>> lidos = new ArrayList<Map<Integer, Rubrica>>();
+				lidos.add(gerenciador.lerOrcamentoInicial(arquivo.toString()));
+				ForkJoinPool pool = new ForkJoinPool(4);
+				try {
+					//Blocos de 1 byte terminam em todas as quebras, inclusive entre o \r e o \n
+					for(int tamanhoBloco : new int[] {1, 97, 512}) {
+						lidos.add(gerenciador.lerOrcamentoInicialParalelo(arquivo.toString(), pool, tamanhoBloco));
+					}
+				}finally {
+					pool.shutdown();
+				}
+				for(Map<Integer, Rubrica> lido : lidos) {
+					assertEquals(original.keySet(), lido.keySet());
+					for(Rubrica esperada : original.values()) {
+						Rubrica rubrica = lido.get(esperada.getCodigo());
+						assertEquals(esperada.getNome(), rubrica.getNome());
+						assertEquals(esperada.getClassificacao(), rubrica.getClassificacao());
+						assertEquals(esperada.getPai() == null ? null : esperada.getPai().getCodigo(),
+								rubrica.getPai() == null ? null : rubrica.getPai().getCodigo());
+						for(int mes = 1; mes <= 12; mes++) {
+							assertEquals(esperada.temValorAnoPassado(mes), rubrica.temValorAnoPassado(mes));
+							assertEquals(esperada.getValorAnoPassadoOuZero(mes), rubrica.getValorAnoPassadoOuZero(mes), 0.0);
+						}
+					}
+				}
+			} finally {
+				Files.delete(arquivo);
+			}
+		}
+	}
+	
+	/**
+	 * Partição: Subárvore da classificação tem a raiz e só as rúbricas classificadas abaixo dela, em ordem?
+	 * Opções de resposta: Sim Não
+	 */
+	@Test
+	public void subarvorePorClassificacao() throws IOException {
+		PlanoContas plano = new PlanoContas();
+		plano.setRubricas(gerenciador.lerOrcamentoInicial("Modelo_Controle_Orcamentario_Completo.csv"));
+		
+		Rubrica receita = plano.getRubricaPorClassificacao("3.2.1.01");
+		assertEquals(103, receita.getCodigo());
+		assertNull(plano.getRubricaPorClassificacao("3.2.1.99"));
+		
+		List<Rubrica> subarvore = plano.getRubricasPorClassificacao("3.2.1.01");
+		assertEquals(receita, subarvore.get(0));
+		assertEquals(codigos(receita.getSubRubricas()), codigos(subarvore.subList(1, subarvore.size())));
+		
+		List<Rubrica> todas = plano.getRubricasPorClassificacao("3.2");
+		int classificadas = 0;
+		for(Rubrica rubrica : plano.getRubricas().values()) {
+			String classificacao = rubrica.getClassificacao();
+			if(classificacao != null && (classificacao.equals("3.2") || classificacao.startsWith("3.2."))) {
+				classificadas++;
+				assertTrue(todas.contains(rubrica));
+			}
+		}
+		assertEquals(classificadas, todas.size());
+		for(int i = 1; i < todas.size(); i++) {
+			assertTrue(todas.get(i - 1).getClassificacao().compareTo(todas.get(i).getClassificacao()) < 0);
+		}
+		assertTrue(plano.getRubricasPorClassificacao("3.2.1.0").isEmpty());
+	}
+	
+	/**
+	 * Partição: Linha sem classificação é conta do grupo acima dela, ou total sem subrúbricas se for rubrica especial?
+	 * Opções de resposta: Sim Não
+	 */
+	@Test
+	public void linhasSemClassificacao() throws IOException {
+		Map<Integer, Rubrica> rubricas = gerenciador.lerOrcamentoInicial("Modelo_Controle_Orcamentario_Completo.csv");
+		
+		int[][] filhas = {{24, 2}, {25, 2}, {551, 120}, {355, 133}, {161, 133}};
+		for(int[] filha : filhas) {
+			Rubrica rubrica = rubricas.get(filha[0]);
+			assertNotNull(rubrica.getPai());
+			assertEquals(filha[1], rubrica.getPai().getCodigo());
+			assertTrue(rubrica.getPai().getSubRubricas().contains(rubrica));
+			assertNull(rubrica.getClassificacao());
+			assertTrue(rubrica.temValorAnoPassado(12));
+		}
+		assertEquals(11666, rubricas.get(25).getvalorAnoPassado(1), 0.0);
+		
+		for(int especial : new int[] {1, 110, 3, 4, 7, 12, 18, 20}) {
+			Rubrica rubrica = rubricas.get(especial);
+			assertNull(rubrica.getPai());
+			assertTrue(rubrica.getSubRubricas().isEmpty());
+		}
+		//Logo depois de um total, a linha sem classificação fica sem pai
+		for(int semGrupo : new int[] {8, 21, 22, 23}) {
+			assertNull(rubricas.get(semGrupo).getPai());
+		}
+		
+		//Os totais dos grupos, como na planilha, passam a incluir as linhas sem classificação
+		for(Rubrica rubrica : rubricas.values()) {
+			if(rubrica.getSubRubricas().isEmpty() && rubrica.temValorAnoPassado(1)) {
+				rubrica.setValorPrevisto(1, rubrica.getvalorAnoPassado(1));
+			}
+		}
+		assertEquals(119935, rubricas.get(2).somaPrevistosSubrubricas(1), 0.00001);
+		assertEquals(31351, rubricas.get(120).somaPrevistosSubrubricas(1), 0.00001);
+		assertEquals(147372, rubricas.get(133).somaPrevistosSubrubricas(1), 0.00001);
+	}
+	
+	private static Set<Integer> codigos(List<Rubrica> rubricas) {
+		Set<Integer> codigos = new HashSet<Integer>();
+		for(Rubrica rubrica : rubricas) {
+			codigos.add(rubrica.getCodigo());
+		}
+		return codigos;
+	}
+	
+	private void verificaLeituraStreaming(Workbook workbook, String nomeArquivo) throws IOException {
+		Sheet sheet = workbook.createSheet("FirstSheet");
+		sheet.createRow(0).createCell(0).setCellValue("Janeiro");
+		sheet.createRow(1).createCell(1).setCellValue("Código");
+		criaLinhaRealizado(sheet, 2, 10, 100.0, 250.5);
+		criaLinhaRealizado(sheet, 3, 20, null, 40.0);
+		criaLinhaRealizado(sheet, 4, 30, 5.0, 0.0);
+		//Linha 5 não existe: a linha 6 não deve ser lida
+		criaLinhaRealizado(sheet, 6, 40, 1.0, 2.0);
+		
+		File arquivo = new File(nomeArquivo);
+		try {
+			try (FileOutputStream saida = new FileOutputStream(arquivo)) {
+				workbook.write(saida);
+			}
+			workbook.close();
+			
+			MapaIntDouble realizados = gerenciador.lerRealizadoMensalStreaming(nomeArquivo);
+			assertEquals(3, realizados.size());
+			assertEquals(10, realizados.getChave(0));
+			assertEquals(150.5, realizados.get(10), 0.0);
+			assertEquals(0.0, realizados.get(20), 0.0);
+			assertEquals(-5.0, realizados.get(30), 0.0);
+			assertFalse(realizados.contem(40));
+		} finally {
+			arquivo.delete();
+		}
+	}
+	
+	private void verificaCelulasEmBranco(Workbook workbook, String nomeArquivo) throws IOException {
+		Sheet sheet = workbook.createSheet("FirstSheet");
+		sheet.createRow(0).createCell(0).setCellValue("Janeiro");
+		sheet.createRow(1).createCell(1).setCellValue("Código");
+		//Coluna de débito em branco
+		criaLinhaRealizado(sheet, 2, 10, null, 40.0).createCell(2);
+		//Coluna de crédito em branco
+		criaLinhaRealizado(sheet, 3, 20, 5.0, null).createCell(3);
+		//Débito em branco e sem a célula de crédito
+		criaLinhaRealizado(sheet, 4, 30, null, null).createCell(2);
+		//As duas em branco (no .xls, um único registro para as duas)
+		Row ambas = criaLinhaRealizado(sheet, 5, 50, null, null);
+		ambas.createCell(2);
+		ambas.createCell(3);
+		
+		File arquivo = new File(nomeArquivo);
+		try {
+			try (FileOutputStream saida = new FileOutputStream(arquivo)) {
+				workbook.write(saida);
+			}
+			workbook.close();
+			
+			MapaIntDouble realizados = gerenciador.lerRealizadoMensalStreaming(nomeArquivo);
+			assertEquals(4, realizados.size());
+			assertEquals(40.0, realizados.get(10), 0.0);
+			assertEquals(-5.0, realizados.get(20), 0.0);
+			assertEquals(0.0, realizados.get(30), 0.0);
+			assertEquals(0.0, realizados.get(50), 0.0);
+		} finally {
+			arquivo.delete();
+		}
+	}
+	
+	private Row criaLinhaRealizado(Sheet sheet, int linha, int codigo, Double debito, Double credito) {
+		Row row = sheet.createRow(linha);
+		row.createCell(0).setCellValue("Rubrica " + codigo);
+		row.createCell(1).setCellValue(codigo);
+		if (debito != null) {
+			row.createCell(2).setCellValue(debito);
+		}
+		if (credito != null) {
+			row.createCell(3).setCellValue(credito);
+		}
+		return row;
+	}
+
 }
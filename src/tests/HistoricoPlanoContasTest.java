@@ -0,0 +1,148 @@
+package tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dominio.HistoricoPlanoContas;
+import dominio.PlanoContas;
+import dominio.Rubrica;
+import negocios.GerenciadorArquivos;
+
+public class HistoricoPlanoContasTest {
+
+	private Path arquivo;
+
+	@Before
+	public void criaArquivo() throws IOException {
+		arquivo = Files.createTempFile("plano", ".historico");
+	}
+
+	@After
+	public void apagaArquivo() throws IOException {
+		Files.deleteIfExists(arquivo);
+	}
+
+	/**
+	 * Gera 10 anos de 500 contas com centavos, valores sem representação exata em centavos,
+	 * negativos, grandes e meses sem valor.
+	 */
+	private static Map<Integer, Map<Integer, Double[]>> geraAnos() {
+		Random aleatorio = new Random(7);
+		Map<Integer, Map<Integer, Double[]>> anos = new HashMap<Integer, Map<Integer, Double[]>>();
+		for(int ano = 2010; ano < 2020; ano++) {
+			Map<Integer, Double[]> contas = new HashMap<Integer, Double[]>();
+			for(int codigo = 1; codigo <= 500; codigo++) {
+				Double[] valores = new Double[12];
+				for(int mes = 0; mes < 12; mes++) {
+					if(aleatorio.nextInt(8) == 0) {
+						continue;
+					}
+					switch(codigo % 4) {
+					case 0:
+						valores[mes] = Math.round(aleatorio.nextGaussian() * 1000000) / 100.0;
+						break;
+					case 1:
+						valores[mes] = aleatorio.nextDouble() * 1000 / 3;
+						break;
+					case 2:
+						valores[mes] = codigo == 2 ? 0.0 : -12.34;
+						break;
+					default:
+						valores[mes] = aleatorio.nextDouble() * 1e18;
+					}
+				}
+				contas.put(codigo, valores);
+			}
+			anos.put(ano, contas);
+		}
+		return anos;
+	}
+
+	/**
+	 * Partição:  Valores lidos do arquivo reaberto são iguais aos gravados, carregando só os anos consultados?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void arquivoReabertoCarregaSobDemanda() throws IOException {
+		Map<Integer, Map<Integer, Double[]>> anos = geraAnos();
+		try(HistoricoPlanoContas historico = HistoricoPlanoContas.abre(arquivo)) {
+			for(Map.Entry<Integer, Map<Integer, Double[]>> ano : anos.entrySet()) {
+				historico.adicionaAno(ano.getKey(), ano.getValue());
+			}
+		}
+
+		try(HistoricoPlanoContas historico = HistoricoPlanoContas.abre(arquivo)) {
+			assertEquals(10, historico.getAnos().size());
+			assertEquals(2010, (int) historico.getAnos().first());
+			assertEquals(0, historico.getBytesCarregados());
+
+			double[] marcos = historico.mesmoMes(4, 3, 2019, 5);
+			assertFalse(historico.isCarregado(2014));
+			assertTrue(historico.isCarregado(2015));
+			assertTrue(historico.isCarregado(2019));
+			for(int i = 0; i < 5; i++) {
+				Double esperado = anos.get(2015 + i).get(4)[2];
+				assertEquals(esperado == null ? Double.NaN : esperado, marcos[i], 0.0);
+			}
+
+			for(int ano = 2010; ano < 2020; ano++) {
+				for(int codigo = 1; codigo <= 500; codigo++) {
+					assertArrayEquals(anos.get(ano).get(codigo), historico.getAno(codigo, ano));
+				}
+			}
+			assertNull(historico.getAno(501, 2019));
+			assertNull(historico.getAno(1, 2020));
+			assertTrue(Double.isNaN(historico.mesmoMes(1, 1, 2021, 2)[1]));
+
+			historico.descarregaAnos();
+			assertFalse(historico.isCarregado(2019));
+			assertEquals(anos.get(2019).get(8)[11], historico.getValor(8, 2019, 12));
+		}
+	}
+
+	/**
+	 * Partição:  Ano arquivado do plano, com os consolidados, volta como ano passado do plano?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void arquivaEAplicaAnoPassado() throws IOException {
+		PlanoContas plano = new PlanoContas();
+		plano.setRubricas(new GerenciadorArquivos().lerOrcamentoInicial("Modelo_Controle_Orcamentario_Completo.csv"));
+		int i = 0;
+		for(Rubrica rubrica : plano.getRubricas().values()) {
+			if(rubrica.getSubRubricas().isEmpty() && i++ % 5 != 0) {
+				for(int mes = 1; mes <= 6; mes++) {
+					rubrica.setValorRealizado(mes, 100.25 * mes + i);
+				}
+			}
+		}
+
+		HistoricoPlanoContas historico = HistoricoPlanoContas.emMemoria();
+		historico.arquivaAno(2019, plano);
+		historico.aplicaAnoPassado(plano, 2019);
+		for(Rubrica rubrica : plano.getRubricas().values()) {
+			for(int mes = 1; mes <= 6; mes++) {
+				assertEquals(rubrica.somaRealizadosSubrubricas(mes), rubrica.getValorAnoPassadoOuZero(mes), 1e-9);
+			}
+			for(int mes = 7; mes <= 12; mes++) {
+				assertFalse(rubrica.temValorAnoPassado(mes));
+			}
+			assertEquals(rubrica.somaRealizadosSubrubricas(1, 12), rubrica.somaAnoPassado(1, 12), 1e-6);
+		}
+		assertTrue(historico.getBytesCarregados() > 0);
+	}
+}
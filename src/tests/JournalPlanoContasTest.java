@@ -0,0 +1,126 @@
+package tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dominio.JournalPlanoContas;
+import dominio.PlanoContas;
+import negocios.AgentePrevisao;
+import negocios.GerenciadorArquivos;
+
+public class JournalPlanoContasTest {
+
+	private Path diretorio;
+
+	@Before
+	public void criaDiretorio() throws IOException {
+		diretorio = Files.createTempDirectory("journalPlano");
+	}
+
+	@After
+	public void apagaDiretorio() throws IOException {
+		try(DirectoryStream<Path> arquivos = Files.newDirectoryStream(diretorio)) {
+			for(Path arquivo : arquivos) {
+				Files.delete(arquivo);
+			}
+		}
+		Files.delete(diretorio);
+	}
+
+	private PlanoContas novoPlano() throws IOException {
+		PlanoContas plano = new PlanoContas();
+		plano.setRubricas(new GerenciadorArquivos().lerOrcamentoInicial("Modelo_Controle_Orcamentario_Completo.csv"));
+		plano.setDataCongelamento(LocalDate.now().plusYears(1));
+		return plano;
+	}
+
+	/**
+	 * Partição:  Previsões e realizados registrados no journal são recuperados em um novo plano? 
+	 * Opções de resposta: 
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void recuperaAlteracoes() throws IOException {
+		PlanoContas plano = novoPlano();
+		JournalPlanoContas journal = JournalPlanoContas.abre(plano, diretorio);
+		AgentePrevisao agente = new AgentePrevisao(plano);
+		agente.previsaoValorFixo(104, 1000, 1);
+		agente.previsaoValorFixo(104, 1500, 1);
+		agente.previsaoPorcentagem(119, 1.2, 2);
+		plano.getRubricas().get(105).setValorRealizado(3, 77);
+		journal.sincroniza();
+		assertEquals(4, journal.getRegistrosDuraveis());
+		journal.close();
+
+		PlanoContas recuperado = novoPlano();
+		JournalPlanoContas.abre(recuperado, diretorio).close();
+		assertEquals(1500, recuperado.getRubricas().get(104).getValorPrevisto(1), 0.00001);
+		assertEquals(plano.getRubricas().get(119).getValorPrevisto(2), recuperado.getRubricas().get(119).getValorPrevisto(2));
+		assertEquals(77, recuperado.getRubricas().get(105).getValorRealizado(3), 0.00001);
+		assertNull(recuperado.getRubricas().get(105).getValorPrevisto(3));
+		assertTrue(recuperado.verificaConsistenciaSomas());
+	}
+
+	/**
+	 * Partição:  Recuperação usa o checkpoint mais as alterações feitas depois dele? 
+	 * Opções de resposta: 
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void recuperaCheckpointMaisJournal() throws IOException {
+		PlanoContas plano = novoPlano();
+		JournalPlanoContas journal = JournalPlanoContas.abre(plano, diretorio);
+		plano.getRubricas().get(104).setValorPrevisto(5, 10);
+		journal.checkpoint();
+		plano.getRubricas().get(104).setValorPrevisto(6, 20);
+		journal.close();
+
+		//O checkpoint substitui o plano inteiro, inclusive a data de congelamento
+		PlanoContas recuperado = new PlanoContas();
+		JournalPlanoContas.abre(recuperado, diretorio).close();
+		assertEquals(plano.getRubricas().size(), recuperado.getRubricas().size());
+		assertEquals(plano.getDataCongelamento(), recuperado.getDataCongelamento());
+		assertEquals(10, recuperado.getRubricas().get(104).getValorPrevisto(5), 0.00001);
+		assertEquals(20, recuperado.getRubricas().get(104).getValorPrevisto(6), 0.00001);
+	}
+
+	/**
+	 * Partição:  Registro incompleto no fim do journal (gravação interrompida) é ignorado? 
+	 * Opções de resposta: 
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void ignoraRegistroIncompleto() throws IOException {
+		PlanoContas plano = novoPlano();
+		JournalPlanoContas journal = JournalPlanoContas.abre(plano, diretorio);
+		plano.getRubricas().get(104).setValorPrevisto(7, 33);
+		journal.close();
+
+		Path arquivo = diretorio.resolve("journal-" + journal.getGeracao() + ".log");
+		try(FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.APPEND)) {
+			canal.write(ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5, 6, 7}));
+		}
+
+		PlanoContas recuperado = novoPlano();
+		JournalPlanoContas novo = JournalPlanoContas.abre(recuperado, diretorio);
+		assertEquals(33, recuperado.getRubricas().get(104).getValorPrevisto(7), 0.00001);
+		//As novas alterações vão para uma nova geração, não depois do registro incompleto
+		assertTrue(novo.getGeracao() > journal.getGeracao());
+		novo.close();
+	}
+}
@@ -0,0 +1,161 @@
+package tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import util.KernelMeses;
+
+public class KernelMesesTest {
+
+	private static final int CONTAS = 1003;
+
+	private Double[][] valoresPorConta;
+	private double[][] meses;
+
+	@Before
+	public void geraValores() {
+		Random aleatorio = new Random(42);
+		valoresPorConta = new Double[CONTAS][12];
+		meses = new double[12][CONTAS];
+		for(int conta = 0; conta < CONTAS; conta++) {
+			for(int mes = 0; mes < 12; mes++) {
+				//Meses sem valor ficam zerados nas colunas, como no CuboPlanoContas
+				valoresPorConta[conta][mes] = aleatorio.nextInt(10) == 0 ? null : Math.round(aleatorio.nextDouble() * 100000) / 100.0;
+				meses[mes][conta] = valoresPorConta[conta][mes] == null ? 0.0 : valoresPorConta[conta][mes];
+			}
+		}
+	}
+
+	private static double soma(Double[] valores, int mesInicial, int mesFinal) {
+		double soma = 0;
+		for(int mes = mesInicial; mes <= mesFinal; mes++) {
+			if(valores[mes - 1] != null) {
+				soma += valores[mes - 1];
+			}
+		}
+		return soma;
+	}
+
+	/**
+	 * Partição:  A soma das colunas em um intervalo bate com o laço sobre os arrays de Double?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void somaIntervaloIgualAoLacoBoxed() {
+		double[] somas = new double[CONTAS];
+		KernelMeses.somaIntervalo(meses, 3, 10, somas, CONTAS);
+		for(int conta = 0; conta < CONTAS; conta++) {
+			assertEquals(soma(valoresPorConta[conta], 3, 10), somas[conta], 1e-9);
+		}
+
+		KernelMeses.somaIntervalo(meses, 7, 7, somas, CONTAS);
+		assertArrayEquals(meses[6], somas, 0.0);
+	}
+
+	/**
+	 * Partição:  A soma pode ser feita na coluna do mês inicial, sem alterar as outras?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void somaIntervaloNaColunaInicial() {
+		double[] marco = meses[2].clone();
+		KernelMeses.somaIntervalo(meses, 1, 12, meses[0], CONTAS);
+		for(int conta = 0; conta < CONTAS; conta++) {
+			assertEquals(soma(valoresPorConta[conta], 1, 12), meses[0][conta], 1e-9);
+		}
+		assertArrayEquals(marco, meses[2], 0.0);
+	}
+
+	/**
+	 * Partição:  Meses sem valor (NaN) são ignorados na soma e na contagem de meses com valor?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void somaIntervaloIgnorandoNulos() {
+		double[][] mascarados = new double[12][CONTAS];
+		for(int conta = 0; conta < CONTAS; conta++) {
+			for(int mes = 0; mes < 12; mes++) {
+				mascarados[mes][conta] = valoresPorConta[conta][mes] == null ? Double.NaN : valoresPorConta[conta][mes];
+			}
+		}
+		double[] somas = new double[CONTAS];
+		int[] presentes = new int[CONTAS];
+		KernelMeses.somaIntervaloIgnorandoNulos(mascarados, 2, 11, somas, presentes, CONTAS);
+		int ausentes = 0;
+		for(int conta = 0; conta < CONTAS; conta++) {
+			assertEquals(soma(valoresPorConta[conta], 2, 11), somas[conta], 1e-9);
+			int comValor = 0;
+			for(int mes = 2; mes <= 11; mes++) {
+				comValor += valoresPorConta[conta][mes - 1] == null ? 0 : 1;
+			}
+			assertEquals(comValor, presentes[conta]);
+			ausentes += 10 - comValor;
+		}
+		assertTrue(ausentes > 0);
+
+		//Sem contagem, e com lixo de uma soma anterior no destino
+		KernelMeses.somaIntervaloIgnorandoNulos(mascarados, 2, 11, somas, null, CONTAS);
+		assertEquals(soma(valoresPorConta[0], 2, 11), somas[0], 1e-9);
+
+		double[][] todosNulos = new double[12][1];
+		for(double[] coluna : todosNulos) {
+			coluna[0] = Double.NaN;
+		}
+		KernelMeses.somaIntervaloIgnorandoNulos(todosNulos, 1, 12, somas, presentes, 1);
+		assertEquals(0.0, somas[0], 0.0);
+		assertEquals(0, presentes[0]);
+	}
+
+	/**
+	 * Partição:  Variação e porcentagem seguem as regras da análise comparativa, inclusive com previsto zero?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void variacaoEPorcentagem() {
+		double[] previsto = {100, 0, 0, -50, 200};
+		double[] realizado = {120, 30, 0, -25, 150};
+		double[] variacao = new double[5];
+		double[] porcentagem = new double[5];
+		KernelMeses.variacao(previsto, realizado, variacao, 5);
+		KernelMeses.porcentagem(previsto, variacao, porcentagem, 5);
+
+		assertArrayEquals(new double[] {-20, -30, 0, -25, 50}, variacao, 0.0);
+		//Previsto zero dá porcentagem 0, e não infinito ou NaN
+		assertArrayEquals(new double[] {-20, 0, 0, 50, 25}, porcentagem, 1e-12);
+
+		//Só as n primeiras posições são calculadas
+		KernelMeses.variacao(previsto, realizado, variacao = new double[5], 2);
+		assertArrayEquals(new double[] {-20, -30, 0, 0, 0}, variacao, 0.0);
+	}
+
+	/**
+	 * Partição:  Intervalo de meses inválido?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void intervaloInvalido() {
+		int[][] intervalos = {{0, 3}, {5, 13}, {8, 4}};
+		for(int[] intervalo : intervalos) {
+			try {
+				KernelMeses.somaIntervalo(meses, intervalo[0], intervalo[1], new double[CONTAS], CONTAS);
+				fail("Intervalo " + intervalo[0] + "-" + intervalo[1] + " aceito");
+			}catch(IllegalArgumentException e) {
+				assertEquals("Intervalo de meses inválido " + intervalo[0] + "-" + intervalo[1], e.getMessage());
+			}
+		}
+	}
+}
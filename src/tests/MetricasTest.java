@@ -0,0 +1,97 @@
+package tests;
+
+import static org.junit.Assert.*;
+
+import java.io.FileNotFoundException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dominio.PlanoContas;
+import facade.GerenciadorFacade;
+import util.CategoriaMes;
+import util.Metricas;
+
+public class MetricasTest {
+
+	@Before
+	public void zeraMetricas() {
+		Metricas.zera();
+	}
+
+	@After
+	public void desativaMetricas() {
+		Metricas.desativa();
+		Metricas.paraLogPeriodico();
+		Metricas.zera();
+	}
+
+	/**
+	 * Partição:  Métricas desativadas ficam zeradas durante a leitura e as previsões?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void desativadasNaoRegistram() throws FileNotFoundException {
+		GerenciadorFacade facade = new GerenciadorFacade(new PlanoContas());
+		facade.lerOrcamentoInicial("Modelo_Controle_Orcamentario_Completo.csv");
+		facade.getPlanoContas().getRubricas().values().iterator().next().setValorPrevisto(1, 10);
+
+		assertEquals(0, Metricas.contador("orcamento_linhas_lidas_total", "").getValor());
+		assertEquals(0, Metricas.contador("rubrica_propagacoes_total", "").getValor());
+		assertEquals(0, Metricas.temporizador("orcamento_leitura_segundos", "").getContagem());
+		assertEquals("Métricas:", Metricas.resumo());
+	}
+
+	/**
+	 * Partição:  Leitura do orçamento e análise comparativa aparecem no texto do Prometheus?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void exportaPrometheus() throws FileNotFoundException {
+		GerenciadorFacade facade = new GerenciadorFacade(new PlanoContas());
+		facade.ativaMetricas(0);
+		facade.lerOrcamentoInicial("Modelo_Controle_Orcamentario_Completo.csv");
+		int rubricas = facade.getPlanoContas().getRubricas().size();
+		facade.calculaAnalise(CategoriaMes.JANEIRO, CategoriaMes.DEZEMBRO);
+
+		assertEquals(rubricas, Metricas.contador("orcamento_linhas_lidas_total", "").getValor());
+		assertEquals(1, Metricas.temporizador("orcamento_leitura_segundos", "").getContagem());
+		assertTrue(Metricas.contador("formulas_avaliadas_total", "").getValor() > 0);
+
+		String texto = Metricas.textoPrometheus();
+		assertTrue(texto.contains("# TYPE planocontas_orcamento_linhas_lidas_total counter\nplanocontas_orcamento_linhas_lidas_total " + rubricas + "\n"));
+		assertTrue(texto.contains("# TYPE planocontas_orcamento_leitura_segundos histogram\n"));
+		assertTrue(texto.contains("planocontas_orcamento_leitura_segundos_bucket{le=\"+Inf\"} 1\n"));
+		assertTrue(texto.contains("planocontas_orcamento_leitura_segundos_count 1\n"));
+		assertTrue(texto.contains("planocontas_plano_rubricas " + rubricas + "\n"));
+		assertTrue(Metricas.resumo().contains("orcamento_linhas_lidas_total=" + rubricas + " ("));
+	}
+
+	/**
+	 * Partição:  Percentis do histograma ficam dentro do intervalo de onde caem?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void percentisDoHistograma() {
+		Metricas.Histograma histograma = Metricas.histograma("teste_histograma", "Histograma de teste", 1, 10000);
+		assertTrue(Double.isNaN(histograma.getPercentil(50)));
+		Metricas.ativa();
+		for(int valor = 1; valor <= 1000; valor++) {
+			histograma.registra(valor);
+		}
+
+		assertEquals(1000, histograma.getContagem());
+		assertEquals(500500, histograma.getSoma(), 0.0);
+		//Intervalos 200-500 e 500-1000
+		assertTrue(histograma.getPercentil(50) > 200 && histograma.getPercentil(50) <= 500);
+		assertTrue(histograma.getPercentil(99) > 500 && histograma.getPercentil(99) <= 1000);
+		assertTrue(histograma.getPercentil(50) < histograma.getPercentil(90));
+	}
+}
@@ -1,8 +1,100 @@
 package tests;
 
+import static org.junit.Assert.*;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import dominio.PlanoContas;
+import dominio.Rubrica;
+import facade.GerenciadorFacade;
 
 public class PlanoContasTest {
 	
      //Não há necessidade de testar getters e setters
 
+	private static final int ESCRITORES = 8;
+	private static final int ALTERACOES_POR_ESCRITOR = 2000;
+	
+	private PlanoContas planoContas;
+	
+	@Before
+	public void createPlanoContas() throws FileNotFoundException {
+		planoContas = new PlanoContas();
+		new GerenciadorFacade(planoContas).lerOrcamentoInicial("Modelo_Controle_Orcamentario_Completo.csv");
+		planoContas.ativaModoConcorrente(8);
+	}
+	
+	/**
+	 * Partição: Com vários escritores simultâneos, as somas continuam corretas e os leitores
+	 * consistentes sempre enxergam as somas batendo com as folhas?
+	 * Opções de resposta: Sim Não
+	 */
+	@Test
+	public void escritoresConcorrentesMantemSomasConsistentes() throws Exception {
+		final List<Integer> folhas = new ArrayList<Integer>();
+		for(Rubrica rubrica : planoContas.getRubricas().values()) {
+			if(rubrica.getSubRubricas().isEmpty()) {
+				folhas.add(rubrica.getCodigo());
+			}
+		}
+		
+		final AtomicBoolean escrevendo = new AtomicBoolean(true);
+		ExecutorService executor = Executors.newFixedThreadPool(ESCRITORES + 1);
+		try {
+			Future<Integer> leitor = executor.submit(() -> {
+				int leituras = 0;
+				while(escrevendo.get()) {
+					assertTrue(planoContas.leConsistente(() -> planoContas.verificaConsistenciaSomas()));
+					leituras++;
+				}
+				return leituras;
+			});
+			
+			List<Future<?>> escritores = new ArrayList<Future<?>>();
+			for(int i = 0; i < ESCRITORES; i++) {
+				final Random aleatorio = new Random(i);
+				escritores.add(executor.submit(() -> {
+					for(int j = 0; j < ALTERACOES_POR_ESCRITOR; j++) {
+						int codigo = folhas.get(aleatorio.nextInt(folhas.size()));
+						assertTrue(planoContas.atualiza(codigo, rubrica -> rubrica.setValorPrevisto(1, rubrica.getValorPrevistoOuZero(1) + 1)));
+					}
+				}));
+			}
+			for(Future<?> escritor : escritores) {
+				escritor.get();
+			}
+			escrevendo.set(false);
+			assertTrue(leitor.get() > 0);
+		}finally {
+			executor.shutdown();
+		}
+		
+		double total = 0;
+		for(Rubrica rubrica : planoContas.getRubricas().values()) {
+			if(rubrica.getPai() == null) {
+				total += rubrica.somaPrevistosSubrubricas(1);
+			}
+		}
+		assertEquals(ESCRITORES * ALTERACOES_POR_ESCRITOR, total, 0.0);
+		assertTrue(planoContas.verificaConsistenciaSomas());
+	}
+	
+	/**
+	 * Partição: Atualizar uma rúbrica que não existe altera algo?
+	 * Opções de resposta: Sim Não
+	 */
+	@Test
+	public void atualizaCodigoInexistente() {
+		assertFalse(planoContas.atualiza(-1, rubrica -> fail()));
+	}
 }
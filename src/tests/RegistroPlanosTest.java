@@ -0,0 +1,152 @@
+package tests;
+
+import static org.junit.Assert.*;
+
+import java.io.FileNotFoundException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import dominio.PlanoContas;
+import dominio.RegistroPlanos;
+import facade.GerenciadorFacade;
+import negocios.AgenteAnaliseComparativa;
+import util.CategoriaMes;
+
+public class RegistroPlanosTest {
+
+	private RegistroPlanos registro;
+	private AtomicInteger carregamentos;
+
+	@Before
+	public void createRegistro() {
+		registro = new RegistroPlanos(0);
+		carregamentos = new AtomicInteger();
+	}
+
+	private PlanoContas carregaPlano(String empresa) {
+		carregamentos.incrementAndGet();
+		PlanoContas plano = new PlanoContas();
+		try {
+			new GerenciadorFacade(plano).lerOrcamentoInicial("Modelo_Controle_Orcamentario_Completo.csv");
+		}catch(FileNotFoundException e) {
+			throw new UncheckedIOException(e);
+		}
+		plano.setDataCongelamento(LocalDate.now().plusYears(1));
+		return plano;
+	}
+
+	/**
+	 * Partição: Planos de empresas diferentes são independentes entre si e do plano do sistema?
+	 * Opções de resposta: Sim Não
+	 */
+	@Test
+	public void planosDeEmpresasSaoIndependentes() {
+		registro.registra("matriz", carregaPlano("matriz"));
+		registro.registra("filial", carregaPlano("filial"));
+
+		PlanoContas matriz = registro.getPlano("matriz");
+		PlanoContas filial = registro.getPlano("filial");
+		assertNotSame(matriz, filial);
+		assertNotSame(PlanoContas.getInstance(), matriz);
+
+		filial.setDataCongelamento(LocalDate.of(2000, 1, 1));
+		assertNotEquals(matriz.getDataCongelamento(), filial.getDataCongelamento());
+
+		new GerenciadorFacade(matriz).geraPrevisao(1, 104, 500, 1);
+		assertEquals(500.0, matriz.getRubricas().get(104).getValorPrevisto(1), 0.0);
+		assertFalse(filial.getRubricas().get(104).temValorPrevisto(1));
+
+		assertNotSame(matriz.getFormulas(), filial.getFormulas());
+		Double[] valoresMatriz = AgenteAnaliseComparativa.getValoresPrevistosRealizadosRubricaEspecial(matriz, 1, CategoriaMes.JANEIRO, CategoriaMes.JANEIRO);
+		Double[] valoresFilial = AgenteAnaliseComparativa.getValoresPrevistosRealizadosRubricaEspecial(filial, 1, CategoriaMes.JANEIRO, CategoriaMes.JANEIRO);
+		assertEquals(500.0, valoresMatriz[0], 0.0);
+		assertEquals(0.0, valoresFilial[0], 0.0);
+	}
+
+	/**
+	 * Partição: O carregador só é chamado quando o plano é pedido, e uma única vez mesmo com acessos concorrentes?
+	 * Opções de resposta: Sim Não
+	 */
+	@Test
+	public void carregadorChamadoUmaVezSobDemanda() throws InterruptedException {
+		registro = new RegistroPlanos();
+		registro.registra("filial", this::carregaPlano);
+		assertFalse(registro.isCarregado("filial"));
+		assertEquals(0, carregamentos.get());
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			for(int i = 0; i < 32; i++) {
+				executor.submit(() -> registro.getPlano("filial"));
+			}
+		}finally {
+			executor.shutdown();
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		assertEquals(1, carregamentos.get());
+		assertTrue(registro.isCarregado("filial"));
+	}
+
+	/**
+	 * Partição: As tarefas são executadas no plano de cada empresa, com resultado por empresa?
+	 * Opções de resposta: Sim Não
+	 */
+	@Test
+	public void executaEmTodasAsEmpresas() throws InterruptedException {
+		for(int i = 0; i < 6; i++) {
+			registro.registra("empresa" + i, this::carregaPlano);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			Map<String, Integer> resultados = registro.executaEmTodas(plano -> {
+				AgenteAnaliseComparativa agente = new AgenteAnaliseComparativa(plano);
+				return agente.calculaAnaliseComparativa(CategoriaMes.JANEIRO, CategoriaMes.DEZEMBRO).size();
+			}, executor);
+			assertEquals(registro.getEmpresas(), resultados.keySet());
+			for(int tamanho : resultados.values()) {
+				assertEquals(registro.getPlano("empresa0").getRubricas().size(), tamanho);
+			}
+		}finally {
+			executor.shutdown();
+		}
+		assertEquals(6, carregamentos.get());
+	}
+
+	/**
+	 * Partição: Planos ociosos só são liberados se puderem ser recarregados?
+	 * Opções de resposta: Sim Não
+	 */
+	@Test
+	public void liberaSomentePlanosComCarregador() {
+		registro.registra("fixa", carregaPlano("fixa"));
+		registro.registra("sobDemanda", this::carregaPlano);
+		registro.getPlano("sobDemanda");
+
+		assertEquals(1, registro.liberaOciosos());
+		assertTrue(registro.isCarregado("fixa"));
+		assertNotNull(registro.getPlano("sobDemanda"));
+	}
+
+	/**
+	 * Partição: Registrar uma empresa já registrada ou pedir uma empresa não registrada gera erro?
+	 * Opções de resposta: Sim Não
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void empresaDuplicada() {
+		registro.registra("matriz", new PlanoContas());
+		registro.registra("matriz", new PlanoContas());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void empresaNaoRegistrada() {
+		registro.getPlano("inexistente");
+	}
+}
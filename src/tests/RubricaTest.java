@@ -3,6 +3,7 @@ package tests;
 import static org.junit.Assert.*;
 
 import java.io.FileNotFoundException;
+import java.lang.reflect.Field;
 import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
@@ -86,4 +87,275 @@ public class RubricaTest {
 		assertEquals(subrubricasDa103.contains(subrubricaAdicionada), true);
 
 	}
+	
+	/**
+	 * Partição: Somas das subrúbricas mantidas a cada alteração são iguais ao recálculo completo? 
+	 * Opções de resposta: 
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void somasMantidasIguaisAoRecalculo() throws ReflectiveOperationException {
+		Rubrica avo = new Rubrica(null, "avo", 1, CategoriaRubrica.DESPESA, null);
+		Rubrica mae = new Rubrica(null, "mae", 2, CategoriaRubrica.DESPESA, null);
+		Rubrica filha = new Rubrica(null, "filha", 3, CategoriaRubrica.DESPESA, null);
+		avo.addSubRubrica(mae);
+		mae.setValorPrevisto(1, 50);
+		assertEquals(50.0, avo.somaPrevistosSubrubricas(1), 0.00001);
+		
+		//Ao ganhar uma filha, a mãe deixa de somar o próprio valor
+		mae.addSubRubrica(filha);
+		filha.setValorPrevisto(1, 100);
+		filha.setValorPrevisto(1, 150);
+		filha.setValorRealizado(12, 30);
+		
+		assertEquals(150.0, avo.somaPrevistosSubrubricas(1), 0.00001);
+		assertEquals(30.0, avo.somaRealizadosSubrubricas(12), 0.00001);
+		assertEquals(avo.recalculaPrevistosSubrubricas(1), avo.somaPrevistosSubrubricas(1), 0.00001);
+		assertTrue(avo.verificaConsistenciaSomas());
+		
+		Rubrica.setVerificacaoConsistencia(true);
+		try {
+			assertEquals(150.0, avo.somaValoresPrevistosSubrubricas(1), 0.00001);
+			//A lista de subrúbricas só muda por addSubRubrica e removeSubRubrica
+			try {
+				filha.getSubRubricas().add(new Rubrica(filha, "neta", 4, CategoriaRubrica.DESPESA, null));
+				fail();
+			}catch(UnsupportedOperationException e) {
+				assertTrue(filha.getSubRubricas().isEmpty());
+			}
+			//Uma soma mantida corrompida é detectada
+			Field somas = Rubrica.class.getDeclaredField("somas");
+			somas.setAccessible(true);
+			((double[]) somas.get(avo))[0] += 1;
+			assertFalse(avo.verificaConsistenciaSomas());
+			try {
+				avo.somaPrevistosSubrubricas(1);
+				fail();
+			}catch(IllegalStateException e) {
+				avo.recalculaSomas();
+				assertTrue(avo.verificaConsistenciaSomas());
+			}
+		}finally {
+			Rubrica.setVerificacaoConsistencia(false);
+		}
+	}
+	
+	/**
+	 * Partição: Somas continuam consistentes ao adicionar, mudar de pai e remover subrúbricas com valores?
+	 * Opções de resposta: 
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void somasConsistentesAoMudarHierarquia() {
+		Rubrica raizA = new Rubrica(null, "raizA", 1, CategoriaRubrica.DESPESA, null);
+		Rubrica raizB = new Rubrica(null, "raizB", 2, CategoriaRubrica.DESPESA, null);
+		Rubrica grupo = new Rubrica(null, "grupo", 3, CategoriaRubrica.DESPESA, null);
+		Rubrica folha1 = new Rubrica(null, "folha1", 4, CategoriaRubrica.DESPESA, null);
+		Rubrica folha2 = new Rubrica(null, "folha2", 5, CategoriaRubrica.DESPESA, null);
+		raizB.setValorPrevisto(1, 7);
+		
+		//Adição
+		raizA.addSubRubrica(grupo);
+		grupo.addSubRubrica(folha1);
+		grupo.addSubRubrica(folha2);
+		folha1.setValorPrevisto(1, 100);
+		folha1.setValorRealizado(3, 40);
+		folha2.setValorPrevisto(1, 10);
+		assertEquals(110.0, raizA.somaPrevistosSubrubricas(1), 0.00001);
+		assertTrue(raizA.verificaConsistenciaSomas());
+		
+		//Mudança de pai: o grupo sai das somas da raizA e entra nas da raizB, que deixa de somar o próprio valor
+		raizB.addSubRubrica(grupo);
+		assertSame(raizB, grupo.getPai());
+		assertTrue(raizA.getSubRubricas().isEmpty());
+		assertEquals(1, raizB.getSubRubricas().size());
+		assertEquals(0.0, raizA.somaPrevistosSubrubricas(1), 0.00001);
+		assertEquals(110.0, raizB.somaPrevistosSubrubricas(1), 0.00001);
+		assertEquals(40.0, raizB.somaRealizadosSubrubricas(1, 12), 0.00001);
+		assertTrue(raizA.verificaConsistenciaSomas());
+		assertTrue(raizB.verificaConsistenciaSomas());
+		
+		//Mudança de pai dentro da mesma árvore
+		raizB.addSubRubrica(folha1);
+		assertEquals(2, raizB.getSubRubricas().size());
+		assertEquals(10.0, grupo.somaPrevistosSubrubricas(1), 0.00001);
+		assertEquals(110.0, raizB.somaPrevistosSubrubricas(1), 0.00001);
+		assertTrue(raizB.verificaConsistenciaSomas());
+		
+		//Remoção: sem subrúbricas, o grupo volta a somar o próprio valor
+		grupo.setValorPrevisto(1, 3);
+		assertTrue(grupo.removeSubRubrica(folha2));
+		assertNull(folha2.getPai());
+		assertEquals(3.0, grupo.somaPrevistosSubrubricas(1), 0.00001);
+		assertEquals(103.0, raizB.somaPrevistosSubrubricas(1), 0.00001);
+		assertTrue(raizB.verificaConsistenciaSomas());
+		assertFalse(grupo.removeSubRubrica(folha2));
+		assertEquals(103.0, raizB.somaPrevistosSubrubricas(1), 0.00001);
+		
+		folha2.setValorPrevisto(1, 20);
+		assertEquals(103.0, raizB.somaPrevistosSubrubricas(1), 0.00001);
+		assertTrue(raizB.verificaConsistenciaSomas());
+	}
+	
+	/**
+	 * Partição: Somas do plano de contas lido do arquivo estão consistentes? 
+	 * Opções de resposta: 
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void somasDoPlanoConsistentes() {
+		for(Rubrica rubrica : planoContas.getRubricas().values()) {
+			if(rubrica.getSubRubricas().isEmpty()) {
+				rubrica.setValorPrevisto(3, rubrica.getCodigo());
+			}
+		}
+		assertTrue(planoContas.verificaConsistenciaSomas());
+	}
+	
+	/**
+	 * Partição: Somas de intervalos de meses pelas somas acumuladas são iguais à soma mês a mês? 
+	 * Opções de resposta: 
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void somasIntervaloIguaisSomaMensal() {
+		Double[] anoPassado = new Double[12];
+		for(int i = 0; i < 12; i++) {
+			anoPassado[i] = 10.0 * (i + 1);
+		}
+		Rubrica mae = new Rubrica(null, "mae", 1, CategoriaRubrica.RECEITA, anoPassado);
+		Rubrica filha1 = new Rubrica(null, "filha1", 2, CategoriaRubrica.RECEITA, null);
+		Rubrica filha2 = new Rubrica(null, "filha2", 3, CategoriaRubrica.RECEITA, null);
+		mae.addSubRubrica(filha1);
+		for(int mes = 1; mes <= 12; mes++) {
+			filha1.setValorPrevisto(mes, mes * 1.5);
+			filha1.setValorRealizado(mes, mes);
+		}
+		mae.addSubRubrica(filha2);
+		filha2.setValorPrevisto(4, 100);
+		filha1.setValorPrevisto(4, 7);
+		
+		for(int inicio = 1; inicio <= 12; inicio++) {
+			for(int fim = inicio; fim <= 12; fim++) {
+				double previstos = 0, realizados = 0, anterior = 0;
+				for(int mes = inicio; mes <= fim; mes++) {
+					previstos += mae.somaPrevistosSubrubricas(mes);
+					realizados += mae.somaRealizadosSubrubricas(mes);
+					anterior += mae.getvalorAnoPassado(mes);
+				}
+				assertEquals(previstos, mae.somaPrevistosSubrubricas(inicio, fim), 0.00001);
+				assertEquals(realizados, mae.somaRealizadosSubrubricas(inicio, fim), 0.00001);
+				assertEquals(anterior, mae.somaAnoPassado(inicio, fim), 0.00001);
+			}
+		}
+		assertEquals(0.0, mae.somaPrevistosSubrubricas(5, 4), 0.00001);
+		assertTrue(mae.verificaConsistenciaSomas());
+	}
+	
+	/**
+	 * Partição: Valor ausente é diferente de valor zero? 
+	 * Opções de resposta: 
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void valoresAusentesDiferentesDeZero() {
+		Double[] anoPassado = new Double[12];
+		anoPassado[0] = 0.0;
+		anoPassado[11] = 120.0;
+		Rubrica rubrica = new Rubrica(null, "folha", 1, CategoriaRubrica.DESPESA, anoPassado);
+		
+		assertTrue(rubrica.temValorAnoPassado(1));
+		assertEquals(0.0, rubrica.getvalorAnoPassado(1), 0.0);
+		assertEquals(120.0, rubrica.getvalorAnoPassado(12), 0.0);
+		assertFalse(rubrica.temValorAnoPassado(2));
+		assertEquals(0.0, rubrica.getValorAnoPassadoOuZero(2), 0.0);
+		try {
+			rubrica.getvalorAnoPassado(2);
+			fail();
+		}catch(NullPointerException e) {
+			assertEquals("Rúbrica 1 sem valor do ano passado no mês 2", e.getMessage());
+		}
+		
+		for(int mes = 1; mes <= 12; mes++) {
+			assertNull(rubrica.getValorPrevisto(mes));
+			assertNull(rubrica.getValorRealizado(mes));
+			assertFalse(rubrica.temValorPrevisto(mes));
+			assertFalse(rubrica.temValorRealizado(mes));
+			assertEquals(0.0, rubrica.getValorPrevistoOuZero(mes), 0.0);
+			assertEquals(0.0, rubrica.getValorRealizadoOuZero(mes), 0.0);
+		}
+		
+		rubrica.setValorPrevisto(5, 0.0);
+		rubrica.setValorRealizado(5, -30.5);
+		assertTrue(rubrica.temValorPrevisto(5));
+		assertEquals(Double.valueOf(0.0), rubrica.getValorPrevisto(5));
+		assertEquals(Double.valueOf(-30.5), rubrica.getValorRealizado(5));
+		assertEquals(-30.5, rubrica.getValorRealizadoOuZero(5), 0.0);
+		assertFalse(rubrica.temValorPrevisto(4));
+		assertFalse(rubrica.temValorPrevisto(6));
+		
+		//Sem ano passado nenhum mês tem valor
+		Rubrica semAnoPassado = new Rubrica(null, "nova", 2, CategoriaRubrica.DESPESA, null);
+		for(int mes = 1; mes <= 12; mes++) {
+			assertFalse(semAnoPassado.temValorAnoPassado(mes));
+		}
+	}
+	
+	/**
+	 * Partição: Ano passado, previstos e realizados do mesmo mês ficam separados no array de valores? 
+	 * Opções de resposta: 
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void valoresCompactadosSeparadosPorTipo() {
+		Double[] anoPassado = new Double[12];
+		for(int i = 0; i < 12; i++) {
+			anoPassado[i] = 1000.0 + i + 1;
+		}
+		Rubrica mae = new Rubrica(null, "mae", 1, CategoriaRubrica.RECEITA, null);
+		Rubrica filha = new Rubrica(mae, "filha", 2, CategoriaRubrica.RECEITA, anoPassado);
+		Rubrica semValores = new Rubrica(mae, "sem valores", 3, CategoriaRubrica.RECEITA, null);
+		mae.addSubRubrica(filha);
+		mae.addSubRubrica(semValores);
+		
+		//Meses das bordas de cada bloco de 12 valores
+		for(int mes : new int[] {1, 12}) {
+			filha.setValorPrevisto(mes, 2000.0 + mes);
+			filha.setValorRealizado(mes, 3000.0 + mes);
+		}
+		for(int mes = 1; mes <= 12; mes++) {
+			boolean borda = mes == 1 || mes == 12;
+			assertEquals(1000.0 + mes, filha.getvalorAnoPassado(mes), 0.0);
+			assertEquals(borda, filha.temValorPrevisto(mes));
+			assertEquals(borda, filha.temValorRealizado(mes));
+			assertEquals(borda ? 2000.0 + mes : 0.0, filha.getValorPrevistoOuZero(mes), 0.0);
+			assertEquals(borda ? 3000.0 + mes : 0.0, filha.getValorRealizadoOuZero(mes), 0.0);
+			
+			//Valores ausentes somam zero
+			assertEquals(borda ? 2000.0 + mes : 0.0, mae.somaPrevistosSubrubricas(mes), 0.0);
+			assertEquals(borda ? 3000.0 + mes : 0.0, mae.somaRealizadosSubrubricas(mes), 0.0);
+			assertEquals(Double.valueOf(mae.somaPrevistosSubrubricas(mes)), mae.somaValoresPrevistosSubrubricas(mes));
+			assertEquals(Double.valueOf(mae.somaRealizadosSubrubricas(mes)), mae.somaValoresRealizadosSubrubricas(mes));
+			assertEquals(0.0, semValores.somaPrevistosSubrubricas(mes), 0.0);
+			assertEquals(0.0, semValores.somaRealizadosSubrubricas(mes), 0.0);
+		}
+		
+		//Mês inválido não altera nenhum valor
+		filha.setValorPrevisto(13, 1.0);
+		filha.setValorRealizado(0, 1.0);
+		assertEquals(4013.0, mae.somaPrevistosSubrubricas(1, 12), 0.0);
+		assertEquals(6013.0, mae.somaRealizadosSubrubricas(1, 12), 0.0);
+		try {
+			filha.getValorPrevisto(13);
+			fail();
+		}catch(ArrayIndexOutOfBoundsException e) {
+		}
+		assertTrue(mae.verificaConsistenciaSomas());
+	}
 }
@@ -0,0 +1,194 @@
+package tests;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dominio.PlanoContas;
+import dominio.Rubrica;
+import facade.GerenciadorFacade;
+import ui.ServidorHTTP;
+
+public class ServidorHTTPTest {
+
+	private PlanoContas plano;
+	private ServidorHTTP servidor;
+
+	@Before
+	public void iniciaServidor() throws IOException {
+		plano = new PlanoContas();
+		servidor = new ServidorHTTP(new GerenciadorFacade(plano), 0, 16);
+		servidor.inicia();
+	}
+
+	@After
+	public void paraServidor() {
+		servidor.para();
+	}
+
+	/**
+	 * Partição:  Previsão feita pelo servidor aparece na rúbrica e na análise comparativa?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void previsaoPeloServidor() throws IOException {
+		Resposta orcamento = requisita("POST", "/orcamento", "arquivo=Modelo_Controle_Orcamentario_Completo.csv");
+		assertEquals(200, orcamento.status);
+		assertEquals("{\"rubricas\":" + plano.getRubricas().size() + "}", orcamento.corpo);
+		assertEquals(200, requisita("POST", "/congelamento", "data=" + LocalDate.now().plusYears(1)).status);
+
+		int folha = folha();
+		Resposta previsao = requisita("POST", "/previsoes", "tipo=fixo&codigo=" + folha + "&mes=3&valor=500");
+		assertEquals(previsao.corpo, 200, previsao.status);
+		assertEquals(500.0, plano.getRubricas().get(folha).getValorPrevistoOuZero(3), 0.0);
+
+		Resposta rubrica = requisita("GET", "/rubricas/" + folha, null);
+		assertEquals(200, rubrica.status);
+		assertTrue(rubrica.corpo, rubrica.corpo.contains("\"previsto\":[null,null,500.0,null"));
+
+		Resposta analise = requisita("GET", "/analise?inicio=3&fim=3", null);
+		assertEquals(200, analise.status);
+		assertTrue(analise.corpo.startsWith("[{\"codigo\":"));
+		assertTrue(analise.corpo.contains("{\"codigo\":" + folha + ",\"nome\":"));
+	}
+
+	/**
+	 * Partição:  Requisições inválidas são respondidas com o status e a mensagem do erro?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void requisicoesInvalidas() throws IOException {
+		assertEquals(404, requisita("POST", "/orcamento", "arquivo=arquivoInexistente.csv").status);
+		requisita("POST", "/orcamento", "arquivo=Modelo_Controle_Orcamentario_Completo.csv");
+
+		Resposta congelada = requisita("POST", "/previsoes", "tipo=fixo&codigo=" + folha() + "&mes=3&valor=500");
+		assertEquals(422, congelada.status);
+		assertTrue(congelada.corpo.contains("Data de congelamento atingida"));
+
+		Resposta mes = requisita("GET", "/analise?inicio=13&fim=12", null);
+		assertEquals(400, mes.status);
+		assertEquals("{\"erros\":[\"Mês inválido: 13\"]}", mes.corpo);
+		assertEquals(400, requisita("POST", "/previsoes", "tipo=fixo&codigo=abc&mes=3&valor=1").status);
+		assertEquals(404, requisita("GET", "/rubricas/999999999", null).status);
+		assertEquals(405, requisita("GET", "/previsoes", null).status);
+	}
+
+	/**
+	 * Partição:  Servidor aceita só conexões locais e recusa arquivos fora do diretório de dados?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void arquivosForaDoDiretorioDeDados() throws IOException {
+		assertTrue(servidor.getEndereco().getAddress().isLoopbackAddress());
+
+		String absoluto = new File("Modelo_Controle_Orcamentario_Completo.csv").getAbsolutePath();
+		assertEquals(200, requisita("POST", "/orcamento", "arquivo=" + URLEncoder.encode(absoluto, "UTF-8")).status);
+		assertEquals(200, requisita("POST", "/orcamento", "arquivo=src/../Modelo_Controle_Orcamentario_Completo.csv").status);
+
+		Resposta fora = requisita("POST", "/orcamento", "arquivo=../Modelo_Controle_Orcamentario_Completo.csv");
+		assertEquals(403, fora.status);
+		assertTrue(fora.corpo.contains("fora do diretório de dados"));
+		assertEquals(403, requisita("POST", "/orcamento", "arquivo=" + URLEncoder.encode(new File("/etc/passwd").getAbsolutePath(), "UTF-8")).status);
+		assertEquals(403, requisita("POST", "/realizados", "1=../../TemplateJaneiro.xls").status);
+	}
+
+	/**
+	 * Partição:  Previsões e leituras simultâneas de vários clientes são todas atendidas?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void clientesSimultaneos() throws Exception {
+		requisita("POST", "/orcamento", "arquivo=Modelo_Controle_Orcamentario_Completo.csv");
+		requisita("POST", "/congelamento", "data=" + LocalDate.now().plusYears(1));
+		int folha = folha();
+
+		ExecutorService clientes = Executors.newFixedThreadPool(64);
+		try {
+			List<Future<Integer>> status = new ArrayList<Future<Integer>>();
+			for(int i = 0; i < 1000; i++) {
+				final int mes = 1 + (i / 4) % 12;
+				final boolean escrita = i % 4 == 0;
+				status.add(clientes.submit(() -> escrita
+						? requisita("POST", "/previsoes", "tipo=fixo&codigo=" + folha + "&mes=" + mes + "&valor=" + mes).status
+						: requisita("GET", "/rubricas/" + folha, null).status));
+			}
+			for(Future<Integer> resposta : status) {
+				assertEquals(200, (int) resposta.get());
+			}
+		}finally {
+			clientes.shutdown();
+		}
+		for(int mes = 1; mes <= 12; mes++) {
+			assertEquals(mes, plano.getRubricas().get(folha).getValorPrevistoOuZero(mes), 0.0);
+		}
+		assertTrue(plano.verificaConsistenciaSomas());
+	}
+
+	private int folha() {
+		for(Rubrica rubrica : plano.getRubricas().values()) {
+			if(rubrica.getSubRubricas().isEmpty() && rubrica.getPai() != null) {
+				return rubrica.getCodigo();
+			}
+		}
+		throw new AssertionError("Plano sem folhas");
+	}
+
+	private Resposta requisita(String metodo, String caminho, String corpo) throws IOException {
+		HttpURLConnection conexao = (HttpURLConnection) new URL("http://localhost:" + servidor.getPorta() + caminho).openConnection();
+		conexao.setRequestMethod(metodo);
+		if(corpo != null) {
+			conexao.setDoOutput(true);
+			conexao.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+			try(OutputStream saida = conexao.getOutputStream()) {
+				saida.write(corpo.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		int status = conexao.getResponseCode();
+		InputStream entrada = status < 400 ? conexao.getInputStream() : conexao.getErrorStream();
+		ByteArrayOutputStream resposta = new ByteArrayOutputStream();
+		try(InputStream leitura = entrada) {
+			byte[] buffer = new byte[4096];
+			int lidos;
+			while((lidos = leitura.read(buffer)) >= 0) {
+				resposta.write(buffer, 0, lidos);
+			}
+		}
+		return new Resposta(status, new String(resposta.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	private static class Resposta {
+		final int status;
+		final String corpo;
+
+		Resposta(int status, String corpo) {
+			this.status = status;
+			this.corpo = corpo;
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dominio.PlanoContas;
+import dominio.Rubrica;
+import dominio.SnapshotPlanoContas;
+import negocios.AgentePrevisao;
+import negocios.GerenciadorArquivos;
+
+public class SnapshotPlanoContasTest {
+
+	private PlanoContas planoContas;
+	private Path arquivo;
+
+	@Before
+	public void createPlanoContas() throws IOException {
+		planoContas = new PlanoContas();
+		planoContas.setRubricas(new GerenciadorArquivos().lerOrcamentoInicial("Modelo_Controle_Orcamentario_Completo.csv"));
+		planoContas.setDataCongelamento(LocalDate.of(2030, 6, 15));
+		arquivo = Files.createTempFile("plano", ".snapshot");
+	}
+
+	@After
+	public void apagaArquivo() throws IOException {
+		Files.deleteIfExists(arquivo);
+	}
+
+	/**
+	 * Partição:  Plano restaurado do snapshot é igual ao plano gravado? 
+	 * Opções de resposta: 
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void restauraPlanoIgual() throws IOException {
+		AgentePrevisao agente = new AgentePrevisao(planoContas);
+		agente.previsaoPorcentagem(104, 1.1, 1);
+		agente.previsaoValorFixo(119, 1234.5, 7);
+		planoContas.getRubricas().get(105).setValorRealizado(3, 987);
+		Map<Integer, String> formulas = new HashMap<Integer, String>(planoContas.getRubricasEspeciais());
+		formulas.put(99, "[1] - 103");
+		planoContas.setRubricasEspeciais(formulas);
+
+		SnapshotPlanoContas.salva(planoContas, arquivo);
+		PlanoContas restaurado = SnapshotPlanoContas.carrega(arquivo);
+
+		assertEquals(planoContas.getDataCongelamento(), restaurado.getDataCongelamento());
+		assertEquals(planoContas.getRubricasEspeciais(), restaurado.getRubricasEspeciais());
+		assertEquals(planoContas.getRubricas().size(), restaurado.getRubricas().size());
+
+		Iterator<Rubrica> restauradas = restaurado.getRubricas().values().iterator();
+		for(Rubrica original : planoContas.getRubricas().values()) {
+			Rubrica copia = restauradas.next();
+			assertEquals(original.getCodigo(), copia.getCodigo());
+			assertEquals(original.getNome(), copia.getNome());
+			assertEquals(original.getClassificacao(), copia.getClassificacao());
+			assertEquals(original.getCategoria(), copia.getCategoria());
+			assertEquals(original.getPai() == null ? null : original.getPai().getCodigo(),
+					copia.getPai() == null ? null : copia.getPai().getCodigo());
+			assertEquals(original.getSubRubricas().size(), copia.getSubRubricas().size());
+			for(int mes = 1; mes <= 12; mes++) {
+				assertEquals(original.temValorAnoPassado(mes), copia.temValorAnoPassado(mes));
+				assertEquals(original.getValorPrevisto(mes), copia.getValorPrevisto(mes));
+				assertEquals(original.getValorRealizado(mes), copia.getValorRealizado(mes));
+				assertEquals(original.somaPrevistosSubrubricas(mes), copia.somaPrevistosSubrubricas(mes), 0.00001);
+			}
+			assertEquals(original.somaAnoPassado(1, 12), copia.somaAnoPassado(1, 12), 0.00001);
+		}
+		assertTrue(restaurado.verificaConsistenciaSomas());
+	}
+
+	/**
+	 * Partição:  Arquivo que não é snapshot é rejeitado sem alterar o plano? 
+	 * Opções de resposta: 
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void arquivoInvalidoNaoAlteraPlano() throws IOException {
+		Files.write(arquivo, "codigo,nome\n103,Receita".getBytes("UTF-8"));
+		Map<Integer, Rubrica> rubricas = planoContas.getRubricas();
+		try {
+			SnapshotPlanoContas.restaura(arquivo, planoContas);
+			fail();
+		}catch(IOException e) {
+			assertSame(rubricas, planoContas.getRubricas());
+		}
+	}
+
+	/**
+	 * Partição:  Snapshot truncado é rejeitado? 
+	 * Opções de resposta: 
+	 * Sim
+	 * Não
+	 */
+	@Test(expected = IOException.class)
+	public void snapshotTruncado() throws IOException {
+		SnapshotPlanoContas.salva(planoContas, arquivo);
+		byte[] bytes = Files.readAllBytes(arquivo);
+		Files.write(arquivo, Arrays.copyOf(bytes, bytes.length / 2));
+		SnapshotPlanoContas.carrega(arquivo);
+	}
+}
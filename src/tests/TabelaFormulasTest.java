@@ -0,0 +1,101 @@
+package tests;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import dominio.AvaliacaoFormulas;
+import dominio.FormulaRubrica;
+import dominio.Rubrica;
+import dominio.TabelaFormulas;
+import util.CategoriaRubrica;
+
+public class TabelaFormulasTest {
+
+	private Map<Integer, Rubrica> rubricas;
+
+	@Before
+	public void criaRubricas() {
+		rubricas = new LinkedHashMap<Integer, Rubrica>();
+		for(int codigo = 1; codigo <= 4; codigo++) {
+			Rubrica rubrica = new Rubrica(null, "rubrica " + codigo, codigo, CategoriaRubrica.DESPESA, null);
+			rubrica.setValorPrevisto(1, codigo * 100);
+			rubrica.setValorRealizado(1, codigo * 10);
+			rubricas.put(codigo, rubrica);
+		}
+	}
+
+	//===================interface-based tests:	===================//
+	/**
+	 * Partição:  Fórmula com sintaxe inválida gera exceção ao compilar?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void formulaInvalida() {
+		FormulaRubrica.compila(1, "2 + + ");
+	}
+
+	/**
+	 * Partição:  Ciclo entre fórmulas gera exceção ao compilar?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void cicloEntreFormulas() {
+		Map<Integer, String> especiais = new HashMap<Integer, String>();
+		especiais.put(10, "1 + [11]");
+		especiais.put(11, "2 - [12]");
+		especiais.put(12, "[10]");
+		TabelaFormulas.compila(especiais);
+	}
+
+	//===================functionality-based tests:	===================//
+	/**
+	 * Partição:  Operadores misturados, negação e parênteses são avaliados corretamente?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void operadoresMisturados() {
+		Map<Integer, String> especiais = new HashMap<Integer, String>();
+		especiais.put(10, "1 - 2 + 3");
+		especiais.put(11, "- 4");
+		especiais.put(12, "4 - (1 + 2)");
+		AvaliacaoFormulas avaliacao = TabelaFormulas.compila(especiais).avalia(rubricas, 1, 1);
+
+		assertArrayEquals(new double[] {200.0, 20.0}, avaliacao.getValores(10), 0.00001);
+		assertArrayEquals(new double[] {-400.0, -40.0}, avaliacao.getValores(11), 0.00001);
+		assertArrayEquals(new double[] {100.0, 10.0}, avaliacao.getValores(12), 0.00001);
+	}
+
+	/**
+	 * Partição:  Referências a outras fórmulas são avaliadas em ordem topológica?
+	 * Opções de resposta:
+	 * Sim
+	 * Não
+	 */
+	@Test
+	public void referenciasAOutrasFormulas() {
+		Map<Integer, String> especiais = new HashMap<Integer, String>();
+		especiais.put(13, "[12] - 4");
+		especiais.put(12, "[11] + 3");
+		especiais.put(11, "1 + 2");
+		TabelaFormulas tabela = TabelaFormulas.compila(especiais);
+
+		assertEquals(11, tabela.getOrdemAvaliacao().get(0).getCodigo());
+		assertEquals(13, tabela.getOrdemAvaliacao().get(2).getCodigo());
+
+		AvaliacaoFormulas avaliacao = tabela.avalia(rubricas, 1, 12);
+		avaliacao.avaliaTodas();
+		assertArrayEquals(new double[] {200.0, 20.0}, avaliacao.getValores(13), 0.00001);
+	}
+}
@@ -0,0 +1,601 @@
+package ui;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import dominio.PlanoContas;
+import dominio.Rubrica;
+import facade.GerenciadorFacade;
+import negocios.LinhaAnaliseComparativa;
+import negocios.LotePrevisao;
+import negocios.RelatorioImportacaoRealizado;
+import util.CategoriaMes;
+import util.Metricas;
+
+/**
+ *  Servidor HTTP embutido que expõe as operações do GerenciadorFacade como JSON, como alternativa
+ *  ao laço de console da UIFacade. Os parâmetros vêm da query string ou de um corpo
+ *  application/x-www-form-urlencoded:
+ *
+ *  POST /orcamento        arquivo=               lê o orçamento inicial
+ *  POST /congelamento     data=aaaa-mm-dd        define a data de congelamento
+ *  POST /previsoes        tipo=fixo|porcentagem|anoAnterior, codigo=, mes=, [mesFinal=], [valor=], [subarvore=true]
+ *  POST /realizados       1=arquivo&3=arquivo... importa os realizados dos meses ao mesmo tempo
+ *  GET  /analise          inicio=, fim=          análise comparativa do intervalo
+ *  GET  /rubricas/{codigo}                       valores mensais de uma rúbrica
+ *  GET  /metricas                                métricas no formato texto do Prometheus (ver GerenciadorFacade.ativaMetricas)
+ *
+ *  O plano é colocado no modo concorrente, então previsões em subárvores diferentes são atendidas
+ *  ao mesmo tempo e as leituras veem sempre um estado consistente. Cada requisição é atendida por
+ *  um thread de um pool fixo; conexões ociosas não ocupam threads, ficam só no seletor do servidor.
+ *
+ *  O servidor não tem autenticação: por padrão só aceita conexões da própria máquina, e os arquivos
+ *  pedidos pelos clientes são procurados só dentro do diretório de dados; caminhos que saem dele
+ *  são recusados com 403.
+ *
+ *  Uso: java ui.ServidorHTTP [--porta=8080] [--endereco=127.0.0.1] [--dados=diretório] [--threads=256]
+ *  [--orcamento=arquivo.csv] [--metricas=segundos]
+ *
+ *  --endereco é o endereço em que o servidor escuta, ex: 0.0.0.0 para todas as interfaces.
+ *  --dados é o diretório dos arquivos de orçamento e realizado, o diretório atual por padrão.
+ *  --metricas ativa as métricas e exibe o resumo delas a cada tantos segundos (0 para só expor em /metricas).
+ *
+ */
+public class ServidorHTTP {
+
+	public static final int PORTA_PADRAO = 8080;
+	public static final int THREADS_PADRAO = 256;
+	//Conexões aguardando o accept; rajadas de milhares de clientes não são recusadas pelo sistema
+	private static final int FILA_CONEXOES = 4096;
+	private static final String TIPO_JSON = "application/json; charset=utf-8";
+	private static final String TIPO_PROMETHEUS = "text/plain; version=0.0.4; charset=utf-8";
+
+	private static final Metricas.Temporizador REQUISICOES = Metricas.temporizador("http_requisicao_segundos",
+			"Tempo de atendimento de cada requisição HTTP, da leitura dos parâmetros ao fim da resposta");
+
+	private final GerenciadorFacade facade;
+	private final HttpServer servidor;
+	private final ThreadPoolExecutor executor;
+	//Diretório absoluto e normalizado de onde os arquivos pedidos pelos clientes são lidos
+	private final Path diretorioDados;
+
+	/**
+	 * Servidor só para a própria máquina, com os arquivos no diretório atual.
+	 * @param facade Fachada do plano de contas servido
+	 * @param porta Porta TCP, 0 para uma porta livre qualquer
+	 * @param threads Número de threads que atendem as requisições
+	 * @throws IOException se a porta não puder ser aberta
+	 */
+	public ServidorHTTP(GerenciadorFacade facade, int porta, int threads) throws IOException {
+		this(facade, new InetSocketAddress(InetAddress.getLoopbackAddress(), porta), threads, Paths.get(""));
+	}
+
+	/**
+	 * @param facade Fachada do plano de contas servido
+	 * @param endereco Endereço e porta TCP em que o servidor escuta, porta 0 para uma livre qualquer
+	 * @param threads Número de threads que atendem as requisições
+	 * @param diretorioDados Diretório dos arquivos de orçamento e realizado pedidos pelos clientes
+	 * @throws IOException se a porta não puder ser aberta
+	 */
+	public ServidorHTTP(GerenciadorFacade facade, InetSocketAddress endereco, int threads, Path diretorioDados) throws IOException {
+		if(threads <= 0) {
+			throw new IllegalArgumentException("Número de threads inválido: " + threads);
+		}
+		this.facade = facade;
+		this.diretorioDados = diretorioDados.toAbsolutePath().normalize();
+		if(!facade.getPlanoContas().isModoConcorrente()) {
+			facade.ativaModoConcorrente();
+		}
+
+		servidor = HttpServer.create(endereco, FILA_CONEXOES);
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadsServidor());
+		servidor.setExecutor(executor);
+
+		servidor.createContext("/orcamento", rota("POST", this::orcamento));
+		servidor.createContext("/congelamento", rota("POST", this::congelamento));
+		servidor.createContext("/previsoes", rota("POST", this::previsoes));
+		servidor.createContext("/realizados", rota("POST", this::realizados));
+		servidor.createContext("/analise", rota("GET", this::analise));
+		servidor.createContext("/rubricas/", rota("GET", this::rubrica));
+		servidor.createContext("/metricas", this::metricas);
+	}
+
+	public void inicia() {
+		servidor.start();
+	}
+
+	/**
+	 * Para de aceitar conexões e espera as requisições em andamento terminarem.
+	 */
+	public void para() {
+		servidor.stop(0);
+		executor.shutdown();
+		try {
+			executor.awaitTermination(30, TimeUnit.SECONDS);
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public int getPorta() {
+		return servidor.getAddress().getPort();
+	}
+
+	public InetSocketAddress getEndereco() {
+		return servidor.getAddress();
+	}
+
+	public static void main(String[] args) throws IOException {
+		int porta = PORTA_PADRAO;
+		InetAddress endereco = InetAddress.getLoopbackAddress();
+		Path dados = Paths.get("");
+		int threads = THREADS_PADRAO;
+		String orcamento = null;
+		long periodoMetricas = -1;
+
+		for(String arg : args) {
+			String[] opcao = arg.split("=", 2);
+			if(opcao.length != 2) {
+				throw new IllegalArgumentException("Opção inválida: " + arg);
+			}
+			switch(opcao[0]) {
+			case "--porta":
+				porta = Integer.parseInt(opcao[1]);
+				break;
+			case "--endereco":
+				endereco = InetAddress.getByName(opcao[1]);
+				break;
+			case "--dados":
+				dados = Paths.get(opcao[1]);
+				break;
+			case "--threads":
+				threads = Integer.parseInt(opcao[1]);
+				break;
+			case "--orcamento":
+				orcamento = opcao[1];
+				break;
+			case "--metricas":
+				periodoMetricas = Long.parseLong(opcao[1]);
+				break;
+			default:
+				throw new IllegalArgumentException("Opção inválida: " + arg);
+			}
+		}
+
+		//Sem TCP_NODELAY o cabeçalho e o corpo da resposta, escritos separadamente, esperam o ACK atrasado do cliente (~40 ms)
+		if(System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+
+		GerenciadorFacade facade = new GerenciadorFacade(new PlanoContas());
+		if(periodoMetricas >= 0) {
+			facade.ativaMetricas(periodoMetricas);
+		}
+		if(orcamento != null) {
+			facade.lerOrcamentoInicial(orcamento);
+		}
+		ServidorHTTP servidor = new ServidorHTTP(facade, new InetSocketAddress(endereco, porta), threads, dados);
+		Runtime.getRuntime().addShutdownHook(new Thread(servidor::para));
+		servidor.inicia();
+		System.out.println("Servidor ouvindo em " + servidor.getEndereco() + ", arquivos de " + servidor.diretorioDados);
+	}
+
+	/**
+	 * @param nome Arquivo pedido pelo cliente, relativo ao diretório de dados
+	 * @return Caminho do arquivo dentro do diretório de dados
+	 * @throws ErroRequisicao 403 se o caminho sai do diretório de dados
+	 */
+	private String arquivoDados(String nome) throws ErroRequisicao {
+		Path caminho;
+		try {
+			caminho = diretorioDados.resolve(nome).normalize();
+		}catch(InvalidPathException e) {
+			throw new ErroRequisicao(400, "Nome de arquivo inválido: " + nome);
+		}
+		if(!caminho.startsWith(diretorioDados)) {
+			throw new ErroRequisicao(403, "Arquivo " + nome + " fora do diretório de dados");
+		}
+		return caminho.toString();
+	}
+
+	private String orcamento(HttpExchange troca, Parametros parametros) throws ErroRequisicao {
+		String arquivo = parametros.texto("arquivo");
+		try {
+			facade.lerOrcamentoInicial(arquivoDados(arquivo));
+		}catch(FileNotFoundException e) {
+			throw new ErroRequisicao(404, "Arquivo " + arquivo + " não encontrado");
+		}
+		return "{\"rubricas\":" + facade.getPlanoContas().getRubricas().size() + "}";
+	}
+
+	private String congelamento(HttpExchange troca, Parametros parametros) throws ErroRequisicao {
+		String data = parametros.texto("data");
+		try {
+			facade.getPlanoContas().setDataCongelamento(LocalDate.parse(data));
+		}catch(DateTimeParseException e) {
+			throw new ErroRequisicao(400, "Data inválida: " + data);
+		}
+		return "{\"dataCongelamento\":" + textoJSON(data) + "}";
+	}
+
+	private String previsoes(HttpExchange troca, Parametros parametros) throws ErroRequisicao {
+		String tipo = parametros.texto("tipo");
+		int codigo = parametros.inteiro("codigo");
+		int mes = parametros.inteiro("mes");
+		int mesFinal = parametros.contem("mesFinal") ? parametros.inteiro("mesFinal") : mes;
+		boolean subarvore = Boolean.parseBoolean(parametros.opcional("subarvore"));
+		if(mesFinal < mes) {
+			throw new ErroRequisicao(400, "Mês inicial depois do mês final");
+		}
+
+		LotePrevisao lote = new LotePrevisao();
+		switch(tipo) {
+		case "fixo":
+			for(int m = mes; m <= mesFinal; m++) {
+				lote.valorFixo(codigo, m, parametros.decimal("valor"));
+			}
+			break;
+		case "porcentagem":
+			if(subarvore) {
+				lote.porcentagemSubarvore(codigo, parametros.decimal("valor"), mes, mesFinal);
+			}else {
+				lote.porcentagem(codigo, parametros.decimal("valor"), mes, mesFinal);
+			}
+			break;
+		case "anoAnterior":
+			lote.manterAnoAnterior(codigo, subarvore, mes, mesFinal);
+			break;
+		default:
+			throw new ErroRequisicao(400, "Tipo de previsão inexistente: " + tipo);
+		}
+
+		List<String> erros = facade.aplicaPrevisaoLote(lote);
+		if(!erros.isEmpty()) {
+			throw new ErroRequisicao(422, erros);
+		}
+		return "{\"aplicada\":true}";
+	}
+
+	private String realizados(HttpExchange troca, Parametros parametros) throws ErroRequisicao {
+		Map<CategoriaMes, String> arquivos = new LinkedHashMap<CategoriaMes, String>();
+		for(String nome : parametros.nomes()) {
+			arquivos.put(mes(nome), arquivoDados(parametros.texto(nome)));
+		}
+		if(arquivos.isEmpty()) {
+			throw new ErroRequisicao(400, "Nenhum arquivo de realizado informado");
+		}
+
+		RelatorioImportacaoRealizado relatorio = facade.importaRealizadosMensais(arquivos);
+		StringBuilder json = new StringBuilder("{\"sucesso\":").append(relatorio.isSucesso()).append(",\"meses\":[");
+		for(RelatorioImportacaoRealizado.ResultadoMes resultado : relatorio.getResultados()) {
+			if(json.charAt(json.length() - 1) != '[') {
+				json.append(',');
+			}
+			json.append("{\"mes\":").append(resultado.getMes().toInt())
+				.append(",\"arquivo\":").append(textoJSON(resultado.getArquivo()))
+				.append(",\"erro\":").append(textoJSON(resultado.getErro()))
+				.append(",\"rubricas\":").append(resultado.getNumRealizados())
+				.append(",\"codigosFaltantes\":").append(resultado.getCodigosFaltantes())
+				.append(",\"codigosDesconhecidos\":").append(resultado.getCodigosDesconhecidos())
+				.append('}');
+		}
+		return json.append("]}").toString();
+	}
+
+	private String analise(HttpExchange troca, Parametros parametros) throws ErroRequisicao {
+		CategoriaMes inicio = mes(parametros.texto("inicio"));
+		CategoriaMes fim = mes(parametros.texto("fim"));
+		if(inicio.toInt() > fim.toInt()) {
+			throw new ErroRequisicao(400, "Mês inicial depois do mês final");
+		}
+
+		List<LinhaAnaliseComparativa> linhas = facade.calculaAnalise(inicio, fim);
+		StringBuilder json = new StringBuilder(linhas.size() * 128).append('[');
+		for(int i = 0; i < linhas.size(); i++) {
+			LinhaAnaliseComparativa linha = linhas.get(i);
+			if(i > 0) {
+				json.append(',');
+			}
+			json.append("{\"codigo\":").append(linha.getCodigo())
+				.append(",\"nome\":").append(textoJSON(linha.getNome()))
+				.append(",\"previsto\":").append(numeroJSON(linha.getPrevisto()))
+				.append(",\"realizado\":").append(numeroJSON(linha.getRealizado()))
+				.append(",\"variacao\":").append(numeroJSON(linha.getVariacao()))
+				.append(",\"porcentagem\":").append(numeroJSON(linha.getPorcentagem()))
+				.append(",\"avaliacao\":").append(textoJSON(linha.getAvaliacao()))
+				.append('}');
+		}
+		return json.append(']').toString();
+	}
+
+	private String rubrica(HttpExchange troca, Parametros parametros) throws ErroRequisicao {
+		String caminho = troca.getRequestURI().getPath();
+		String codigo = caminho.substring(caminho.lastIndexOf('/') + 1);
+		String json;
+		try {
+			//Os doze meses lidos no mesmo estado da subárvore da rúbrica
+			json = facade.getPlanoContas().leRubrica(Integer.parseInt(codigo), ServidorHTTP::rubricaJSON);
+		}catch(NumberFormatException e) {
+			throw new ErroRequisicao(400, "Código inválido: " + codigo);
+		}
+		if(json == null) {
+			throw new ErroRequisicao(404, "Rúbrica " + codigo + " não existe no plano de contas");
+		}
+		return json;
+	}
+
+	private static String rubricaJSON(Rubrica rubrica) {
+		StringBuilder json = new StringBuilder(512);
+		json.append("{\"codigo\":").append(rubrica.getCodigo())
+			.append(",\"nome\":").append(textoJSON(rubrica.getNome()))
+			.append(",\"previsto\":[");
+		for(int mes = 1; mes <= 12; mes++) {
+			json.append(mes > 1 ? "," : "").append(rubrica.temValorPrevisto(mes) ? numeroJSON(rubrica.getValorPrevistoOuZero(mes)) : "null");
+		}
+		json.append("],\"realizado\":[");
+		for(int mes = 1; mes <= 12; mes++) {
+			json.append(mes > 1 ? "," : "").append(rubrica.temValorRealizado(mes) ? numeroJSON(rubrica.getValorRealizadoOuZero(mes)) : "null");
+		}
+		json.append("],\"anoPassado\":[");
+		for(int mes = 1; mes <= 12; mes++) {
+			json.append(mes > 1 ? "," : "").append(rubrica.temValorAnoPassado(mes) ? numeroJSON(rubrica.getValorAnoPassadoOuZero(mes)) : "null");
+		}
+		return json.append("]}").toString();
+	}
+
+	private static CategoriaMes mes(String texto) throws ErroRequisicao {
+		CategoriaMes mes = null;
+		try {
+			mes = CategoriaMes.getMes(Integer.parseInt(texto));
+		}catch(NumberFormatException e) {
+			//Tratado abaixo
+		}
+		if(mes == null) {
+			throw new ErroRequisicao(400, "Mês inválido: " + texto);
+		}
+		return mes;
+	}
+
+	private HttpHandler rota(String metodo, Operacao operacao) {
+		return troca -> {
+			long inicio = REQUISICOES.inicia();
+			try {
+				int status = 200;
+				String resposta;
+				try {
+					if(!metodo.equals(troca.getRequestMethod())) {
+						troca.getResponseHeaders().set("Allow", metodo);
+						throw new ErroRequisicao(405, "Use " + metodo + " em " + troca.getRequestURI().getPath());
+					}
+					resposta = operacao.executa(troca, Parametros.le(troca));
+				}catch(ErroRequisicao e) {
+					status = e.status;
+					resposta = erroJSON(e.mensagens);
+				}catch(RuntimeException e) {
+					status = 500;
+					resposta = erroJSON(Collections.singletonList(String.valueOf(e)));
+				}
+
+				responde(troca, status, TIPO_JSON, resposta);
+			}finally {
+				REQUISICOES.para(inicio);
+			}
+		};
+	}
+
+	private void metricas(HttpExchange troca) throws IOException {
+		if(!"GET".equals(troca.getRequestMethod())) {
+			troca.getResponseHeaders().set("Allow", "GET");
+			responde(troca, 405, TIPO_JSON, erroJSON(Collections.singletonList("Use GET em /metricas")));
+			return;
+		}
+		responde(troca, 200, TIPO_PROMETHEUS, Metricas.textoPrometheus());
+	}
+
+	private static void responde(HttpExchange troca, int status, String tipo, String resposta) throws IOException {
+		byte[] corpo = resposta.getBytes(StandardCharsets.UTF_8);
+		troca.getResponseHeaders().set("Content-Type", tipo);
+		troca.sendResponseHeaders(status, corpo.length);
+		try(OutputStream saida = troca.getResponseBody()) {
+			saida.write(corpo);
+		}
+	}
+
+	private static String erroJSON(List<String> mensagens) {
+		StringBuilder json = new StringBuilder("{\"erros\":[");
+		for(int i = 0; i < mensagens.size(); i++) {
+			json.append(i > 0 ? "," : "").append(textoJSON(mensagens.get(i)));
+		}
+		return json.append("]}").toString();
+	}
+
+	static String textoJSON(String texto) {
+		if(texto == null) {
+			return "null";
+		}
+		StringBuilder json = new StringBuilder(texto.length() + 2).append('"');
+		for(int i = 0; i < texto.length(); i++) {
+			char c = texto.charAt(i);
+			switch(c) {
+			case '"':
+				json.append("\\\"");
+				break;
+			case '\\':
+				json.append("\\\\");
+				break;
+			case '\n':
+				json.append("\\n");
+				break;
+			case '\r':
+				json.append("\\r");
+				break;
+			case '\t':
+				json.append("\\t");
+				break;
+			default:
+				if(c < 0x20) {
+					json.append(String.format("\\u%04x", (int) c));
+				}else {
+					json.append(c);
+				}
+			}
+		}
+		return json.append('"').toString();
+	}
+
+	static String numeroJSON(double valor) {
+		//JSON não tem NaN nem infinito; aparecem, por exemplo, na porcentagem de previsto zero
+		return Double.isNaN(valor) || Double.isInfinite(valor) ? "null" : String.valueOf(valor);
+	}
+
+	private interface Operacao {
+		String executa(HttpExchange troca, Parametros parametros) throws ErroRequisicao;
+	}
+
+	/**
+	 *  Erro que é devolvido ao cliente com o status e as mensagens, em vez de derrubar a requisição.
+	 */
+	private static class ErroRequisicao extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		private final int status;
+		private final List<String> mensagens;
+
+		ErroRequisicao(int status, String mensagem) {
+			this(status, Collections.singletonList(mensagem));
+		}
+
+		ErroRequisicao(int status, List<String> mensagens) {
+			super(String.join("; ", mensagens));
+			this.status = status;
+			this.mensagens = mensagens;
+		}
+	}
+
+	/**
+	 *  Parâmetros da query string e do corpo da requisição, na ordem em que aparecem.
+	 */
+	private static class Parametros {
+		private final Map<String, String> valores = new LinkedHashMap<String, String>();
+
+		static Parametros le(HttpExchange troca) throws ErroRequisicao {
+			Parametros parametros = new Parametros();
+			parametros.decodifica(troca.getRequestURI().getRawQuery());
+			if("POST".equals(troca.getRequestMethod())) {
+				try {
+					parametros.decodifica(new String(leCorpo(troca.getRequestBody()), StandardCharsets.UTF_8));
+				}catch(IOException e) {
+					throw new ErroRequisicao(400, "Corpo da requisição ilegível: " + e.getMessage());
+				}
+			}
+			return parametros;
+		}
+
+		private void decodifica(String texto) throws ErroRequisicao {
+			if(texto == null || texto.isEmpty()) {
+				return;
+			}
+			for(String par : texto.split("&")) {
+				if(par.isEmpty()) {
+					continue;
+				}
+				int igual = par.indexOf('=');
+				try {
+					String nome = URLDecoder.decode(igual < 0 ? par : par.substring(0, igual), "UTF-8");
+					String valor = igual < 0 ? "" : URLDecoder.decode(par.substring(igual + 1), "UTF-8");
+					valores.put(nome, valor);
+				}catch(IllegalArgumentException | UnsupportedEncodingException e) {
+					throw new ErroRequisicao(400, "Parâmetro mal codificado: " + par);
+				}
+			}
+		}
+
+		private static byte[] leCorpo(InputStream entrada) throws IOException {
+			ByteArrayOutputStream corpo = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int lidos;
+			while((lidos = entrada.read(buffer)) >= 0) {
+				corpo.write(buffer, 0, lidos);
+			}
+			return corpo.toByteArray();
+		}
+
+		List<String> nomes() {
+			return new ArrayList<String>(valores.keySet());
+		}
+
+		boolean contem(String nome) {
+			return valores.containsKey(nome);
+		}
+
+		String opcional(String nome) {
+			return valores.get(nome);
+		}
+
+		String texto(String nome) throws ErroRequisicao {
+			String valor = valores.get(nome);
+			if(valor == null || valor.isEmpty()) {
+				throw new ErroRequisicao(400, "Parâmetro " + nome + " obrigatório");
+			}
+			return valor;
+		}
+
+		int inteiro(String nome) throws ErroRequisicao {
+			String valor = texto(nome);
+			try {
+				return Integer.parseInt(valor);
+			}catch(NumberFormatException e) {
+				throw new ErroRequisicao(400, "Parâmetro " + nome + " não é um número inteiro: " + valor);
+			}
+		}
+
+		double decimal(String nome) throws ErroRequisicao {
+			String valor = texto(nome);
+			try {
+				return Double.parseDouble(valor);
+			}catch(NumberFormatException e) {
+				throw new ErroRequisicao(400, "Parâmetro " + nome + " não é um número: " + valor);
+			}
+		}
+	}
+
+	/**
+	 *  Threads nomeados, para aparecerem identificados em dumps de threads.
+	 */
+	private static class ThreadsServidor implements ThreadFactory {
+		private final AtomicInteger contador = new AtomicInteger();
+
+		public Thread newThread(Runnable tarefa) {
+			Thread thread = new Thread(tarefa, "servidor-http-" + contador.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
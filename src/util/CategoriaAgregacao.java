@@ -0,0 +1,21 @@
+package util;
+
+/**
+ *  Agregações das consultas ao cubo do plano de contas, calculadas sobre o total de cada
+ *  rúbrica no intervalo de meses da consulta.
+ *
+ */
+public enum CategoriaAgregacao {
+	
+	SOMA("soma"), MEDIA("media"), MINIMO("minimo"), MAXIMO("maximo"), CONTAGEM("contagem");
+	
+	private String nome;
+	
+	CategoriaAgregacao(String nome){
+		this.nome = nome;
+	}
+	
+	public String toString(){
+		return this.nome;
+	}
+}
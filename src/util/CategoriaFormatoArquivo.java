@@ -0,0 +1,30 @@
+package util;
+
+/**
+ *  Formatos de planilha em que os arquivos gerados podem ser escritos.
+ *  XLS é o formato original; XLSX é escrito em streaming e comporta planos bem maiores.
+ *
+ */
+public enum CategoriaFormatoArquivo {
+	
+	XLS(".xls", 65536), XLSX(".xlsx", 1048576);
+	
+	private String extensao;
+	private int maxLinhas;
+	
+	CategoriaFormatoArquivo(String extensao, int maxLinhas){
+		this.extensao = extensao;
+		this.maxLinhas = maxLinhas;
+	}
+	
+	public String getExtensao(){
+		return this.extensao;
+	}
+	
+	/**
+	 * @return Número máximo de linhas de uma planilha no formato
+	 */
+	public int getMaxLinhas(){
+		return this.maxLinhas;
+	}
+}
@@ -0,0 +1,34 @@
+package util;
+
+/**
+ *  Medidas mensais de uma rúbrica no cubo do plano de contas (CuboPlanoContas).
+ *  Previsto e realizado são os consolidados da subárvore, como na análise comparativa;
+ *  o ano passado é o valor da própria rúbrica. Variação (previsto - realizado) e porcentagem
+ *  (variação * 100 / previsto, 0 sem previsto) são derivadas, como na análise comparativa: nas
+ *  consultas, são calculadas sobre os totais do intervalo de meses.
+ *
+ */
+public enum CategoriaMedida {
+	
+	PREVISTO("previsto", false), REALIZADO("realizado", false), ANO_PASSADO("anoPassado", false),
+	VARIACAO("variacao", true), PORCENTAGEM("porcentagem", true);
+	
+	private String nome;
+	private boolean derivada;
+	
+	CategoriaMedida(String nome, boolean derivada){
+		this.nome = nome;
+		this.derivada = derivada;
+	}
+	
+	/**
+	 * @return Se a medida é calculada a partir do previsto e do realizado, sem valores próprios no cubo
+	 */
+	public boolean isDerivada(){
+		return this.derivada;
+	}
+	
+	public String toString(){
+		return this.nome;
+	}
+}
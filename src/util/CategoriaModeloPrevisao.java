@@ -0,0 +1,21 @@
+package util;
+
+/**
+ *  Modelos da previsão estatística automática (AgentePrevisao.previsaoEstatistica), ajustados
+ *  à série mensal de cada rúbrica folha.
+ *
+ */
+public enum CategoriaModeloPrevisao {
+	
+	MEDIA_MOVEL("mediaMovel"), TENDENCIA_LINEAR("tendenciaLinear"), HOLT_WINTERS("holtWinters");
+	
+	private String nome;
+	
+	CategoriaModeloPrevisao(String nome){
+		this.nome = nome;
+	}
+	
+	public String toString(){
+		return this.nome;
+	}
+}
@@ -0,0 +1,92 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ *  Operações em lote sobre valores mensais de muitas rúbricas guardados por coluna: um array de
+ *  double por mês, com uma posição por conta (o layout do CuboPlanoContas). Meses sem valor são
+ *  NaN nas colunas que os distinguem de zero. Os laços são sobre arrays primitivos contíguos, sem
+ *  objetos nem chamadas, na forma que o compilador JIT consegue vetorizar (SIMD) sozinho.
+ *
+ */
+public final class KernelMeses {
+
+	private KernelMeses() {
+	}
+
+	/**
+	 * Soma cada conta nos meses do intervalo: destino[i] = meses[mesInicial - 1][i] + ... + meses[mesFinal - 1][i].
+	 * @param meses Uma coluna por mês, de janeiro a dezembro
+	 * @param destino Recebe a soma de cada conta; pode ser uma das colunas só se for a do mês inicial
+	 * @param n Número de contas
+	 */
+	public static void somaIntervalo(double[][] meses, int mesInicial, int mesFinal, double[] destino, int n) {
+		verificaIntervalo(mesInicial, mesFinal);
+		if(destino != meses[mesInicial - 1]) {
+			System.arraycopy(meses[mesInicial - 1], 0, destino, 0, n);
+		}
+		for(int mes = mesInicial + 1; mes <= mesFinal; mes++) {
+			acumula(meses[mes - 1], destino, n);
+		}
+	}
+
+	/**
+	 * Como somaIntervalo, mas contando os meses sem valor (NaN) como zero.
+	 * @param destino Recebe a soma de cada conta; não pode ser uma das colunas
+	 * @param presentes Recebe, se não for null, o número de meses com valor de cada conta
+	 */
+	public static void somaIntervaloIgnorandoNulos(double[][] meses, int mesInicial, int mesFinal, double[] destino, int[] presentes, int n) {
+		verificaIntervalo(mesInicial, mesFinal);
+		Arrays.fill(destino, 0, n, 0.0);
+		if(presentes != null) {
+			Arrays.fill(presentes, 0, n, 0);
+		}
+		for(int mes = mesInicial; mes <= mesFinal; mes++) {
+			double[] coluna = meses[mes - 1];
+			for(int i = 0; i < n; i++) {
+				double valor = coluna[i];
+				//NaN é o único valor diferente de si mesmo
+				destino[i] += valor == valor ? valor : 0.0;
+			}
+			if(presentes != null) {
+				for(int i = 0; i < n; i++) {
+					presentes[i] += coluna[i] == coluna[i] ? 1 : 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Variação da análise comparativa: destino[i] = previsto[i] - realizado[i].
+	 */
+	public static void variacao(double[] previsto, double[] realizado, double[] destino, int n) {
+		for(int i = 0; i < n; i++) {
+			destino[i] = previsto[i] - realizado[i];
+		}
+	}
+
+	/**
+	 * Porcentagem da análise comparativa: variação * 100 / previsto, ou 0 onde o previsto é 0.
+	 */
+	public static void porcentagem(double[] previsto, double[] variacao, double[] destino, int n) {
+		for(int i = 0; i < n; i++) {
+			double base = previsto[i];
+			//A divisão é feita sempre e descartada depois, para o laço não ter desvio
+			double porcentagem = variacao[i] * 100 / base;
+			destino[i] = base != 0.0 ? porcentagem : 0.0;
+		}
+	}
+
+	//destino[i] += origem[i]
+	private static void acumula(double[] origem, double[] destino, int n) {
+		for(int i = 0; i < n; i++) {
+			destino[i] += origem[i];
+		}
+	}
+
+	private static void verificaIntervalo(int mesInicial, int mesFinal) {
+		if(mesInicial < 1 || mesFinal > 12 || mesInicial > mesFinal) {
+			throw new IllegalArgumentException("Intervalo de meses inválido " + mesInicial + "-" + mesFinal);
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ *  Mapa de int para double sem objetos por entrada: as chaves e valores ficam em arrays
+ *  primitivos, na ordem de inserção, e um índice com endereçamento aberto aponta para eles.
+ *
+ */
+public class MapaIntDouble {
+
+	private static final int VAZIO = -1;
+
+	//Entradas na ordem de inserção
+	private int[] chaves;
+	private double[] valores;
+	private int tamanho;
+
+	//Posição da entrada em chaves/valores, ou VAZIO; tamanho sempre potência de 2
+	private int[] indice;
+
+	public MapaIntDouble() {
+		this(16);
+	}
+
+	public MapaIntDouble(int capacidadeInicial) {
+		int capacidade = Math.max(capacidadeInicial, 4);
+		this.chaves = new int[capacidade];
+		this.valores = new double[capacidade];
+		this.indice = new int[tamanhoIndice(capacidade)];
+		Arrays.fill(this.indice, VAZIO);
+	}
+
+	/**
+	 * Associa o valor à chave, substituindo o valor anterior se houver.
+	 */
+	public void put(int chave, double valor) {
+		int slot = procura(chave);
+		if(indice[slot] != VAZIO) {
+			valores[indice[slot]] = valor;
+			return;
+		}
+		if(tamanho == chaves.length) {
+			cresce();
+			slot = procura(chave);
+		}
+		chaves[tamanho] = chave;
+		valores[tamanho] = valor;
+		indice[slot] = tamanho;
+		tamanho++;
+	}
+
+	/**
+	 * @return O valor associado à chave
+	 * @throws NoSuchElementException se a chave não estiver no mapa
+	 */
+	public double get(int chave) {
+		int posicao = indice[procura(chave)];
+		if(posicao == VAZIO) {
+			throw new NoSuchElementException("Chave " + chave + " não encontrada");
+		}
+		return valores[posicao];
+	}
+
+	/**
+	 * @return O valor associado à chave, ou o valor padrão se a chave não estiver no mapa
+	 */
+	public double get(int chave, double padrao) {
+		int posicao = indice[procura(chave)];
+		return posicao == VAZIO ? padrao : valores[posicao];
+	}
+
+	public boolean contem(int chave) {
+		return indice[procura(chave)] != VAZIO;
+	}
+
+	public int size() {
+		return tamanho;
+	}
+
+	public boolean isEmpty() {
+		return tamanho == 0;
+	}
+
+	/**
+	 * @param posicao Posição da entrada na ordem de inserção, de 0 a size() - 1
+	 * @return A chave da entrada
+	 */
+	public int getChave(int posicao) {
+		verificaPosicao(posicao);
+		return chaves[posicao];
+	}
+
+	/**
+	 * @param posicao Posição da entrada na ordem de inserção, de 0 a size() - 1
+	 * @return O valor da entrada
+	 */
+	public double getValor(int posicao) {
+		verificaPosicao(posicao);
+		return valores[posicao];
+	}
+
+	/**
+	 * @return Slot do índice onde a chave está ou deveria estar
+	 */
+	private int procura(int chave) {
+		int mascara = indice.length - 1;
+		//Espalha os bits para que códigos sequenciais não se agrupem
+		int hash = chave * 0x9E3779B9;
+		int slot = (hash ^ (hash >>> 16)) & mascara;
+		while(indice[slot] != VAZIO && chaves[indice[slot]] != chave) {
+			slot = (slot + 1) & mascara;
+		}
+		return slot;
+	}
+
+	private void cresce() {
+		int capacidade = chaves.length * 2;
+		chaves = Arrays.copyOf(chaves, capacidade);
+		valores = Arrays.copyOf(valores, capacidade);
+		indice = new int[tamanhoIndice(capacidade)];
+		Arrays.fill(indice, VAZIO);
+		for(int posicao = 0; posicao < tamanho; posicao++) {
+			indice[procura(chaves[posicao])] = posicao;
+		}
+	}
+
+	/**
+	 * Índice com no máximo metade ocupada.
+	 */
+	private static int tamanhoIndice(int capacidade) {
+		return Integer.highestOneBit(capacidade * 2 - 1) * 2;
+	}
+
+	private void verificaPosicao(int posicao) {
+		if(posicao < 0 || posicao >= tamanho) {
+			throw new ArrayIndexOutOfBoundsException(posicao);
+		}
+	}
+}
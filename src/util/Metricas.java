@@ -0,0 +1,434 @@
+package util;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ *  Métricas de desempenho do sistema: contadores, temporizadores e histogramas com percentis,
+ *  exportados no formato texto do Prometheus ou em uma linha de log periódica.
+ *
+ *  As métricas são criadas uma vez, em campos estáticos de quem as registra, e só acumulam valores
+ *  depois de ativa(). Desativadas, cada registro custa a leitura de um campo volátil e um desvio;
+ *  os temporizadores nem leem o relógio.
+ *
+ *  Ex: private static final Metricas.Temporizador LEITURA = Metricas.temporizador("orcamento_leitura_segundos", "...");
+ *      long inicio = LEITURA.inicia(); ... LEITURA.para(inicio);
+ *
+ */
+public final class Metricas {
+
+	public static final String PREFIXO = "planocontas_";
+
+	private static volatile boolean ativa;
+
+	private static final Map<String, Metrica> registro = new ConcurrentSkipListMap<String, Metrica>();
+
+	private static ScheduledExecutorService logPeriodico;
+
+	private Metricas() {
+	}
+
+	public static void ativa() {
+		ativa = true;
+	}
+
+	public static void desativa() {
+		ativa = false;
+	}
+
+	public static boolean isAtiva() {
+		return ativa;
+	}
+
+	/**
+	 * @return O contador com o nome, criado se ainda não existir
+	 */
+	public static Contador contador(String nome, String ajuda) {
+		return registra(new Contador(nome, ajuda));
+	}
+
+	/**
+	 * @return O temporizador com o nome, em segundos, de 1 microssegundo a 1000 segundos
+	 */
+	public static Temporizador temporizador(String nome, String ajuda) {
+		return registra(new Temporizador(nome, ajuda));
+	}
+
+	/**
+	 * @param menor Menor valor distinguido; valores abaixo dele caem no primeiro intervalo
+	 * @param maior Maior valor distinguido; valores acima dele caem no intervalo +Inf
+	 * @return O histograma com o nome, criado se ainda não existir
+	 */
+	public static Histograma histograma(String nome, String ajuda, double menor, double maior) {
+		return registra(new Histograma(nome, ajuda, menor, maior));
+	}
+
+	/**
+	 * Registra um medidor, lido só na exportação. Substitui o medidor de mesmo nome, se houver,
+	 * para que o valor seja sempre o do objeto medido mais recente.
+	 * @param leitura Leitura do valor atual
+	 */
+	public static void medidor(String nome, String ajuda, DoubleSupplier leitura) {
+		registro.put(nome, new Medidor(nome, ajuda, leitura));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <M extends Metrica> M registra(M metrica) {
+		Metrica existente = registro.putIfAbsent(metrica.nome, metrica);
+		if(existente == null) {
+			return metrica;
+		}
+		if(existente.getClass() != metrica.getClass()) {
+			throw new IllegalArgumentException("Métrica " + metrica.nome + " já registrada com outro tipo");
+		}
+		return (M) existente;
+	}
+
+	/**
+	 * Zera os valores de todas as métricas, mantendo-as registradas.
+	 */
+	public static void zera() {
+		for(Metrica metrica : registro.values()) {
+			metrica.zera();
+		}
+	}
+
+	/**
+	 * @return Todas as métricas no formato texto de exposição do Prometheus (versão 0.0.4)
+	 */
+	public static String textoPrometheus() {
+		StringBuilder texto = new StringBuilder(4096);
+		for(Metrica metrica : registro.values()) {
+			texto.append("# HELP ").append(PREFIXO).append(metrica.nome).append(' ').append(metrica.ajuda).append('\n');
+			texto.append("# TYPE ").append(PREFIXO).append(metrica.nome).append(' ').append(metrica.tipo()).append('\n');
+			metrica.escrevePrometheus(texto);
+		}
+		return texto.toString();
+	}
+
+	/**
+	 * @return Uma linha com as métricas que já registraram algum valor
+	 */
+	public static String resumo() {
+		StringBuilder linha = new StringBuilder("Métricas:");
+		for(Metrica metrica : registro.values()) {
+			if(metrica.temValor()) {
+				linha.append(' ').append(metrica.nome).append('=');
+				metrica.escreveResumo(linha);
+			}
+		}
+		return linha.toString();
+	}
+
+	/**
+	 * Exibe o resumo das métricas periodicamente, em um thread daemon. Os contadores mostram também a
+	 * taxa por segundo desde a linha anterior.
+	 * @param periodoSegundos Intervalo entre as linhas
+	 */
+	public static synchronized void iniciaLogPeriodico(long periodoSegundos) {
+		if(periodoSegundos <= 0) {
+			throw new IllegalArgumentException("Período inválido: " + periodoSegundos);
+		}
+		paraLogPeriodico();
+		logPeriodico = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+			Thread thread = new Thread(tarefa, "metricas-log");
+			thread.setDaemon(true);
+			return thread;
+		});
+		logPeriodico.scheduleAtFixedRate(() -> System.out.println(resumo()), periodoSegundos, periodoSegundos, TimeUnit.SECONDS);
+	}
+
+	public static synchronized void paraLogPeriodico() {
+		if(logPeriodico != null) {
+			logPeriodico.shutdownNow();
+			logPeriodico = null;
+		}
+	}
+
+	private static String numero(double valor) {
+		if(Double.isNaN(valor)) {
+			return "NaN";
+		}
+		if(Double.isInfinite(valor)) {
+			return valor > 0 ? "+Inf" : "-Inf";
+		}
+		if(valor == Math.rint(valor) && Math.abs(valor) < 1e15) {
+			return String.valueOf((long) valor);
+		}
+		return String.valueOf(valor);
+	}
+
+	private abstract static class Metrica {
+		final String nome;
+		final String ajuda;
+
+		Metrica(String nome, String ajuda) {
+			if(!nome.matches("[a-zA-Z_][a-zA-Z0-9_]*")) {
+				throw new IllegalArgumentException("Nome de métrica inválido: " + nome);
+			}
+			this.nome = nome;
+			this.ajuda = ajuda.replace("\\", "\\\\").replace("\n", "\\n");
+		}
+
+		abstract String tipo();
+
+		abstract void escrevePrometheus(StringBuilder texto);
+
+		abstract void escreveResumo(StringBuilder linha);
+
+		abstract boolean temValor();
+
+		abstract void zera();
+	}
+
+	/**
+	 *  Contador que só cresce, ex: linhas lidas, propagações de somas.
+	 */
+	public static final class Contador extends Metrica {
+		private final LongAdder valor = new LongAdder();
+		//Valor e instante da linha de log anterior, para a taxa
+		private long valorAnterior;
+		private long instanteAnterior = System.nanoTime();
+
+		private Contador(String nome, String ajuda) {
+			super(nome, ajuda);
+		}
+
+		public void incrementa() {
+			if(ativa) {
+				valor.increment();
+			}
+		}
+
+		public void soma(long quantidade) {
+			if(ativa) {
+				valor.add(quantidade);
+			}
+		}
+
+		public long getValor() {
+			return valor.sum();
+		}
+
+		String tipo() {
+			return "counter";
+		}
+
+		void escrevePrometheus(StringBuilder texto) {
+			texto.append(PREFIXO).append(nome).append(' ').append(valor.sum()).append('\n');
+		}
+
+		synchronized void escreveResumo(StringBuilder linha) {
+			long atual = valor.sum();
+			long instante = System.nanoTime();
+			double taxa = (atual - valorAnterior) / ((instante - instanteAnterior) / 1e9);
+			linha.append(atual).append(String.format(Locale.ROOT, " (%.1f/s)", taxa));
+			valorAnterior = atual;
+			instanteAnterior = instante;
+		}
+
+		boolean temValor() {
+			return valor.sum() != 0;
+		}
+
+		void zera() {
+			valor.reset();
+		}
+	}
+
+	/**
+	 *  Histograma com intervalos logarítmicos (1, 2, 5 por década) entre o menor e o maior valor.
+	 *  Os percentis são estimados interpolando dentro do intervalo em que caem, então o erro é
+	 *  limitado pela largura do intervalo.
+	 */
+	public static class Histograma extends Metrica {
+		private final double[] limites;
+		//Uma contagem por limite, mais a dos valores acima do último
+		private final LongAdder[] contagens;
+		private final DoubleAdder soma = new DoubleAdder();
+
+		private Histograma(String nome, String ajuda, double menor, double maior) {
+			super(nome, ajuda);
+			if(!(menor > 0) || !(maior > menor)) {
+				throw new IllegalArgumentException("Intervalo de histograma inválido: " + menor + " - " + maior);
+			}
+			this.limites = limites(menor, maior);
+			this.contagens = new LongAdder[limites.length + 1];
+			for(int i = 0; i < contagens.length; i++) {
+				contagens[i] = new LongAdder();
+			}
+		}
+
+		private static double[] limites(double menor, double maior) {
+			double[] passos = {1, 2, 5};
+			int decada = (int) Math.floor(Math.log10(menor));
+			double[] limites = new double[64];
+			int n = 0;
+			while(n == 0 || limites[n - 1] < maior) {
+				for(double passo : passos) {
+					double limite = Double.parseDouble(passo + "e" + decada);
+					if(limite >= menor && (n == 0 || limites[n - 1] < maior)) {
+						if(n == limites.length) {
+							limites = Arrays.copyOf(limites, n * 2);
+						}
+						limites[n++] = limite;
+					}
+				}
+				decada++;
+			}
+			return Arrays.copyOf(limites, n);
+		}
+
+		public void registra(double valor) {
+			if(ativa) {
+				acumula(valor);
+			}
+		}
+
+		void acumula(double valor) {
+			int posicao = Arrays.binarySearch(limites, valor);
+			//Limites inclusivos, como o "le" do Prometheus
+			contagens[posicao >= 0 ? posicao : -posicao - 1].increment();
+			soma.add(valor);
+		}
+
+		public long getContagem() {
+			long total = 0;
+			for(LongAdder contagem : contagens) {
+				total += contagem.sum();
+			}
+			return total;
+		}
+
+		public double getSoma() {
+			return soma.sum();
+		}
+
+		/**
+		 * @param percentil De 0 a 100
+		 * @return Estimativa do valor no percentil, NaN se não há valores
+		 */
+		public double getPercentil(double percentil) {
+			long[] atuais = new long[contagens.length];
+			long total = 0;
+			for(int i = 0; i < atuais.length; i++) {
+				atuais[i] = contagens[i].sum();
+				total += atuais[i];
+			}
+			if(total == 0) {
+				return Double.NaN;
+			}
+			double alvo = percentil / 100 * total;
+			long acumulado = 0;
+			for(int i = 0; i < atuais.length; i++) {
+				if(atuais[i] > 0 && acumulado + atuais[i] >= alvo) {
+					if(i == limites.length) {
+						return limites[limites.length - 1];
+					}
+					double inferior = i == 0 ? 0 : limites[i - 1];
+					return inferior + (limites[i] - inferior) * Math.max(0, alvo - acumulado) / atuais[i];
+				}
+				acumulado += atuais[i];
+			}
+			return limites[limites.length - 1];
+		}
+
+		String tipo() {
+			return "histogram";
+		}
+
+		void escrevePrometheus(StringBuilder texto) {
+			long acumulado = 0;
+			for(int i = 0; i < contagens.length; i++) {
+				acumulado += contagens[i].sum();
+				texto.append(PREFIXO).append(nome).append("_bucket{le=\"")
+					.append(i < limites.length ? numero(limites[i]) : "+Inf").append("\"} ").append(acumulado).append('\n');
+			}
+			texto.append(PREFIXO).append(nome).append("_sum ").append(numero(soma.sum())).append('\n');
+			texto.append(PREFIXO).append(nome).append("_count ").append(acumulado).append('\n');
+		}
+
+		void escreveResumo(StringBuilder linha) {
+			linha.append(String.format(Locale.ROOT, "{n=%d p50=%.4g p90=%.4g p99=%.4g}", getContagem(),
+					getPercentil(50), getPercentil(90), getPercentil(99)));
+		}
+
+		boolean temValor() {
+			return getContagem() != 0;
+		}
+
+		void zera() {
+			for(LongAdder contagem : contagens) {
+				contagem.reset();
+			}
+			soma.reset();
+		}
+	}
+
+	/**
+	 *  Histograma de durações, em segundos.
+	 */
+	public static final class Temporizador extends Histograma {
+
+		private Temporizador(String nome, String ajuda) {
+			super(nome, ajuda, 1e-6, 1e3);
+		}
+
+		/**
+		 * @return Instante de início, ou 0 com as métricas desativadas
+		 */
+		public long inicia() {
+			return ativa ? System.nanoTime() : 0;
+		}
+
+		/**
+		 * Registra o tempo desde inicia(). Não faz nada se as métricas estavam desativadas no início.
+		 * @param inicio Valor retornado por inicia()
+		 */
+		public void para(long inicio) {
+			if(inicio != 0) {
+				acumula((System.nanoTime() - inicio) / 1e9);
+			}
+		}
+	}
+
+	/**
+	 *  Valor lido na hora da exportação, ex: heap por rúbrica.
+	 */
+	private static final class Medidor extends Metrica {
+		private final DoubleSupplier leitura;
+
+		Medidor(String nome, String ajuda, DoubleSupplier leitura) {
+			super(nome, ajuda);
+			this.leitura = leitura;
+		}
+
+		String tipo() {
+			return "gauge";
+		}
+
+		void escrevePrometheus(StringBuilder texto) {
+			texto.append(PREFIXO).append(nome).append(' ').append(numero(leitura.getAsDouble())).append('\n');
+		}
+
+		void escreveResumo(StringBuilder linha) {
+			linha.append(String.format(Locale.ROOT, "%.4g", leitura.getAsDouble()));
+		}
+
+		boolean temValor() {
+			return ativa;
+		}
+
+		void zera() {
+			//Medidores não acumulam
+		}
+	}
+}